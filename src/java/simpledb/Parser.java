@@ -5,6 +5,8 @@ import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -25,6 +27,26 @@ import simpledb.transaction.TransactionId;
 public class Parser {
     static boolean explain = false;
 
+    /**
+     * The degree of parallelism of the queries run by the parser, from the
+     * simpledb.parallelism system property; 1, when it is not set, runs them
+     * serially. See {@link ParallelPlanner}.
+     */
+    static int parallelism = Integer.getInteger("simpledb.parallelism", 1);
+
+    /**
+     * Whether the queries run by the parser use batch operators, from the
+     * simpledb.batch system property; only when they run serially. See
+     * {@link BatchPlanner}.
+     */
+    static boolean batch = Boolean.getBoolean("simpledb.batch");
+
+    /** A trailing LIMIT clause, which Zql does not parse */
+    static final Pattern LIMIT = Pattern.compile("(?is)^(.*\\S)\\s+LIMIT\\s+(\\d+)\\s*(;?)\\s*$");
+
+    // LIMIT of the statement being processed, -1 if it has none
+    private int limit = -1;
+
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
             return Predicate.Op.EQUALS;
@@ -60,9 +82,9 @@ public class Parser {
                 processExpression(tid, newWx, lp);
 
             }
-        } else if (wx.getOperator().equals("OR")) {
-            throw new simpledb.ParsingException(
-                    "OR expressions currently unsupported.");
+        } else if (isExpressionFilter(wx)) {
+            // OR、算术运算等不能表示为字段与常量的比较，整体编译为一个表达式
+            lp.addExpressionFilter(toExpression(wx, lp));
         } else {
             // this is a binary expression comparing two constants
             @SuppressWarnings("unchecked")
@@ -87,6 +109,16 @@ public class Parser {
             } else if (ops.get(0) instanceof ZQuery
                     || ops.get(1) instanceof ZQuery) {
                 isJoin = true;
+            } else if (isParameter(ops.get(0)) || isParameter(ops.get(1))) {
+                // 预编译语句的参数，和常量一样与字段比较，执行时才绑定值
+                ZExp field = isParameter(ops.get(0)) ? ops.get(1) : ops.get(0);
+                if (!(field instanceof ZConstant)
+                        || ((ZConstant) field).getType() != ZConstant.COLUMNNAME) {
+                    throw new simpledb.ParsingException(
+                            "Parameters can only be compared with fields.");
+                }
+                lp.addParameterFilter(((ZConstant) field).getValue(), op);
+                return;
             } else if (ops.get(0) instanceof ZExpression
                     || ops.get(1) instanceof ZExpression) {
                 throw new simpledb.ParsingException(
@@ -137,6 +169,147 @@ public class Parser {
 
     }
 
+    /**
+     * @return true if a condition of the WHERE clause is not a comparison of a
+     *         field with a constant, a parameter, a field or a subquery, and is
+     *         evaluated as an {@link Expression}
+     */
+    private static boolean isExpressionFilter(ZExpression wx) {
+        switch (wx.getOperator()) {
+            case "OR":
+            case "NOT":
+            case "IN":
+            case "NOT IN":
+            case "BETWEEN":
+            case "NOT BETWEEN":
+            case "NOT LIKE":
+                return true;
+            default:
+                break;
+        }
+        if (wx.nbOperands() != 2) {
+            return false;
+        }
+        for (int i = 0; i < 2; i++) {
+            ZExp op = wx.getOperand(i);
+            if (op instanceof ZExpression && !isParameter(op)) {
+                return true;
+            }
+            // LIKE的模式中有通配符时按SQL的语义匹配
+            if (wx.getOperator().equals("LIKE") && op instanceof ZConstant
+                    && ((ZConstant) op).getType() == ZConstant.STRING && isPattern(((ZConstant) op).getValue())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isPattern(String s) {
+        return s.indexOf('%') >= 0 || s.indexOf('_') >= 0;
+    }
+
+    /**
+     * Convert a condition or a value of the WHERE clause into an
+     * {@link Expression} on the qualified names of the fields of lp. LIKE with
+     * a pattern containing % or _ matches it as SQL does, and otherwise tests
+     * if the field contains the constant, as a simple filter does.
+     *
+     * @throws simpledb.ParsingException if e contains a subquery or an unsupported operator
+     */
+    Expression toExpression(ZExp e, LogicalPlan lp) throws simpledb.ParsingException {
+        if (isParameter(e)) {
+            return Expression.parameter(lp.addParameter());
+        }
+        if (e instanceof ZConstant) {
+            ZConstant c = (ZConstant) e;
+            switch (c.getType()) {
+                case ZConstant.COLUMNNAME:
+                    return Expression.column(lp.disambiguateName(c.getValue()));
+                case ZConstant.NUMBER:
+                    try {
+                        return Expression.constant(Integer.parseInt(c.getValue()));
+                    } catch (NumberFormatException ex) {
+                        throw new simpledb.ParsingException("Invalid integer " + c.getValue());
+                    }
+                case ZConstant.STRING:
+                    return Expression.constant(new StringField(c.getValue(), Type.STRING_LEN));
+                default:
+                    throw new simpledb.ParsingException("Unsupported constant " + c);
+            }
+        }
+        if (!(e instanceof ZExpression)) {
+            throw new simpledb.ParsingException("Nested queries are currently unsupported in expressions.");
+        }
+        ZExpression wx = (ZExpression) e;
+        String op = wx.getOperator();
+        List<Expression> operands = new ArrayList<>();
+        for (int i = 0; i < wx.nbOperands(); i++) {
+            operands.add(toExpression(wx.getOperand(i), lp));
+        }
+        Expression[] ops = operands.toArray(new Expression[0]);
+        switch (op) {
+            case "AND":
+                return Expression.and(ops);
+            case "OR":
+                return Expression.or(ops);
+            case "NOT":
+                return Expression.not(ops[0]);
+            case "IN":
+                return Expression.in(ops[0], operands.subList(1, ops.length));
+            case "NOT IN":
+                return Expression.not(Expression.in(ops[0], operands.subList(1, ops.length)));
+            case "BETWEEN":
+                return Expression.between(ops[0], ops[1], ops[2]);
+            case "NOT BETWEEN":
+                return Expression.not(Expression.between(ops[0], ops[1], ops[2]));
+            case "LIKE":
+            case "NOT LIKE":
+                ZExp pattern = wx.getOperand(1);
+                Expression like = pattern instanceof ZConstant && ((ZConstant) pattern).getType() == ZConstant.STRING
+                        && isPattern(((ZConstant) pattern).getValue())
+                        ? Expression.like(ops[0], ((ZConstant) pattern).getValue())
+                        : Expression.compare(Predicate.Op.LIKE, ops[0], ops[1]);
+                return op.equals("LIKE") ? like : Expression.not(like);
+            case "+":
+                return Expression.arithmetic(Expression.ArithmeticOp.PLUS, ops[0], ops[1]);
+            case "-":
+                // 一元负号
+                return ops.length == 1 ? Expression.arithmetic(Expression.ArithmeticOp.MINUS, Expression.constant(0), ops[0])
+                        : Expression.arithmetic(Expression.ArithmeticOp.MINUS, ops[0], ops[1]);
+            case "*":
+                return Expression.arithmetic(Expression.ArithmeticOp.TIMES, ops[0], ops[1]);
+            case "/":
+                return Expression.arithmetic(Expression.ArithmeticOp.DIVIDE, ops[0], ops[1]);
+            default:
+                if (ops.length != 2) {
+                    throw new simpledb.ParsingException("Unsupported expression " + wx);
+                }
+                return Expression.compare(getOp(op), ops[0], ops[1]);
+        }
+    }
+
+    /** @return true if e is the ? of a parameter, which Zql reads as an expression without operands */
+    private static boolean isParameter(ZExp e) {
+        return e instanceof ZExpression && ((ZExpression) e).getOperator().equals("?")
+                && ((ZExpression) e).nbOperands() == 0;
+    }
+
+    /**
+     * Remove the LIMIT clause at the end of a statement, which Zql cannot parse,
+     * and keep its value for the plan of the statement.
+     *
+     * @param s a SQL statement
+     * @return s without its LIMIT clause
+     */
+    String stripLimit(String s) {
+        limit = -1;
+        Matcher m = LIMIT.matcher(s);
+        if (!m.matches())
+            return s;
+        limit = Integer.parseInt(m.group(2));
+        return m.group(1) + m.group(3);
+    }
+
     public LogicalPlan parseQueryLogicalPlan(TransactionId tid, ZQuery q)
             throws IOException, Zql.ParseException, simpledb.ParsingException {
         @SuppressWarnings("unchecked")
@@ -187,23 +360,19 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        List<String> groupByFields = new ArrayList<>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             List<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.get(0);
+            for (ZExp gbe : gbs) {
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
+                String groupByField = ((ZConstant) gbe).getValue();
                 System.out.println("GROUP BY FIELD : " + groupByField);
+                groupByFields.add(groupByField);
             }
 
         }
@@ -212,8 +381,8 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         List<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        List<String> aggFields = new ArrayList<>();
+        List<String> aggFuns = new ArrayList<>();
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.get(i);
@@ -223,20 +392,22 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                        .getOperand(0)).getValue();
+                String aggFun = si.getAggregate();
+                if (aggField.equals("*") && !aggFun.equalsIgnoreCase("COUNT")) {
                     throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
+                            "Only COUNT is supported over *.");
                 }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
-                        .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
+                aggFields.add(aggField);
+                aggFuns.add(aggFun);
                 lp.addProjectField(aggField, aggFun);
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                                + si.getColumn()) || groupByField.equals(si
+                if (!groupByFields.isEmpty()
+                        && !(groupByFields.contains(si.getTable() + "."
+                                + si.getColumn()) || groupByFields.contains(si
                                 .getColumn()))) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
@@ -246,31 +417,35 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && aggFuns.isEmpty()) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
+        // 所有聚合在一次扫描中按全部分组字段计算
+        for (String groupByField : groupByFields) {
+            lp.addGroupBy(groupByField);
+        }
+        for (int i = 0; i < aggFuns.size(); i++) {
+            lp.addAggregate(aggFuns.get(i), aggFields.get(i), null);
         }
         // sort the data
 
         if (q.getOrderBy() != null) {
             @SuppressWarnings("unchecked")
             List<ZOrderBy> obys = q.getOrderBy();
-            if (obys.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "Multi-attribute ORDER BY is not supported.");
-            }
-            ZOrderBy oby = obys.get(0);
-            if (!(oby.getExpression() instanceof ZConstant)) {
-                throw new simpledb.ParsingException(
-                        "Complex ORDER BY's are not supported");
-            }
-            ZConstant f = (ZConstant) oby.getExpression();
-
-            lp.addOrderBy(f.getValue(), oby.getAscOrder());
+            for (ZOrderBy oby : obys) {
+                if (!(oby.getExpression() instanceof ZConstant)) {
+                    throw new simpledb.ParsingException(
+                            "Complex ORDER BY's are not supported");
+                }
+                ZConstant f = (ZConstant) oby.getExpression();
 
+                lp.addOrderBy(f.getValue(), oby.getAscOrder());
+            }
+        }
+        if (limit >= 0) {
+            lp.setLimit(limit);
+            limit = -1;
         }
         return lp;
     }
@@ -286,9 +461,53 @@ public class Parser {
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
         OpIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
-        query.setPhysicalPlan(physicalPlan);
         query.setLogicalPlan(lp);
+        printQueryPlan(physicalPlan, lp);
+        query.setPhysicalPlan(rewritePlan(physicalPlan, tId));
+
+        return query;
+    }
+
+    /**
+     * Run a prepared statement with the given parameters, using the plan cached
+     * for it if there is one.
+     *
+     * @param ps the statement
+     * @param tId the transaction to run it as part of
+     * @param parameters the value of each ? of the statement
+     */
+    public Query handlePreparedStatement(PreparedStatement ps, TransactionId tId, Object... parameters)
+            throws IOException, simpledb.ParsingException {
+        Query query = new Query(tId);
+
+        OpIterator physicalPlan = ps.physicalPlan(tId, parameters);
+        LogicalPlan lp = ps.getLogicalPlan();
+        query.setLogicalPlan(lp);
+        printQueryPlan(physicalPlan, lp);
+        query.setPhysicalPlan(rewritePlan(physicalPlan, tId));
+
+        return query;
+    }
 
+    /**
+     * Rewrite the plan of a query to run in parallel or on batches of tuples,
+     * as {@link #parallelism} and {@link #batch} ask. The plan printed is the
+     * serial plan the optimizer chose.
+     */
+    private static OpIterator rewritePlan(OpIterator physicalPlan, TransactionId tId) {
+        if (physicalPlan == null) {
+            return null;
+        }
+        if (parallelism > 1) {
+            return ParallelPlanner.parallelize(physicalPlan, tId, parallelism);
+        }
+        if (batch) {
+            return BatchPlanner.vectorize(physicalPlan, tId);
+        }
+        return physicalPlan;
+    }
+
+    private void printQueryPlan(OpIterator physicalPlan, LogicalPlan lp) {
         if (physicalPlan != null) {
             Class<?> c;
             try {
@@ -312,8 +531,6 @@ public class Parser {
                 e.printStackTrace();
             }
         }
-
-        return query;
     }
 
     public Query handleInsertStatement(ZInsert s, TransactionId tId)
@@ -432,20 +649,21 @@ public class Parser {
                     throw new ParsingException(
                             "No transaction is currently running");
                 curtrans.commit();
-                curtrans = null;
-                inUserTrans = false;
                 System.out.println("Transaction " + curtrans.getId().getId()
                         + " committed.");
+                curtrans = null;
+                inUserTrans = false;
+                TableStats.analyzeStaleTables();
                 break;
             case "ROLLBACK":
                 if (curtrans == null)
                     throw new ParsingException(
                             "No transaction is currently running");
                 curtrans.abort();
-                curtrans = null;
-                inUserTrans = false;
                 System.out.println("Transaction " + curtrans.getId().getId()
                         + " aborted.");
+                curtrans = null;
+                inUserTrans = false;
 
                 break;
             case "SET TRANSACTION":
@@ -465,7 +683,7 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException, IOException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        ByteArrayInputStream bis = new ByteArrayInputStream(stripLimit(s).getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
@@ -495,8 +713,20 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
-            ZStatement s = p.readStatement();
+            ByteArrayOutputStream statement = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            for (int n; (n = is.read(buf)) > 0; ) {
+                statement.write(buf, 0, n);
+            }
+            String text = new String(statement.toByteArray(), StandardCharsets.UTF_8);
+            // 查询使用缓存的计划，只有常量不同的查询共用一个计划，不再解析和优化
+            PreparedStatement prepared = PreparedStatement.of(text);
+            ZStatement s = null;
+            if (prepared == null) {
+                String sql = stripLimit(text);
+                ZqlParser p = new ZqlParser(new ByteArrayInputStream(sql.getBytes(StandardCharsets.UTF_8)));
+                s = p.readStatement();
+            }
 
             Query query = null;
             if (s instanceof ZTransactStmt)
@@ -509,7 +739,9 @@ public class Parser {
                             + curtrans.getId().getId());
                 }
                 try {
-                    if (s instanceof ZInsert)
+                    if (prepared != null)
+                        query = handlePreparedStatement(prepared, curtrans.getId());
+                    else if (s instanceof ZInsert)
                         query = handleInsertStatement((ZInsert) s,
                                 curtrans.getId());
                     else if (s instanceof ZDelete)
@@ -531,6 +763,7 @@ public class Parser {
                         curtrans.commit();
                         System.out.println("Transaction "
                                 + curtrans.getId().getId() + " committed.");
+                        TableStats.analyzeStaleTables();
                     }
                 } catch (Throwable a) {
                     // Whenever error happens, abort the current transaction
@@ -567,7 +800,7 @@ public class Parser {
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
             "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "insert", "delete", "values", "into", "limit" };
 
     public static void main(String[] argv) throws IOException {
 
@@ -584,7 +817,17 @@ public class Parser {
     static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
     static final int SLEEP_TIME = 1000;
 
+    // 统计信息保存在目录文件旁的文件中，重启时无需重新统计
+    protected File statsFile;
+
     protected void shutdown() {
+        if (statsFile != null) {
+            try {
+                TableStats.saveStatistics(statsFile);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
         System.out.println("Bye");
     }
 
@@ -593,7 +836,8 @@ public class Parser {
     protected void start(String[] argv) throws IOException {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
-        TableStats.computeStatistics();
+        statsFile = new File(argv[0] + ".stats");
+        TableStats.computeStatistics(statsFile);
 
         String queryFile = null;
 
@@ -0,0 +1,239 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+
+import simpledb.common.Database;
+import simpledb.execution.OpIterator;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.QueryPlanCache;
+import simpledb.optimizer.TableStats;
+import simpledb.transaction.TransactionId;
+
+/**
+ * A SELECT statement whose WHERE clause compares fields with parameters, written
+ * ?, that is parsed and optimized once and run many times with different values.
+ * <p>
+ * The constants of the statement become parameters too, bound to their own
+ * values, so that statements that differ only in their constants share a plan.
+ * The plan is kept in the {@link QueryPlanCache} of the database under the
+ * normalized text of the statement, in which every constant compared with a
+ * field is replaced by ? and blanks are collapsed; it is parsed again if it was
+ * dropped from the cache. Zql reads ? only on the right of a comparison, in an
+ * IN list or as a bound of a BETWEEN, so other constants, such as those on the
+ * left of a comparison or after a minus, stay in the text.
+ * Nested queries are not supported.
+ */
+public class PreparedStatement {
+
+    /** the normalized text of the statement, the key of its plan in the cache */
+    private final String sql;
+    /** the value of each ? of sql: a constant of the statement, or null for a parameter */
+    private final List<String> values = new ArrayList<>();
+    private final int numParameters;
+
+    /**
+     * @param statement a SELECT statement, with a ? for each parameter
+     * @throws ParsingException if statement is not a single SELECT statement
+     *             without nested queries
+     */
+    public PreparedStatement(String statement) throws ParsingException {
+        sql = normalize(statement, values);
+        if (sql == null) {
+            throw new ParsingException("Only SELECT statements without nested queries can be prepared: " + statement);
+        }
+        numParameters = Collections.frequency(values, null);
+    }
+
+    /**
+     * @return the prepared statement of a query, with its plan in the cache, or
+     *         null if it cannot be prepared or its normalized text cannot be
+     *         parsed, in which case the query is run unprepared
+     */
+    static PreparedStatement of(String statement) {
+        try {
+            PreparedStatement ps = new PreparedStatement(statement);
+            ps.getLogicalPlan();
+            return ps;
+        } catch (ParsingException | IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the normalized text of the statement, under which its plan is cached
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * @return the number of ? of the statement
+     */
+    public int numParameters() {
+        return numParameters;
+    }
+
+    /**
+     * @return the plan of the statement, from the cache, or parsed and cached if
+     *         it is not there
+     * @throws ParsingException if the statement is not valid
+     */
+    public LogicalPlan getLogicalPlan() throws ParsingException, IOException {
+        QueryPlanCache cache = Database.getPlanCache();
+        LogicalPlan lp = cache.get(sql);
+        if (lp == null) {
+            // 解析时才需要事务（子查询），预编译语句没有子查询
+            lp = new Parser().generateLogicalPlan(new TransactionId(), sql);
+            cache.put(sql, lp);
+        }
+        return lp;
+    }
+
+    /**
+     * Bind the parameters of the statement and convert its plan into a physical
+     * plan. The joins of the plan are ordered the first time it is run, for the
+     * values given then.
+     *
+     * @param tid the transaction the plan will run as part of
+     * @param parameters the value of each ?, in order, an Integer or a String
+     * @return the physical plan of the statement
+     * @throws ParsingException if there is not one value per ?, or the statement
+     *             is not valid
+     */
+    public OpIterator physicalPlan(TransactionId tid, Object... parameters) throws ParsingException, IOException {
+        if (parameters.length != numParameters) {
+            throw new ParsingException("Expected " + numParameters + " parameters, got " + parameters.length);
+        }
+        List<String> bound = new ArrayList<>(values.size());
+        int next = 0;
+        for (String value : values) {
+            bound.add(value != null ? value : String.valueOf(parameters[next++]));
+        }
+        return getLogicalPlan().physicalPlan(tid, TableStats.getStatsMap(), Parser.explain, bound);
+    }
+
+    /**
+     * Replace the constants compared with a field and the parameters of a
+     * statement by ?, add their values to values, null for a parameter, and
+     * collapse its blanks. String constants keep their '' as Zql does. A LIKE
+     * pattern with % or _ is kept, since it is not compared as a constant, and
+     * so is a constant where Zql cannot read a ?, such as on the left of a
+     * comparison or in an arithmetic expression.
+     *
+     * @return the normalized statement, ending with ;, or null if it is not a
+     *         single SELECT statement without nested queries
+     */
+    static String normalize(String statement, List<String> values) {
+        String body = statement.trim();
+        String limit = "";
+        Matcher m = Parser.LIMIT.matcher(body);
+        if (m.matches()) {
+            body = m.group(1);
+            limit = " LIMIT " + m.group(2);
+        } else if (body.endsWith(";")) {
+            body = body.substring(0, body.length() - 1);
+        }
+        if (!body.regionMatches(true, 0, "SELECT", 0, 6)) {
+            return null;
+        }
+
+        StringBuilder sql = new StringBuilder();
+        int selects = 0;
+        int n = body.length();
+        for (int i = 0; i < n; ) {
+            char c = body.charAt(i);
+            if (Character.isWhitespace(c)) {
+                while (i < n && Character.isWhitespace(body.charAt(i))) {
+                    i++;
+                }
+                sql.append(' ');
+            } else if (c == '\'') {
+                int end = i + 1;
+                while (true) {
+                    end = body.indexOf('\'', end);
+                    if (end < 0) {
+                        return null;
+                    }
+                    if (end + 1 < n && body.charAt(end + 1) == '\'') {
+                        end += 2;
+                    } else {
+                        break;
+                    }
+                }
+                String literal = body.substring(i + 1, end);
+                if (isPattern(literal) && sql.toString().trim().toUpperCase().endsWith(" LIKE")
+                        || !isParameterPosition(sql, body, end + 1)) {
+                    sql.append(body, i, end + 1);
+                } else {
+                    values.add(literal);
+                    sql.append('?');
+                }
+                i = end + 1;
+            } else if (c == '"') {
+                // a quoted name, which Zql reads as a field
+                int end = body.indexOf('"', i + 1);
+                if (end < 0) {
+                    return null;
+                }
+                sql.append(body, i, end + 1);
+                i = end + 1;
+            } else if (isWordChar(c)) {
+                int end = i;
+                while (end < n && isWordChar(body.charAt(end))) {
+                    end++;
+                }
+                String word = body.substring(i, end);
+                if (Character.isDigit(c) && isParameterPosition(sql, body, end)) {
+                    values.add(word);
+                    sql.append('?');
+                } else if (word.equalsIgnoreCase("SELECT") && selects++ > 0) {
+                    return null;
+                } else {
+                    sql.append(word);
+                }
+                i = end;
+            } else if (c == '?') {
+                values.add(null);
+                sql.append('?');
+                i++;
+            } else if (c == ';') {
+                // more than one statement
+                return null;
+            } else {
+                sql.append(c);
+                i++;
+            }
+        }
+        return sql + limit + ";";
+    }
+
+    /**
+     * @return true if a constant of body that ends at end, with sql the
+     *         normalized text before it, is where Zql can read a ? in its place:
+     *         the right side of a comparison, a value of an IN list or a bound of
+     *         a BETWEEN, and not a side of an arithmetic expression
+     */
+    private static boolean isParameterPosition(StringBuilder sql, String body, int end) {
+        String before = sql.toString().trim();
+        String word = before.substring(before.lastIndexOf(' ') + 1).toUpperCase();
+        boolean operand = !before.isEmpty() && "=<>(,".indexOf(before.charAt(before.length() - 1)) >= 0
+                || word.equals("LIKE") || word.equals("BETWEEN") || word.equals("AND");
+        int next = end;
+        while (next < body.length() && Character.isWhitespace(body.charAt(next))) {
+            next++;
+        }
+        return operand && (next == body.length() || "+-*/|=<>!".indexOf(body.charAt(next)) < 0);
+    }
+
+    private static boolean isPattern(String literal) {
+        return literal.indexOf('%') >= 0 || literal.indexOf('_') >= 0;
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '.';
+    }
+}
@@ -23,6 +23,7 @@ public class SimpleDb {
                     File targetDatFile = new File(args[1].replaceAll(".txt", ".dat"));
                     int numOfAttributes = Integer.parseInt(args[2]);
                     Type[] ts = new Type[numOfAttributes];
+                    int[] maxLens = new int[numOfAttributes];
                     char fieldSeparator = ',';
 
                     if (args.length == 3) {
@@ -38,22 +39,21 @@ public class SimpleDb {
                         }
                         int index = 0;
                         for (String s : typeStringAr) {
-                            if (s.equalsIgnoreCase("int")) {
-                                ts[index++] = Type.INT_TYPE;
-                            } else if (s.equalsIgnoreCase("string")) {
-                                ts[index++] = Type.STRING_TYPE;
-                            } else {
+                            Type type = Type.forName(s);
+                            if (type == null) {
                                 System.err.println("Unknown type " + s);
                                 return;
                             }
+                            maxLens[index] = Type.maxLenOf(s);
+                            ts[index++] = type;
                         }
                         if (args.length == 5) {
                             fieldSeparator = args[4].charAt(0);
                         }
                     }
 
-                    HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
-                            BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
+                    HeapFileEncoder.convert(sourceTxtFile, targetDatFile, BufferPool.getPageSize(),
+                            new TupleDesc(ts, new String[numOfAttributes], maxLens), fieldSeparator);
 
                 } catch (IOException e) {
                     throw new RuntimeException(e);
@@ -1,6 +1,7 @@
 package simpledb.common;
 
 import simpledb.common.Type;
+import simpledb.index.SecondaryIndex;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
 import simpledb.storage.TupleDesc;
@@ -11,6 +12,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
@@ -82,9 +84,14 @@ public class Catalog {
     }
 
     private Map<Integer,TableInfo> infoMap;
+    // 每个表上的二级索引，key为被索引的表id
+    private final Map<Integer, List<SecondaryIndex>> indexMap;
+    // 每次增加或删除表时加一，缓存的查询计划据此失效
+    private final AtomicLong version = new AtomicLong();
     // infoMap的初始化存在问题
     public Catalog() {
         infoMap = new HashMap<>();
+        indexMap = new HashMap<>();
         // some code goes here
     }
 
@@ -114,6 +121,7 @@ public class Catalog {
         tableInfo.setTupleDesc(file.getTupleDesc());
         int id = file.getId();
         infoMap.put(id,tableInfo);
+        version.incrementAndGet();
         // some code goes here
     }
 
@@ -209,14 +217,51 @@ public class Catalog {
         return infoMap.get(id).getTableName();
     }
 
+    /**
+     * Add a secondary index to the catalog. The B+ tree file of the index is added as a
+     * table with the name of the index, and the index is kept up to date as tuples are
+     * inserted into and deleted from the indexed table. Entries for tuples already in
+     * the table are not added; see {@link SecondaryIndex#build}.
+     * @param index the index to add; the table it indexes must already be in the catalog
+     */
+    public void addIndex(SecondaryIndex index) {
+        addTable(index.getFile(), index.getName());
+        indexMap.computeIfAbsent(index.getTableId(), k -> new ArrayList<>()).add(index);
+        // 索引加入后再加一，期间缓存的计划看不到这个索引
+        version.incrementAndGet();
+    }
+
+    /**
+     * Returns the secondary indexes of the specified table
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     * @return the indexes of the table, or an empty list if it has none
+     */
+    public List<SecondaryIndex> getIndexes(int tableid) {
+        List<SecondaryIndex> indexes = indexMap.get(tableid);
+        return indexes == null ? Collections.emptyList() : Collections.unmodifiableList(indexes);
+    }
+
+    /**
+     * Returns the version of the catalog, which changes whenever a table or an index
+     * is added or the catalog is cleared
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
     /** Delete all tables from the catalog */
     public void clear() {
         infoMap = null;
+        indexMap.clear();
+        version.incrementAndGet();
         // some code goes here
     }
 
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line is of the format name (field type, field type, ...), where a type is
+     * int, string, or varchar(n) for a string of at most n characters stored with
+     * only its characters, and may be followed by pk.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -229,22 +274,23 @@ public class Catalog {
                 //assume line is of the format name (field type, field type, ...)
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
-                String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
+                // varchar(n) 中也有括号, 字段列表到最后一个右括号为止
+                String fields = line.substring(line.indexOf("(") + 1, line.lastIndexOf(")")).trim();
                 String[] els = fields.split(",");
                 ArrayList<String> names = new ArrayList<>();
                 ArrayList<Type> types = new ArrayList<>();
+                int[] maxLens = new int[els.length];
                 String primaryKey = "";
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
-                    if (els2[1].trim().equalsIgnoreCase("int")) {
-                        types.add(Type.INT_TYPE);
-                    } else if (els2[1].trim().equalsIgnoreCase("string")) {
-                        types.add(Type.STRING_TYPE);
-                    } else {
+                    Type type = Type.forName(els2[1]);
+                    if (type == null) {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
+                    maxLens[types.size()] = Type.maxLenOf(els2[1]);
+                    types.add(type);
                     if (els2.length == 3) {
                         if (els2[2].trim().equals("pk")) {
                             primaryKey = els2[0].trim();
@@ -256,7 +302,7 @@ public class Catalog {
                 }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
-                TupleDesc t = new TupleDesc(typeAr, namesAr);
+                TupleDesc t = new TupleDesc(typeAr, namesAr, maxLens);
                 HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
@@ -1,5 +1,6 @@
 package simpledb.common;
 
+import simpledb.optimizer.QueryPlanCache;
 import simpledb.storage.BufferPool;
 import simpledb.storage.LogFile;
 
@@ -23,10 +24,12 @@ public class Database {
 
     private final static String LOGFILENAME = "log";
     private final LogFile _logfile;
+    private final QueryPlanCache _planCache;
 
     private Database() {
         _catalog = new Catalog();
         _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+        _planCache = new QueryPlanCache(QueryPlanCache.DEFAULT_CAPACITY);
         LogFile tmp = null;
         try {
             tmp = new LogFile(new File(LOGFILENAME));
@@ -53,6 +56,11 @@ public class Database {
         return _instance.get()._catalog;
     }
 
+    /** Return the cache of query plans of the static Database instance */
+    public static QueryPlanCache getPlanCache() {
+        return _instance.get()._planCache;
+    }
+
     /**
      * Method used for testing -- create a new instance of the buffer pool and
      * return it
@@ -50,6 +50,12 @@ public enum Type implements Serializable {
     
     public static final int STRING_LEN = 128;
 
+    /**
+     * The largest n of a VARCHAR(n): its values are STRING_TYPE fields, at
+     * most STRING_LEN characters long, whose length is stored in 1 byte.
+     */
+    public static final int VARCHAR_MAX_LEN = STRING_LEN;
+
   /**
    * @return the number of bytes required to store a field of this type.
    */
@@ -64,4 +70,67 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+    /**
+     * A VARCHAR(n) is a STRING_TYPE field stored with only the characters of
+     * its value: 1 byte of length followed by at most n bytes.
+     *
+     * @return the largest number of bytes required to store a VARCHAR(n)
+     */
+    public static int varcharLen(int n) {
+        return n + 1;
+    }
+
+    /**
+     * @return a StringField of at most maxLen characters read from the
+     *   specified DataInputStream, as written by StringField.serializeVarchar,
+     *   with the same maximum size as those of STRING_TYPE.parse
+     * @throws ParseException if the data is not a VARCHAR(maxLen)
+     */
+    public static Field parseVarchar(DataInputStream dis, int maxLen) throws ParseException {
+        try {
+            int strLen = dis.readUnsignedByte();
+            if (strLen > maxLen) {
+                throw new ParseException("VARCHAR(" + maxLen + ") of length " + strLen, 0);
+            }
+            byte[] bs = new byte[strLen];
+            dis.readFully(bs);
+            return new StringField(new String(bs), STRING_LEN);
+        } catch (IOException e) {
+            throw new ParseException("couldn't parse", 0);
+        }
+    }
+
+    /**
+     * @return the type of a column declared as "int", "string" or
+     *   "varchar(n)", ignoring case, or null if the name is not a type
+     * @see #maxLenOf
+     */
+    public static Type forName(String name) {
+        name = name.trim();
+        if (name.equalsIgnoreCase("int")) {
+            return INT_TYPE;
+        }
+        if (name.equalsIgnoreCase("string") || maxLenOf(name) > 0) {
+            return STRING_TYPE;
+        }
+        return null;
+    }
+
+    /**
+     * @return n for a column declared as "varchar(n)", with 0 &lt; n &lt;=
+     *   VARCHAR_MAX_LEN, or 0 for any other declaration
+     */
+    public static int maxLenOf(String name) {
+        name = name.trim();
+        if (name.length() < 10 || !name.regionMatches(true, 0, "varchar(", 0, 8) || !name.endsWith(")")) {
+            return 0;
+        }
+        try {
+            int n = Integer.parseInt(name.substring(8, name.length() - 1).trim());
+            return n > 0 && n <= VARCHAR_MAX_LEN ? n : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
 }
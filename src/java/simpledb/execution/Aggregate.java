@@ -2,36 +2,50 @@ package simpledb.execution;
 
 import simpledb.common.DbException;
 import simpledb.common.Type;
-import simpledb.storage.Field;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 
 /**
- * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * The Aggregation operator that computes aggregates (e.g., sum, avg, max,
+ * min). Any number of aggregates, each over a column, are computed in one pass
+ * over the child, grouped by any number of columns.
+ * <p>
+ * Groups are kept in memory up to maxGroups of them. Once that many groups
+ * exist, tuples of the groups already in memory are still merged, but tuples
+ * of any other group are written to one of a number of {@link SpillFile}
+ * partitions by the hash of their group value. After the in-memory groups are
+ * returned, each partition is aggregated by a new Aggregate that partitions on
+ * other bits of the hash if it also has too many groups. Every group is
+ * therefore aggregated entirely in memory or entirely from one partition.
  */
 public class Aggregate extends Operator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
-    private int afield;
-    private int gfield;
-    private Aggregator.Op aop;
-    private Aggregator aggregator;
+    private final int[] gfields;
+    private final int[] afields;
+    private final Aggregator.Op[] aops;
+    private transient GroupTable groups;
     private OpIterator opIterator;
     private TupleDesc tupleDesc;
 
+    public static final int DEFAULT_MAX_GROUPS = 20000;
+    private final int maxGroups;
+    private final int level;
+
+    // 内存中放不下的分组的元组，按分组值的哈希分区
+    private transient SpillFile[] partitions;
+    private transient int nextPartition;
+    private transient Aggregate partitionAggregate;
+
     /**
      * Constructor.
-     * <p>
-     * Implementation hint: depending on the type of afield, you will want to
-     * construct an {@link IntegerAggregator} or {@link StringAggregator} to help
-     * you with your implementation of readNext().
      *
      * @param child  The OpIterator that is feeding us tuples.
      * @param afield The column over which we are computing an aggregate.
@@ -40,72 +54,195 @@ public class Aggregate extends Operator {
      * @param aop    The aggregation operator to use
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, afield, gfield, aop, DEFAULT_MAX_GROUPS);
+    }
+
+    /**
+     * Constructor with a memory budget.
+     *
+     * @param maxGroups The number of groups to keep in memory before the tuples
+     *                  of other groups are written to disk
+     */
+    public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop, int maxGroups) {
+        this(child, new int[]{afield}, new Aggregator.Op[]{aop},
+                gfield == Aggregator.NO_GROUPING ? new int[0] : new int[]{gfield}, maxGroups);
+    }
+
+    /**
+     * Constructor for several aggregates grouped by several columns.
+     *
+     * @param child   The OpIterator that is feeding us tuples.
+     * @param afields The column each aggregate is computed over.
+     * @param aops    The aggregation operators, one per column of afields.
+     * @param gfields The columns over which we are grouping the result, none
+     *                if there is no grouping
+     */
+    public Aggregate(OpIterator child, int[] afields, Aggregator.Op[] aops, int[] gfields) {
+        this(child, afields, aops, gfields, DEFAULT_MAX_GROUPS);
+    }
+
+    /**
+     * Constructor for several aggregates grouped by several columns, with a
+     * memory budget.
+     *
+     * @param maxGroups The number of groups to keep in memory before the tuples
+     *                  of other groups are written to disk
+     * @throws IllegalArgumentException if there is no aggregate, afields and aops
+     *                                  differ in length, or an aggregate other than
+     *                                  COUNT is over a non-integer column
+     */
+    public Aggregate(OpIterator child, int[] afields, Aggregator.Op[] aops, int[] gfields, int maxGroups) {
+        this(child, afields, aops, gfields, maxGroups, 0);
+    }
+
+    private Aggregate(OpIterator child, int[] afields, Aggregator.Op[] aops, int[] gfields, int maxGroups,
+                      int level) {
+        if (maxGroups < 1) {
+            throw new IllegalArgumentException("at least one group must fit in memory");
+        }
+        if (afields.length == 0 || afields.length != aops.length) {
+            throw new IllegalArgumentException("one operator is needed for each of at least one aggregate");
+        }
+        this.maxGroups = maxGroups;
+        this.level = level;
         this.child = child;
-        this.afield = afield;
-        this.gfield = gfield;
-        this.aop = aop;
-        Type aFieldType = child.getTupleDesc().getFieldType(afield);
-        Type gFieldType = null;
-        if (gfield != -1) {
-            gFieldType = child.getTupleDesc().getFieldType(gfield);
+        this.afields = afields.clone();
+        this.aops = aops.clone();
+        this.gfields = gfields.clone();
+        this.tupleDesc = makeTupleDesc(child.getTupleDesc(), gfields, afields, aops);
+    }
+
+    /**
+     * The group-by columns keep their names; an aggregate column is named
+     * "aop(name)" after the column it aggregates.
+     *
+     * @param td the schema of the input
+     * @return the schema of the results of the aggregates over td
+     */
+    static TupleDesc makeTupleDesc(TupleDesc td, int[] gfields, int[] afields, Aggregator.Op[] aops) {
+        List<Type> types = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        for (int gfield : gfields) {
+            types.add(td.getFieldType(gfield));
+            names.add(td.getFieldName(gfield));
         }
-        Type[] types = new Type[]{gFieldType,aFieldType};
-        String[] names = new String[] {"groupVal","aggregateVal"};
-        TupleDesc tupleDesc = new TupleDesc(types,names);
-        this.tupleDesc = tupleDesc;
-
-        if (aFieldType == Type.INT_TYPE) {
-            aggregator = new IntegerAggregator(gfield,gFieldType,afield,aop);
-        } else {
-            aggregator = new StringAggregator(gfield,gFieldType,afield,aop);
+        for (int i = 0; i < afields.length; i++) {
+            if (td.getFieldType(afields[i]) != Type.INT_TYPE && aops[i] != Aggregator.Op.COUNT) {
+                throw new IllegalArgumentException("String类型只支持计数");
+            }
+            String name = td.getFieldName(afields[i]);
+            switch (aops[i]) {
+                case MIN:
+                case MAX:
+                case SUM:
+                case AVG:
+                case COUNT:
+                    break;
+                case SUM_COUNT:
+                    // 和与元组数两列，供之后的SC_AVG合并
+                    types.add(Type.INT_TYPE);
+                    names.add(nameOfAggregatorOp(Aggregator.Op.SUM) + "(" + name + ")");
+                    types.add(Type.INT_TYPE);
+                    names.add(nameOfAggregatorOp(Aggregator.Op.COUNT) + "(" + name + ")");
+                    continue;
+                case SC_AVG:
+                    if (afields[i] + 1 >= td.numFields() || td.getFieldType(afields[i] + 1) != Type.INT_TYPE) {
+                        throw new IllegalArgumentException("SC_AVG需要和与元组数两列");
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("unsupported aggregate " + aops[i]);
+            }
+            types.add(Type.INT_TYPE);
+            names.add(nameOfAggregatorOp(aops[i]) + "(" + name + ")");
         }
-        // some code goes here
+        return new TupleDesc(types.toArray(new Type[0]), names.toArray(new String[0]));
+    }
+
+    private GroupTable newGroupTable() {
+        TupleDesc td = child.getTupleDesc();
+        Type[] keyTypes = new Type[gfields.length];
+        for (int i = 0; i < gfields.length; i++) {
+            keyTypes[i] = td.getFieldType(gfields[i]);
+        }
+        return new GroupTable(gfields, keyTypes, afields, aops);
     }
 
     /**
-     * @return If this aggregate is accompanied by a groupby, return the groupby
-     * field index in the <b>INPUT</b> tuples. If not, return
+     * @return the number of partitions of the input written to disk because
+     *         there were more than maxGroups groups
+     */
+    public int numSpilledPartitions() {
+        int n = 0;
+        if (partitions != null) {
+            for (SpillFile f : partitions) {
+                if (f != null)
+                    n++;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * @return If this aggregate is accompanied by a groupby, return the first
+     * groupby field index in the <b>INPUT</b> tuples. If not, return
      * {@link Aggregator#NO_GROUPING}
      */
     public int groupField() {
-        // some code goes here
-        return this.gfield;
+        return gfields.length == 0 ? Aggregator.NO_GROUPING : gfields[0];
     }
 
     /**
      * @return If this aggregate is accompanied by a group by, return the name
-     * of the groupby field in the <b>OUTPUT</b> tuples. If not, return
+     * of the first groupby field in the <b>OUTPUT</b> tuples. If not, return
      * null;
      */
     public String groupFieldName() {
-        // some code goes here
-        return child.getTupleDesc().getFieldName(gfield);
+        return gfields.length == 0 ? null : child.getTupleDesc().getFieldName(gfields[0]);
+    }
 
+    /**
+     * @return the groupby field indexes in the <b>INPUT</b> tuples, none if
+     * there is no grouping
+     */
+    public int[] groupFields() {
+        return gfields.clone();
     }
 
     /**
-     * @return the aggregate field
+     * @return the first aggregate field
      */
     public int aggregateField() {
-        // some code goes here
-        return afield;
+        return afields[0];
     }
 
     /**
-     * @return return the name of the aggregate field in the <b>OUTPUT</b>
+     * @return return the name of the first aggregate field in the <b>INPUT</b>
      * tuples
      */
     public String aggregateFieldName() {
-        // some code goes here
-        return child.getTupleDesc().getFieldName(afield);
+        return child.getTupleDesc().getFieldName(afields[0]);
     }
 
     /**
-     * @return return the aggregate operator
+     * @return return the first aggregate operator
      */
     public Aggregator.Op aggregateOp() {
-        // some code goes here
-        return this.aop;
+        return aops[0];
+    }
+
+    /**
+     * @return the field each aggregate is computed over, in the <b>INPUT</b> tuples
+     */
+    public int[] aggregateFields() {
+        return afields.clone();
+    }
+
+    /**
+     * @return the aggregate operators, one per field of {@link #aggregateFields}
+     */
+    public Aggregator.Op[] aggregateOps() {
+        return aops.clone();
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
@@ -117,53 +254,93 @@ public class Aggregate extends Operator {
             TransactionAbortedException {
         // 先打开child的迭代器，用于获取所有的tuple,之后迭代将所有的tuple进行merge
         child.open();
+        // 每次open都重新聚合，不会重复计入上一次的元组
+        groups = newGroupTable();
+        partitions = null;
         while (child.hasNext()) {
             Tuple next = child.next();
-            aggregator.mergeTupleIntoGroup(next);
+            int g = groups.size() < maxGroups ? groups.findOrAdd(next) : groups.find(next);
+            if (g >= 0) {
+                groups.merge(g, next);
+            } else {
+                spill(next);
+            }
         }
         // 打开聚合迭代器，用于之后获取聚合后的结果
-        opIterator = aggregator.iterator();
+        opIterator = groups.iterator(tupleDesc);
         opIterator.open();
+        nextPartition = 0;
+        partitionAggregate = null;
         // 父迭代器
         super.open();
+    }
 
-        // some code goes here
+    /**
+     * Write a tuple whose group is not in memory to the partition of its group value.
+     */
+    private void spill(Tuple t) throws DbException {
+        if (partitions == null) {
+            partitions = new SpillFile[HashEquiJoin.NUM_PARTITIONS];
+        }
+        int p = partition(groups.hash(t));
+        if (partitions[p] == null) {
+            partitions[p] = new SpillFile(child.getTupleDesc());
+        }
+        partitions[p].add(t);
+    }
+
+    private int partition(int hash) {
+        // 每层使用哈希值的不同位；每层至少聚合maxGroups个分组，所以位用完后循环使用也会结束
+        int shift = 32 - HashEquiJoin.PARTITION_BITS * (level % (HashEquiJoin.MAX_LEVEL + 1) + 1);
+        int h = hash * 0x9E3779B9;
+        return (h >>> shift) & (HashEquiJoin.NUM_PARTITIONS - 1);
     }
 
     /**
-     * Returns the next tuple. If there is a group by field, then the first
-     * field is the field by which we are grouping, and the second field is the
-     * result of computing the aggregate. If there is no group by field, then
-     * the result tuple should contain one field representing the result of the
-     * aggregate. Should return null if there are no more tuples.
+     * Returns the next tuple: the group by fields, if any, followed by the
+     * results of the aggregates. Should return null if there are no more tuples.
      */
     @Override
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        // some code goes here
-        // 迭代聚合之后的结果
-        if(opIterator.hasNext()) {
+        // 先返回内存中的分组，再依次聚合溢出的分区
+        if (opIterator.hasNext()) {
             return opIterator.next();
         }
+        while (partitions != null) {
+            if (partitionAggregate != null) {
+                if (partitionAggregate.hasNext()) {
+                    return partitionAggregate.next();
+                }
+                partitionAggregate.close();
+                partitionAggregate = null;
+            }
+            if (nextPartition == partitions.length) {
+                return null;
+            }
+            SpillFile f = partitions[nextPartition++];
+            if (f != null) {
+                partitionAggregate = new Aggregate(f.iterator(), afields, aops, gfields, maxGroups, level + 1);
+                partitionAggregate.open();
+            }
+        }
         return null;
-
     }
+
     @Override
     public void rewind() throws DbException, TransactionAbortedException {
-        // some code goes here
-        child.rewind();
         opIterator.rewind();
+        if (partitionAggregate != null) {
+            partitionAggregate.close();
+            partitionAggregate = null;
+        }
+        nextPartition = 0;
+        resetNext();
     }
 
     /**
-     * Returns the TupleDesc of this Aggregate. If there is no group by field,
-     * this will have one field - the aggregate column. If there is a group by
-     * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
-     * <p>
-     * The name of an aggregate column should be informative. For example:
-     * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
-     * given in the constructor, and child_td is the TupleDesc of the child
-     * iterator.
+     * Returns the TupleDesc of this Aggregate: the group by fields, named as in
+     * the child, followed by one column per aggregate, named
+     * "aggName(aop) (child_td.getFieldName(afield))".
      */
     @Override
     public TupleDesc getTupleDesc() {
@@ -174,11 +351,21 @@ public class Aggregate extends Operator {
     @Override
     public void close() {
         super.close();
-        opIterator.close();
+        if (opIterator != null) {
+            opIterator.close();
+        }
         child.close();
-
-
-        // some code goes here
+        if (partitionAggregate != null) {
+            partitionAggregate.close();
+            partitionAggregate = null;
+        }
+        if (partitions != null) {
+            for (SpillFile f : partitions) {
+                if (f != null)
+                    f.delete();
+            }
+            partitions = null;
+        }
     }
 
     @Override
@@ -191,18 +378,7 @@ public class Aggregate extends Operator {
     public void setChildren(OpIterator[] children) {
         // some code goes here
         child = children[0];
-        Type aFieldType = child.getTupleDesc().getFieldType(afield);
-        Type gFieldType = child.getTupleDesc().getFieldType(gfield);
-        Type[] types = new Type[]{gFieldType,aFieldType};
-        String[] names = new String[]{"groupVal","aggregateVal"};
-        this.tupleDesc = new TupleDesc(types,names);
-
-        if (aFieldType == Type.INT_TYPE) {
-            this.aggregator = new IntegerAggregator(gfield,gFieldType,afield,aop);
-        } else {
-            this.aggregator = new StringAggregator(gfield,gFieldType,afield,aop);
-        }
-
+        this.tupleDesc = makeTupleDesc(child.getTupleDesc(), gfields, afields, aops);
     }
 
 }
@@ -0,0 +1,279 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * BatchAggregate is the batch version of {@link Aggregate}: it computes one
+ * aggregate over a column, optionally grouped by another column, with the same
+ * results as {@link IntegerAggregator} and {@link StringAggregator}.
+ * <p>
+ * Each input batch is processed in two loops: one that maps the group value of
+ * every selected row to a dense group number, and one per aggregate that updates
+ * the int accumulators of those groups. Integer group values are looked up in an
+ * open-addressing table of ints, so no Field or boxed Integer is allocated per row.
+ */
+public class BatchAggregate implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final BatchOpIterator child;
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op aop;
+    private final TupleDesc td;
+
+    // 每个分组的累加值与计数，下标为分组编号
+    private transient int[] values;
+    private transient int[] counts;
+    private transient int numGroups;
+    private transient int[] intKeys;
+    private transient String[] stringKeys;
+    private transient IntGroupTable intGroups;
+    private transient Map<String, Integer> stringGroups;
+    private transient int[] groupOf;
+
+    private transient int nextGroup;
+    private transient TupleBatch out;
+    private transient boolean isOpen = false;
+
+    /**
+     * Constructor.
+     *
+     * @param child  The BatchOpIterator that is feeding us rows.
+     * @param afield The column over which we are computing an aggregate.
+     * @param gfield The column over which we are grouping the result, or
+     *               {@link Aggregator#NO_GROUPING} if there is no grouping
+     * @param aop    The aggregation operator to use
+     * @throws IllegalArgumentException if the aggregate is not supported on the type of afield
+     */
+    public BatchAggregate(BatchOpIterator child, int afield, int gfield, Aggregator.Op aop) {
+        TupleDesc childTd = child.getTupleDesc();
+        if (childTd.getFieldType(afield) == Type.STRING_TYPE && aop != Aggregator.Op.COUNT) {
+            throw new IllegalArgumentException("String类型只支持计数");
+        }
+        switch (aop) {
+            case MIN:
+            case MAX:
+            case SUM:
+            case AVG:
+            case COUNT:
+                break;
+            default:
+                throw new IllegalArgumentException("unsupported aggregate " + aop);
+        }
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        if (gfield == Aggregator.NO_GROUPING) {
+            td = new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{"aggregateVal"});
+        } else {
+            td = new TupleDesc(new Type[]{childTd.getFieldType(gfield), Type.INT_TYPE},
+                    new String[]{"groupVal", "aggregateVal"});
+        }
+    }
+
+    /**
+     * @return the group by field in the input, or {@link Aggregator#NO_GROUPING}
+     */
+    public int groupField() {
+        return gfield;
+    }
+
+    /**
+     * @return the aggregate field in the input
+     */
+    public int aggregateField() {
+        return afield;
+    }
+
+    public Aggregator.Op aggregateOp() {
+        return aop;
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        values = new int[16];
+        counts = new int[16];
+        numGroups = 0;
+        if (gfield == Aggregator.NO_GROUPING) {
+            newGroup();
+        } else if (child.getTupleDesc().getFieldType(gfield) == Type.INT_TYPE) {
+            intKeys = new int[16];
+            intGroups = new IntGroupTable();
+        } else {
+            stringKeys = new String[16];
+            stringGroups = new HashMap<>();
+        }
+
+        child.open();
+        TupleBatch batch;
+        while ((batch = child.nextBatch()) != null) {
+            merge(batch);
+        }
+
+        nextGroup = 0;
+        out = new TupleBatch(td);
+        isOpen = true;
+    }
+
+    /**
+     * Add the selected rows of a batch to their groups
+     */
+    private void merge(TupleBatch batch) {
+        int n = batch.numRows();
+        if (groupOf == null || groupOf.length < n) {
+            groupOf = new int[Math.max(n, batch.capacity())];
+        }
+        if (gfield == Aggregator.NO_GROUPING) {
+            Arrays.fill(groupOf, 0, n, 0);
+        } else if (intGroups != null) {
+            int[] keys = batch.getInts(gfield);
+            for (int i = 0; i < n; i++) {
+                int key = keys[batch.row(i)];
+                int g = intGroups.get(key);
+                if (g < 0) {
+                    g = newGroup();
+                    intKeys[g] = key;
+                    intGroups.put(key, g);
+                }
+                groupOf[i] = g;
+            }
+        } else {
+            String[] keys = batch.getStrings(gfield);
+            for (int i = 0; i < n; i++) {
+                String key = keys[batch.row(i)];
+                Integer g = stringGroups.get(key);
+                if (g == null) {
+                    g = newGroup();
+                    stringKeys[g] = key;
+                    stringGroups.put(key, g);
+                }
+                groupOf[i] = g;
+            }
+        }
+
+        if (aop == Aggregator.Op.COUNT) {
+            for (int i = 0; i < n; i++) {
+                counts[groupOf[i]]++;
+            }
+            return;
+        }
+        int[] column = batch.getInts(afield);
+        switch (aop) {
+            case MIN:
+                for (int i = 0; i < n; i++) {
+                    int g = groupOf[i];
+                    int v = column[batch.row(i)];
+                    if (counts[g]++ == 0 || v < values[g])
+                        values[g] = v;
+                }
+                break;
+            case MAX:
+                for (int i = 0; i < n; i++) {
+                    int g = groupOf[i];
+                    int v = column[batch.row(i)];
+                    if (counts[g]++ == 0 || v > values[g])
+                        values[g] = v;
+                }
+                break;
+            default:
+                // SUM和AVG都累加和与计数
+                for (int i = 0; i < n; i++) {
+                    int g = groupOf[i];
+                    values[g] += column[batch.row(i)];
+                    counts[g]++;
+                }
+                break;
+        }
+    }
+
+    /**
+     * Allocate the accumulators of a new group
+     * @return the number of the new group
+     */
+    private int newGroup() {
+        if (numGroups == values.length) {
+            int capacity = values.length * 2;
+            values = Arrays.copyOf(values, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+            if (intKeys != null)
+                intKeys = Arrays.copyOf(intKeys, capacity);
+            if (stringKeys != null)
+                stringKeys = Arrays.copyOf(stringKeys, capacity);
+        }
+        return numGroups++;
+    }
+
+    /**
+     * Returns the next batch of results. If there is a group by field, then the
+     * first field is the group value and the second the aggregate value;
+     * otherwise there is a single field holding the aggregate value.
+     */
+    @Override
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        out.clear();
+        int outField = gfield == Aggregator.NO_GROUPING ? 0 : 1;
+        int[] aggColumn = out.getInts(outField);
+        int n = 0;
+        while (nextGroup < numGroups && n < out.capacity()) {
+            int g = nextGroup++;
+            // 没有分组且没有输入时，只有COUNT有结果
+            if (counts[g] == 0 && aop != Aggregator.Op.COUNT)
+                continue;
+            if (outField == 1) {
+                if (intKeys != null)
+                    out.getInts(0)[n] = intKeys[g];
+                else
+                    out.getStrings(0)[n] = stringKeys[g];
+            }
+            switch (aop) {
+                case COUNT:
+                    aggColumn[n] = counts[g];
+                    break;
+                case AVG:
+                    aggColumn[n] = values[g] / counts[g];
+                    break;
+                default:
+                    aggColumn[n] = values[g];
+                    break;
+            }
+            n++;
+        }
+        out.setSize(n);
+        return n == 0 ? null : out;
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        nextGroup = 0;
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    @Override
+    public void close() {
+        child.close();
+        values = null;
+        counts = null;
+        intKeys = null;
+        stringKeys = null;
+        intGroups = null;
+        stringGroups = null;
+        groupOf = null;
+        out = null;
+        isOpen = false;
+    }
+}
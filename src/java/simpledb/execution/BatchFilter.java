@@ -0,0 +1,181 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * BatchFilter is the batch version of {@link Filter}. It evaluates its predicate
+ * on a whole column of each batch and narrows the selection vector of the batch to
+ * the rows that pass; no row is copied.
+ */
+public class BatchFilter implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final Predicate p;
+    private final BatchOpIterator child;
+    private transient int[] selection;
+
+    /**
+     * Constructor accepts a predicate to apply and a child operator to read
+     * batches to filter from.
+     *
+     * @param p     The predicate to filter rows with
+     * @param child The child operator
+     */
+    public BatchFilter(Predicate p, BatchOpIterator child) {
+        this.p = p;
+        this.child = child;
+    }
+
+    public Predicate getPredicate() {
+        return p;
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    /**
+     * Returns the next batch of the child, with only the rows satisfying the
+     * predicate selected.
+     */
+    @Override
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch batch = child.nextBatch();
+        if (batch == null)
+            return null;
+        int n = batch.numRows();
+        if (selection == null || selection.length < n) {
+            selection = new int[Math.max(n, batch.capacity())];
+        }
+        int count;
+        if (child.getTupleDesc().getFieldType(p.getField()) == Type.INT_TYPE) {
+            count = filterInts(batch, batch.getInts(p.getField()), ((IntField) p.getOperand()).getValue());
+        } else {
+            count = filterStrings(batch, batch.getStrings(p.getField()), ((StringField) p.getOperand()).getValue());
+        }
+        // 批次只在下一次调用nextBatch之前有效，所以选择向量的数组可以复用
+        batch.setSelection(selection, count);
+        return batch;
+    }
+
+    /**
+     * Write the positions of the selected rows of batch whose value satisfies the
+     * predicate into the selection buffer. One loop per operator, so the comparison
+     * is not dispatched per row.
+     *
+     * @return the number of rows that pass
+     */
+    private int filterInts(TupleBatch batch, int[] values, int operand) {
+        int n = batch.numRows();
+        int count = 0;
+        switch (p.getOp()) {
+            case EQUALS:
+            case LIKE:
+                for (int i = 0; i < n; i++) {
+                    int r = batch.row(i);
+                    if (values[r] == operand)
+                        selection[count++] = r;
+                }
+                break;
+            case NOT_EQUALS:
+                for (int i = 0; i < n; i++) {
+                    int r = batch.row(i);
+                    if (values[r] != operand)
+                        selection[count++] = r;
+                }
+                break;
+            case GREATER_THAN:
+                for (int i = 0; i < n; i++) {
+                    int r = batch.row(i);
+                    if (values[r] > operand)
+                        selection[count++] = r;
+                }
+                break;
+            case GREATER_THAN_OR_EQ:
+                for (int i = 0; i < n; i++) {
+                    int r = batch.row(i);
+                    if (values[r] >= operand)
+                        selection[count++] = r;
+                }
+                break;
+            case LESS_THAN:
+                for (int i = 0; i < n; i++) {
+                    int r = batch.row(i);
+                    if (values[r] < operand)
+                        selection[count++] = r;
+                }
+                break;
+            case LESS_THAN_OR_EQ:
+                for (int i = 0; i < n; i++) {
+                    int r = batch.row(i);
+                    if (values[r] <= operand)
+                        selection[count++] = r;
+                }
+                break;
+        }
+        return count;
+    }
+
+    /**
+     * Same as filterInts, with the semantics of {@link StringField#compare}.
+     */
+    private int filterStrings(TupleBatch batch, String[] values, String operand) {
+        int n = batch.numRows();
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            int r = batch.row(i);
+            boolean pass;
+            if (p.getOp() == Predicate.Op.LIKE) {
+                pass = values[r].contains(operand);
+            } else {
+                int cmp = values[r].compareTo(operand);
+                switch (p.getOp()) {
+                    case EQUALS:
+                        pass = cmp == 0;
+                        break;
+                    case NOT_EQUALS:
+                        pass = cmp != 0;
+                        break;
+                    case GREATER_THAN:
+                        pass = cmp > 0;
+                        break;
+                    case GREATER_THAN_OR_EQ:
+                        pass = cmp >= 0;
+                        break;
+                    case LESS_THAN:
+                        pass = cmp < 0;
+                        break;
+                    default:
+                        pass = cmp <= 0;
+                        break;
+                }
+            }
+            if (pass)
+                selection[count++] = r;
+        }
+        return count;
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    @Override
+    public void close() {
+        child.close();
+        selection = null;
+    }
+}
@@ -0,0 +1,213 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * BatchHashJoin is the batch version of {@link HashEquiJoin}. It reads the whole
+ * right (inner) child into column arrays and chains the rows with equal join
+ * values together, then probes the table with each batch of the left (outer)
+ * child. Output rows are the concatenation of the left and the right row, as for
+ * the row joins.
+ */
+public class BatchHashJoin implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final JoinPredicate pred;
+    private final BatchOpIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final boolean intKey;
+
+    // 右表的所有行，按列存储
+    private transient int[][] rightInts;
+    private transient String[][] rightStrings;
+    private transient int rightSize;
+    // 哈希表：连接值 -> 第一行，next[] 把连接值相同的行串成链
+    private transient IntGroupTable intHeads;
+    private transient Map<String, Integer> stringHeads;
+    private transient int[] next;
+
+    // 探测的进度：当前左表批次、批次中的行、链上的下一行
+    private transient TupleBatch probe;
+    private transient int probeRow;
+    private transient int chain;
+    private transient TupleBatch out;
+    private transient boolean isOpen = false;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join them on
+     *
+     * @param p      The predicate to use to join the children; its operator must be EQUALS
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Iterator for the right(inner) relation to join
+     */
+    public BatchHashJoin(JoinPredicate p, BatchOpIterator child1, BatchOpIterator child2) {
+        if (p.getOperator() != Predicate.Op.EQUALS) {
+            throw new IllegalArgumentException("a hash join needs an equality predicate");
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.intKey = child2.getTupleDesc().getFieldType(p.getField2()) == Type.INT_TYPE;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        child1.open();
+        child2.open();
+        build();
+        probe = null;
+        chain = -1;
+        out = new TupleBatch(comboTD);
+        isOpen = true;
+    }
+
+    /**
+     * Read the right child into the hash table
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        TupleDesc td2 = child2.getTupleDesc();
+        int capacity = TupleBatch.DEFAULT_CAPACITY;
+        rightInts = new int[td2.numFields()][];
+        rightStrings = new String[td2.numFields()][];
+        for (int f = 0; f < td2.numFields(); f++) {
+            if (td2.getFieldType(f) == Type.INT_TYPE)
+                rightInts[f] = new int[capacity];
+            else
+                rightStrings[f] = new String[capacity];
+        }
+        next = new int[capacity];
+        rightSize = 0;
+        intHeads = intKey ? new IntGroupTable() : null;
+        stringHeads = intKey ? null : new HashMap<>();
+
+        int key = pred.getField2();
+        TupleBatch batch;
+        while ((batch = child2.nextBatch()) != null) {
+            int n = batch.numRows();
+            if (rightSize + n > next.length) {
+                capacity = Math.max(next.length * 2, rightSize + n);
+                next = Arrays.copyOf(next, capacity);
+                for (int f = 0; f < rightInts.length; f++) {
+                    if (rightInts[f] != null)
+                        rightInts[f] = Arrays.copyOf(rightInts[f], capacity);
+                    else
+                        rightStrings[f] = Arrays.copyOf(rightStrings[f], capacity);
+                }
+            }
+            for (int f = 0; f < rightInts.length; f++) {
+                if (rightInts[f] != null) {
+                    int[] src = batch.getInts(f);
+                    int[] dst = rightInts[f];
+                    for (int i = 0; i < n; i++)
+                        dst[rightSize + i] = src[batch.row(i)];
+                } else {
+                    String[] src = batch.getStrings(f);
+                    String[] dst = rightStrings[f];
+                    for (int i = 0; i < n; i++)
+                        dst[rightSize + i] = src[batch.row(i)];
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                int r = rightSize + i;
+                if (intKey) {
+                    int k = rightInts[key][r];
+                    next[r] = intHeads.get(k);
+                    intHeads.put(k, r);
+                } else {
+                    Integer head = stringHeads.put(rightStrings[key][r], r);
+                    next[r] = head == null ? -1 : head;
+                }
+            }
+            rightSize += n;
+        }
+    }
+
+    /**
+     * Returns the next batch of joined rows: for each row of the left child, one row
+     * per row of the right child with an equal join value.
+     */
+    @Override
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        out.clear();
+        int n = 0;
+        int td1n = child1.getTupleDesc().numFields();
+        while (n < out.capacity()) {
+            if (chain < 0) {
+                // 当前左表行的匹配已经输出完，移到下一行
+                if (probe == null || probeRow >= probe.numRows()) {
+                    probe = child1.nextBatch();
+                    probeRow = 0;
+                    if (probe == null)
+                        break;
+                    continue;
+                }
+                int r = probe.row(probeRow++);
+                if (intKey) {
+                    chain = intHeads.get(probe.getInts(pred.getField1())[r]);
+                } else {
+                    Integer head = stringHeads.get(probe.getStrings(pred.getField1())[r]);
+                    chain = head == null ? -1 : head;
+                }
+                continue;
+            }
+            int l = probe.row(probeRow - 1);
+            for (int f = 0; f < td1n; f++) {
+                if (comboTD.getFieldType(f) == Type.INT_TYPE)
+                    out.getInts(f)[n] = probe.getInts(f)[l];
+                else
+                    out.getStrings(f)[n] = probe.getStrings(f)[l];
+            }
+            for (int f = 0; f < rightInts.length; f++) {
+                if (rightInts[f] != null)
+                    out.getInts(td1n + f)[n] = rightInts[f][chain];
+                else
+                    out.getStrings(td1n + f)[n] = rightStrings[f][chain];
+            }
+            n++;
+            chain = next[chain];
+        }
+        out.setSize(n);
+        return n == 0 && probe == null ? null : out;
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        probe = null;
+        chain = -1;
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    @Override
+    public void close() {
+        child1.close();
+        child2.close();
+        rightInts = null;
+        rightStrings = null;
+        intHeads = null;
+        stringHeads = null;
+        next = null;
+        probe = null;
+        out = null;
+        isOpen = false;
+    }
+}
@@ -0,0 +1,59 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.Serializable;
+
+/**
+ * BatchOpIterator is the iterator interface of the batch (vectorized) operators.
+ * Instead of one Tuple at a time, each call returns a {@link TupleBatch} of up to
+ * about a thousand rows stored column by column, so the per-row work of an
+ * operator is a tight loop over arrays rather than virtual calls and Tuple
+ * allocations.
+ * <p>
+ * Batch operators can be mixed with the row operators through {@link RowToBatch}
+ * and {@link BatchToRow}.
+ */
+public interface BatchOpIterator extends Serializable {
+    /**
+     * Opens the iterator. This must be called before any of the other methods.
+     *
+     * @throws DbException when there are problems opening/accessing the database.
+     */
+    void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the next batch of rows. A batch may have no selected rows (e.g. when a
+     * filter dropped all of them); only null means the iteration is finished.
+     * <p>
+     * The returned batch is only valid until the next call to nextBatch, rewind or
+     * close: operators may reuse its arrays.
+     *
+     * @return the next batch, or null if there are no more rows
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Resets the iterator to the start.
+     *
+     * @throws DbException when rewind is unsupported.
+     * @throws IllegalStateException If the iterator has not been opened
+     */
+    void rewind() throws DbException, TransactionAbortedException;
+
+    /**
+     * Returns the TupleDesc associated with this BatchOpIterator.
+     *
+     * @return the TupleDesc associated with this BatchOpIterator.
+     */
+    TupleDesc getTupleDesc();
+
+    /**
+     * Closes the iterator.
+     */
+    void close();
+}
@@ -0,0 +1,134 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * BatchPlanner rewrites a plan of row operators into batch operators where a
+ * batch version exists: {@link SeqScan}, {@link Filter}, {@link Project},
+ * {@link Aggregate} and {@link HashEquiJoin}. Each batch subtree is read through
+ * a {@link BatchToRow}, so the rewritten plan is still an {@link OpIterator} and
+ * operators without a batch version (OrderBy, Insert, ...) keep working on top of it.
+ */
+public class BatchPlanner {
+
+    private BatchPlanner() {
+    }
+
+    /**
+     * Rewrite plan to use batch operators. Operators of the plan that are not
+     * replaced get their rewritten children through {@link Operator#setChildren};
+     * the inner index search of an {@link IndexNestedLoopJoin} is kept as it is.
+     *
+     * @param plan the row plan
+     * @param tid  the transaction the scans of the plan run in
+     * @return a plan with the same output as plan
+     */
+    public static OpIterator vectorize(OpIterator plan, TransactionId tid) {
+        if (isBatchable(plan)) {
+            return new BatchToRow(toBatch(plan, tid));
+        }
+        if (plan instanceof Operator) {
+            Operator op = (Operator) plan;
+            OpIterator[] children = op.getChildren();
+            OpIterator[] rewritten = new OpIterator[children.length];
+            for (int i = 0; i < children.length; i++) {
+                // 索引嵌套循环连接的内表要保留索引访问方法，不能改写
+                boolean probe = op instanceof IndexNestedLoopJoin && i == 1;
+                rewritten[i] = probe ? children[i] : vectorize(children[i], tid);
+            }
+            op.setChildren(rewritten);
+        }
+        return plan;
+    }
+
+    /**
+     * Convert plan into a batch operator; a subtree with no batch version is
+     * rewritten with {@link #vectorize} and read through a {@link RowToBatch}.
+     */
+    public static BatchOpIterator toBatch(OpIterator plan, TransactionId tid) {
+        if (plan instanceof BatchToRow) {
+            return ((BatchToRow) plan).getChild();
+        }
+        if (!isBatchable(plan)) {
+            return new RowToBatch(vectorize(plan, tid));
+        }
+        if (plan instanceof SeqScan) {
+            SeqScan scan = (SeqScan) plan;
+            BatchOpIterator batch = new BatchSeqScan(tid, scan.getTableId(), scan.getAlias());
+            // 下推到扫描中的谓词和字段，由批量的Filter和Project计算
+            for (Predicate p : scan.getPredicates()) {
+                batch = new BatchFilter(p, batch);
+            }
+            if (scan.getFields() != null) {
+                List<Integer> fields = new ArrayList<>();
+                List<Type> types = new ArrayList<>();
+                for (int f : scan.getFields()) {
+                    fields.add(f);
+                    types.add(batch.getTupleDesc().getFieldType(f));
+                }
+                batch = new BatchProject(fields, types, batch);
+            }
+            return batch;
+        }
+        if (plan instanceof Filter) {
+            Filter filter = (Filter) plan;
+            return new BatchFilter(filter.getPredicate(), toBatch(filter.getChildren()[0], tid));
+        }
+        if (plan instanceof Project) {
+            Project project = (Project) plan;
+            TupleDesc td = project.getTupleDesc();
+            List<Type> types = new ArrayList<>();
+            for (int i = 0; i < td.numFields(); i++) {
+                types.add(td.getFieldType(i));
+            }
+            return new BatchProject(project.getFieldList(), types, toBatch(project.getChildren()[0], tid));
+        }
+        if (plan instanceof Aggregate) {
+            Aggregate agg = (Aggregate) plan;
+            return new BatchAggregate(toBatch(agg.getChildren()[0], tid),
+                    agg.aggregateField(), agg.groupField(), agg.aggregateOp());
+        }
+        HashEquiJoin join = (HashEquiJoin) plan;
+        OpIterator[] children = join.getChildren();
+        return new BatchHashJoin(join.getJoinPredicate(), toBatch(children[0], tid), toBatch(children[1], tid));
+    }
+
+    /**
+     * @return true if plan has a batch version
+     */
+    private static boolean isBatchable(OpIterator plan) {
+        if (plan instanceof SeqScan || plan instanceof HashEquiJoin) {
+            return true;
+        }
+        // 批量的Filter和Project只支持谓词和字段，不计算表达式
+        if (plan instanceof Filter) {
+            return ((Filter) plan).getPredicate() != null;
+        }
+        if (plan instanceof Project) {
+            return ((Project) plan).getFieldList() != null;
+        }
+        if (plan instanceof Aggregate) {
+            // 批量聚合只支持按至多一列分组的单个基本聚合函数
+            Aggregate agg = (Aggregate) plan;
+            if (agg.aggregateOps().length != 1 || agg.groupFields().length > 1) {
+                return false;
+            }
+            switch (agg.aggregateOp()) {
+                case MIN:
+                case MAX:
+                case SUM:
+                case AVG:
+                case COUNT:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+        return false;
+    }
+}
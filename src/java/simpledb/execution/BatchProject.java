@@ -0,0 +1,69 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.List;
+
+/**
+ * BatchProject is the batch version of {@link Project}. Since batches are stored
+ * column by column, a projection only picks the column arrays of its output; the
+ * values themselves are not copied.
+ */
+public class BatchProject implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final BatchOpIterator child;
+    private final TupleDesc td;
+    private final int[] outFieldIds;
+
+    /**
+     * Constructor accepts a child operator to read batches to apply projection
+     * to and a list of fields in output rows
+     *
+     * @param fieldList The ids of the fields child's tupleDesc to project out
+     * @param typesList the types of the fields in the final projection
+     * @param child     The child operator
+     */
+    public BatchProject(List<Integer> fieldList, List<Type> typesList, BatchOpIterator child) {
+        this.child = child;
+        this.outFieldIds = fieldList.stream().mapToInt(Integer::intValue).toArray();
+        String[] fieldAr = new String[outFieldIds.length];
+        TupleDesc childtd = child.getTupleDesc();
+        for (int i = 0; i < fieldAr.length; i++) {
+            fieldAr[i] = childtd.getFieldName(outFieldIds[i]);
+        }
+        td = new TupleDesc(typesList.toArray(new Type[0]), fieldAr);
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    @Override
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        TupleBatch batch = child.nextBatch();
+        if (batch == null)
+            return null;
+        return batch.project(outFieldIds, td);
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    @Override
+    public void close() {
+        child.close();
+    }
+}
@@ -0,0 +1,138 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * BatchSeqScan is the batch version of {@link SeqScan}: it reads the pages of a
+ * table in order and copies their tuples into the columns of a {@link TupleBatch}.
+ * Heap files are read page by page; other files through their DbFileIterator.
+ */
+public class BatchSeqScan implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final TransactionId tid;
+    private final int tableId;
+    private final String tableAlias;
+    private final TupleDesc td;
+    private final int batchSize;
+
+    private transient TupleBatch batch;
+    // 堆文件按页读取：当前页号与页内的元组迭代器
+    private transient int numPages;
+    private transient int nextPage;
+    private transient Iterator<Tuple> pageIt;
+    // 其他文件使用DbFileIterator
+    private transient DbFileIterator fileIt;
+    private transient boolean isOpen = false;
+
+    /**
+     * Creates a batch sequential scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param tableid    the table to scan.
+     * @param tableAlias the alias of this table; the returned tupleDesc has fields
+     *                   with name tableAlias.fieldName
+     * @param batchSize  the number of rows in each batch
+     */
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias, int batchSize) {
+        this.tid = tid;
+        this.tableId = tableid;
+        this.tableAlias = tableAlias;
+        this.batchSize = batchSize;
+        List<TupleDesc.TDItem> items = new ArrayList<>();
+        for (TupleDesc.TDItem item : Database.getCatalog().getTupleDesc(tableid).getTdItems()) {
+            items.add(new TupleDesc.TDItem(item.fieldType, tableAlias + "." + item.fieldName));
+        }
+        this.td = new TupleDesc(items);
+    }
+
+    public BatchSeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, TupleBatch.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @return the name of the table this operator scans in the catalog
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableId);
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        batch = new TupleBatch(td, batchSize);
+        if (file instanceof HeapFile) {
+            numPages = ((HeapFile) file).numPages();
+            nextPage = 0;
+            pageIt = null;
+        } else {
+            fileIt = file.iterator(tid);
+            fileIt.open();
+        }
+        isOpen = true;
+    }
+
+    @Override
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        batch.clear();
+        if (fileIt != null) {
+            while (!batch.isFull() && fileIt.hasNext()) {
+                batch.addTuple(fileIt.next());
+            }
+        } else {
+            while (!batch.isFull()) {
+                if (pageIt == null || !pageIt.hasNext()) {
+                    if (nextPage >= numPages)
+                        break;
+                    HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                            new HeapPageId(tableId, nextPage++), Permissions.READ_ONLY);
+                    pageIt = page.iterator();
+                    continue;
+                }
+                batch.addTuple(pageIt.next());
+            }
+        }
+        return batch.size() == 0 ? null : batch;
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    @Override
+    public void close() {
+        if (fileIt != null) {
+            fileIt.close();
+            fileIt = null;
+        }
+        pageIt = null;
+        batch = null;
+        isOpen = false;
+    }
+}
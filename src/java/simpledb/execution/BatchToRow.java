@@ -0,0 +1,86 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * BatchToRow adapts a batch operator to the row interface: it returns the
+ * selected rows of each batch of its child as Tuples. It is the root of a
+ * batch plan, and lets row operators read from batch operators.
+ *
+ * @see RowToBatch
+ * @see BatchPlanner
+ */
+public class BatchToRow implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final BatchOpIterator child;
+    private transient TupleBatch batch;
+    private transient int nextRow;
+    private transient boolean isOpen = false;
+
+    /**
+     * @param child the batch operator to read rows from
+     */
+    public BatchToRow(BatchOpIterator child) {
+        this.child = child;
+    }
+
+    /**
+     * @return the batch operator this adapter reads from
+     */
+    public BatchOpIterator getChild() {
+        return child;
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = null;
+        isOpen = true;
+    }
+
+    @Override
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        // 跳过没有选中行的批次
+        while (batch == null || nextRow >= batch.numRows()) {
+            batch = child.nextBatch();
+            nextRow = 0;
+            if (batch == null)
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return batch.getTuple(nextRow++);
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    @Override
+    public void close() {
+        child.close();
+        batch = null;
+        isOpen = false;
+    }
+}
@@ -0,0 +1,196 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * BlockNestedLoopJoin is a nested loop join that reads child1 a block at a time:
+ * it keeps up to blockPages pages worth of tuples of child1 in memory and scans
+ * child2 once per block instead of once per tuple, so child2 is read
+ * ceil(|child1| / block size) times rather than |child1| times. It evaluates any
+ * join predicate.
+ */
+public class BlockNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    public static final int DEFAULT_BLOCK_PAGES = 10;
+
+    private final JoinPredicate p;
+    private OpIterator child1, child2;
+    private final int blockPages;
+    private TupleDesc comboTD;
+
+    // 当前块中child1的元组，以及正在与之比较的child2元组
+    private transient JoinPredicate.Compiled compiled;
+    private transient List<Tuple> block;
+    private transient int blockSize;
+    private transient Tuple right;
+    private transient int pos;
+
+    /**
+     * Constructor. Buffers {@link #DEFAULT_BLOCK_PAGES} pages of child1.
+     *
+     * @param p      The predicate to use to join the children
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Iterator for the right(inner) relation to join
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, DEFAULT_BLOCK_PAGES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p          The predicate to use to join the children
+     * @param child1     Iterator for the left(outer) relation to join
+     * @param child2     Iterator for the right(inner) relation to join
+     * @param blockPages the number of pages of child1 tuples to keep in memory per scan of child2
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int blockPages) {
+        if (blockPages < 1) {
+            throw new IllegalArgumentException("a block holds at least one page");
+        }
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.blockPages = blockPages;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @param td         the schema of the buffered tuples
+     * @param blockPages the number of pages in a block
+     * @return the number of tuples of schema td that fill blockPages heap pages
+     */
+    public static int tuplesPerBlock(TupleDesc td, int blockPages) {
+        int perPage = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        return Math.max(1, perPage) * blockPages;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.p.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.p.getField2());
+    }
+
+    /**
+     * @return the number of pages of child1 tuples kept in memory
+     */
+    public int getBlockPages() {
+        return blockPages;
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    @Override
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        child1.open();
+        child2.open();
+        blockSize = tuplesPerBlock(child1.getTupleDesc(), blockPages);
+        compiled = p.compile(child1.getTupleDesc(), child2.getTupleDesc());
+        block = new ArrayList<>();
+        right = null;
+        super.open();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        block = null;
+        right = null;
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        block.clear();
+        right = null;
+        resetNext();
+    }
+
+    /**
+     * Read the next block of child1.
+     *
+     * @return false if child1 has no more tuples
+     */
+    private boolean readBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        while (block.size() < blockSize && child1.hasNext()) {
+            block.add(child1.next());
+        }
+        return !block.isEmpty();
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        return Tuple.merge(comboTD, t1, t2);
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. For each block of child1, every tuple of child2 is compared
+     * with every tuple of the block; the tuples returned are the concatenation
+     * of the joining tuples from the left and right relation.
+     */
+    @Override
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (right != null) {
+                while (pos < block.size()) {
+                    Tuple left = block.get(pos++);
+                    if (compiled.filter(left, right)) {
+                        return merge(left, right);
+                    }
+                }
+                right = null;
+            }
+            if (block.isEmpty()) {
+                if (!readBlock()) {
+                    return null;
+                }
+            } else if (!child2.hasNext()) {
+                // child2读完一遍，换下一块
+                if (!readBlock()) {
+                    return null;
+                }
+                child2.rewind();
+            }
+            if (!child2.hasNext()) {
+                // 刚开始一遍扫描child2就没有元组，child2为空
+                return null;
+            }
+            right = child2.next();
+            pos = 0;
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+}
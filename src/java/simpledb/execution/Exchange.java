@@ -0,0 +1,323 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * An Exchange moves tuples between threads, as in Volcano. Each of its
+ * producers, an OpIterator, is run to completion by a thread of a shared pool,
+ * and the tuples it returns are routed to one or more consumers, each an
+ * {@link ExchangeConsumer} that the operators above read like any other child:
+ * <ul>
+ * <li>{@link #gather}: every tuple goes to the single consumer, which merges the
+ * output of parallel producers;</li>
+ * <li>{@link #repartition}: a tuple goes to the consumer chosen by the hash of
+ * some of its fields, so that equal values meet in the same consumer;</li>
+ * <li>{@link #broadcast}: every tuple goes to every consumer.</li>
+ * </ul>
+ * Tuples are sent in chunks through a bounded queue per consumer, so a producer
+ * that gets ahead of its consumers waits for them. The producers are started
+ * when the first consumer is opened and stopped once every consumer is closed.
+ * The order of the tuples is not kept.
+ */
+public class Exchange implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * How the tuples of the producers are routed to the consumers.
+     */
+    public enum Mode {
+        GATHER, REPARTITION, BROADCAST
+    }
+
+    // 每次放入队列的元组数，以及每个队列最多缓存的块数
+    static final int CHUNK_SIZE = 256;
+    static final int QUEUE_CHUNKS = 16;
+    private static final List<Tuple> END = new ArrayList<>();
+
+    // 生产者会阻塞在满的队列上，所以每个生产者占用一个线程，线程数由并行度决定
+    private static final ExecutorService POOL = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "exchange-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    private final OpIterator[] producers;
+    private final Mode mode;
+    private final int[] fields;
+    private final ExchangeConsumer[] consumers;
+
+    private transient List<BlockingQueue<List<Tuple>>> queues;
+    private transient AtomicIntegerArray closed;
+    private transient Future<?>[] tasks;
+    private transient volatile boolean cancelled;
+    private transient volatile Throwable error;
+    private transient int numOpen;
+
+    private Exchange(OpIterator[] producers, Mode mode, int[] fields, int numConsumers) {
+        if (producers.length == 0 || numConsumers < 1) {
+            throw new IllegalArgumentException("an exchange needs producers and consumers");
+        }
+        TupleDesc td = producers[0].getTupleDesc();
+        for (OpIterator producer : producers) {
+            if (!td.equals(producer.getTupleDesc())) {
+                throw new IllegalArgumentException("producers of an exchange must return the same schema");
+            }
+        }
+        this.producers = producers.clone();
+        this.mode = mode;
+        this.fields = fields.clone();
+        this.consumers = new ExchangeConsumer[numConsumers];
+        for (int i = 0; i < numConsumers; i++) {
+            consumers[i] = new ExchangeConsumer(this, i);
+        }
+    }
+
+    /**
+     * @param producers the plans to run in parallel
+     * @return the consumer of the tuples of all producers
+     */
+    public static ExchangeConsumer gather(OpIterator... producers) {
+        return new Exchange(producers, Mode.GATHER, new int[0], 1).consumer(0);
+    }
+
+    /**
+     * @param producers    the plans to run in parallel
+     * @param fields       the fields whose hash chooses the consumer of a tuple
+     * @param numConsumers the number of consumers
+     * @return the consumers; every tuple with the same values of fields is sent to the same one
+     */
+    public static ExchangeConsumer[] repartition(OpIterator[] producers, int[] fields, int numConsumers) {
+        return new Exchange(producers, Mode.REPARTITION, fields, numConsumers).consumers.clone();
+    }
+
+    /**
+     * @param producers    the plans to run in parallel
+     * @param numConsumers the number of consumers
+     * @return the consumers, each of which receives every tuple
+     */
+    public static ExchangeConsumer[] broadcast(OpIterator[] producers, int numConsumers) {
+        return new Exchange(producers, Mode.BROADCAST, new int[0], numConsumers).consumers.clone();
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * @return the fields tuples are repartitioned on; none unless the mode is REPARTITION
+     */
+    public int[] getFields() {
+        return fields.clone();
+    }
+
+    public OpIterator[] getProducers() {
+        return producers.clone();
+    }
+
+    /**
+     * Replace the producers, for instance with rewritten plans.
+     */
+    public void setProducers(OpIterator[] producers) {
+        if (producers.length != this.producers.length) {
+            throw new IllegalArgumentException("expected " + this.producers.length + " producers");
+        }
+        System.arraycopy(producers, 0, this.producers, 0, producers.length);
+    }
+
+    public int numConsumers() {
+        return consumers.length;
+    }
+
+    public ExchangeConsumer consumer(int i) {
+        return consumers[i];
+    }
+
+    TupleDesc getTupleDesc() {
+        return producers[0].getTupleDesc();
+    }
+
+    /**
+     * Called when a consumer is opened; the first one starts the producers.
+     */
+    synchronized void open(int consumer) throws DbException {
+        if (numOpen > 0 && closed.get(consumer) != 0) {
+            throw new DbException("a consumer of an exchange cannot be reopened while the others run");
+        }
+        if (numOpen++ == 0) {
+            queues = new ArrayList<>(consumers.length);
+            for (int i = 0; i < consumers.length; i++) {
+                queues.add(new ArrayBlockingQueue<>(QUEUE_CHUNKS));
+            }
+            closed = new AtomicIntegerArray(consumers.length);
+            cancelled = false;
+            error = null;
+            tasks = new Future<?>[producers.length];
+            for (int i = 0; i < producers.length; i++) {
+                OpIterator producer = producers[i];
+                tasks[i] = POOL.submit(() -> produce(producer));
+            }
+        }
+    }
+
+    /**
+     * Called when a consumer is closed; the last one stops the producers and
+     * waits for them to close their plans.
+     */
+    synchronized void close(int consumer) {
+        if (numOpen == 0) {
+            return;
+        }
+        // 已关闭的消费者不再接收元组，否则生产者会阻塞在它的队列上
+        closed.set(consumer, 1);
+        queues.get(consumer).clear();
+        if (--numOpen > 0) {
+            return;
+        }
+        // 从未打开的消费者也不再接收元组
+        for (int i = 0; i < consumers.length; i++) {
+            closed.set(i, 1);
+        }
+        cancelled = true;
+        for (BlockingQueue<List<Tuple>> queue : queues) {
+            queue.clear();
+        }
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // the error was passed to the consumers
+            }
+        }
+        tasks = null;
+        queues = null;
+    }
+
+    /**
+     * @return true if no other consumer is open, so the producers can be restarted
+     */
+    synchronized boolean isOnlyOpenConsumer() {
+        return numOpen == 1;
+    }
+
+    /**
+     * @return the next chunk of tuples for a consumer, {@link #END} once a
+     *         producer has finished
+     */
+    List<Tuple> take(int consumer) throws DbException, TransactionAbortedException {
+        List<Tuple> chunk;
+        try {
+            chunk = queues.get(consumer).take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("interrupted while waiting for tuples");
+        }
+        if (chunk == END && error != null) {
+            if (error instanceof TransactionAbortedException) {
+                throw new TransactionAbortedException();
+            }
+            DbException e = new DbException("producer of an exchange failed: " + error);
+            e.initCause(error);
+            throw e;
+        }
+        return chunk;
+    }
+
+    boolean isEnd(List<Tuple> chunk) {
+        return chunk == END;
+    }
+
+    int numProducers() {
+        return producers.length;
+    }
+
+    private void produce(OpIterator producer) {
+        List<BlockingQueue<List<Tuple>>> queues = this.queues;
+        List<List<Tuple>> out = new ArrayList<>();
+        for (int i = 0; i < queues.size(); i++) {
+            out.add(new ArrayList<>(CHUNK_SIZE));
+        }
+        try {
+            producer.open();
+            while (!cancelled && producer.hasNext()) {
+                Tuple t = producer.next();
+                switch (mode) {
+                    case GATHER:
+                        add(queues, out, 0, t);
+                        break;
+                    case REPARTITION:
+                        add(queues, out, partition(t), t);
+                        break;
+                    default:
+                        for (int i = 0; i < queues.size(); i++) {
+                            add(queues, out, i, t);
+                        }
+                        break;
+                }
+            }
+            for (int i = 0; i < queues.size(); i++) {
+                if (!out.get(i).isEmpty()) {
+                    put(queues, i, out.get(i));
+                }
+            }
+        } catch (Throwable e) {
+            if (error == null) {
+                error = e;
+            }
+        } finally {
+            producer.close();
+            for (int i = 0; i < queues.size(); i++) {
+                put(queues, i, END);
+            }
+        }
+    }
+
+    private int partition(Tuple t) {
+        int h = 0;
+        for (int f : fields) {
+            h = 31 * h + t.getField(f).hashCode();
+        }
+        // 与HashEquiJoin使用的高位不同，分区内的连接仍能均匀地再分区
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return Math.floorMod(h, consumers.length);
+    }
+
+    private void add(List<BlockingQueue<List<Tuple>>> queues, List<List<Tuple>> out, int consumer, Tuple t) {
+        List<Tuple> chunk = out.get(consumer);
+        chunk.add(t);
+        if (chunk.size() == CHUNK_SIZE) {
+            put(queues, consumer, chunk);
+            out.set(consumer, new ArrayList<>(CHUNK_SIZE));
+        }
+    }
+
+    private void put(List<BlockingQueue<List<Tuple>>> queues, int consumer, List<Tuple> chunk) {
+        try {
+            // 定时重试，消费者关闭后不再等待
+            while (closed.get(consumer) == 0 && !(cancelled && chunk != END)
+                    && !queues.get(consumer).offer(chunk, 10, TimeUnit.MILLISECONDS)) {
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
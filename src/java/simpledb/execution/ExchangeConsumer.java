@@ -0,0 +1,114 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * ExchangeConsumer returns the tuples an {@link Exchange} routes to one of its
+ * consumers, as they arrive from the threads running the producers. Its
+ * children are the producers of the exchange. It can be rewound only while it
+ * is the one open consumer of its exchange, which then runs the producers again.
+ */
+public class ExchangeConsumer extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final Exchange exchange;
+    private final int index;
+
+    private transient Iterator<Tuple> chunk;
+    private transient int finished;
+    private transient boolean running;
+
+    ExchangeConsumer(Exchange exchange, int index) {
+        this.exchange = exchange;
+        this.index = index;
+    }
+
+    /**
+     * @return the exchange this consumer reads from
+     */
+    public Exchange getExchange() {
+        return exchange;
+    }
+
+    /**
+     * @return the number of this consumer in its exchange
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return exchange.getTupleDesc();
+    }
+
+    @Override
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        start();
+        super.open();
+    }
+
+    private void start() throws DbException {
+        exchange.open(index);
+        running = true;
+        chunk = null;
+        finished = 0;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        if (running) {
+            running = false;
+            exchange.close(index);
+        }
+        chunk = null;
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (!exchange.isOnlyOpenConsumer()) {
+            throw new DbException("a consumer of an exchange cannot be rewound while the others run");
+        }
+        // 重新运行所有生产者
+        running = false;
+        exchange.close(index);
+        start();
+        resetNext();
+    }
+
+    @Override
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (chunk == null || !chunk.hasNext()) {
+            // 每个生产者结束时发送一个结束标记
+            if (finished == exchange.numProducers()) {
+                return null;
+            }
+            List<Tuple> next = exchange.take(index);
+            if (exchange.isEnd(next)) {
+                finished++;
+                chunk = null;
+            } else {
+                chunk = next.iterator();
+            }
+        }
+        return chunk.next();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return exchange.getProducers();
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        exchange.setProducers(children);
+    }
+}
@@ -0,0 +1,1074 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * An expression over the fields of a tuple: fields, constants, integer
+ * arithmetic, comparisons, AND, OR, NOT, IN, BETWEEN and LIKE.
+ * <p>
+ * An expression is compiled once for the schema of the tuples it is evaluated
+ * on, into a tree of closures specialized for the types of its operands and
+ * its operators, so that evaluating it on a tuple neither looks up field names
+ * nor dispatches on a {@link Predicate.Op}.
+ */
+public abstract class Expression implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Selectivity of a condition whose selectivity cannot be estimated from statistics */
+    public static final double DEFAULT_SELECTIVITY = 1.0 / 3;
+
+    /** The value of a compiled INT expression */
+    public interface IntEvaluator extends Serializable {
+        int eval(Tuple t);
+    }
+
+    /** The value of a compiled STRING expression */
+    public interface StringEvaluator extends Serializable {
+        String eval(Tuple t);
+    }
+
+    /** The value of a compiled expression, as a field */
+    public interface FieldEvaluator extends Serializable {
+        Field eval(Tuple t);
+    }
+
+    /** A compiled condition */
+    public interface Condition extends Serializable {
+        boolean test(Tuple t);
+    }
+
+    /** Integer arithmetic operators */
+    public enum ArithmeticOp implements Serializable {
+        PLUS("+"), MINUS("-"), TIMES("*"), DIVIDE("/"), MODULO("%");
+
+        private final String symbol;
+
+        ArithmeticOp(String symbol) {
+            this.symbol = symbol;
+        }
+
+        @Override
+        public String toString() {
+            return symbol;
+        }
+    }
+
+    /**
+     * @param td the schema of the tuples the expression is evaluated on
+     * @return the type of the value of this expression, or null if it is a
+     *         condition or a parameter bound to a constant whose type is the
+     *         type of what it is compared with
+     */
+    public abstract Type getType(TupleDesc td);
+
+    /** @return true if this expression is a condition, evaluated with {@link #compileCondition} */
+    public boolean isCondition() {
+        return false;
+    }
+
+    /**
+     * Compile this expression into an evaluator of its INT value
+     *
+     * @throws IllegalArgumentException if this is not an INT expression on td
+     * @throws NoSuchElementException   if a field of this expression is not in td
+     */
+    public IntEvaluator compileInt(TupleDesc td) {
+        throw new IllegalArgumentException(this + " is not an INT expression");
+    }
+
+    /**
+     * Compile this expression into an evaluator of its STRING value
+     *
+     * @throws IllegalArgumentException if this is not a STRING expression on td
+     * @throws NoSuchElementException   if a field of this expression is not in td
+     */
+    public StringEvaluator compileString(TupleDesc td) {
+        throw new IllegalArgumentException(this + " is not a STRING expression");
+    }
+
+    /**
+     * Compile this condition
+     *
+     * @throws IllegalArgumentException if this is not a condition, or its operands have the wrong types
+     * @throws NoSuchElementException   if a field of this expression is not in td
+     */
+    public Condition compileCondition(TupleDesc td) {
+        throw new IllegalArgumentException(this + " is not a condition");
+    }
+
+    /**
+     * Compile this expression into an evaluator of its value as a field, of
+     * type {@link #getType}, or INT for an untyped constant
+     *
+     * @throws IllegalArgumentException if this is a condition
+     */
+    public FieldEvaluator compileField(TupleDesc td) {
+        if (isCondition()) {
+            throw new IllegalArgumentException("Condition " + this + " has no value");
+        }
+        if (getType(td) == Type.STRING_TYPE) {
+            StringEvaluator s = compileString(td);
+            return t -> new StringField(s.eval(t), Type.STRING_LEN);
+        }
+        IntEvaluator i = compileInt(td);
+        return t -> new IntField(i.eval(t));
+    }
+
+    /**
+     * @param parameters the value of each parameter; the value of an INT
+     *                   expression is a String representing an integer
+     * @return this expression with its parameters replaced by their values
+     */
+    public Expression bind(List<String> parameters) {
+        return this;
+    }
+
+    /** Add the names of the fields this expression reads by name to names */
+    public void columns(Collection<String> names) {
+    }
+
+    /**
+     * Estimate the fraction of the tuples of a table that satisfy this
+     * condition; the parts of the condition that do not compare a field of the
+     * table with a constant are given {@link #DEFAULT_SELECTIVITY}.
+     *
+     * @param stats the statistics of the table
+     * @param alias the alias of the table, which qualifies the names of its fields
+     * @param td    the schema of the table
+     */
+    public double estimateSelectivity(TableStats stats, String alias, TupleDesc td) {
+        return DEFAULT_SELECTIVITY;
+    }
+
+    /** @return true if this is a constant, whose value does not depend on the tuple */
+    boolean isConstant() {
+        return false;
+    }
+
+    // ----------------------------------------------------------------------
+    // factories
+
+    /** @return the field with the given name, such as alias.field */
+    public static Expression column(String name) {
+        return new Column(name, -1);
+    }
+
+    /** @return the field with the given index */
+    public static Expression field(int index) {
+        return new Column(null, index);
+    }
+
+    public static Expression constant(Field value) {
+        return new Constant(value, null);
+    }
+
+    public static Expression constant(int value) {
+        return new Constant(new IntField(value), null);
+    }
+
+    /** @return the parameter with the given index, to be replaced by its value with {@link #bind} */
+    public static Expression parameter(int index) {
+        return new Parameter(index);
+    }
+
+    public static Expression arithmetic(ArithmeticOp op, Expression left, Expression right) {
+        return new Arithmetic(op, left, right);
+    }
+
+    /**
+     * @return the comparison of two INT or two STRING expressions; LIKE tests
+     *         if the left STRING contains the right one, as {@link StringField}
+     *         does, and whether two INTs are equal
+     */
+    public static Expression compare(Predicate.Op op, Expression left, Expression right) {
+        return new Comparison(op, left, right);
+    }
+
+    /** @return a condition true if all operands are; with no operands, it is always true */
+    public static Expression and(Expression... operands) {
+        return new Logical(true, Arrays.asList(operands));
+    }
+
+    /** @return a condition true if any of the operands is; with no operands, it is always false */
+    public static Expression or(Expression... operands) {
+        return new Logical(false, Arrays.asList(operands));
+    }
+
+    public static Expression not(Expression operand) {
+        return new Not(operand);
+    }
+
+    /** @return a condition true if operand is equal to one of values */
+    public static Expression in(Expression operand, List<Expression> values) {
+        return new In(operand, values);
+    }
+
+    /** @return a condition true if operand is at least low and at most high */
+    public static Expression between(Expression operand, Expression low, Expression high) {
+        return new Between(operand, low, high);
+    }
+
+    /**
+     * @return a condition true if the STRING operand matches pattern, in which
+     *         % matches any sequence of characters and _ any one character
+     */
+    public static Expression like(Expression operand, String pattern) {
+        return new Like(operand, pattern);
+    }
+
+    /** @return the condition of a predicate, on the fields of the tuples it filters */
+    public static Expression of(Predicate p) {
+        return compare(p.getOp(), field(p.getField()), constant(p.getOperand()));
+    }
+
+    /** @return the condition that all of the predicates are true */
+    public static Expression of(Predicate[] predicates) {
+        Expression[] operands = new Expression[predicates.length];
+        for (int i = 0; i < predicates.length; i++) {
+            operands[i] = of(predicates[i]);
+        }
+        return and(operands);
+    }
+
+    // ----------------------------------------------------------------------
+    // helpers
+
+    /** @return the type two operands are compared as */
+    private static Type commonType(Expression left, Expression right, TupleDesc td) {
+        Type lt = left.getType(td);
+        Type rt = right.getType(td);
+        if (lt != null && rt != null && lt != rt) {
+            throw new IllegalArgumentException("Cannot compare " + left + " with " + right);
+        }
+        return lt != null ? lt : rt != null ? rt : Type.INT_TYPE;
+    }
+
+    /** @return the type an operand is compared with each of values as */
+    private static Type commonType(Expression operand, List<Expression> values, TupleDesc td) {
+        Type type = operand.getType(td);
+        for (Expression v : values) {
+            Type vt = v.getType(td);
+            if (type != null && vt != null && type != vt) {
+                throw new IllegalArgumentException("Cannot compare " + operand + " with " + v);
+            }
+            type = type != null ? type : vt;
+        }
+        return type != null ? type : Type.INT_TYPE;
+    }
+
+    /** @return the operator of a comparison with its operands swapped */
+    private static Predicate.Op swap(Predicate.Op op) {
+        switch (op) {
+            case LESS_THAN:
+                return Predicate.Op.GREATER_THAN;
+            case LESS_THAN_OR_EQ:
+                return Predicate.Op.GREATER_THAN_OR_EQ;
+            case GREATER_THAN:
+                return Predicate.Op.LESS_THAN;
+            case GREATER_THAN_OR_EQ:
+                return Predicate.Op.LESS_THAN_OR_EQ;
+            default:
+                return op;
+        }
+    }
+
+    /**
+     * @return the selectivity of "field op value" on a table, or
+     *         DEFAULT_SELECTIVITY unless field is a field of the table and value a
+     *         constant of its type
+     */
+    private static double comparisonSelectivity(TableStats stats, String alias, TupleDesc td,
+                                                Expression field, Predicate.Op op, Expression value) {
+        if (!(field instanceof Column) || !(value instanceof Constant)) {
+            return DEFAULT_SELECTIVITY;
+        }
+        int f = ((Column) field).tableField(alias, td);
+        Field c = f < 0 ? null : ((Constant) value).asField(td.getFieldType(f));
+        return c == null ? DEFAULT_SELECTIVITY : stats.estimateSelectivity(f, op, c);
+    }
+
+    private static List<Expression> bindAll(List<Expression> expressions, List<String> parameters) {
+        List<Expression> bound = new ArrayList<>();
+        for (Expression e : expressions) {
+            bound.add(e.bind(parameters));
+        }
+        return bound;
+    }
+
+    private static String join(List<Expression> expressions, String separator) {
+        StringBuilder sb = new StringBuilder();
+        for (Expression e : expressions) {
+            sb.append(sb.length() == 0 ? "" : separator).append(e);
+        }
+        return sb.toString();
+    }
+
+    // ----------------------------------------------------------------------
+    // nodes
+
+    /** A field, by name or by index */
+    private static final class Column extends Expression {
+        private static final long serialVersionUID = 1L;
+        private final String name;
+        private final int index;
+
+        Column(String name, int index) {
+            this.name = name;
+            this.index = index;
+        }
+
+        private int index(TupleDesc td) {
+            if (name != null) {
+                return td.fieldNameToIndex(name);
+            }
+            if (index >= td.numFields()) {
+                throw new NoSuchElementException("No field " + index);
+            }
+            return index;
+        }
+
+        /** @return the index of this field in a table, or -1 if it is not a field of the table */
+        int tableField(String alias, TupleDesc td) {
+            if (name == null) {
+                return index < td.numFields() ? index : -1;
+            }
+            String[] parts = name.split("[.]");
+            if (parts.length != 2 || !parts[0].equals(alias)) {
+                return -1;
+            }
+            try {
+                return td.fieldNameToIndex(parts[1]);
+            } catch (NoSuchElementException e) {
+                return -1;
+            }
+        }
+
+        @Override
+        public Type getType(TupleDesc td) {
+            return td.getFieldType(index(td));
+        }
+
+        @Override
+        public IntEvaluator compileInt(TupleDesc td) {
+            int i = index(td);
+            if (td.getFieldType(i) != Type.INT_TYPE) {
+                super.compileInt(td);
+            }
+            return t -> t.getInt(i);
+        }
+
+        @Override
+        public StringEvaluator compileString(TupleDesc td) {
+            int i = index(td);
+            if (td.getFieldType(i) != Type.STRING_TYPE) {
+                super.compileString(td);
+            }
+            return t -> ((StringField) t.getField(i)).getValue();
+        }
+
+        @Override
+        public FieldEvaluator compileField(TupleDesc td) {
+            int i = index(td);
+            return t -> t.getField(i);
+        }
+
+        @Override
+        public void columns(Collection<String> names) {
+            if (name != null) {
+                names.add(name);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name != null ? name : "$" + index;
+        }
+    }
+
+    /** A constant; a bound parameter keeps its text, converted to the type it is used as */
+    private static final class Constant extends Expression {
+        private static final long serialVersionUID = 1L;
+        private final Field value;
+        private final String text;
+
+        Constant(Field value, String text) {
+            this.value = value;
+            this.text = text;
+        }
+
+        /** @return the value of this constant as a field of the given type, or null if it has another type */
+        Field asField(Type type) {
+            if (value != null) {
+                return value.getType() == type ? value : null;
+            }
+            if (type == Type.STRING_TYPE) {
+                return new StringField(text, Type.STRING_LEN);
+            }
+            try {
+                return new IntField(Integer.parseInt(text));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @Override
+        boolean isConstant() {
+            return true;
+        }
+
+        @Override
+        public Type getType(TupleDesc td) {
+            return value == null ? null : value.getType();
+        }
+
+        @Override
+        public IntEvaluator compileInt(TupleDesc td) {
+            Field f = asField(Type.INT_TYPE);
+            if (f == null) {
+                super.compileInt(td);
+            }
+            int v = ((IntField) f).getValue();
+            return t -> v;
+        }
+
+        @Override
+        public StringEvaluator compileString(TupleDesc td) {
+            Field f = asField(Type.STRING_TYPE);
+            if (f == null) {
+                super.compileString(td);
+            }
+            String v = ((StringField) f).getValue();
+            return t -> v;
+        }
+
+        @Override
+        public FieldEvaluator compileField(TupleDesc td) {
+            Field f = value != null ? value : asField(Type.INT_TYPE);
+            if (f == null) {
+                super.compileInt(td);
+            }
+            return t -> f;
+        }
+
+        @Override
+        public String toString() {
+            if (value == null) {
+                return text;
+            }
+            return value.getType() == Type.STRING_TYPE ? "'" + value + "'" : value.toString();
+        }
+    }
+
+    /** The ? of a prepared statement */
+    private static final class Parameter extends Expression {
+        private static final long serialVersionUID = 1L;
+        private final int index;
+
+        Parameter(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public Type getType(TupleDesc td) {
+            return null;
+        }
+
+        @Override
+        public IntEvaluator compileInt(TupleDesc td) {
+            throw new IllegalArgumentException("Parameter " + (index + 1) + " is not bound");
+        }
+
+        @Override
+        public StringEvaluator compileString(TupleDesc td) {
+            throw new IllegalArgumentException("Parameter " + (index + 1) + " is not bound");
+        }
+
+        @Override
+        public Expression bind(List<String> parameters) {
+            return new Constant(null, parameters.get(index));
+        }
+
+        @Override
+        public String toString() {
+            return "?";
+        }
+    }
+
+    private static final class Arithmetic extends Expression {
+        private static final long serialVersionUID = 1L;
+        private final ArithmeticOp op;
+        private final Expression left;
+        private final Expression right;
+
+        Arithmetic(ArithmeticOp op, Expression left, Expression right) {
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Type getType(TupleDesc td) {
+            return Type.INT_TYPE;
+        }
+
+        @Override
+        public IntEvaluator compileInt(TupleDesc td) {
+            IntEvaluator l = left.compileInt(td);
+            IntEvaluator r = right.compileInt(td);
+            switch (op) {
+                case PLUS:
+                    return t -> l.eval(t) + r.eval(t);
+                case MINUS:
+                    return t -> l.eval(t) - r.eval(t);
+                case TIMES:
+                    return t -> l.eval(t) * r.eval(t);
+                case DIVIDE:
+                    return t -> l.eval(t) / r.eval(t);
+                default:
+                    return t -> l.eval(t) % r.eval(t);
+            }
+        }
+
+        @Override
+        public Expression bind(List<String> parameters) {
+            return new Arithmetic(op, left.bind(parameters), right.bind(parameters));
+        }
+
+        @Override
+        public void columns(Collection<String> names) {
+            left.columns(names);
+            right.columns(names);
+        }
+
+        @Override
+        public String toString() {
+            return "(" + left + " " + op + " " + right + ")";
+        }
+    }
+
+    private static final class Comparison extends Expression {
+        private static final long serialVersionUID = 1L;
+        private final Predicate.Op op;
+        private final Expression left;
+        private final Expression right;
+
+        Comparison(Predicate.Op op, Expression left, Expression right) {
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public Type getType(TupleDesc td) {
+            return null;
+        }
+
+        @Override
+        public boolean isCondition() {
+            return true;
+        }
+
+        @Override
+        public Condition compileCondition(TupleDesc td) {
+            if (commonType(left, right, td) == Type.STRING_TYPE) {
+                return compileStrings(td);
+            }
+            // 常量放在右边，字段与常量比较时直接读取字段的值
+            if (left.isConstant() && !right.isConstant() && op != Predicate.Op.LIKE) {
+                return new Comparison(swap(op), right, left).compileCondition(td);
+            }
+            if (left instanceof Column && right.isConstant()) {
+                int i = ((Column) left).index(td);
+                int c = right.compileInt(td).eval(null);
+                switch (op) {
+                    case EQUALS:
+                    case LIKE:
+                        return t -> t.getInt(i) == c;
+                    case NOT_EQUALS:
+                        return t -> t.getInt(i) != c;
+                    case GREATER_THAN:
+                        return t -> t.getInt(i) > c;
+                    case GREATER_THAN_OR_EQ:
+                        return t -> t.getInt(i) >= c;
+                    case LESS_THAN:
+                        return t -> t.getInt(i) < c;
+                    default:
+                        return t -> t.getInt(i) <= c;
+                }
+            }
+            IntEvaluator l = left.compileInt(td);
+            IntEvaluator r = right.compileInt(td);
+            switch (op) {
+                case EQUALS:
+                case LIKE:
+                    return t -> l.eval(t) == r.eval(t);
+                case NOT_EQUALS:
+                    return t -> l.eval(t) != r.eval(t);
+                case GREATER_THAN:
+                    return t -> l.eval(t) > r.eval(t);
+                case GREATER_THAN_OR_EQ:
+                    return t -> l.eval(t) >= r.eval(t);
+                case LESS_THAN:
+                    return t -> l.eval(t) < r.eval(t);
+                default:
+                    return t -> l.eval(t) <= r.eval(t);
+            }
+        }
+
+        private Condition compileStrings(TupleDesc td) {
+            StringEvaluator l = left.compileString(td);
+            StringEvaluator r = right.compileString(td);
+            switch (op) {
+                case EQUALS:
+                    return t -> l.eval(t).equals(r.eval(t));
+                case NOT_EQUALS:
+                    return t -> !l.eval(t).equals(r.eval(t));
+                case GREATER_THAN:
+                    return t -> l.eval(t).compareTo(r.eval(t)) > 0;
+                case GREATER_THAN_OR_EQ:
+                    return t -> l.eval(t).compareTo(r.eval(t)) >= 0;
+                case LESS_THAN:
+                    return t -> l.eval(t).compareTo(r.eval(t)) < 0;
+                case LESS_THAN_OR_EQ:
+                    return t -> l.eval(t).compareTo(r.eval(t)) <= 0;
+                default:
+                    return t -> l.eval(t).contains(r.eval(t));
+            }
+        }
+
+        @Override
+        public Expression bind(List<String> parameters) {
+            return new Comparison(op, left.bind(parameters), right.bind(parameters));
+        }
+
+        @Override
+        public void columns(Collection<String> names) {
+            left.columns(names);
+            right.columns(names);
+        }
+
+        @Override
+        public double estimateSelectivity(TableStats stats, String alias, TupleDesc td) {
+            if (left.isConstant()) {
+                return comparisonSelectivity(stats, alias, td, right, swap(op), left);
+            }
+            return comparisonSelectivity(stats, alias, td, left, op, right);
+        }
+
+        @Override
+        public String toString() {
+            return left + " " + op + " " + right;
+        }
+    }
+
+    /** AND or OR of conditions */
+    private static final class Logical extends Expression {
+        private static final long serialVersionUID = 1L;
+        private final boolean and;
+        private final List<Expression> operands;
+
+        Logical(boolean and, List<Expression> operands) {
+            this.and = and;
+            this.operands = operands;
+        }
+
+        @Override
+        public Type getType(TupleDesc td) {
+            return null;
+        }
+
+        @Override
+        public boolean isCondition() {
+            return true;
+        }
+
+        @Override
+        public Condition compileCondition(TupleDesc td) {
+            Condition[] cs = new Condition[operands.size()];
+            for (int i = 0; i < cs.length; i++) {
+                cs[i] = operands.get(i).compileCondition(td);
+            }
+            if (cs.length == 0) {
+                return t -> and;
+            }
+            if (cs.length == 1) {
+                return cs[0];
+            }
+            // 从右向左两两组合, 而不是循环调用数组中的条件: 循环里的调用点
+            // 会见到每个条件的类型, JIT 无法内联
+            Condition result = cs[cs.length - 1];
+            for (int i = cs.length - 2; i >= 0; i--) {
+                result = combine(cs[i], result);
+            }
+            return result;
+        }
+
+        private Condition combine(Condition a, Condition b) {
+            return and ? t -> a.test(t) && b.test(t) : t -> a.test(t) || b.test(t);
+        }
+
+        @Override
+        public Expression bind(List<String> parameters) {
+            return new Logical(and, bindAll(operands, parameters));
+        }
+
+        @Override
+        public void columns(Collection<String> names) {
+            for (Expression e : operands) {
+                e.columns(names);
+            }
+        }
+
+        @Override
+        public double estimateSelectivity(TableStats stats, String alias, TupleDesc td) {
+            // 假设各条件相互独立
+            double sel = 1.0;
+            for (Expression e : operands) {
+                double s = e.estimateSelectivity(stats, alias, td);
+                sel *= and ? s : 1 - s;
+            }
+            return and ? sel : 1 - sel;
+        }
+
+        @Override
+        public String toString() {
+            return operands.isEmpty() ? String.valueOf(and)
+                    : "(" + join(operands, and ? " AND " : " OR ") + ")";
+        }
+    }
+
+    private static final class Not extends Expression {
+        private static final long serialVersionUID = 1L;
+        private final Expression operand;
+
+        Not(Expression operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        public Type getType(TupleDesc td) {
+            return null;
+        }
+
+        @Override
+        public boolean isCondition() {
+            return true;
+        }
+
+        @Override
+        public Condition compileCondition(TupleDesc td) {
+            Condition c = operand.compileCondition(td);
+            return t -> !c.test(t);
+        }
+
+        @Override
+        public Expression bind(List<String> parameters) {
+            return new Not(operand.bind(parameters));
+        }
+
+        @Override
+        public void columns(Collection<String> names) {
+            operand.columns(names);
+        }
+
+        @Override
+        public double estimateSelectivity(TableStats stats, String alias, TupleDesc td) {
+            return 1 - operand.estimateSelectivity(stats, alias, td);
+        }
+
+        @Override
+        public String toString() {
+            return "NOT " + operand;
+        }
+    }
+
+    private static final class In extends Expression {
+        private static final long serialVersionUID = 1L;
+        private final Expression operand;
+        private final List<Expression> values;
+
+        In(Expression operand, List<Expression> values) {
+            this.operand = operand;
+            this.values = values;
+        }
+
+        private boolean constantValues() {
+            for (Expression v : values) {
+                if (!v.isConstant()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Type getType(TupleDesc td) {
+            return null;
+        }
+
+        @Override
+        public boolean isCondition() {
+            return true;
+        }
+
+        @Override
+        public Condition compileCondition(TupleDesc td) {
+            if (commonType(operand, values, td) == Type.STRING_TYPE) {
+                StringEvaluator s = operand.compileString(td);
+                StringEvaluator[] vs = new StringEvaluator[values.size()];
+                for (int i = 0; i < vs.length; i++) {
+                    vs[i] = values.get(i).compileString(td);
+                }
+                if (constantValues()) {
+                    Set<String> set = new HashSet<>();
+                    for (StringEvaluator v : vs) {
+                        set.add(v.eval(null));
+                    }
+                    return t -> set.contains(s.eval(t));
+                }
+                return t -> {
+                    String x = s.eval(t);
+                    for (StringEvaluator v : vs) {
+                        if (x.equals(v.eval(t))) {
+                            return true;
+                        }
+                    }
+                    return false;
+                };
+            }
+            IntEvaluator e = operand.compileInt(td);
+            IntEvaluator[] vs = new IntEvaluator[values.size()];
+            for (int i = 0; i < vs.length; i++) {
+                vs[i] = values.get(i).compileInt(td);
+            }
+            if (constantValues()) {
+                // 常量列表排序后二分查找
+                int[] sorted = new int[vs.length];
+                for (int i = 0; i < vs.length; i++) {
+                    sorted[i] = vs[i].eval(null);
+                }
+                Arrays.sort(sorted);
+                return t -> Arrays.binarySearch(sorted, e.eval(t)) >= 0;
+            }
+            return t -> {
+                int x = e.eval(t);
+                for (IntEvaluator v : vs) {
+                    if (x == v.eval(t)) {
+                        return true;
+                    }
+                }
+                return false;
+            };
+        }
+
+        @Override
+        public Expression bind(List<String> parameters) {
+            return new In(operand.bind(parameters), bindAll(values, parameters));
+        }
+
+        @Override
+        public void columns(Collection<String> names) {
+            operand.columns(names);
+            for (Expression v : values) {
+                v.columns(names);
+            }
+        }
+
+        @Override
+        public double estimateSelectivity(TableStats stats, String alias, TupleDesc td) {
+            double sel = 0;
+            for (Expression v : values) {
+                sel += comparisonSelectivity(stats, alias, td, operand, Predicate.Op.EQUALS, v);
+            }
+            return Math.min(1.0, sel);
+        }
+
+        @Override
+        public String toString() {
+            return operand + " IN (" + join(values, ", ") + ")";
+        }
+    }
+
+    private static final class Between extends Expression {
+        private static final long serialVersionUID = 1L;
+        private final Expression operand;
+        private final Expression low;
+        private final Expression high;
+
+        Between(Expression operand, Expression low, Expression high) {
+            this.operand = operand;
+            this.low = low;
+            this.high = high;
+        }
+
+        @Override
+        public Type getType(TupleDesc td) {
+            return null;
+        }
+
+        @Override
+        public boolean isCondition() {
+            return true;
+        }
+
+        @Override
+        public Condition compileCondition(TupleDesc td) {
+            if (commonType(operand, Arrays.asList(low, high), td) == Type.STRING_TYPE) {
+                StringEvaluator s = operand.compileString(td);
+                StringEvaluator lo = low.compileString(td);
+                StringEvaluator hi = high.compileString(td);
+                return t -> {
+                    String x = s.eval(t);
+                    return x.compareTo(lo.eval(t)) >= 0 && x.compareTo(hi.eval(t)) <= 0;
+                };
+            }
+            IntEvaluator e = operand.compileInt(td);
+            IntEvaluator lo = low.compileInt(td);
+            IntEvaluator hi = high.compileInt(td);
+            if (low.isConstant() && high.isConstant()) {
+                int l = lo.eval(null);
+                int h = hi.eval(null);
+                return t -> {
+                    int x = e.eval(t);
+                    return x >= l && x <= h;
+                };
+            }
+            return t -> {
+                int x = e.eval(t);
+                return x >= lo.eval(t) && x <= hi.eval(t);
+            };
+        }
+
+        @Override
+        public Expression bind(List<String> parameters) {
+            return new Between(operand.bind(parameters), low.bind(parameters), high.bind(parameters));
+        }
+
+        @Override
+        public void columns(Collection<String> names) {
+            operand.columns(names);
+            low.columns(names);
+            high.columns(names);
+        }
+
+        @Override
+        public double estimateSelectivity(TableStats stats, String alias, TupleDesc td) {
+            double atLeast = comparisonSelectivity(stats, alias, td, operand, Predicate.Op.GREATER_THAN_OR_EQ, low);
+            double atMost = comparisonSelectivity(stats, alias, td, operand, Predicate.Op.LESS_THAN_OR_EQ, high);
+            if (atLeast == DEFAULT_SELECTIVITY || atMost == DEFAULT_SELECTIVITY) {
+                return atLeast * atMost;
+            }
+            return Math.max(0.0, atLeast + atMost - 1);
+        }
+
+        @Override
+        public String toString() {
+            return operand + " BETWEEN " + low + " AND " + high;
+        }
+    }
+
+    private static final class Like extends Expression {
+        private static final long serialVersionUID = 1L;
+        private final Expression operand;
+        private final String pattern;
+
+        Like(Expression operand, String pattern) {
+            this.operand = operand;
+            this.pattern = pattern;
+        }
+
+        @Override
+        public Type getType(TupleDesc td) {
+            return null;
+        }
+
+        @Override
+        public boolean isCondition() {
+            return true;
+        }
+
+        @Override
+        public Condition compileCondition(TupleDesc td) {
+            StringEvaluator s = operand.compileString(td);
+            // 常见的模式用字符串方法匹配，其余的转换为正则表达式
+            String inner = pattern.length() >= 2 ? pattern.substring(1, pattern.length() - 1) : "";
+            String head = pattern.isEmpty() ? "" : pattern.substring(0, pattern.length() - 1);
+            String tail = pattern.isEmpty() ? "" : pattern.substring(1);
+            if (!hasWildcard(pattern)) {
+                return t -> s.eval(t).equals(pattern);
+            }
+            if (pattern.startsWith("%") && pattern.endsWith("%") && !hasWildcard(inner)) {
+                return t -> s.eval(t).contains(inner);
+            }
+            if (pattern.endsWith("%") && !hasWildcard(head)) {
+                return t -> s.eval(t).startsWith(head);
+            }
+            if (pattern.startsWith("%") && !hasWildcard(tail)) {
+                return t -> s.eval(t).endsWith(tail);
+            }
+            StringBuilder regex = new StringBuilder();
+            StringBuilder literal = new StringBuilder();
+            for (char c : pattern.toCharArray()) {
+                if (c == '%' || c == '_') {
+                    if (literal.length() > 0) {
+                        regex.append(Pattern.quote(literal.toString()));
+                        literal.setLength(0);
+                    }
+                    regex.append(c == '%' ? ".*" : ".");
+                } else {
+                    literal.append(c);
+                }
+            }
+            if (literal.length() > 0) {
+                regex.append(Pattern.quote(literal.toString()));
+            }
+            Pattern p = Pattern.compile(regex.toString(), Pattern.DOTALL);
+            return t -> p.matcher(s.eval(t)).matches();
+        }
+
+        private static boolean hasWildcard(String s) {
+            return s.indexOf('%') >= 0 || s.indexOf('_') >= 0;
+        }
+
+        @Override
+        public Expression bind(List<String> parameters) {
+            return new Like(operand.bind(parameters), pattern);
+        }
+
+        @Override
+        public void columns(Collection<String> names) {
+            operand.columns(names);
+        }
+
+        @Override
+        public double estimateSelectivity(TableStats stats, String alias, TupleDesc td) {
+            if (!hasWildcard(pattern)) {
+                return comparisonSelectivity(stats, alias, td, operand, Predicate.Op.EQUALS,
+                        constant(new StringField(pattern, Type.STRING_LEN)));
+            }
+            return DEFAULT_SELECTIVITY;
+        }
+
+        @Override
+        public String toString() {
+            return operand + " LIKE '" + pattern + "'";
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * ExternalSort returns the tuples of its child sorted by a comparator. If the
+ * child has at most maxTuples tuples they are sorted in memory; otherwise
+ * sorted runs of maxTuples tuples are written to {@link SpillFile}s and merged
+ * with a tree of losers, at most MERGE_FAN_IN runs at a time. Tuples that
+ * compare equal keep the order in which the child returned them.
+ */
+public class ExternalSort extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    public static final int DEFAULT_MAX_TUPLES = 20000;
+    static final int MERGE_FAN_IN = 64;
+
+    private OpIterator child;
+    private final Comparator<Tuple> comparator;
+    private final int maxTuples;
+
+    // 数据能放进内存时直接排序，否则为有序的归并段
+    private transient List<Tuple> sorted;
+    private transient Iterator<Tuple> it;
+    private transient List<SpillFile> runs;
+    private transient OpIterator[] readers;
+    private transient LoserTree merge;
+
+    /**
+     * @param comparator the order to return the tuples in
+     * @param maxTuples  the number of tuples to sort in memory
+     * @param child      the tuples to sort
+     */
+    public ExternalSort(Comparator<Tuple> comparator, int maxTuples, OpIterator child) {
+        this.child = child;
+        this.comparator = comparator;
+        this.maxTuples = maxTuples;
+    }
+
+    /**
+     * Sort on one field, in memory up to {@link #DEFAULT_MAX_TUPLES} tuples.
+     */
+    public ExternalSort(int field, boolean asc, OpIterator child) {
+        this(new TupleComparator(field, asc), DEFAULT_MAX_TUPLES, child);
+    }
+
+    /**
+     * @return the number of sorted runs written to disk, 0 if the tuples were sorted in memory
+     */
+    public int numRuns() {
+        return runs == null ? 0 : runs.size();
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    @Override
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        child.open();
+        sort();
+        startReading();
+        super.open();
+    }
+
+    /**
+     * Read the child, keeping it in memory if it fits and writing sorted runs otherwise.
+     */
+    private void sort() throws DbException, TransactionAbortedException {
+        sorted = null;
+        runs = null;
+        List<Tuple> buffer = new ArrayList<>();
+        while (child.hasNext()) {
+            buffer.add(child.next());
+            if (buffer.size() == maxTuples && child.hasNext()) {
+                if (runs == null)
+                    runs = new ArrayList<>();
+                runs.add(writeRun(buffer));
+                buffer.clear();
+            }
+        }
+        buffer.sort(comparator);
+        if (runs == null) {
+            sorted = buffer;
+            return;
+        }
+        if (!buffer.isEmpty()) {
+            runs.add(writeRun(buffer));
+        }
+        // 归并段太多时先归并成更少更长的段
+        while (runs.size() > MERGE_FAN_IN) {
+            List<SpillFile> merged = new ArrayList<>();
+            for (int i = 0; i < runs.size(); i += MERGE_FAN_IN) {
+                List<SpillFile> group = runs.subList(i, Math.min(i + MERGE_FAN_IN, runs.size()));
+                SpillFile out = new SpillFile(getTupleDesc());
+                openMerge(group);
+                Tuple t;
+                while ((t = nextMerged()) != null) {
+                    out.add(t);
+                }
+                closeReaders();
+                for (SpillFile f : group) {
+                    f.delete();
+                }
+                merged.add(out);
+            }
+            runs = merged;
+        }
+    }
+
+    private SpillFile writeRun(List<Tuple> buffer) throws DbException {
+        buffer.sort(comparator);
+        SpillFile run = new SpillFile(getTupleDesc());
+        for (Tuple t : buffer) {
+            run.add(t);
+        }
+        return run;
+    }
+
+    private void startReading() throws DbException, TransactionAbortedException {
+        if (sorted != null) {
+            it = sorted.iterator();
+        } else {
+            openMerge(runs);
+        }
+    }
+
+    /**
+     * A tree of losers over the next tuples of the runs being merged. Each
+     * internal node keeps the run that lost the comparison there and the
+     * overall winner, the run with the smallest next tuple, is kept in node 0.
+     * After the winner is replaced by the next tuple of its run only the path
+     * from its leaf to the root is replayed: log2 k comparisons for k runs,
+     * where a binary heap needs up to twice as many. Ties go to the run with
+     * the smaller index, which keeps the sort stable.
+     */
+    private final class LoserTree {
+        private final int k;
+        private final int[] tree;
+        private final Tuple[] heads;
+
+        LoserTree(Tuple[] heads) {
+            this.k = heads.length;
+            this.heads = heads;
+            this.tree = new int[k];
+            tree[0] = build(1);
+        }
+
+        /**
+         * @return true if the head of run a comes before the head of run b;
+         *         an exhausted run comes after every other run
+         */
+        private boolean beats(int a, int b) {
+            if (heads[a] == null)
+                return false;
+            if (heads[b] == null)
+                return true;
+            int c = comparator.compare(heads[a], heads[b]);
+            return c < 0 || (c == 0 && a < b);
+        }
+
+        /**
+         * Play the matches of the subtree rooted at node n; leaves are nodes k to 2k-1.
+         *
+         * @return the winner of the subtree
+         */
+        private int build(int n) {
+            if (n >= k)
+                return n - k;
+            int a = build(2 * n);
+            int b = build(2 * n + 1);
+            if (beats(a, b)) {
+                tree[n] = b;
+                return a;
+            }
+            tree[n] = a;
+            return b;
+        }
+
+        /**
+         * @return the smallest next tuple, replaced in its run by the following
+         *         one, or null if every run is exhausted
+         */
+        Tuple pop() throws DbException, TransactionAbortedException {
+            int w = tree[0];
+            Tuple t = heads[w];
+            if (t == null)
+                return null;
+            heads[w] = readers[w].hasNext() ? readers[w].next() : null;
+            for (int n = (w + k) / 2; n > 0; n /= 2) {
+                if (beats(tree[n], w)) {
+                    int loser = w;
+                    w = tree[n];
+                    tree[n] = loser;
+                }
+            }
+            tree[0] = w;
+            return t;
+        }
+    }
+
+    private void openMerge(List<SpillFile> files) throws DbException, TransactionAbortedException {
+        readers = new OpIterator[files.size()];
+        Tuple[] heads = new Tuple[readers.length];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = files.get(i).iterator();
+            readers[i].open();
+            heads[i] = readers[i].hasNext() ? readers[i].next() : null;
+        }
+        merge = new LoserTree(heads);
+    }
+
+    private Tuple nextMerged() throws DbException, TransactionAbortedException {
+        return merge.pop();
+    }
+
+    private void closeReaders() {
+        if (readers != null) {
+            for (OpIterator reader : readers) {
+                reader.close();
+            }
+        }
+        readers = null;
+        merge = null;
+    }
+
+    @Override
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (it != null) {
+            return it.hasNext() ? it.next() : null;
+        }
+        return merge == null ? null : nextMerged();
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        closeReaders();
+        startReading();
+        resetNext();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        closeReaders();
+        if (runs != null) {
+            for (SpillFile run : runs) {
+                run.delete();
+            }
+        }
+        runs = null;
+        sorted = null;
+        it = null;
+        child.close();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
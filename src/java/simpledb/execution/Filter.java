@@ -15,6 +15,9 @@ public class Filter extends Operator {
 
     private static final long serialVersionUID = 1L;
     private Predicate p;
+    private final Expression expression;
+    // 编译后的条件，对每个元组不再根据Predicate.Op分派
+    private Expression.Condition condition;
     private OpIterator child;
 
 
@@ -29,15 +32,43 @@ public class Filter extends Operator {
      */
     public Filter(Predicate p, OpIterator child) {
         this.p = p;
+        this.expression = Expression.of(p);
         this.child = child;
+        this.condition = expression.compileCondition(child.getTupleDesc());
         // some code goes here
     }
 
+    /**
+     * Constructor accepts a condition on the fields of the tuples of child,
+     * which is compiled for the schema of child.
+     *
+     * @param expression The condition to filter tuples with
+     * @param child      The child operator
+     * @throws IllegalArgumentException if expression is not a condition on the fields of child
+     * @throws NoSuchElementException   if a field of expression is not a field of child
+     */
+    public Filter(Expression expression, OpIterator child) {
+        this.expression = expression;
+        this.child = child;
+        this.condition = expression.compileCondition(child.getTupleDesc());
+    }
+
+    /**
+     * @return the predicate of this filter, or null if it was built from an
+     *         {@link Expression}
+     */
     public Predicate getPredicate() {
         // some code goes here
         return this.p;
     }
 
+    /**
+     * @return the condition of this filter
+     */
+    public Expression getExpression() {
+        return expression;
+    }
+
     @Override
     public TupleDesc getTupleDesc() {
         // some code goes here
@@ -70,7 +101,7 @@ public class Filter extends Operator {
     /**
      * AbstractDbIterator.readNext implementation. Iterates over tuples from the
      * child operator, applying the predicate to them and returning those that
-     * pass the predicate (i.e. for which the Predicate.filter() returns true.)
+     * pass the predicate (i.e. for which the compiled condition returns true.)
      * 
      * @return The next tuple that passes the filter, or null if there are no
      *         more tuples
@@ -82,7 +113,7 @@ public class Filter extends Operator {
         // some code goes here
         while (child.hasNext()) {
             Tuple next = child.next();
-            boolean filter = p.filter(next);
+            boolean filter = condition.test(next);
             if (filter == true) {
                 return next;
             }
@@ -101,6 +132,7 @@ public class Filter extends Operator {
     public void setChildren(OpIterator[] children) {
         // some code goes here
         this.child = children[0];
+        this.condition = expression.compileCondition(child.getTupleDesc());
     }
 
 }
@@ -0,0 +1,241 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * GroupTable holds the groups of a hash aggregation computing any number of
+ * aggregates over a key of any number of group-by fields. Each group key gets a
+ * dense group number, and the accumulators of the groups are arrays of longs
+ * indexed by that number, so merging a tuple allocates nothing once its group
+ * exists. A key of a single integer field is looked up in an
+ * {@link IntGroupTable}; other keys in a HashMap. Without group-by fields there
+ * is a single group, number 0.
+ * <p>
+ * Besides the aggregates of a query, the table computes the two steps of a
+ * distributed AVG: SUM_COUNT returns the sum and the count of a group as two
+ * columns, and SC_AVG averages such pairs, read from its field and the next.
+ */
+class GroupTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private final int[] gfields;
+    private final int[] afields;
+    private final Aggregator.Op[] ops;
+
+    // 每个聚合在每个分组的累加值（和、最小值或最大值），以及每个分组的元组数，下标为分组编号
+    private final long[][] values;
+    // SC_AVG累加的元组数，其他聚合为null
+    private final long[][] weights;
+    private long[] counts = new long[16];
+    private int numGroups = 0;
+    private int[] intKeys;
+    private List<List<Field>> keys;
+    private IntGroupTable intGroups;
+    private Map<List<Field>, Integer> groups;
+
+    /**
+     * @param gfields  the group-by fields of the input tuples, none if there is no grouping
+     * @param keyTypes the types of the group-by fields
+     * @param afields  the fields each aggregate is computed over
+     * @param ops      the aggregates; only COUNT is computed over a non-integer field
+     */
+    GroupTable(int[] gfields, Type[] keyTypes, int[] afields, Aggregator.Op[] ops) {
+        this.gfields = gfields.clone();
+        this.afields = afields.clone();
+        this.ops = ops.clone();
+        this.values = new long[ops.length][16];
+        this.weights = new long[ops.length][];
+        for (int i = 0; i < ops.length; i++) {
+            if (ops[i] == Aggregator.Op.SC_AVG)
+                weights[i] = new long[16];
+        }
+        if (gfields.length == 1 && keyTypes[0] == Type.INT_TYPE) {
+            intKeys = new int[16];
+            intGroups = new IntGroupTable();
+        } else if (gfields.length > 0) {
+            keys = new ArrayList<>();
+            groups = new HashMap<>();
+        } else {
+            newGroup();
+        }
+    }
+
+    /**
+     * @return the number of groups
+     */
+    int size() {
+        return numGroups;
+    }
+
+    private List<Field> key(Tuple t) {
+        Field[] key = new Field[gfields.length];
+        for (int i = 0; i < gfields.length; i++) {
+            key[i] = t.getField(gfields[i]);
+        }
+        return Arrays.asList(key);
+    }
+
+    /**
+     * @return a hash of the group key of t
+     */
+    int hash(Tuple t) {
+        int h = 0;
+        for (int f : gfields) {
+            h = 31 * h + t.getField(f).hashCode();
+        }
+        return h;
+    }
+
+    /**
+     * @return the number of the group of t, or -1 if it has no group yet
+     */
+    int find(Tuple t) {
+        if (gfields.length == 0)
+            return 0;
+        if (intGroups != null)
+            return intGroups.get(t.getInt(gfields[0]));
+        Integer g = groups.get(key(t));
+        return g == null ? -1 : g;
+    }
+
+    /**
+     * @return the number of the group of t, created if it has no group yet
+     */
+    int findOrAdd(Tuple t) {
+        int g = find(t);
+        if (g >= 0)
+            return g;
+        g = newGroup();
+        if (intGroups != null) {
+            int k = t.getInt(gfields[0]);
+            intKeys[g] = k;
+            intGroups.put(k, g);
+        } else {
+            List<Field> key = key(t);
+            keys.add(key);
+            groups.put(key, g);
+        }
+        return g;
+    }
+
+    private int newGroup() {
+        if (numGroups == counts.length) {
+            int capacity = counts.length * 2;
+            for (int i = 0; i < values.length; i++) {
+                values[i] = Arrays.copyOf(values[i], capacity);
+                if (weights[i] != null)
+                    weights[i] = Arrays.copyOf(weights[i], capacity);
+            }
+            counts = Arrays.copyOf(counts, capacity);
+            if (intKeys != null)
+                intKeys = Arrays.copyOf(intKeys, capacity);
+        }
+        return numGroups++;
+    }
+
+    /**
+     * Merge t into the accumulators of group g.
+     */
+    void merge(int g, Tuple t) {
+        boolean first = counts[g] == 0;
+        for (int i = 0; i < ops.length; i++) {
+            long[] acc = values[i];
+            switch (ops[i]) {
+                case MIN: {
+                    int value = t.getInt(afields[i]);
+                    if (first || value < acc[g])
+                        acc[g] = value;
+                    break;
+                }
+                case MAX: {
+                    int value = t.getInt(afields[i]);
+                    if (first || value > acc[g])
+                        acc[g] = value;
+                    break;
+                }
+                case COUNT:
+                    // 所有聚合共用分组的元组数
+                    break;
+                case SC_AVG:
+                    // 输入是部分聚合的(和, 元组数)
+                    acc[g] += t.getInt(afields[i]);
+                    weights[i][g] += t.getInt(afields[i] + 1);
+                    break;
+                default:
+                    // SUM、SUM_COUNT和AVG都累加和，AVG再除以元组数
+                    acc[g] += t.getInt(afields[i]);
+                    break;
+            }
+        }
+        counts[g]++;
+    }
+
+    /**
+     * @return the value of the i-th group-by field of group g
+     */
+    Field key(int g, int i) {
+        return intKeys != null ? new IntField(intKeys[g]) : keys.get(g).get(i);
+    }
+
+    /**
+     * @return the i-th aggregate of group g; the sum for SUM_COUNT
+     */
+    int result(int g, int i) {
+        switch (ops[i]) {
+            case COUNT:
+                return (int) counts[g];
+            case AVG:
+                return (int) (values[i][g] / counts[g]);
+            case SC_AVG:
+                return (int) (values[i][g] / weights[i][g]);
+            default:
+                return (int) values[i][g];
+        }
+    }
+
+    /**
+     * @param td the schema of the results: the group-by fields followed by the
+     *           aggregates, two columns for SUM_COUNT
+     * @return an iterator over the results of the groups in the order they
+     *         were created. Without grouping and without input there is a
+     *         result only if every aggregate is COUNT.
+     */
+    OpIterator iterator(TupleDesc td) {
+        List<Tuple> tuples = new ArrayList<>(numGroups);
+        for (int g = 0; g < numGroups; g++) {
+            if (counts[g] == 0 && !onlyCounts())
+                continue;
+            Tuple t = new Tuple(td);
+            for (int i = 0; i < gfields.length; i++)
+                t.setField(i, key(g, i));
+            int column = gfields.length;
+            for (int i = 0; i < ops.length; i++) {
+                t.setField(column++, new IntField(result(g, i)));
+                if (ops[i] == Aggregator.Op.SUM_COUNT)
+                    t.setField(column++, new IntField((int) counts[g]));
+            }
+            tuples.add(t);
+        }
+        return new TupleIterator(td, tuples);
+    }
+
+    private boolean onlyCounts() {
+        for (Aggregator.Op op : ops) {
+            if (op != Aggregator.Op.COUNT)
+                return false;
+        }
+        return true;
+    }
+}
@@ -9,6 +9,18 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * HashEquiJoin is a hybrid hash join that builds a hash table on child1 and
+ * probes it with child2. The build tuples are split into partitions by the hash
+ * of their join value. When more than maxTuples build tuples are in memory, the
+ * largest in-memory partition is written to a {@link SpillFile}, and the probe
+ * tuples of that partition are written to a second file instead of probing.
+ * Once child2 is exhausted, each pair of spilled partitions is joined by a new
+ * HashEquiJoin that partitions on other bits of the hash, so that both inputs
+ * are read about twice in total. A partition that cannot be split further, for
+ * instance because all of its tuples have the same join value, is joined by
+ * loading maxTuples build tuples at a time and scanning the probe tuples for
+ * each chunk.
  */
 public class HashEquiJoin extends Operator {
 
@@ -19,6 +31,14 @@ public class HashEquiJoin extends Operator {
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
 
+    // 每层使用哈希值的PARTITION_BITS位分区，用完32位后退化为分块连接
+    static final int PARTITION_BITS = 4;
+    static final int NUM_PARTITIONS = 1 << PARTITION_BITS;
+    static final int MAX_LEVEL = 32 / PARTITION_BITS - 1;
+
+    private final int maxTuples;
+    private final int level;
+
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
@@ -31,9 +51,26 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, MAP_SIZE);
+    }
+
+    /**
+     * Constructor with a memory budget.
+     *
+     * @param maxTuples
+     *            The number of tuples of child1 to keep in memory before
+     *            partitions are spilled to disk
+     */
+    public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int maxTuples) {
+        this(p, child1, child2, maxTuples, 0);
+    }
+
+    private HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int maxTuples, int level) {
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.maxTuples = maxTuples;
+        this.level = level;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -59,18 +96,138 @@ public class HashEquiJoin extends Operator {
     final Map<Object, List<Tuple>> map = new HashMap<>();
     public final static int MAP_SIZE = 20000;
 
+    // 每个分区的内存哈希表，分区被溢出后为null
+    private transient List<Map<Object, List<Tuple>>> tables;
+    private transient int[] sizes;
+    private transient int inMemory;
+    private transient int buildCount;
+    private transient SpillFile[] buildFiles;
+    private transient SpillFile[] probeFiles;
+    // 探测结束后依次连接溢出的分区
+    private transient boolean probing;
+    private transient int nextPartition;
+    private transient HashEquiJoin partitionJoin;
+    // 无法再分区时，像块嵌套循环一样每次装入maxTuples个child1的元组
+    private transient boolean chunked;
+
+    /**
+     * @return the number of partitions of child1 that were written to disk
+     */
+    public int numSpilledPartitions() {
+        int n = 0;
+        if (buildFiles != null) {
+            for (SpillFile f : buildFiles) {
+                if (f != null)
+                    n++;
+            }
+        }
+        return n;
+    }
+
+    private int partition(Object key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return (h >>> (32 - PARTITION_BITS * (level + 1))) & (NUM_PARTITIONS - 1);
+    }
+
+    /**
+     * Load the next chunk of at most maxTuples tuples of child1 into map.
+     * @return true if any tuple was loaded
+     */
     private boolean loadMap() throws DbException, TransactionAbortedException {
         int cnt = 0;
         map.clear();
-        while (child1.hasNext()) {
+        while (cnt < maxTuples && child1.hasNext()) {
             t1 = child1.next();
             List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
             list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+            cnt++;
         }
         return cnt > 0;
+    }
+
+    /**
+     * Read child1 into the partitions, spilling the largest ones when more than
+     * maxTuples tuples are in memory.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        tables = new ArrayList<>(NUM_PARTITIONS);
+        for (int i = 0; i < NUM_PARTITIONS; i++) {
+            tables.add(new HashMap<>());
+        }
+        sizes = new int[NUM_PARTITIONS];
+        buildFiles = new SpillFile[NUM_PARTITIONS];
+        probeFiles = new SpillFile[NUM_PARTITIONS];
+        inMemory = 0;
+        buildCount = 0;
+        while (child1.hasNext()) {
+            Tuple t = child1.next();
+            Object key = t.getField(pred.getField1());
+            int p = partition(key);
+            buildCount++;
+            if (buildFiles[p] != null) {
+                buildFiles[p].add(t);
+                continue;
+            }
+            tables.get(p).computeIfAbsent(key, k -> new ArrayList<>()).add(t);
+            sizes[p]++;
+            if (++inMemory > maxTuples) {
+                spillLargestPartition();
+            }
+        }
+    }
+
+    private void spillLargestPartition() throws DbException {
+        int largest = -1;
+        for (int p = 0; p < NUM_PARTITIONS; p++) {
+            if (tables.get(p) != null && (largest < 0 || sizes[p] > sizes[largest]))
+                largest = p;
+        }
+        buildFiles[largest] = new SpillFile(child1.getTupleDesc());
+        probeFiles[largest] = new SpillFile(child2.getTupleDesc());
+        for (List<Tuple> list : tables.get(largest).values()) {
+            for (Tuple t : list) {
+                buildFiles[largest].add(t);
+            }
+        }
+        tables.set(largest, null);
+        inMemory -= sizes[largest];
+    }
 
+    /**
+     * Start the join from the beginning of both children.
+     */
+    private void start() throws DbException, TransactionAbortedException {
+        listIt = null;
+        probing = true;
+        nextPartition = 0;
+        chunked = level >= MAX_LEVEL;
+        if (chunked) {
+            loadMap();
+        } else {
+            build();
+        }
+    }
+
+    /**
+     * Free the hash tables and delete the spill files.
+     */
+    private void release() {
+        if (partitionJoin != null) {
+            partitionJoin.close();
+            partitionJoin = null;
+        }
+        for (SpillFile[] files : new SpillFile[][]{buildFiles, probeFiles}) {
+            if (files == null)
+                continue;
+            for (SpillFile f : files) {
+                if (f != null)
+                    f.delete();
+            }
+        }
+        buildFiles = null;
+        probeFiles = null;
+        tables = null;
+        map.clear();
     }
 
     @Override
@@ -78,25 +235,28 @@ public class HashEquiJoin extends Operator {
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        start();
         super.open();
     }
 
     @Override
     public void close() {
         super.close();
+        release();
         child2.close();
         child1.close();
         this.t1=null;
         this.t2=null;
         this.listIt=null;
-        this.map.clear();
     }
 
     @Override
     public void rewind() throws DbException, TransactionAbortedException {
+        release();
         child1.rewind();
         child2.rewind();
+        start();
+        resetNext();
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -122,48 +282,94 @@ public class HashEquiJoin extends Operator {
     private Tuple processList() {
         t1 = listIt.next();
 
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
-
-        // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
+        return Tuple.merge(comboTD, t1, t2);
 
     }
 
     @Override
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
+        while (true) {
+            if (listIt != null && listIt.hasNext()) {
+                return processList();
+            }
+            listIt = null;
+
+            if (probing) {
+                if (probe()) {
+                    continue;
+                }
+                if (chunked) {
+                    // child2 is done: advance child1
+                    child2.rewind();
+                    if (loadMap()) {
+                        continue;
+                    }
+                    return null;
+                }
+                // 内存中的分区已经连接完，释放哈希表后处理溢出的分区
+                probing = false;
+                tables = null;
+            }
+
+            if (partitionJoin != null) {
+                if (partitionJoin.hasNext()) {
+                    return partitionJoin.next();
+                }
+                partitionJoin.close();
+                partitionJoin = null;
+            }
+            if (!openNextPartition()) {
+                return null;
+            }
         }
+    }
 
-        // loop around child2
+    /**
+     * Read child2 until a tuple matches some tuples in memory, writing the tuples
+     * of spilled partitions to their probe files.
+     * @return true if listIt holds the matches of t2, false if child2 is exhausted
+     */
+    private boolean probe() throws DbException, TransactionAbortedException {
         while (child2.hasNext()) {
             t2 = child2.next();
-
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            List<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null) {
-                continue;
+            Object key = t2.getField(pred.getField2());
+            List<Tuple> l;
+            if (chunked) {
+                l = map.get(key);
+            } else {
+                int p = partition(key);
+                if (tables.get(p) == null) {
+                    probeFiles[p].add(t2);
+                    continue;
+                }
+                l = tables.get(p).get(key);
+            }
+            if (l != null) {
+                listIt = l.iterator();
+                return true;
             }
-            listIt = l.iterator();
-
-            return processList();
-
         }
+        return false;
+    }
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+    /**
+     * Open the join of the next pair of spilled partitions that both have tuples.
+     * @return false if there are no partitions left
+     */
+    private boolean openNextPartition() throws DbException, TransactionAbortedException {
+        while (nextPartition < NUM_PARTITIONS) {
+            int p = nextPartition++;
+            if (buildFiles[p] == null || probeFiles[p].size() == 0) {
+                continue;
+            }
+            // 分区没有变小说明所有元组的哈希值相同，不再继续分区
+            int nextLevel = buildFiles[p].size() == buildCount ? MAX_LEVEL : level + 1;
+            partitionJoin = new HashEquiJoin(pred, buildFiles[p].iterator(), probeFiles[p].iterator(),
+                    maxTuples, nextLevel);
+            partitionJoin.open();
+            return true;
         }
-
-        return null;
+        return false;
     }
 
     @Override
@@ -0,0 +1,177 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * IndexNestedLoopJoin joins each tuple of child1 with the tuples of child2 found
+ * by searching an index on the join field of child2, instead of scanning child2.
+ * <p>
+ * child2 is an {@link IndexOpIterator}, such as a B+ tree scan, whose index is
+ * keyed on field2 of the join predicate, possibly under {@link Filter}s that
+ * apply the other predicates on the inner table. For a tuple t of child1 the
+ * index is searched with the predicate "key op' t.field1", where op' is the join
+ * operator with its sides swapped.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final JoinPredicate p;
+    private OpIterator child1, child2;
+    private IndexOpIterator probe;
+    private final Predicate.Op probeOp;
+    private TupleDesc comboTD;
+
+    private transient JoinPredicate.Compiled compiled;
+    private transient Tuple left;
+
+    /**
+     * Constructor.
+     *
+     * @param p      The predicate to use to join the children; EQUALS or a range comparison
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 the index access method on the right(inner) relation,
+     *               possibly under filters; its index is keyed on field2 of p
+     * @throws IllegalArgumentException if the predicate is NOT_EQUALS or LIKE, or
+     *                                  child2 does not search an index
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this.probeOp = probeOp(p.getOperator());
+        if (probeOp == null) {
+            throw new IllegalArgumentException("an index cannot be searched with " + p.getOperator());
+        }
+        this.p = p;
+        this.child1 = child1;
+        setInner(child2);
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return the operator to search the inner index with for a join on op, or
+     *         null if an index search cannot evaluate op
+     */
+    public static Predicate.Op probeOp(Predicate.Op op) {
+        switch (op) {
+            case EQUALS:
+                return Predicate.Op.EQUALS;
+            case LESS_THAN:
+                return Predicate.Op.GREATER_THAN;
+            case LESS_THAN_OR_EQ:
+                return Predicate.Op.GREATER_THAN_OR_EQ;
+            case GREATER_THAN:
+                return Predicate.Op.LESS_THAN;
+            case GREATER_THAN_OR_EQ:
+                return Predicate.Op.LESS_THAN_OR_EQ;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return the index access method at the bottom of plan, under its filters,
+     *         or null if there is none
+     */
+    public static IndexOpIterator findProbe(OpIterator plan) {
+        while (plan instanceof Filter) {
+            plan = ((Filter) plan).getChildren()[0];
+        }
+        return plan instanceof IndexOpIterator ? (IndexOpIterator) plan : null;
+    }
+
+    private void setInner(OpIterator child2) {
+        IndexOpIterator probe = findProbe(child2);
+        if (probe == null) {
+            throw new IllegalArgumentException("the inner relation of an index nested loop join must search an index");
+        }
+        this.child2 = child2;
+        this.probe = probe;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.p.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.p.getField2());
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    @Override
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        child1.open();
+        child2.open();
+        compiled = p.compile(child1.getTupleDesc(), child2.getTupleDesc());
+        left = null;
+        super.open();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        left = null;
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        left = null;
+        resetNext();
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        return Tuple.merge(comboTD, t1, t2);
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. The tuples returned are the concatenation of the joining
+     * tuples from the left and right relation.
+     */
+    @Override
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (left != null) {
+                while (child2.hasNext()) {
+                    Tuple right = child2.next();
+                    // 索引键可能是复合键，仍然用连接谓词检查一遍
+                    if (compiled.filter(left, right)) {
+                        return merge(left, right);
+                    }
+                }
+            }
+            if (!child1.hasNext()) {
+                return null;
+            }
+            left = child1.next();
+            // child2已经读完，Filter中没有预取的元组，直接用新的谓词重新搜索索引
+            probe.rewind(new IndexPredicate(probeOp, left.getField(p.getField1())));
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        setInner(children[1]);
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+}
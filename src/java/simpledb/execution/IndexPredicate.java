@@ -1,11 +1,19 @@
 package simpledb.execution;
 
+import simpledb.storage.CompositeField;
 import simpledb.storage.Field;
 
 import java.io.Serializable;
+import java.util.Objects;
 
 /**
- * IndexPredicate compares a field which has index on it against a given value
+ * IndexPredicate compares a field which has index on it against a given value.
+ * For an index keyed on several fields the value is a {@link CompositeField},
+ * which may hold just a prefix of the key.
+ * <p>
+ * A predicate may also be a two-sided range, such as a &lt; key &lt;= b, made of a
+ * lower bound (GREATER_THAN or GREATER_THAN_OR_EQ) and an upper bound (LESS_THAN or
+ * LESS_THAN_OR_EQ). {@link #getOp()} and {@link #getField()} then return the lower bound.
  * @see IndexOpIterator
  */
 public class IndexPredicate implements Serializable {
@@ -14,6 +22,9 @@ public class IndexPredicate implements Serializable {
 	
     private final Predicate.Op op;
     private final Field fieldvalue;
+    // 范围谓词的上界，单边谓词时为null
+    private final Predicate.Op upperOp;
+    private final Field upperValue;
 
     /**
      * Constructor.
@@ -27,6 +38,29 @@ public class IndexPredicate implements Serializable {
     public IndexPredicate(Predicate.Op op, Field fvalue) {
         this.op = op;
         this.fieldvalue = fvalue;
+        this.upperOp = null;
+        this.upperValue = null;
+    }
+
+    /**
+     * Constructor for a two-sided range predicate.
+     *
+     * @param lowerOp Predicate.Op.GREATER_THAN or Predicate.Op.GREATER_THAN_OR_EQ
+     * @param lower The lower bound of the range
+     * @param upperOp Predicate.Op.LESS_THAN or Predicate.Op.LESS_THAN_OR_EQ
+     * @param upper The upper bound of the range
+     */
+    public IndexPredicate(Predicate.Op lowerOp, Field lower, Predicate.Op upperOp, Field upper) {
+        if (lowerOp != Predicate.Op.GREATER_THAN && lowerOp != Predicate.Op.GREATER_THAN_OR_EQ) {
+            throw new IllegalArgumentException("invalid lower bound operator " + lowerOp);
+        }
+        if (upperOp != Predicate.Op.LESS_THAN && upperOp != Predicate.Op.LESS_THAN_OR_EQ) {
+            throw new IllegalArgumentException("invalid upper bound operator " + upperOp);
+        }
+        this.op = lowerOp;
+        this.fieldvalue = lower;
+        this.upperOp = upperOp;
+        this.upperValue = upper;
     }
 
     public Field getField() {
@@ -37,6 +71,88 @@ public class IndexPredicate implements Serializable {
         return op;
     }
 
+    /**
+     * @return the operator of the upper bound of a two-sided range, or null
+     */
+    public Predicate.Op getUpperOp() {
+        return upperOp;
+    }
+
+    /**
+     * @return the upper bound of a two-sided range, or null
+     */
+    public Field getUpperField() {
+        return upperValue;
+    }
+
+    /**
+     * @return the smallest key the predicate can match, or null if it has no lower bound
+     */
+    public Field getLowerBound() {
+        switch (op) {
+            case EQUALS:
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                return fieldvalue;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return the largest key the predicate can match, or null if it has no upper bound
+     */
+    public Field getUpperBound() {
+        if (upperValue != null) {
+            return upperValue;
+        }
+        switch (op) {
+            case EQUALS:
+            case LESS_THAN:
+            case LESS_THAN_OR_EQ:
+                return fieldvalue;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return true if the given key satisfies this predicate
+     */
+    public boolean matches(Field key) {
+        if (upperValue != null && !key.compare(upperOp, upperValue)) {
+            return false;
+        }
+        return key.compare(op, fieldvalue);
+    }
+
+    /**
+     * Returns true if the given key is above the upper bound of this predicate, so that
+     * no larger key can match it either.
+     */
+    public boolean isAboveUpperBound(Field key) {
+        Field upper = getUpperBound();
+        if (upper == null) {
+            return false;
+        }
+        Predicate.Op bound = upperValue != null ? upperOp : op;
+        return key.compare(bound == Predicate.Op.LESS_THAN ? Predicate.Op.GREATER_THAN_OR_EQ : Predicate.Op.GREATER_THAN,
+                upper);
+    }
+
+    /**
+     * Returns true if the given key is below the lower bound of this predicate, so that
+     * no smaller key can match it either.
+     */
+    public boolean isBelowLowerBound(Field key) {
+        Field lower = getLowerBound();
+        if (lower == null) {
+            return false;
+        }
+        return key.compare(op == Predicate.Op.GREATER_THAN ? Predicate.Op.LESS_THAN_OR_EQ : Predicate.Op.LESS_THAN,
+                lower);
+    }
+
     /** Return true if the fieldvalue in the supplied predicate
         is satisfied by this predicate's fieldvalue and
         operator.
@@ -45,7 +161,8 @@ public class IndexPredicate implements Serializable {
     public boolean equals(IndexPredicate ipd) {
         if (ipd == null)
             return false;
-        return (op.equals(ipd.op) && fieldvalue.equals(ipd.fieldvalue));
+        return (op.equals(ipd.op) && fieldvalue.equals(ipd.fieldvalue)
+                && Objects.equals(upperOp, ipd.upperOp) && Objects.equals(upperValue, ipd.upperValue));
     }
 
 }
@@ -0,0 +1,62 @@
+package simpledb.execution;
+
+import java.io.Serializable;
+
+/**
+ * Hash table from int keys to non-negative int values with linear probing,
+ * which avoids boxing the keys of a HashMap.
+ */
+class IntGroupTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private int[] keys = new int[64];
+    private int[] vals = new int[64];
+    private boolean[] used = new boolean[64];
+    private int size = 0;
+
+    /**
+     * @return the value of key, or -1 if it is not in the table
+     */
+    int get(int key) {
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; used[i]; i = (i + 1) & mask) {
+            if (keys[i] == key)
+                return vals[i];
+        }
+        return -1;
+    }
+
+    void put(int key, int value) {
+        if (2 * (size + 1) > keys.length)
+            grow();
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (used[i] && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (!used[i])
+            size++;
+        used[i] = true;
+        keys[i] = key;
+        vals[i] = value;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldVals = vals;
+        boolean[] oldUsed = used;
+        keys = new int[oldKeys.length * 2];
+        vals = new int[oldKeys.length * 2];
+        used = new boolean[oldKeys.length * 2];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i])
+                put(oldKeys[i], oldVals[i]);
+        }
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -3,8 +3,6 @@ package simpledb.execution;
 import simpledb.common.Type;
 import simpledb.storage.*;
 
-import java.util.*;
-
 /**
  * Knows how to compute some aggregate over a set of IntFields.
  */
@@ -15,17 +13,8 @@ public class IntegerAggregator implements Aggregator {
     private Type gbfieldtype;
     private int afield;
     private Op what;
-    private AggHandler aggHandler;
-
-    private abstract class AggHandler{
-        Map<Field,Integer> group;
-
-        abstract void handle(Tuple tuple);
-
-        Map<Field,Integer> getGroup() {
-            return this.group;
-        }
-    }
+    // 分组表，分组值为int时不装箱
+    private GroupTable groups;
 
     /**
      * Aggregate constructor
@@ -48,25 +37,9 @@ public class IntegerAggregator implements Aggregator {
         this.afield = afield;
         this.what = what;
 
-        if (this.what == Op.MIN) {
-            aggHandler = new MinHandler();
-
-        } else if (this.what == Op.MAX) {
-            aggHandler = new MaxHandler();
-
-        } else if (this.what == Op.SUM) {
-            aggHandler = new SumHandler();
-
-        } else if (this.what == Op.AVG) {
-            aggHandler = new AvgHandler();
-
-        } else if (this.what == Op.COUNT) {
-            aggHandler = new CountHandler();
-
-        }
-
-
-        // some code goes here
+        this.groups = gbfield == NO_GROUPING
+                ? new GroupTable(new int[0], new Type[0], new int[]{afield}, new Op[]{what})
+                : new GroupTable(new int[]{gbfield}, new Type[]{gbfieldtype}, new int[]{afield}, new Op[]{what});
     }
 
     /**
@@ -78,12 +51,9 @@ public class IntegerAggregator implements Aggregator {
      */
     @Override
     public void mergeTupleIntoGroup(Tuple tup) {
-        aggHandler.handle(tup);
-
-        // some code goes here
+        groups.merge(groups.findOrAdd(tup), tup);
     }
 
-
     /**
      * Create a OpIterator over group aggregate results.
      * 
@@ -96,147 +66,9 @@ public class IntegerAggregator implements Aggregator {
     // 迭代聚合后的结果
     @Override
     public OpIterator iterator() {
-        Map<Field, Integer> group = aggHandler.getGroup();
-        List<Tuple> tuples = new ArrayList<>();
-        Type[] types;
-        String[] names;
-        if(this.gbfield == NO_GROUPING) {
-            types = new Type[]{Type.INT_TYPE};
-            names = new String[]{"aggregateVal"};
-            TupleDesc tupleDesc = new TupleDesc(types,names);
-            Tuple tuple = new Tuple(tupleDesc);
-            Integer integer = group.get(null);
-            Field intField = new IntField(integer);
-            tuple.setField(0,intField);
-            tuples.add(tuple);
-            return new TupleIterator(tupleDesc,tuples);
-        } else {
-            types = new Type[]{gbfieldtype,Type.INT_TYPE};
-            names = new String[]{"groupVal","aggregateVal"};
-            TupleDesc tupleDesc = new TupleDesc(types,names);
-
-            Set<Field> fields = group.keySet();
-            for(Field field : fields) {
-                // 对于每个group生成一条tuple
-                Tuple tuple = new Tuple(tupleDesc);
-                Integer integer = group.get(field);
-                IntField intField = new IntField(integer);
-                tuple.setField(0,field);
-                tuple.setField(1,intField);
-                tuples.add(tuple);
-            }
-            return new TupleIterator(tupleDesc,tuples);
-
-        }
-        // some code goes here
-
+        TupleDesc td = gbfield == NO_GROUPING
+                ? new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{"aggregateVal"})
+                : new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE}, new String[]{"groupVal", "aggregateVal"});
+        return groups.iterator(td);
     }
-
-   private class MinHandler extends AggHandler {
-        public MinHandler(){
-            group = new HashMap<>();
-        }
-       @Override
-       void handle(Tuple tuple) {
-
-           Field groupByField = tuple.getField(gbfield);
-           if (gbfield == NO_GROUPING) {
-                groupByField = null;
-           }
-           IntField intField = (IntField) tuple.getField(afield);
-           int value = intField.getValue();
-           Integer orDefault = group.getOrDefault(groupByField, Integer.MAX_VALUE);
-           if (value < orDefault) {
-               group.put(groupByField,value);
-           }
-       }
-   }
-
-   private class MaxHandler extends  AggHandler {
-
-        public MaxHandler() {
-            group = new HashMap<>();
-        }
-       @Override
-       void handle(Tuple tuple) {
-           Field groupByField = tuple.getField(gbfield);
-           if (gbfield == NO_GROUPING) {
-               groupByField = null;
-           }
-           IntField intField = (IntField) tuple.getField(afield);
-           int value = intField.getValue();
-           Integer orDefault = group.getOrDefault(groupByField, Integer.MIN_VALUE);
-           if (value > orDefault) {
-               group.put(groupByField,value);
-           }
-
-       }
-   }
-
-   private class SumHandler extends AggHandler {
-
-        public SumHandler() {
-            group = new HashMap<>();
-        }
-       @Override
-       void handle(Tuple tuple) {
-           Field groupByField = tuple.getField(gbfield);
-           if (gbfield == NO_GROUPING) {
-               groupByField = null;
-           }
-           IntField intField = (IntField) tuple.getField(afield);
-           int value = intField.getValue();
-           Integer sum = group.getOrDefault(groupByField, 0);
-           value += sum;
-           group.put(groupByField,value);
-       }
-   }
-
-   private class AvgHandler extends AggHandler {
-        Map<Field,Integer> sumMap;
-        Map<Field,Integer> countMap;
-        public AvgHandler() {
-            group = new HashMap<>();
-            sumMap = new HashMap<>();
-            countMap = new HashMap<>();
-        }
-       @Override
-       void handle(Tuple tuple) {
-           // 先判断是否为空
-           Field groupByField;
-           if (gbfield == NO_GROUPING) {
-               groupByField = null;
-           } else {
-               groupByField = tuple.getField(gbfield);
-           }
-
-           IntField intField = (IntField) tuple.getField(afield);
-           int value = intField.getValue();
-           Integer orDefault = sumMap.getOrDefault(groupByField, 0);
-           orDefault += value;
-           sumMap.put(groupByField,orDefault);
-           Integer count = countMap.getOrDefault(groupByField, 0);
-           count++;
-           countMap.put(groupByField,count);
-           group.put(groupByField, orDefault / count);
-
-       }
-   }
-   private class CountHandler extends AggHandler {
-        public CountHandler() {
-            group = new HashMap<>();
-        }
-       @Override
-       void handle(Tuple tuple) {
-           Field groupByField = tuple.getField(gbfield);
-           if (gbfield == NO_GROUPING) {
-               groupByField = null;
-           }
-           Integer orDefault = group.getOrDefault(groupByField, 0);
-           orDefault++;
-           group.put(groupByField,orDefault);
-       }
-   }
-
-
 }
@@ -15,8 +15,10 @@ public class Join extends Operator {
 
     private static final long serialVersionUID = 1L;
     private JoinPredicate p;
+    private transient JoinPredicate.Compiled compiled;
     private OpIterator child1;
     private OpIterator child2;
+    private TupleDesc comboTD;
     private Tuple t;
 
     /**
@@ -35,6 +37,7 @@ public class Join extends Operator {
         this.p = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -71,9 +74,7 @@ public class Join extends Operator {
     @Override
     public TupleDesc getTupleDesc() {
         // some code goes here
-        TupleDesc tupleDesc1 = child1.getTupleDesc();
-        TupleDesc tupleDesc2 = child2.getTupleDesc();
-        return TupleDesc.merge(tupleDesc1,tupleDesc2);
+        return comboTD;
     }
 
     @Override
@@ -82,6 +83,7 @@ public class Join extends Operator {
 
         child1.open();
         child2.open();
+        compiled = p.compile(child1.getTupleDesc(), child2.getTupleDesc());
         super.open();
         // some code goes here
     }
@@ -130,25 +132,11 @@ public class Join extends Operator {
             }
             while(child2.hasNext()){
                 Tuple t2 = child2.next();
-                if(p.filter(t, t2)){
-                    TupleDesc td1 = t.getTupleDesc();
-                    TupleDesc td2 = t2.getTupleDesc();
-                    // 合并
-                    TupleDesc tupleDesc = TupleDesc.merge(td1, td2);
-                    // 创建新的行
-                    Tuple newTuple = new Tuple(tupleDesc);
+                if(compiled.filter(t, t2)){
+                    // 合并，合并后的TupleDesc在构造时已算好
+                    Tuple newTuple = Tuple.merge(comboTD, t, t2);
                     // 设置路径
                     newTuple.setRecordId(t.getRecordId());
-                    // 合并
-                    int i = 0;
-                    for (; i < td1.numFields(); i++) {
-
-                        newTuple.setField(i, t.getField(i));
-                    }
-                    for (int j = 0; j < td2.numFields(); j++) {
-
-                        newTuple.setField(i + j, t2.getField(j));
-                    }
                     // 遍历完t2后重置，t置空，准备遍历下一个
                     if(!child2.hasNext()){
                         child2.rewind();
@@ -178,6 +166,7 @@ public class Join extends Operator {
         // some code goes here
         this.child1 = children[0];
         this.child2 = children[1];
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
 }
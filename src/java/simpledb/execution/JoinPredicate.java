@@ -1,7 +1,10 @@
 package simpledb.execution;
 
+import simpledb.common.Type;
 import simpledb.storage.Field;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
 
 import java.io.Serializable;
 
@@ -16,6 +19,11 @@ public class JoinPredicate implements Serializable {
     private Predicate.Op op;
     private int field2;
 
+    /** A join predicate compiled for the types of the fields it compares */
+    public interface Compiled extends Serializable {
+        boolean filter(Tuple t1, Tuple t2);
+    }
+
     /**
      * Constructor -- create a new predicate over two fields of two tuples.
      * 
@@ -51,6 +59,38 @@ public class JoinPredicate implements Serializable {
 
     }
     
+    /**
+     * Compile this predicate for tuples of the given schemas. Two INT fields
+     * are compared as ints, without calling {@link Field#compare} or
+     * dispatching on the operator for each pair of tuples; other fields are
+     * compared with {@link #filter}.
+     *
+     * @param td1 the schema of the first tuples
+     * @param td2 the schema of the second tuples
+     */
+    public Compiled compile(TupleDesc td1, TupleDesc td2) {
+        int f1 = field1;
+        int f2 = field2;
+        if (td1.getFieldType(f1) != Type.INT_TYPE || td2.getFieldType(f2) != Type.INT_TYPE) {
+            return this::filter;
+        }
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return (t1, t2) -> t1.getInt(f1) == t2.getInt(f2);
+            case NOT_EQUALS:
+                return (t1, t2) -> t1.getInt(f1) != t2.getInt(f2);
+            case GREATER_THAN:
+                return (t1, t2) -> t1.getInt(f1) > t2.getInt(f2);
+            case GREATER_THAN_OR_EQ:
+                return (t1, t2) -> t1.getInt(f1) >= t2.getInt(f2);
+            case LESS_THAN:
+                return (t1, t2) -> t1.getInt(f1) < t2.getInt(f2);
+            default:
+                return (t1, t2) -> t1.getInt(f1) <= t2.getInt(f2);
+        }
+    }
+
     public int getField1()
     {
         // some code goes here
@@ -66,6 +66,15 @@ public abstract class Operator implements OpIterator {
         this.open = false;
     }
 
+    /**
+     * Drop the tuple that {@link #hasNext} fetched ahead. Operators that can be
+     * rewound in the middle of their output call this from rewind, so that the
+     * next tuple returned is the first one again.
+     */
+    protected void resetNext() {
+        next = null;
+    }
+
     private Tuple next = null;
     private boolean open = false;
     private int estimatedCardinality = 0;
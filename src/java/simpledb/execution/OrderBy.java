@@ -2,25 +2,27 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
-import simpledb.storage.Field;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
 
 /**
- * OrderBy is an operator that implements a relational ORDER BY.
+ * OrderBy is an operator that implements a relational ORDER BY, on one or more
+ * fields each sorted ascending or descending. The tuples are sorted with an
+ * {@link ExternalSort}, so an input larger than the memory budget is sorted in
+ * runs on disk.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
     private final TupleDesc td;
-    private final List<Tuple> childTups = new ArrayList<>();
-    private final int orderByField;
+    private final int[] orderByFields;
+    private final boolean[] ascs;
+    private final int maxTuples;
     private final String orderByFieldName;
-    private Iterator<Tuple> it;
-    private final boolean asc;
+    private transient ExternalSort sort;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -33,21 +35,77 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(new int[]{orderbyField}, new boolean[]{asc}, child);
+    }
+
+    /**
+     * Creates a new OrderBy node sorting on several fields: tuples are ordered
+     * on the first field, tuples equal on it on the second, and so on.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant first.
+     * @param asc
+     *            for each field, true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child) {
+        this(orderbyFields, asc, ExternalSort.DEFAULT_MAX_TUPLES, child);
+    }
+
+    /**
+     * Creates a new OrderBy node sorting on several fields with a memory budget.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant first.
+     * @param asc
+     *            for each field, true if the sort order is ascending.
+     * @param maxTuples
+     *            the number of tuples sorted in memory; larger inputs are
+     *            sorted in runs written to disk.
+     * @param child
+     *            the tuples to sort.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, int maxTuples, OpIterator child) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length) {
+            throw new IllegalArgumentException("one sort order is needed for each of at least one field");
+        }
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.orderByFields = orderbyFields.clone();
+        this.ascs = asc.clone();
+        this.maxTuples = maxTuples;
+        this.orderByFieldName = td.getFieldName(orderbyFields[0]);
     }
     
+    /**
+     * @return true if the sort order on the first field is ascending
+     */
     public boolean isASC()
     {
-	return this.asc;
+	return this.ascs[0];
     }
     
+    /**
+     * @return the first field the tuples are sorted on
+     */
     public int getOrderByField()
     {
-        return this.orderByField;
+        return this.orderByFields[0];
+    }
+
+    /**
+     * @return the fields the tuples are sorted on, most significant first
+     */
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    /**
+     * @return for each field of {@link #getOrderByFields}, true if it is sorted ascending
+     */
+    public boolean[] getAscending() {
+        return ascs.clone();
     }
     
     public String getOrderFieldName()
@@ -63,24 +121,25 @@ public class OrderBy extends Operator {
     @Override
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
-        child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add(child.next());
-        childTups.sort(new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        // 每次open都重新排序，不会保留上一次读入的元组
+        sort = new ExternalSort(new TupleComparator(orderByFields, ascs), maxTuples, child);
+        sort.open();
         super.open();
     }
 
     @Override
     public void close() {
         super.close();
-        it = null;
+        if (sort != null) {
+            sort.close();
+        }
+        sort = null;
     }
 
     @Override
-    public void rewind() {
-        it = childTups.iterator();
+    public void rewind() throws DbException, TransactionAbortedException {
+        sort.rewind();
+        resetNext();
     }
 
     /**
@@ -91,9 +150,9 @@ public class OrderBy extends Operator {
      *         tuples
      */
     @Override
-    protected Tuple fetchNext() throws NoSuchElementException {
-        if (it != null && it.hasNext()) {
-            return it.next();
+    protected Tuple fetchNext() throws NoSuchElementException, DbException, TransactionAbortedException {
+        if (sort != null && sort.hasNext()) {
+            return sort.next();
         } else
             return null;
     }
@@ -109,25 +168,3 @@ public class OrderBy extends Operator {
     }
 
 }
-
-class TupleComparator implements Comparator<Tuple> {
-    final int field;
-    final boolean asc;
-
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
-    }
-
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
-}
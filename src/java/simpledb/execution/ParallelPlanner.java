@@ -0,0 +1,221 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ParallelPlanner rewrites a plan to run on several threads with
+ * {@link Exchange} operators. A {@link SeqScan} of a heap file is split into
+ * scans of page ranges, and {@link Filter}, {@link Project} and
+ * {@link HashEquiJoin} run once per range:
+ * <ul>
+ * <li>a hash join repartitions both inputs on the join fields, or broadcasts a
+ * build input that cannot be split to every range of the probe input;</li>
+ * <li>an {@link Aggregate} computes a partial aggregate per range, gathered into
+ * a final aggregate: COUNT is summed, and AVG is computed from the sums and
+ * counts of SUM_COUNT by SC_AVG;</li>
+ * <li>anything else above split plans reads them through a gather.</li>
+ * </ul>
+ * Inserts and deletes are left as they are, and so is the inner index search of
+ * an {@link IndexNestedLoopJoin}. The tuples of a parallel plan come out in a
+ * different order than those of the serial plan, except under an OrderBy.
+ */
+public class ParallelPlanner {
+
+    /**
+     * The degree of parallelism used when none is given, from the
+     * simpledb.parallelism system property or else the number of processors.
+     */
+    public static final int DEFAULT_PARALLELISM = Integer.getInteger("simpledb.parallelism",
+            Runtime.getRuntime().availableProcessors());
+
+    private ParallelPlanner() {
+    }
+
+    /**
+     * Rewrite plan to run on up to dop threads per split scan.
+     *
+     * @param plan the serial plan
+     * @param tid  the transaction the scans of the plan run in
+     * @param dop  the degree of parallelism, the number of ranges a scan is split into
+     * @return a plan with the same output as plan, up to the order of the tuples
+     */
+    public static OpIterator parallelize(OpIterator plan, TransactionId tid, int dop) {
+        if (dop < 1) {
+            throw new IllegalArgumentException("degree of parallelism must be positive: " + dop);
+        }
+        if (dop == 1 || plan instanceof Insert || plan instanceof Delete) {
+            return plan;
+        }
+        if (plan instanceof Aggregate) {
+            Aggregate agg = (Aggregate) plan;
+            OpIterator[] parts = split(agg.getChildren()[0], tid, dop);
+            if (parts != null && canMerge(agg.aggregateOps())) {
+                return partialFinal(agg, parts);
+            }
+        }
+        OpIterator[] parts = split(plan, tid, dop);
+        if (parts != null) {
+            return Exchange.gather(parts);
+        }
+        if (plan instanceof Operator) {
+            Operator op = (Operator) plan;
+            OpIterator[] children = op.getChildren();
+            OpIterator[] rewritten = new OpIterator[children.length];
+            for (int i = 0; i < children.length; i++) {
+                // 索引嵌套循环连接的内表要保留索引访问方法，不能改写
+                boolean probe = op instanceof IndexNestedLoopJoin && i == 1;
+                rewritten[i] = probe ? children[i] : parallelize(children[i], tid, dop);
+            }
+            op.setChildren(rewritten);
+        }
+        return plan;
+    }
+
+    /**
+     * @return plans whose outputs together are the output of plan, each reading
+     *         a part of the split scans below it, or null if plan cannot be split
+     */
+    private static OpIterator[] split(OpIterator plan, TransactionId tid, int dop) {
+        if (plan instanceof SeqScan) {
+            SeqScan scan = (SeqScan) plan;
+            DbFile file = Database.getCatalog().getDatabaseFile(scan.getTableId());
+            if (!(file instanceof HeapFile) || scan.getFirstPage() != 0 || scan.getEndPage() >= 0) {
+                return null;
+            }
+            int pages = ((HeapFile) file).numPages();
+            int n = Math.min(dop, pages);
+            if (n < 2) {
+                return null;
+            }
+            OpIterator[] parts = new OpIterator[n];
+            for (int i = 0; i < n; i++) {
+                parts[i] = new SeqScan(tid, scan.getTableId(), scan.getAlias(),
+                        (int) ((long) pages * i / n), (int) ((long) pages * (i + 1) / n),
+                        scan.getPredicates(), scan.getFields());
+            }
+            return parts;
+        }
+        if (plan instanceof Filter) {
+            Filter filter = (Filter) plan;
+            OpIterator[] parts = split(filter.getChildren()[0], tid, dop);
+            if (parts != null) {
+                for (int i = 0; i < parts.length; i++) {
+                    parts[i] = filter.getPredicate() != null ? new Filter(filter.getPredicate(), parts[i])
+                            : new Filter(filter.getExpression(), parts[i]);
+                }
+            }
+            return parts;
+        }
+        if (plan instanceof Project) {
+            Project project = (Project) plan;
+            OpIterator[] parts = split(project.getChildren()[0], tid, dop);
+            if (parts != null) {
+                TupleDesc td = project.getTupleDesc();
+                List<Type> types = new ArrayList<>();
+                for (int i = 0; i < td.numFields(); i++) {
+                    types.add(td.getFieldType(i));
+                }
+                String[] names = new String[td.numFields()];
+                for (int i = 0; i < names.length; i++) {
+                    names[i] = td.getFieldName(i);
+                }
+                for (int i = 0; i < parts.length; i++) {
+                    parts[i] = project.getFieldList() != null ? new Project(project.getFieldList(), types, parts[i])
+                            : new Project(project.getExpressions(), names, parts[i]);
+                }
+            }
+            return parts;
+        }
+        if (plan instanceof HashEquiJoin) {
+            HashEquiJoin join = (HashEquiJoin) plan;
+            JoinPredicate p = join.getJoinPredicate();
+            OpIterator[] children = join.getChildren();
+            OpIterator[] left = split(children[0], tid, dop);
+            OpIterator[] right = split(children[1], tid, dop);
+            if (left == null && right == null) {
+                return null;
+            }
+            OpIterator[] build;
+            OpIterator[] probe;
+            if (left == null) {
+                // 构建侧无法拆分：广播给探测侧的每个分区，每个分区各建一张完整的哈希表
+                build = Exchange.broadcast(new OpIterator[]{parallelize(children[0], tid, dop)}, right.length);
+                probe = right;
+            } else {
+                // 两侧按连接字段重分区，相等的值进入同一个分区
+                if (right == null) {
+                    right = new OpIterator[]{parallelize(children[1], tid, dop)};
+                }
+                build = Exchange.repartition(left, new int[]{p.getField1()}, dop);
+                probe = Exchange.repartition(right, new int[]{p.getField2()}, dop);
+            }
+            OpIterator[] parts = new OpIterator[build.length];
+            for (int i = 0; i < parts.length; i++) {
+                parts[i] = new HashEquiJoin(p, build[i], probe[i]);
+            }
+            return parts;
+        }
+        return null;
+    }
+
+    private static boolean canMerge(Aggregator.Op[] ops) {
+        for (Aggregator.Op op : ops) {
+            if (op == Aggregator.Op.SUM_COUNT || op == Aggregator.Op.SC_AVG) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compute agg as partial aggregates over parts and a final aggregate over
+     * their gathered results.
+     */
+    private static OpIterator partialFinal(Aggregate agg, OpIterator[] parts) {
+        int[] gfields = agg.groupFields();
+        int[] afields = agg.aggregateFields();
+        Aggregator.Op[] ops = agg.aggregateOps();
+        Aggregator.Op[] partialOps = new Aggregator.Op[ops.length];
+        Aggregator.Op[] finalOps = new Aggregator.Op[ops.length];
+        int[] finalAfields = new int[ops.length];
+        // 部分聚合的输出为分组字段，之后是每个聚合的一列，AVG为和与元组数两列
+        int column = gfields.length;
+        for (int i = 0; i < ops.length; i++) {
+            finalAfields[i] = column;
+            switch (ops[i]) {
+                case AVG:
+                    partialOps[i] = Aggregator.Op.SUM_COUNT;
+                    finalOps[i] = Aggregator.Op.SC_AVG;
+                    column += 2;
+                    break;
+                case COUNT:
+                    partialOps[i] = Aggregator.Op.COUNT;
+                    finalOps[i] = Aggregator.Op.SUM;
+                    column++;
+                    break;
+                default:
+                    partialOps[i] = ops[i];
+                    finalOps[i] = ops[i];
+                    column++;
+                    break;
+            }
+        }
+        OpIterator[] partials = new OpIterator[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            partials[i] = new Aggregate(parts[i], afields, partialOps, gfields);
+        }
+        int[] finalGfields = new int[gfields.length];
+        for (int i = 0; i < gfields.length; i++) {
+            finalGfields[i] = i;
+        }
+        return new Aggregate(Exchange.gather(partials), finalAfields, finalOps, finalGfields);
+    }
+}
@@ -17,6 +17,11 @@ public class Project extends Operator {
     private OpIterator child;
     private final TupleDesc td;
     private final List<Integer> outFieldIds;
+    private final List<Expression> expressions;
+    // 编译后的每个输出字段
+    private Expression.FieldEvaluator[] evaluators;
+    // 输出全部为 INT 时, 直接计算 int 值并返回紧凑元组; 否则为 null
+    private Expression.IntEvaluator[] intEvaluators;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -35,13 +40,77 @@ public class Project extends Operator {
                    OpIterator child) {
         this.child = child;
         outFieldIds = fieldList;
+        expressions = new ArrayList<>();
         String[] fieldAr = new String[fieldList.size()];
         TupleDesc childtd = child.getTupleDesc();
 
         for (int i = 0; i < fieldAr.length; i++) {
             fieldAr[i] = childtd.getFieldName(fieldList.get(i));
+            expressions.add(Expression.field(fieldList.get(i)));
         }
         td = new TupleDesc(types, fieldAr);
+        compile();
+    }
+
+    /**
+     * Constructor accepts a child operator and an expression on the fields of
+     * its tuples for each field of the output tuples, compiled for the schema
+     * of child.
+     *
+     * @param expressions the value of each output field
+     * @param names       the name of each output field
+     * @param child       The child operator
+     * @throws IllegalArgumentException if an expression is a condition, or not an expression on the fields of child
+     * @throws NoSuchElementException   if a field of an expression is not a field of child
+     */
+    public Project(List<Expression> expressions, String[] names, OpIterator child) {
+        this.child = child;
+        this.outFieldIds = null;
+        this.expressions = expressions;
+        TupleDesc childtd = child.getTupleDesc();
+        Type[] types = new Type[expressions.size()];
+        for (int i = 0; i < types.length; i++) {
+            Type type = expressions.get(i).getType(childtd);
+            types[i] = type == null ? Type.INT_TYPE : type;
+        }
+        td = new TupleDesc(types, names);
+        compile();
+    }
+
+    private void compile() {
+        TupleDesc childtd = child.getTupleDesc();
+        evaluators = new Expression.FieldEvaluator[expressions.size()];
+        for (int i = 0; i < evaluators.length; i++) {
+            evaluators[i] = expressions.get(i).compileField(childtd);
+        }
+        intEvaluators = null;
+        if (!td.isAllInt()) {
+            return;
+        }
+        for (Expression e : expressions) {
+            if (e.getType(childtd) == Type.STRING_TYPE) {
+                return;
+            }
+        }
+        intEvaluators = new Expression.IntEvaluator[expressions.size()];
+        for (int i = 0; i < intEvaluators.length; i++) {
+            intEvaluators[i] = expressions.get(i).compileInt(childtd);
+        }
+    }
+
+    /**
+     * @return the ids of the fields of the child's tupleDesc that are projected
+     *         out, or null if this Project computes expressions
+     */
+    public List<Integer> getFieldList() {
+        return outFieldIds;
+    }
+
+    /**
+     * @return the expression of each output field
+     */
+    public List<Expression> getExpressions() {
+        return expressions;
     }
 
     @Override
@@ -78,10 +147,19 @@ public class Project extends Operator {
             TransactionAbortedException, DbException {
         if (!child.hasNext()) return null;
         Tuple t = child.next();
+        if (intEvaluators != null) {
+            int[] values = new int[intEvaluators.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = intEvaluators[i].eval(t);
+            }
+            Tuple newTuple = new Tuple(td, values);
+            newTuple.setRecordId(t.getRecordId());
+            return newTuple;
+        }
         Tuple newTuple = new Tuple(td);
         newTuple.setRecordId(t.getRecordId());
-        for (int i = 0; i < td.numFields(); i++) {
-            newTuple.setField(i, t.getField(outFieldIds.get(i)));
+        for (int i = 0; i < evaluators.length; i++) {
+            newTuple.setField(i, evaluators[i].eval(t));
         }
         return newTuple;
     }
@@ -95,6 +173,7 @@ public class Project extends Operator {
     public void setChildren(OpIterator[] children) {
         if (this.child != children[0]) {
             this.child = children[0];
+            compile();
         }
     }
 
@@ -0,0 +1,74 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * RowToBatch adapts a row operator to the batch interface: it gathers the tuples
+ * of its child into batches. It lets batch operators read from operators that have
+ * no batch version.
+ *
+ * @see BatchToRow
+ */
+public class RowToBatch implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final OpIterator child;
+    private final int batchSize;
+    private transient TupleBatch batch;
+
+    /**
+     * @param child the row operator to read tuples from
+     * @param batchSize the number of rows in each batch
+     */
+    public RowToBatch(OpIterator child, int batchSize) {
+        this.child = child;
+        this.batchSize = batchSize;
+    }
+
+    public RowToBatch(OpIterator child) {
+        this(child, TupleBatch.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @return the row operator this adapter reads from
+     */
+    public OpIterator getChild() {
+        return child;
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = new TupleBatch(child.getTupleDesc(), batchSize);
+    }
+
+    @Override
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (batch == null)
+            throw new IllegalStateException("iterator is closed");
+        batch.clear();
+        while (!batch.isFull() && child.hasNext()) {
+            batch.addTuple(child.next());
+        }
+        return batch.size() == 0 ? null : batch;
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    @Override
+    public void close() {
+        child.close();
+        batch = null;
+    }
+}
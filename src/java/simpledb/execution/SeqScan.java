@@ -6,7 +6,9 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Type;
 import simpledb.common.DbException;
+import simpledb.storage.AbstractDbFileIterator;
 import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
@@ -16,6 +18,11 @@ import java.util.*;
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
+ * <p>
+ * Predicates and a subset of the fields of the table can be pushed into the
+ * scan: it then returns only the tuples that satisfy the predicates, with only
+ * those fields. A heap file evaluates them page by page, before building the
+ * tuples it returns.
  */
 public class SeqScan implements OpIterator {
 
@@ -23,6 +30,12 @@ public class SeqScan implements OpIterator {
     private final TransactionId tid;
     private  int tableId;
     private  String tableAlias;
+    // 只扫描堆文件的[firstPage, endPage)页，endPage为-1时扫描整张表
+    private final int firstPage;
+    private final int endPage;
+    // 下推的谓词，作用于表的字段；输出的表字段，为null时输出全部字段
+    private final Predicate[] predicates;
+    private final int[] fields;
     private DbFileIterator it;
 
     /**
@@ -42,10 +55,48 @@ public class SeqScan implements OpIterator {
      *            tableAlias.null, or null.null).
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, 0, -1);
+    }
+
+    /**
+     * Creates a sequential scan over a range of the pages of a heap file, one
+     * of the partitions of a parallel scan.
+     *
+     * @param firstPage the number of the first page to scan
+     * @param endPage   the number of the page after the last one to scan, or
+     *                  -1 to scan to the end of the table
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int firstPage, int endPage) {
+        this(tid, tableid, tableAlias, firstPage, endPage, new Predicate[0], null);
+    }
+
+    /**
+     * Creates a sequential scan that returns only the tuples of the table that
+     * satisfy every one of the predicates, with only the given fields.
+     *
+     * @param predicates predicates on the fields of the table, numbered as in
+     *                   the table rather than in the output of the scan
+     * @param fields     the fields of the table to return, in order, or null
+     *                   for all of them
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, Predicate[] predicates, int[] fields) {
+        this(tid, tableid, tableAlias, 0, -1, predicates, fields);
+    }
+
+    /**
+     * Creates a sequential scan over a range of the pages of a heap file that
+     * returns only the tuples that satisfy the predicates, with only the given
+     * fields; see {@link #SeqScan(TransactionId, int, String, Predicate[], int[])}.
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int firstPage, int endPage,
+                   Predicate[] predicates, int[] fields) {
         this.tid = tid;
         this.tableId = tableid;
         this.tableAlias = tableAlias;
-        // some code goes here
+        this.firstPage = firstPage;
+        this.endPage = endPage;
+        this.predicates = predicates;
+        this.fields = fields;
     }
 
     /**
@@ -58,6 +109,51 @@ public class SeqScan implements OpIterator {
         return Database.getCatalog().getTableName(this.tableId);
     }
 
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+        return this.tableId;
+    }
+
+    /**
+     * @return the number of the first page this scan reads
+     */
+    public int getFirstPage() {
+        return this.firstPage;
+    }
+
+    /**
+     * @return the number of the page after the last one this scan reads, or
+     *         -1 if it reads to the end of the table
+     */
+    public int getEndPage() {
+        return this.endPage;
+    }
+
+    /**
+     * @return the predicates pushed into this scan, on the fields of the table
+     */
+    public Predicate[] getPredicates() {
+        return this.predicates;
+    }
+
+    /**
+     * @return the fields of the table this scan returns, in order, or null if
+     *         it returns all of them
+     */
+    public int[] getFields() {
+        return this.fields;
+    }
+
+    /**
+     * @return the index in the table of the field at index field of the output
+     *         of this scan
+     */
+    public int tableField(int field) {
+        return fields == null ? field : fields[field];
+    }
+
     /**
      * @return Return the alias of the table this operator scans.
      * */
@@ -91,7 +187,14 @@ public class SeqScan implements OpIterator {
 
     @Override
     public void open() throws DbException, TransactionAbortedException {
-        it = Database.getCatalog().getDatabaseFile(tableId).iterator(tid);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (file instanceof HeapFile) {
+            it = ((HeapFile) file).iterator(tid, firstPage, endPage, predicates, fields);
+        } else if (predicates.length == 0 && fields == null) {
+            it = file.iterator(tid);
+        } else {
+            it = pushDown(file.iterator(tid), getTupleDesc());
+        }
         it.open();
         // some code goes here
     }
@@ -111,7 +214,8 @@ public class SeqScan implements OpIterator {
         // some code goes here
         TupleDesc tupleDesc = Database.getCatalog().getTupleDesc(this.tableId);
         List<TupleDesc.TDItem> list = new ArrayList<>();
-        for (TupleDesc.TDItem tdItem : tupleDesc.getTdItems()) {
+        for (int i = 0; i < (fields == null ? tupleDesc.numFields() : fields.length); i++) {
+            TupleDesc.TDItem tdItem = tupleDesc.getTdItems().get(tableField(i));
             TupleDesc.TDItem item = new TupleDesc.TDItem(tdItem.fieldType,tableAlias+"."+tdItem.fieldName);
             list.add(item);
         }
@@ -120,6 +224,48 @@ public class SeqScan implements OpIterator {
 
     }
 
+    /**
+     * Evaluate the predicates and keep the fields of this scan over the tuples
+     * of a file that cannot do it itself
+     */
+    private DbFileIterator pushDown(DbFileIterator child, TupleDesc td) {
+        Expression.Condition condition = Expression.of(predicates)
+                .compileCondition(Database.getCatalog().getTupleDesc(tableId));
+        return new AbstractDbFileIterator() {
+            @Override
+            public void open() throws DbException, TransactionAbortedException {
+                child.open();
+            }
+
+            @Override
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                while (child.hasNext()) {
+                    Tuple t = child.next();
+                    if (!condition.test(t)) {
+                        continue;
+                    }
+                    if (fields == null) {
+                        return t;
+                    }
+                    return t.project(td, fields);
+                }
+                return null;
+            }
+
+            @Override
+            public void rewind() throws DbException, TransactionAbortedException {
+                close();
+                child.rewind();
+            }
+
+            @Override
+            public void close() {
+                super.close();
+                child.close();
+            }
+        };
+    }
+
     @Override
     public boolean hasNext() throws TransactionAbortedException, DbException {
         // some code goes here
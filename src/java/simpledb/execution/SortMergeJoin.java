@@ -0,0 +1,257 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * SortMergeJoin joins two inputs sorted on their join fields, sorting them with
+ * an {@link ExternalSort} unless they are already in order.
+ * <p>
+ * For an equality predicate both inputs are sorted ascending and merged; the
+ * tuples of child2 with the current join value are kept in memory to be paired
+ * with every tuple of child1 with that value.
+ * <p>
+ * For an inequality predicate only child2 is sorted, so that the tuples matching
+ * a tuple of child1 are a prefix of it: ascending for &gt; and &gt;=, descending
+ * for &lt; and &lt;=. For each tuple of child1 that matches the first tuple of
+ * child2, child2 is rewound and read until the first tuple that does not match;
+ * the cost is therefore proportional to the output rather than to the product of
+ * the inputs.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final boolean child1Sorted, child2Sorted;
+    private final int maxTuples;
+    private TupleDesc comboTD;
+
+    private transient OpIterator input1, input2;
+    private transient JoinPredicate.Compiled compiled;
+    private transient Tuple left;
+    // 等值连接：child2中与当前连接值相等的元组
+    private transient List<Tuple> group;
+    private transient Field groupKey;
+    private transient int groupPos;
+    private transient Tuple nextRight;
+    // 不等值连接：child2的第一个元组与是否正在读取匹配的前缀
+    private transient Tuple firstRight;
+    private transient boolean scanning;
+
+    /**
+     * Constructor. Sorts both children on their join fields.
+     *
+     * @param p      The predicate to use to join the children; EQUALS or a range comparison
+     * @param child1 Iterator for the left(outer) relation to join
+     * @param child2 Iterator for the right(inner) relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, false, false, ExternalSort.DEFAULT_MAX_TUPLES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p            The predicate to use to join the children; EQUALS or a range comparison
+     * @param child1       Iterator for the left(outer) relation to join
+     * @param child2       Iterator for the right(inner) relation to join
+     * @param child1Sorted true if child1 already returns its tuples in the order
+     *                     given by {@link #isAscending} on its join field
+     * @param child2Sorted true if child2 already returns its tuples in that order
+     * @param maxTuples    the number of tuples an input may have to be sorted in memory
+     * @throws IllegalArgumentException if the predicate is NOT_EQUALS or LIKE
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2,
+                         boolean child1Sorted, boolean child2Sorted, int maxTuples) {
+        if (!supports(p.getOperator())) {
+            throw new IllegalArgumentException("a sort-merge join cannot evaluate " + p.getOperator());
+        }
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.child1Sorted = child1Sorted;
+        this.child2Sorted = child2Sorted;
+        this.maxTuples = maxTuples;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return true if a sort-merge join can evaluate op
+     */
+    public static boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    /**
+     * @return true if the inputs of a join on op are merged in ascending order
+     *         of their join fields, false if in descending order
+     */
+    public static boolean isAscending(Predicate.Op op) {
+        return op != Predicate.Op.LESS_THAN && op != Predicate.Op.LESS_THAN_OR_EQ;
+    }
+
+    /**
+     * @return true if child1 has to be in order; only equality joins merge child1
+     */
+    public static boolean needsSortedChild1(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    @Override
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        boolean asc = isAscending(pred.getOperator());
+        input1 = child1Sorted || !needsSortedChild1(pred.getOperator()) ? child1
+                : new ExternalSort(new TupleComparator(pred.getField1(), asc), maxTuples, child1);
+        input2 = child2Sorted ? child2
+                : new ExternalSort(new TupleComparator(pred.getField2(), asc), maxTuples, child2);
+        input1.open();
+        input2.open();
+        compiled = pred.compile(input1.getTupleDesc(), input2.getTupleDesc());
+        start();
+        super.open();
+    }
+
+    private void start() throws DbException, TransactionAbortedException {
+        left = null;
+        group = new ArrayList<>();
+        groupKey = null;
+        groupPos = 0;
+        scanning = false;
+        nextRight = input2.hasNext() ? input2.next() : null;
+        firstRight = nextRight;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        if (input1 != null)
+            input1.close();
+        if (input2 != null)
+            input2.close();
+        input1 = null;
+        input2 = null;
+        left = null;
+        group = null;
+        nextRight = null;
+        firstRight = null;
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        input1.rewind();
+        input2.rewind();
+        start();
+        resetNext();
+    }
+
+    private Tuple merge(Tuple t1, Tuple t2) {
+        return Tuple.merge(comboTD, t1, t2);
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. As with the other joins, the tuples returned are the
+     * concatenation of the joining tuples from the left and right relation.
+     */
+    @Override
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (pred.getOperator() == Predicate.Op.EQUALS) {
+            return fetchNextEquals();
+        }
+        return fetchNextRange();
+    }
+
+    private Tuple fetchNextEquals() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (left != null && groupPos < group.size()) {
+                return merge(left, group.get(groupPos++));
+            }
+            if (!input1.hasNext()) {
+                return null;
+            }
+            left = input1.next();
+            groupPos = 0;
+            Field key = left.getField(pred.getField1());
+            if (groupKey != null && groupKey.compare(Predicate.Op.EQUALS, key)) {
+                // child1中连接值重复，复用child2的同一组元组
+                continue;
+            }
+            // child2跳过比当前连接值小的元组，再收集与之相等的元组
+            while (nextRight != null && nextRight.getField(pred.getField2()).compare(Predicate.Op.LESS_THAN, key)) {
+                nextRight = input2.hasNext() ? input2.next() : null;
+            }
+            group.clear();
+            while (nextRight != null && nextRight.getField(pred.getField2()).compare(Predicate.Op.EQUALS, key)) {
+                group.add(nextRight);
+                nextRight = input2.hasNext() ? input2.next() : null;
+            }
+            groupKey = key;
+            if (group.isEmpty() && nextRight == null) {
+                // child2已经读完，后面不会再有匹配
+                return null;
+            }
+        }
+    }
+
+    private Tuple fetchNextRange() throws TransactionAbortedException, DbException {
+        if (firstRight == null) {
+            return null;
+        }
+        while (true) {
+            if (scanning) {
+                if (input2.hasNext()) {
+                    Tuple right = input2.next();
+                    if (compiled.filter(left, right)) {
+                        return merge(left, right);
+                    }
+                }
+                scanning = false;
+            }
+            if (!input1.hasNext()) {
+                return null;
+            }
+            left = input1.next();
+            if (compiled.filter(left, firstRight)) {
+                input2.rewind();
+                scanning = true;
+            }
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+}
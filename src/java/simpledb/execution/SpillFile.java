@@ -0,0 +1,187 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.NoSuchElementException;
+
+/**
+ * SpillFile is a temporary file of tuples that operators write when their input
+ * does not fit in memory. Tuples are appended with {@link #add} and read back in
+ * the same order through {@link #iterator}; the file is not paged through the
+ * BufferPool and is deleted by {@link #delete}.
+ * <p>
+ * Tuples are stored compactly rather than in their page format: an integer
+ * takes 4 bytes and a string its length followed by its characters, without
+ * the padding to Type.STRING_LEN of a heap page.
+ */
+public class SpillFile {
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int size = 0;
+
+    /**
+     * Create an empty temporary file for tuples of td.
+     */
+    public SpillFile(TupleDesc td) throws DbException {
+        this.td = td;
+        try {
+            file = File.createTempFile("spill", ".dat");
+            file.deleteOnExit();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        } catch (IOException e) {
+            throw new DbException("could not create a spill file: " + e.getMessage());
+        }
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of tuples in the file
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Append t at the end of the file.
+     */
+    public void add(Tuple t) throws DbException {
+        if (out == null)
+            throw new IllegalStateException("spill file is deleted");
+        try {
+            for (int i = 0; i < td.numFields(); i++) {
+                writeField(t.getField(i), out);
+            }
+        } catch (IOException e) {
+            throw new DbException("could not write a spill file: " + e.getMessage());
+        }
+        size++;
+    }
+
+    /**
+     * @return an iterator over the tuples of the file in the order they were added.
+     *         Tuples added after the iterator is opened are read after a rewind.
+     */
+    public OpIterator iterator() {
+        return new Reader();
+    }
+
+    /**
+     * Delete the file; it can no longer be written or read.
+     */
+    public void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+            out = null;
+        }
+        file.delete();
+    }
+
+    private static void writeField(Field f, DataOutputStream out) throws IOException {
+        if (f instanceof IntField) {
+            out.writeInt(((IntField) f).getValue());
+        } else if (f instanceof StringField) {
+            String s = ((StringField) f).getValue();
+            if (s.length() > Type.STRING_LEN)
+                s = s.substring(0, Type.STRING_LEN);
+            out.writeInt(s.length());
+            out.writeBytes(s);
+        } else {
+            f.serialize(out);
+        }
+    }
+
+    private static Field readField(Type type, DataInputStream in) throws IOException, ParseException {
+        switch (type) {
+            case INT_TYPE:
+                return new IntField(in.readInt());
+            case STRING_TYPE:
+                byte[] bs = new byte[in.readInt()];
+                in.readFully(bs);
+                return new StringField(new String(bs), Type.STRING_LEN);
+            default:
+                return type.parse(in);
+        }
+    }
+
+    private class Reader implements OpIterator {
+
+        private static final long serialVersionUID = 1L;
+        private transient DataInputStream in;
+        private transient int read;
+        private transient int total;
+
+        @Override
+        public void open() throws DbException {
+            try {
+                out.flush();
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            } catch (IOException e) {
+                throw new DbException("could not read a spill file: " + e.getMessage());
+            }
+            read = 0;
+            total = size;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (in == null)
+                throw new IllegalStateException("iterator is closed");
+            return read < total;
+        }
+
+        @Override
+        public Tuple next() throws DbException, NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++) {
+                    t.setField(i, readField(td.getFieldType(i), in));
+                }
+            } catch (IOException | ParseException e) {
+                throw new DbException("could not read a spill file: " + e.getMessage());
+            }
+            read++;
+            return t;
+        }
+
+        @Override
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        @Override
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        @Override
+        public void close() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+                in = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * StreamAggregate computes the same aggregates as {@link Aggregate} over a
+ * child whose tuples arrive grouped: all the tuples of a group one after the
+ * other, as they are when the child is sorted on the group-by fields. It keeps
+ * only the accumulators of the current group and returns the group as soon as a
+ * tuple with another key is read, so it needs constant memory however many
+ * groups there are, and it returns the groups in the order of the child.
+ * <p>
+ * The results are those of {@link Aggregate} only if the child is grouped;
+ * see {@link simpledb.optimizer.JoinOptimizer#isGroupedOn}.
+ */
+public class StreamAggregate extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private final int[] gfields;
+    private final int[] afields;
+    private final Aggregator.Op[] aops;
+    private TupleDesc tupleDesc;
+
+    // 当前分组的键与累加值，以及已读出但属于下一个分组的元组
+    private transient Field[] key;
+    private transient long[] values;
+    private transient long count;
+    private transient Tuple pending;
+    private transient boolean done;
+
+    /**
+     * Constructor.
+     *
+     * @param child   The OpIterator that is feeding us tuples, grouped on gfields.
+     * @param afields The column each aggregate is computed over.
+     * @param aops    The aggregation operators, one per column of afields.
+     * @param gfields The columns over which we are grouping the result, none
+     *                if there is no grouping
+     * @throws IllegalArgumentException if there is no aggregate, afields and aops
+     *                                  differ in length, an aggregate other than
+     *                                  COUNT is over a non-integer column, or an
+     *                                  aggregate is SUM_COUNT or SC_AVG
+     */
+    public StreamAggregate(OpIterator child, int[] afields, Aggregator.Op[] aops, int[] gfields) {
+        if (afields.length == 0 || afields.length != aops.length) {
+            throw new IllegalArgumentException("one operator is needed for each of at least one aggregate");
+        }
+        for (Aggregator.Op op : aops) {
+            if (op == Aggregator.Op.SUM_COUNT || op == Aggregator.Op.SC_AVG) {
+                throw new IllegalArgumentException("unsupported aggregate " + op);
+            }
+        }
+        this.child = child;
+        this.afields = afields.clone();
+        this.aops = aops.clone();
+        this.gfields = gfields.clone();
+        this.tupleDesc = Aggregate.makeTupleDesc(child.getTupleDesc(), gfields, afields, aops);
+    }
+
+    /**
+     * @return the groupby field indexes in the <b>INPUT</b> tuples, none if
+     * there is no grouping
+     */
+    public int[] groupFields() {
+        return gfields.clone();
+    }
+
+    /**
+     * @return the field each aggregate is computed over, in the <b>INPUT</b> tuples
+     */
+    public int[] aggregateFields() {
+        return afields.clone();
+    }
+
+    /**
+     * @return the aggregate operators, one per field of {@link #aggregateFields}
+     */
+    public Aggregator.Op[] aggregateOps() {
+        return aops.clone();
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return tupleDesc;
+    }
+
+    @Override
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        child.open();
+        start();
+        super.open();
+    }
+
+    private void start() {
+        key = new Field[gfields.length];
+        values = new long[aops.length];
+        pending = null;
+        done = false;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        child.close();
+        pending = null;
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        start();
+        resetNext();
+    }
+
+    @Override
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (done) {
+            return null;
+        }
+        Tuple first = pending != null ? pending : child.hasNext() ? child.next() : null;
+        pending = null;
+        if (first == null) {
+            done = true;
+            // 没有分组字段时，空输入也有一个分组，但只有计数有结果
+            return gfields.length == 0 && onlyCounts() ? result() : null;
+        }
+        for (int i = 0; i < gfields.length; i++) {
+            key[i] = first.getField(gfields[i]);
+        }
+        count = 0;
+        merge(first);
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (!sameGroup(t)) {
+                pending = t;
+                return result();
+            }
+            merge(t);
+        }
+        done = true;
+        return result();
+    }
+
+    private boolean sameGroup(Tuple t) {
+        for (int i = 0; i < gfields.length; i++) {
+            if (!key[i].equals(t.getField(gfields[i]))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void merge(Tuple t) {
+        for (int i = 0; i < aops.length; i++) {
+            switch (aops[i]) {
+                case MIN: {
+                    int value = t.getInt(afields[i]);
+                    if (count == 0 || value < values[i])
+                        values[i] = value;
+                    break;
+                }
+                case MAX: {
+                    int value = t.getInt(afields[i]);
+                    if (count == 0 || value > values[i])
+                        values[i] = value;
+                    break;
+                }
+                case COUNT:
+                    break;
+                default:
+                    // SUM和AVG都累加和，AVG再除以元组数
+                    values[i] = (count == 0 ? 0 : values[i]) + t.getInt(afields[i]);
+                    break;
+            }
+        }
+        count++;
+    }
+
+    private Tuple result() {
+        Tuple t = new Tuple(tupleDesc);
+        for (int i = 0; i < gfields.length; i++) {
+            t.setField(i, key[i]);
+        }
+        for (int i = 0; i < aops.length; i++) {
+            int value;
+            switch (aops[i]) {
+                case COUNT:
+                    value = (int) count;
+                    break;
+                case AVG:
+                    value = (int) (values[i] / count);
+                    break;
+                default:
+                    value = (int) values[i];
+                    break;
+            }
+            t.setField(gfields.length + i, new IntField(value));
+        }
+        return t;
+    }
+
+    private boolean onlyCounts() {
+        for (Aggregator.Op op : aops) {
+            if (op != Aggregator.Op.COUNT)
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child = children[0];
+        this.tupleDesc = Aggregate.makeTupleDesc(child.getTupleDesc(), gfields, afields, aops);
+    }
+}
@@ -17,7 +17,7 @@ public class StringAggregator implements Aggregator {
     private Type gbfieldtype;
     private int afield;
     private Op what;
-    private Map<Field, Integer> group;
+    private GroupTable groups;
 
     /**
      * Aggregate constructor
@@ -37,7 +37,9 @@ public class StringAggregator implements Aggregator {
         this.gbfieldtype = gbfieldtype;
         this.afield = afield;
         this.what = what;
-        group = new HashMap<>();
+        this.groups = gbfield == NO_GROUPING
+                ? new GroupTable(new int[0], new Type[0], new int[]{afield}, new Op[]{what})
+                : new GroupTable(new int[]{gbfield}, new Type[]{gbfieldtype}, new int[]{afield}, new Op[]{what});
     }
 
     /**
@@ -46,18 +48,7 @@ public class StringAggregator implements Aggregator {
      */
     @Override
     public void mergeTupleIntoGroup(Tuple tup) {
-        // 先判断是否为空
-        Field fieldToGroupBy;
-        if (this.gbfield == NO_GROUPING) {
-            fieldToGroupBy =null;
-        } else {
-            fieldToGroupBy  = tup.getField(gbfield);
-        }
-        Integer orDefault = group.getOrDefault(fieldToGroupBy, 0);
-        orDefault++;
-        group.put(fieldToGroupBy,orDefault);
-
-        // some code goes here
+        groups.merge(groups.findOrAdd(tup), tup);
     }
 
     /**
@@ -70,37 +61,10 @@ public class StringAggregator implements Aggregator {
      */
     @Override
     public OpIterator iterator() {
-        List<Tuple> tuples = new ArrayList<>();
-        Type[] types;
-        String[] names;
-        if (this.gbfield == NO_GROUPING) {
-            types = new Type[]{Type.INT_TYPE};
-            names = new String[]{"aggregateVal"};
-            TupleDesc tupleDesc = new TupleDesc(types,names);
-            Tuple tuple = new Tuple(tupleDesc);
-            Integer integer = group.get(null);
-            IntField intField = new IntField(integer);
-            tuple.setField(0,intField);
-            tuples.add(0,tuple);
-            return new TupleIterator(tupleDesc,tuples);
-        } else {
-            types = new Type[]{gbfieldtype,Type.INT_TYPE};
-            names = new String[]{"groupVal","aggregateVal"};
-            TupleDesc tupleDesc = new TupleDesc(types,names);
-
-            Set<Field> fields1 = group.keySet();
-            for(Field field : fields1) {
-                Tuple tuple = new Tuple(tupleDesc);
-                Integer integer = group.get(field);
-                tuple.setField(0,field);
-                IntField intField = new IntField(integer);
-                tuple.setField(1,intField);
-                tuples.add(tuple);
-            }
-            return new TupleIterator(tupleDesc,tuples);
-        }
-
-
+        TupleDesc td = gbfield == NO_GROUPING
+                ? new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{"aggregateVal"})
+                : new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE}, new String[]{"groupVal", "aggregateVal"});
+        return groups.iterator(td);
     }
 
 }
@@ -0,0 +1,160 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * TopN implements ORDER BY ... LIMIT n: it returns the first n tuples of its
+ * child in the order of one or more fields, each ascending or descending. It
+ * keeps only the n best tuples seen so far in a bounded heap, so it needs
+ * memory for n tuples instead of sorting its whole input. Tuples that compare
+ * equal keep the order in which the child returned them, as with
+ * {@link OrderBy}.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private final int[] orderByFields;
+    private final boolean[] ascs;
+    private final int limit;
+
+    private transient List<Tuple> top;
+    private transient Iterator<Tuple> it;
+
+    /**
+     * A tuple of the heap with its position in the input, which breaks ties.
+     */
+    private static class Entry {
+        final Tuple tuple;
+        final long seq;
+
+        Entry(Tuple tuple, long seq) {
+            this.tuple = tuple;
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * @param orderbyFields the fields to which the sort is applied, most significant first
+     * @param asc           for each field, true if the sort order is ascending
+     * @param limit         the number of tuples to return
+     * @param child         the tuples to sort
+     */
+    public TopN(int[] orderbyFields, boolean[] asc, int limit, OpIterator child) {
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length) {
+            throw new IllegalArgumentException("one sort order is needed for each of at least one field");
+        }
+        if (limit < 0) {
+            throw new IllegalArgumentException("negative limit " + limit);
+        }
+        this.child = child;
+        this.orderByFields = orderbyFields.clone();
+        this.ascs = asc.clone();
+        this.limit = limit;
+    }
+
+    /**
+     * @return the number of tuples returned
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the fields the tuples are sorted on, most significant first
+     */
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    /**
+     * @return for each field of {@link #getOrderByFields}, true if it is sorted ascending
+     */
+    public boolean[] getAscending() {
+        return ascs.clone();
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    @Override
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        child.open();
+        top = selectTop();
+        it = top.iterator();
+        super.open();
+    }
+
+    /**
+     * Read the child and keep its first limit tuples in a max-heap whose root is
+     * the worst of them, replaced whenever a better tuple is read.
+     *
+     * @return the first limit tuples in order
+     */
+    private List<Tuple> selectTop() throws DbException, TransactionAbortedException {
+        if (limit == 0) {
+            return new ArrayList<>();
+        }
+        Comparator<Tuple> order = new TupleComparator(orderByFields, ascs);
+        Comparator<Entry> entryOrder = (a, b) -> {
+            int c = order.compare(a.tuple, b.tuple);
+            return c != 0 ? c : Long.compare(a.seq, b.seq);
+        };
+        PriorityQueue<Entry> heap = new PriorityQueue<>(Math.min(limit, 1024), entryOrder.reversed());
+        long seq = 0;
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (heap.size() < limit) {
+                heap.add(new Entry(t, seq));
+            } else if (order.compare(t, heap.peek().tuple) < 0) {
+                // 比堆中最差的元组好才替换，相等时保留先读到的元组
+                heap.poll();
+                heap.add(new Entry(t, seq));
+            }
+            seq++;
+        }
+        List<Entry> entries = new ArrayList<>(heap);
+        entries.sort(entryOrder);
+        List<Tuple> tuples = new ArrayList<>(entries.size());
+        for (Entry e : entries) {
+            tuples.add(e.tuple);
+        }
+        return tuples;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        child.close();
+        top = null;
+        it = null;
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        it = top.iterator();
+        resetNext();
+    }
+
+    @Override
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        return it != null && it.hasNext() ? it.next() : null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
@@ -32,6 +32,7 @@ public class BTreeFile implements DbFile {
 	private final TupleDesc td;
 	private final int tableid ;
 	private final int keyField;
+	private final int[] keyFields;
 
 	/**
 	 * Constructs a B+ tree file backed by the specified file.
@@ -42,9 +43,28 @@ public class BTreeFile implements DbFile {
 	 * @param td - the tuple descriptor of tuples in the file
 	 */
 	public BTreeFile(File f, int key, TupleDesc td) {
+		this(f, new int[]{key}, td);
+	}
+
+	/**
+	 * Constructs a B+ tree file keyed on several fields. Keys are compared
+	 * lexicographically on the fields in the given order, and an
+	 * {@link IndexPredicate} may use a {@link CompositeField} holding only a
+	 * prefix of the key to search on the leading fields.
+	 * 
+	 * @param f - the file that stores the on-disk backing store for this B+ tree
+	 *            file.
+	 * @param keys - the fields which index is keyed on, most significant first
+	 * @param td - the tuple descriptor of tuples in the file
+	 */
+	public BTreeFile(File f, int[] keys, TupleDesc td) {
+		if (keys.length == 0) {
+			throw new IllegalArgumentException("a B+ tree needs at least one key field");
+		}
 		this.f = f;
 		this.tableid = f.getAbsoluteFile().hashCode();
-		this.keyField = key;
+		this.keyFields = keys.clone();
+		this.keyField = keys[0];
 		this.td = td;
 	}
 
@@ -120,9 +140,9 @@ public class BTreeFile implements DbFile {
                 }
                 Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
                 if (id.pgcateg() == BTreePageId.INTERNAL) {
-                    return new BTreeInternalPage(id, pageBuf, keyField);
+                    return new BTreeInternalPage(id, pageBuf, keyFields);
                 } else if (id.pgcateg() == BTreePageId.LEAF) {
-                    return new BTreeLeafPage(id, pageBuf, keyField);
+                    return new BTreeLeafPage(id, pageBuf, keyFields);
                 } else { // id.pgcateg() == BTreePageId.HEADER
                     return new BTreeHeaderPage(id, pageBuf);
                 }
@@ -166,12 +186,29 @@ public class BTreeFile implements DbFile {
 	}
 
 	/**
-	 * Returns the index of the field that this B+ tree is keyed on
+	 * Returns the index of the field that this B+ tree is keyed on; for a
+	 * composite key, the index of its first field
 	 */
 	public int keyField() {
 		return keyField;
 	}
 
+	/**
+	 * Returns the indexes of the fields that this B+ tree is keyed on, most
+	 * significant first
+	 */
+	public int[] keyFields() {
+		return keyFields.clone();
+	}
+
+	/**
+	 * Returns the key of the given tuple in this B+ tree: the key field itself, or a
+	 * {@link CompositeField} if the tree is keyed on several fields
+	 */
+	public Field getKey(Tuple t) {
+		return CompositeField.keyOf(t, keyFields);
+	}
+
 	/**
 	 * Recursive function which finds and locks the leaf page in the B+ tree corresponding to
 	 * the left-most page possibly containing the key field f. It locks all internal
@@ -213,6 +250,36 @@ public class BTreeFile implements DbFile {
 
 	}
 	
+	/**
+	 * Finds and locks the right-most leaf page in the B+ tree possibly containing a key
+	 * less than or equal to f, the page a descending scan starts from. Like findLeafPage,
+	 * it locks the internal nodes along the path with READ_ONLY permission.
+	 * 
+	 * If f is null, it finds the right-most leaf page -- used for the reverse iterator
+	 * 
+	 * @param tid - the transaction id
+	 * @param pid - the current page being searched
+	 * @param f - the field to search for
+	 * @return the right-most leaf page possibly containing a key less than or equal to f
+	 */
+	BTreeLeafPage findLastLeafPage(TransactionId tid, BTreePageId pid, Field f)
+			throws DbException, TransactionAbortedException {
+		if (pid.pgcateg() == BTreePageId.LEAF) {
+			return (BTreeLeafPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+		}
+		BTreeInternalPage page = (BTreeInternalPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+		Iterator<BTreeEntry> iterator = page.iterator();
+		BTreeEntry entry = null;
+		while (iterator.hasNext()) {
+			entry = iterator.next();
+			// 相等的key可能出现在右子树中，所以只有严格大于f时才进入左子树
+			if (f != null && entry.getKey().compare(Op.GREATER_THAN, f)) {
+				return findLastLeafPage(tid, entry.getLeftChild(), f);
+			}
+		}
+		return findLastLeafPage(tid, entry.getRightChild(), f);
+	}
+
 	/**
 	 * Convenience method to find a leaf page when there is no dirtypages HashMap.
 	 * Used by the BTreeFile iterator.
@@ -236,6 +303,8 @@ public class BTreeFile implements DbFile {
 	 * of the first tuple in the right-hand page (the key is "copied up"), and child pointers 
 	 * pointing to the two leaf pages resulting from the split.  Update sibling pointers and parent 
 	 * pointers as needed.  
+	 * For string keys only the shortest prefix of that key which still separates the two pages
+	 * is copied up (see {@link BTreeKeyCompression#shortestSeparator(Field, Field)}).
 	 * 
 	 * Return the leaf page into which a new tuple with key field "field" should be inserted.
 	 * 
@@ -281,7 +350,8 @@ public class BTreeFile implements DbFile {
 		dirtypages.put(newRightPage.getId(),newRightPage);
 		// 对于叶子节点的复制，需要将中间节点复制一份到父节点当中
 		BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), field);
-		Field mid = newRightPage.iterator().next().getField(keyField);
+		Field mid = BTreeKeyCompression.shortestSeparator(getKey(page.reverseIterator().next()),
+				getKey(newRightPage.iterator().next()));
 		BTreeEntry entry = new BTreeEntry(mid, page.getId(), newRightPage.getId());
 		parent.insertEntry(entry);
 		dirtypages.put(parent.getId(),parent);
@@ -332,12 +402,14 @@ public class BTreeFile implements DbFile {
 		//  将原本的一半节点逆序遍历插入到新的
 		BTreeInternalPage newRightPage = (BTreeInternalPage) getEmptyPage(tid, dirtypages, BTreePageId.INTERNAL);
 		int numEntries = page.getNumEntries();
+		int movedEntries = 0;
 		Iterator<BTreeEntry> iterator = page.reverseIterator();
-		for (int i = 0; i < numEntries / 2;i++) {
+		while (needsMoreEntries(newRightPage, page, movedEntries, numEntries / 2)) {
 			BTreeEntry next = iterator.next();
 			// 从右侧开始遍历删除，因此为删除节点本身在加上右节点
 			page.deleteKeyAndRightChild(next);
 			newRightPage.insertEntry(next);
+			movedEntries++;
 		}
 		// 对于内部节点，与叶子节点不同，需要将mid节点 push 一份到parent节点当中
 		// 并且原本分裂得到的两个节点作为mid节点的左右子节点
@@ -418,7 +490,7 @@ public class BTreeFile implements DbFile {
 		}
 
 		// split the parent if needed
-		if(parent.getNumEmptySlots() == 0) {
+		if(!parent.hasSpaceForEntry()) {
 			parent = splitInternalPage(tid, dirtypages, parent, field);
 		}
 
@@ -426,6 +498,62 @@ public class BTreeFile implements DbFile {
 
 	}
 
+	/**
+	 * Decide whether entries should keep moving from one internal page to another so that the
+	 * two pages end up evenly filled. Pages with fixed-size entries are balanced by the number
+	 * of entries, compact pages by the number of bytes in use.
+	 *
+	 * @param page - the page receiving entries
+	 * @param from - the page giving up entries
+	 * @param currentNumEntries - the number of entries page holds (or has received) so far
+	 * @param targetNumEntries - the number of entries page should end up with
+	 * @return true if another entry should be moved
+	 */
+	private static boolean needsMoreEntries(BTreeInternalPage page, BTreeInternalPage from,
+			int currentNumEntries, int targetNumEntries) {
+		if (page.isCompact()) {
+			return page.getUsedBytes() < from.getUsedBytes();
+		}
+		return currentNumEntries < targetNumEntries;
+	}
+
+	/**
+	 * Get the left-most child of an internal page. Compact pages are allowed to shrink further
+	 * than half full, so this also handles a page with a single child and no entries left.
+	 */
+	private static BTreePageId getFirstChild(BTreeInternalPage page) {
+		return page.getChildId(0);
+	}
+
+	/**
+	 * Get the right-most child of an internal page, which may have no entries left
+	 * @see #getFirstChild(BTreeInternalPage)
+	 */
+	private static BTreePageId getLastChild(BTreeInternalPage page) {
+		Iterator<BTreeEntry> it = page.reverseIterator();
+		if (it.hasNext()) {
+			return it.next().getRightChild();
+		}
+		return page.getChildId(0);
+	}
+
+	/**
+	 * Split an internal page which has become overfull because one of its keys was replaced by
+	 * a longer one while redistributing entries. Only compact pages can become overfull.
+	 *
+	 * @param tid - the transaction id
+	 * @param dirtypages - the list of dirty pages which should be updated with all new dirty pages
+	 * @param page - the internal page which may be overfull
+	 * @param field - a key on the page, used to pick which half to return from the split
+	 * @see #splitInternalPage(TransactionId, Map, BTreeInternalPage, Field)
+	 */
+	private void splitIfOverfull(TransactionId tid, Map<PageId, Page> dirtypages, BTreeInternalPage page, Field field)
+			throws DbException, IOException, TransactionAbortedException {
+		if(page != null && page.isOverfull()) {
+			splitInternalPage(tid, dirtypages, page, field);
+		}
+	}
+
 	/**
 	 * Helper function to update the parent pointer of a node.
 	 * 
@@ -534,9 +662,9 @@ public class BTreeFile implements DbFile {
 
 		// find and lock the left-most leaf page corresponding to the key field,
 		// and split the leaf page if there are no more slots available
-		BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, t.getField(keyField));
+		BTreeLeafPage leafPage = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, getKey(t));
 		if(leafPage.getNumEmptySlots() == 0) {
-			leafPage = splitLeafPage(tid, dirtypages, leafPage, t.getField(keyField));	
+			leafPage = splitLeafPage(tid, dirtypages, leafPage, getKey(t));	
 		}
 
 		// insert the tuple into the leaf page
@@ -633,6 +761,7 @@ public class BTreeFile implements DbFile {
 			}
 			else {
 				stealFromLeafPage(page, leftSibling, parent, leftEntry, false);				
+				splitIfOverfull(tid, dirtypages, parent, leftEntry.getKey());
 			}
 		}
 		else if(rightSiblingId != null) {	
@@ -644,6 +773,7 @@ public class BTreeFile implements DbFile {
 			}
 			else {
 				stealFromLeafPage(page, rightSibling, parent, rightEntry, true);				
+				splitIfOverfull(tid, dirtypages, parent, rightEntry.getKey());
 			}
 		}
 	}
@@ -652,6 +782,8 @@ public class BTreeFile implements DbFile {
 	 * Steal tuples from a sibling and copy them to the given page so that both pages are at least
 	 * half full.  Update the parent's entry so that the key matches the key field of the first
 	 * tuple in the right-hand page.
+	 * For string keys the parent's key is truncated to the shortest separator of the two pages,
+	 * which may make a compact parent overfull; the caller is responsible for splitting it.
 	 * 
 	 * @param page - the leaf page which is less than half full
 	 * @param sibling - the sibling which has tuples to spare
@@ -682,7 +814,15 @@ public class BTreeFile implements DbFile {
 		}
 		// 更新父节点中的值
 		Tuple mid = iterator.next();
-		entry.setKey(mid.getField(keyField));
+		Field key = getKey(mid);
+		if (BTreeKeyCompression.isCompressible(key.getType())) {
+			if (isRightSibling) {
+				key = BTreeKeyCompression.shortestSeparator(getKey(page.reverseIterator().next()), key);
+			} else {
+				key = BTreeKeyCompression.shortestSeparator(key, getKey(page.iterator().next()));
+			}
+		}
+		entry.setKey(key);
 		parent.updateEntry(entry);
 
 		// some code goes here
@@ -723,27 +863,28 @@ public class BTreeFile implements DbFile {
 			rightSiblingId = rightEntry.getRightChild();
 		}
 		
-		int maxEmptySlots = page.getMaxEntries() - page.getMaxEntries()/2; // ceiling
 		if(leftSiblingId != null) {
 			BTreeInternalPage leftSibling = (BTreeInternalPage) getPage(tid, dirtypages, leftSiblingId, Permissions.READ_WRITE);
 			// if the left sibling is at minimum occupancy, merge with it. Otherwise
 			// steal some entries from it
-			if(leftSibling.getNumEmptySlots() >= maxEmptySlots) {
+			if(page.canMergeWith(leftSibling)) {
 				mergeInternalPages(tid, dirtypages, leftSibling, page, parent, leftEntry);
 			}
 			else {
 				stealFromLeftInternalPage(tid, dirtypages, page, leftSibling, parent, leftEntry);
+				splitIfOverfull(tid, dirtypages, parent, leftEntry.getKey());
 			}
 		}
 		else if(rightSiblingId != null) {
 			BTreeInternalPage rightSibling = (BTreeInternalPage) getPage(tid, dirtypages, rightSiblingId, Permissions.READ_WRITE);
 			// if the right sibling is at minimum occupancy, merge with it. Otherwise
 			// steal some entries from it
-			if(rightSibling.getNumEmptySlots() >= maxEmptySlots) {
+			if(page.canMergeWith(rightSibling)) {
 				mergeInternalPages(tid, dirtypages, page, rightSibling, parent, rightEntry);
 			}
 			else {
 				stealFromRightInternalPage(tid, dirtypages, page, rightSibling, parent, rightEntry);
+				splitIfOverfull(tid, dirtypages, parent, rightEntry.getKey());
 			}
 		}
 	}
@@ -783,11 +924,11 @@ public class BTreeFile implements DbFile {
 		BTreeEntry entry = iterator.next();
 
 		// 先将中间节点移动到右节点
-		BTreeEntry mid = new BTreeEntry(parentEntry.getKey(),entry.getRightChild(),page.iterator().next().getLeftChild());
+		BTreeEntry mid = new BTreeEntry(parentEntry.getKey(),entry.getRightChild(),getFirstChild(page));
 		page.insertEntry(mid);
 		currentNumEntries++;
 		// 从左侧兄弟节点进行窃取
-		while (currentNumEntries < targetNumEntries) {
+		while (needsMoreEntries(page, leftSibling, currentNumEntries, targetNumEntries)) {
 			leftSibling.deleteKeyAndRightChild(entry);
 			page.insertEntry(entry);
 			entry = iterator.next();
@@ -839,11 +980,11 @@ public class BTreeFile implements DbFile {
 		Iterator<BTreeEntry> rightIterator = rightSibling.iterator();
 		BTreeEntry entry = rightIterator.next();
 
-		BTreeEntry mid = new BTreeEntry(parentEntry.getKey(),page.reverseIterator().next().getRightChild(),entry.getLeftChild());
+		BTreeEntry mid = new BTreeEntry(parentEntry.getKey(),getLastChild(page),entry.getLeftChild());
 		page.insertEntry(mid);
 		currentNumEntries++;
 
-		while (currentNumEntries < targetNumEntries) {
+		while (needsMoreEntries(page, rightSibling, currentNumEntries, targetNumEntries)) {
 			rightSibling.deleteKeyAndLeftChild(entry);
 			page.insertEntry(entry);
 			currentNumEntries++;
@@ -942,8 +1083,8 @@ public class BTreeFile implements DbFile {
 			BTreeInternalPage leftPage, BTreeInternalPage rightPage, BTreeInternalPage parent, BTreeEntry parentEntry)
 					throws DbException, IOException, TransactionAbortedException {
 		// 获取父节点新的子节点，用于将父节点merge到新的子节点当中
-		BTreePageId leftChild = leftPage.reverseIterator().next().getRightChild();
-		BTreePageId rightChild = rightPage.iterator().next().getLeftChild();
+		BTreePageId leftChild = getLastChild(leftPage);
+		BTreePageId rightChild = getFirstChild(rightPage);
 		BTreeEntry mid = new BTreeEntry(parentEntry.getKey(), leftChild,rightChild);
 		leftPage.insertEntry(mid);
 
@@ -998,8 +1139,10 @@ public class BTreeFile implements DbFile {
 		// the parent is below minimum occupancy, get some tuples from its siblings
 		// or merge with one of the siblings
 		parent.deleteKeyAndRightChild(parentEntry);
-		int maxEmptySlots = parent.getMaxEntries() - parent.getMaxEntries()/2; // ceiling
-		if(parent.getNumEmptySlots() == parent.getMaxEntries()) {
+		// a compact page may run out of entries without being the root; it is then
+		// handled like any other page below minimum occupancy
+		if(parent.getNumEmptySlots() == parent.getMaxEntries()
+				&& (!parent.isCompact() || parent.getParentId().pgcateg() == BTreePageId.ROOT_PTR)) {
 			// This was the last entry in the parent.
 			// In this case, the parent (root node) should be deleted, and the merged 
 			// page will become the new root
@@ -1014,7 +1157,7 @@ public class BTreeFile implements DbFile {
 			// release the parent page for reuse
 			setEmptyPage(tid, dirtypages, parent.getId().getPageNumber());
 		}
-		else if(parent.getNumEmptySlots() > maxEmptySlots) { 
+		else if(parent.isBelowMinOccupancy()) { 
 			handleMinOccupancyPage(tid, dirtypages, parent);
 		}
 	}
@@ -1271,7 +1414,33 @@ public class BTreeFile implements DbFile {
 	 * @return an iterator for the filtered tuples
 	 */
 	public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
-		return new BTreeSearchIterator(this, tid, ipred);
+		return new BTreeSearchIterator(this, tid, ipred, false);
+	}
+
+	/**
+	 * Get an iterator for all tuples in this B+ tree file matching the predicate, in
+	 * ascending or descending key order. Only the leaf pages between the bounds of the
+	 * predicate are read. This method will acquire a read lock on the affected pages of
+	 * the file, and may block until the lock can be acquired.
+	 * 
+	 * @param tid - the transaction id
+	 * @param ipred - the index predicate value to filter on, or null to return every tuple
+	 * @param reverse - true to return the tuples in descending key order
+	 * @return an iterator for the filtered tuples
+	 */
+	public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred, boolean reverse) {
+		return new BTreeSearchIterator(this, tid, ipred, reverse);
+	}
+
+	/**
+	 * Get an iterator for all tuples in this B+ tree file in descending key order,
+	 * following the left sibling pointers from the right-most leaf page.
+	 * 
+	 * @param tid - the transaction id
+	 * @return an iterator for all the tuples in this file, largest key first
+	 */
+	public DbFileIterator reverseIterator(TransactionId tid) {
+		return new BTreeSearchIterator(this, tid, null, true);
 	}
 
 	/**
@@ -1377,7 +1546,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 
 /**
  * Helper class that implements the DbFileIterator for search tuples on a
- * B+ Tree File
+ * B+ Tree File, in ascending or descending key order
  */
 class BTreeSearchIterator extends AbstractDbFileIterator {
 
@@ -1387,41 +1556,47 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	final TransactionId tid;
 	final BTreeFile f;
 	final IndexPredicate ipred;
+	final boolean reverse;
 
 	/**
 	 * Constructor for this iterator
 	 * @param f - the BTreeFile containing the tuples
 	 * @param tid - the transaction id
-	 * @param ipred - the predicate to filter on
+	 * @param ipred - the predicate to filter on, or null to return every tuple
+	 * @param reverse - true to return the tuples in descending key order
 	 */
-	public BTreeSearchIterator(BTreeFile f, TransactionId tid, IndexPredicate ipred) {
+	public BTreeSearchIterator(BTreeFile f, TransactionId tid, IndexPredicate ipred, boolean reverse) {
 		this.f = f;
 		this.tid = tid;
 		this.ipred = ipred;
+		this.reverse = reverse;
 	}
 
 	/**
 	 * Open this iterator by getting an iterator on the first leaf page applicable
-	 * for the given predicate operation
+	 * for the given predicate: the leaf of its lower bound when scanning forward,
+	 * the leaf of its upper bound when scanning backward
 	 */
 	@Override
     public void open() throws DbException, TransactionAbortedException {
 		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
 				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
 		BTreePageId root = rootPtr.getRootId();
-		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN 
-				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-			curp = f.findLeafPage(tid, root, ipred.getField());
+		if (reverse) {
+			curp = f.findLastLeafPage(tid, root, ipred == null ? null : ipred.getUpperBound());
+			it = curp.reverseIterator();
 		}
 		else {
-			curp = f.findLeafPage(tid, root, null);
+			curp = f.findLeafPage(tid, root, ipred == null ? null : ipred.getLowerBound());
+			it = curp.iterator();
 		}
-		it = curp.iterator();
 	}
 
 	/**
 	 * Read the next tuple either from the current page if it has more tuples matching
-	 * the predicate or from the next page by following the right sibling pointer.
+	 * the predicate or from the next page by following the right (or, backward, the
+	 * left) sibling pointer. The scan ends at the first key past the far bound of the
+	 * predicate.
 	 * 
 	 * @return the next tuple matching the predicate, or null if none exists
 	 */
@@ -1432,31 +1607,28 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 
 			while (it.hasNext()) {
 				Tuple t = it.next();
-				if (t.getField(f.keyField()).compare(ipred.getOp(), ipred.getField())) {
+				if (ipred == null) {
 					return t;
 				}
-				else if(ipred.getOp() == Op.LESS_THAN || ipred.getOp() == Op.LESS_THAN_OR_EQ) {
-					// if the predicate was not satisfied and the operation is less than, we have
-					// hit the end
-					return null;
+				Field key = f.getKey(t);
+				if (ipred.matches(key)) {
+					return t;
 				}
-				else if(ipred.getOp() == Op.EQUALS && 
-						t.getField(f.keyField()).compare(Op.GREATER_THAN, ipred.getField())) {
-					// if the tuple is now greater than the field passed in and the operation
-					// is equals, we have reached the end
+				else if (reverse ? ipred.isBelowLowerBound(key) : ipred.isAboveUpperBound(key)) {
+					// keys only move away from the range from here on, we have reached the end
 					return null;
 				}
 			}
 
-			BTreePageId nextp = curp.getRightSiblingId();
-			// if there are no more pages to the right, end the iteration
+			BTreePageId nextp = reverse ? curp.getLeftSiblingId() : curp.getRightSiblingId();
+			// if there are no more pages in this direction, end the iteration
 			if(nextp == null) {
 				return null;
 			}
 			else {
 				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
 						nextp, Permissions.READ_ONLY);
-				it = curp.iterator();
+				it = reverse ? curp.reverseIterator() : curp.iterator();
 			}
 		}
 
@@ -202,8 +202,9 @@ public class BTreeFileEncoder {
 			int numFields, Type[] typeAr, char fieldSeparator, int keyField) 
 					throws IOException, DbException, TransactionAbortedException {
 		// convert the inFile to HeapFile first.
-		HeapFileEncoder.convert(inFile, hFile, BufferPool.getPageSize(), numFields);
-		HeapFile heapf = Utility.openHeapFile(numFields, hFile);
+		TupleDesc td = new TupleDesc(typeAr);
+		HeapFileEncoder.convert(inFile, hFile, BufferPool.getPageSize(), numFields, typeAr, fieldSeparator);
+		HeapFile heapf = Utility.openHeapFile(numFields, null, hFile, td);
 
 		// read all the tuples from the heap file and sort them on the keyField
 		List<Tuple> tuples = new ArrayList<>();
@@ -218,7 +219,8 @@ public class BTreeFileEncoder {
 		tuples.sort(new TupleComparator(keyField));
 
 		// add the tuples to B+ tree file
-		BTreeFile bf = BTreeUtility.openBTreeFile(numFields, bFile, keyField);
+		BTreeFile bf = new BTreeFile(bFile, keyField, td);
+		Database.getCatalog().addTable(bf, UUID.randomUUID().toString());
 		Type keyType = typeAr[keyField];
 		int tableid = bf.getId();
 
@@ -230,10 +232,7 @@ public class BTreeFileEncoder {
 		int leafpointerbytes = 3 * BTreeLeafPage.INDEX_SIZE; 
 		int nrecords = (npagebytes * 8 - leafpointerbytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
 
-		int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
-		// pointerbytes: one extra child pointer, parent pointer, child page category
-		int internalpointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
-		int nentries = (npagebytes * 8 - internalpointerbytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
+		int nentries = getNumEntriesPerInternalPage(npagebytes, keyType);
 
 		List<List<BTreeEntry>> entries = new ArrayList<>();
 
@@ -265,8 +264,10 @@ public class BTreeFileEncoder {
 				bf.writePage(leafPage);
 				leftSiblingId = leafPid;
 
-				// update the parent by "copying up" the next key
-				BTreeEntry copyUpEntry = new BTreeEntry(page2.get(0).getField(keyField), leafPid, null);
+				// update the parent by "copying up" the next key, shortened as a leaf split does
+				Field separator = BTreeKeyCompression.shortestSeparator(
+						page1.get(page1.size() - 1).getField(keyField), page2.get(0).getField(keyField));
+				BTreeEntry copyUpEntry = new BTreeEntry(separator, leafPid, null);
 				updateEntries(entries, bf, copyUpEntry, 0, nentries, npagebytes, 
 						keyType, tableid, keyField);
 
@@ -314,7 +315,9 @@ public class BTreeFileEncoder {
 			bf.writePage(lastPage);
 
 			// update the parent by "copying up" the next key
-			BTreeEntry copyUpEntry = new BTreeEntry(lastPg.get(0).getField(keyField), secondToLastPid, lastPid);
+			Field separator = BTreeKeyCompression.shortestSeparator(
+					secondToLastPg.get(secondToLastPg.size() - 1).getField(keyField), lastPg.get(0).getField(keyField));
+			BTreeEntry copyUpEntry = new BTreeEntry(separator, secondToLastPid, lastPid);
 			updateEntries(entries, bf, copyUpEntry, 0, nentries, npagebytes, 
 					keyType, tableid, keyField);
 		}
@@ -414,7 +417,7 @@ public class BTreeFileEncoder {
 		for(int i = 0; i < entries.size(); i++) {
 			int childPageCategory = (i == 0 ? BTreePageId.LEAF : BTreePageId.INTERNAL);
 			int size = entries.get(i).size();
-			if(size <= nentries) {
+			if(entriesThatFit(entries.get(i), 0, nentries, keyType) == size) {
 				// write out a page of entries
 				byte[] internalPageBytes = convertToInternalPage(entries.get(i), npagebytes, keyType, childPageCategory);
 				BTreePageId internalPid = new BTreePageId(tableid, bf.numPages() + 1, BTreePageId.INTERNAL);
@@ -422,8 +425,9 @@ public class BTreeFileEncoder {
 			}
 			else {
 				// split the remaining entries in half
-                List<BTreeEntry> secondToLastPg = new ArrayList<>(entries.get(i).subList(0, size / 2));
-                List<BTreeEntry> lastPg = new ArrayList<>(entries.get(i).subList(size / 2 + 1, size));
+				int mid = splitPoint(entries.get(i), nentries, keyType);
+                List<BTreeEntry> secondToLastPg = new ArrayList<>(entries.get(i).subList(0, mid));
+                List<BTreeEntry> lastPg = new ArrayList<>(entries.get(i).subList(mid + 1, size));
 
 				// write out the last two pages of entries
 				byte[] secondToLastPageBytes = convertToInternalPage(secondToLastPg, npagebytes, keyType, childPageCategory);
@@ -435,7 +439,7 @@ public class BTreeFileEncoder {
 				bf.writePage(new BTreeInternalPage(lastPid, lastPageBytes, keyField));
 
 				// update the parent by "pushing up" the next key
-				BTreeEntry pushUpEntry = new BTreeEntry(entries.get(i).get(size/2).getKey(), secondToLastPid, lastPid);
+				BTreeEntry pushUpEntry = new BTreeEntry(entries.get(i).get(mid).getKey(), secondToLastPid, lastPid);
 				updateEntries(entries, bf, pushUpEntry, i+1, nentries, npagebytes, 
 						keyType, tableid, keyField);
 			}
@@ -465,28 +469,65 @@ public class BTreeFileEncoder {
 		}
 
 		int childPageCategory = (level == 0 ? BTreePageId.LEAF : BTreePageId.INTERNAL);
-		int size = entries.get(level).size();
+		List<BTreeEntry> levelEntries = entries.get(level);
+		int size = levelEntries.size();
 
 		if(size > 0) {
-			BTreeEntry prev = entries.get(level).get(size-1);
-			entries.get(level).set(size-1, new BTreeEntry(prev.getKey(), prev.getLeftChild(), e.getLeftChild()));
-			if(size == nentries * 2 + 1) {
-				// write out a page of entries
-                ArrayList<BTreeEntry> pageEntries = new ArrayList<>(entries.get(level).subList(0, nentries));
-				byte[] internalPageBytes = convertToInternalPage(pageEntries, npagebytes, keyType, childPageCategory);
-				BTreePageId internalPid = new BTreePageId(tableid, bf.numPages() + 1, BTreePageId.INTERNAL);
-				bf.writePage(new BTreeInternalPage(internalPid, internalPageBytes, keyField));
+			BTreeEntry prev = levelEntries.get(size-1);
+			levelEntries.set(size-1, new BTreeEntry(prev.getKey(), prev.getLeftChild(), e.getLeftChild()));
+		}
+		levelEntries.add(e);
+		size++;
+
+		// write out the first page only once the entries after it no longer fit on one page,
+		// so that the last two pages can still be balanced by cleanUpEntries
+		int first = entriesThatFit(levelEntries, 0, nentries, keyType);
+		if(size - first - 1 > entriesThatFit(levelEntries, first + 1, nentries, keyType)) {
+			// write out a page of entries
+            ArrayList<BTreeEntry> pageEntries = new ArrayList<>(levelEntries.subList(0, first));
+			byte[] internalPageBytes = convertToInternalPage(pageEntries, npagebytes, keyType, childPageCategory);
+			BTreePageId internalPid = new BTreePageId(tableid, bf.numPages() + 1, BTreePageId.INTERNAL);
+			bf.writePage(new BTreeInternalPage(internalPid, internalPageBytes, keyField));
+
+			// update the parent by "pushing up" the next key
+			BTreeEntry pushUpEntry = new BTreeEntry(levelEntries.get(first).getKey(), internalPid, null);
+			updateEntries(entries, bf, pushUpEntry, level + 1, nentries, npagebytes, 
+					keyType, tableid, keyField);
+            List<BTreeEntry> remainingEntries = new ArrayList<>(levelEntries.subList(first + 1, size));
+			levelEntries.clear();
+			levelEntries.addAll(remainingEntries);
+		}
+	}
 
-				// update the parent by "pushing up" the next key
-				BTreeEntry pushUpEntry = new BTreeEntry(entries.get(level).get(nentries).getKey(), internalPid, null);
-				updateEntries(entries, bf, pushUpEntry, level + 1, nentries, npagebytes, 
-						keyType, tableid, keyField);
-                List<BTreeEntry> remainingEntries = new ArrayList<>(entries.get(level).subList(nentries + 1, size));
-				entries.get(level).clear();
-				entries.get(level).addAll(remainingEntries);
-			}
+	/**
+	 * Computes the number of entries, starting at from, to put on one internal page. Pages
+	 * keyed on a string field are packed by the bytes their front coded keys take, as
+	 * splits fill them; other pages hold nentries entries.
+	 * 
+	 * @param entries - the entries of a level of the tree, sorted by key
+	 * @param from - the index of the first entry of the page
+	 * @param nentries - number of entries per page
+	 * @param keyType - the type of the key field
+	 */
+	private static int entriesThatFit(List<BTreeEntry> entries, int from, int nentries, Type keyType) {
+		if (BTreeKeyCompression.isCompressible(keyType)) {
+			return BTreeInternalPage.getCompactEntriesThatFit(entries, from);
+		}
+		return Math.min(nentries, entries.size() - from);
+	}
+
+	/**
+	 * Computes where to split the entries left over for the last two pages of a level: the
+	 * index of the entry pushed up, halving their number while both halves fit on a page.
+	 */
+	private static int splitPoint(List<BTreeEntry> entries, int nentries, Type keyType) {
+		int size = entries.size();
+		int mid = size / 2;
+		mid = Math.min(mid, entriesThatFit(entries, 0, nentries, keyType));
+		while (entriesThatFit(entries, mid + 1, nentries, keyType) < size - mid - 1) {
+			mid++;
 		}
-		entries.get(level).add(e);
+		return mid;
 	}
 
 	/**
@@ -608,6 +649,25 @@ public class BTreeFileEncoder {
 		}
 	}
 
+	/**
+	 * Computes the number of entries to put on each internal page when bulk loading. For keys
+	 * stored in the compact format this is only the number of slots of a page: how many
+	 * entries a page takes depends on the bytes of their keys.
+	 * 
+	 * @param npagebytes - number of bytes per page
+	 * @param keyType - the type of the key field
+	 * @return the number of entries per internal page
+	 */
+	public static int getNumEntriesPerInternalPage(int npagebytes, Type keyType) {
+		if (BTreeKeyCompression.isCompressible(keyType)) {
+			return BTreeInternalPage.getMaxCompactEntries();
+		}
+		int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
+		// pointerbytes: one extra child pointer, parent pointer, child page category
+		int internalpointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
+		return (npagebytes * 8 - internalpointerbytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
+	}
+
 	/**
 	 * Convert a set of entries to a byte array in the format of a BTreeInternalPage
 	 * 
@@ -621,6 +681,12 @@ public class BTreeFileEncoder {
 	public static byte[] convertToInternalPage(List<BTreeEntry> entries, int npagebytes,
 			Type keyType, int childPageCategory)
 					throws IOException {
+		if (BTreeKeyCompression.isCompressible(keyType)) {
+			entries.sort(new EntryComparator());
+			return BTreeInternalPage.createCompactPageData(
+					entries.subList(0, BTreeInternalPage.getCompactEntriesThatFit(entries, 0)), childPageCategory);
+		}
+
 		int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
 		// pointerbytes: one extra child pointer, parent pointer, child page category
 		int pointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
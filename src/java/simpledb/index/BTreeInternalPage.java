@@ -13,6 +13,7 @@ import simpledb.storage.BufferPool;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
 import simpledb.storage.RecordId;
+import simpledb.storage.StringField;
 
 /**
  * Each instance of BTreeInternalPage stores data for one page of a BTreeFile and 
@@ -23,10 +24,14 @@ import simpledb.storage.RecordId;
  *
  */
 public class BTreeInternalPage extends BTreePage {
+	/** Bytes used per entry on a compact page to record the shared prefix and suffix lengths */
+	static final int COMPACT_KEY_OVERHEAD = 2;
+
 	private final byte[] header;
 	private final Field[] keys;
 	private final int[] children;
 	private final int numSlots;
+	private final boolean compact; // string keys are stored front coded and variable-length
 	
 	private int childCategory; // either leaf or internal
 
@@ -43,7 +48,7 @@ public class BTreeInternalPage extends BTreePage {
 
         assert null == upperBound || null == prev || (prev.compare(Op.LESS_THAN_OR_EQ, upperBound));
 
-        assert !checkOccupancy || depth <= 0 || (getNumEntries() >= getMaxEntries() / 2);
+        assert !checkOccupancy || depth <= 0 || !isBelowMinOccupancy();
 	}
 	
 	/**
@@ -66,12 +71,34 @@ public class BTreeInternalPage extends BTreePage {
 	 * @see Catalog#getTupleDesc
 	 * @see BufferPool#getPageSize()
 	 * 
+	 * <p>
+	 * Pages of an index keyed on a string field use a compact layout instead: after the
+	 * header comes the extra child pointer, followed by the used entries only, in key order.
+	 * Each entry is a child pointer, the number of leading characters its key shares with
+	 * the previous key on the page, the length of the remaining suffix and the suffix itself.
+	 * The number of slots is then bounded by the smallest possible entry, and whether a page
+	 * can take another entry depends on the bytes in use (see {@link #hasSpaceForEntry()}).
+	 *
 	 * @param id - the id of this page
 	 * @param data - the raw data of this page
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreeInternalPage(BTreePageId id, byte[] data, int key) throws IOException {
-		super(id, key);
+		this(id, data, new int[]{key});
+	}
+
+	/**
+	 * Create a BTreeInternalPage of an index keyed on several fields. Composite keys
+	 * are stored as their fields one after another and always use the fixed layout.
+	 * @see #BTreeInternalPage(BTreePageId, byte[], int)
+	 *
+	 * @param id - the id of this page
+	 * @param data - the raw data of this page
+	 * @param fields - the fields which the index is keyed on
+	 */
+	public BTreeInternalPage(BTreePageId id, byte[] data, int[] fields) throws IOException {
+		super(id, fields);
+		this.compact = fields.length == 1 && BTreeKeyCompression.isCompressible(td.getFieldType(keyField));
 		this.numSlots = getMaxEntries() + 1;
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
@@ -92,24 +119,29 @@ public class BTreeInternalPage extends BTreePage {
 			header[i] = dis.readByte();
 
 		keys = new Field[numSlots];
-		try{
-			// allocate and read the keys of this page
-			// start from 1 because the first key slot is not used
-			// since a node with m keys has m+1 pointers
-			keys[0] = null;
-			for (int i=1; i<keys.length; i++)
-				keys[i] = readNextKey(dis,i);
-		}catch(NoSuchElementException e){
-			e.printStackTrace();
+		children = new int[numSlots];
+		if (compact) {
+			readCompactEntries(dis);
 		}
+		else {
+			try{
+				// allocate and read the keys of this page
+				// start from 1 because the first key slot is not used
+				// since a node with m keys has m+1 pointers
+				keys[0] = null;
+				for (int i=1; i<keys.length; i++)
+					keys[i] = readNextKey(dis,i);
+			}catch(NoSuchElementException e){
+				e.printStackTrace();
+			}
 
-		children = new int[numSlots];
-		try{
-			// allocate and read the child pointers of this page
-			for (int i=0; i<children.length; i++)
-				children[i] = readNextChild(dis,i);
-		}catch(NoSuchElementException e){
-			e.printStackTrace();
+			try{
+				// allocate and read the child pointers of this page
+				for (int i=0; i<children.length; i++)
+					children[i] = readNextChild(dis,i);
+			}catch(NoSuchElementException e){
+				e.printStackTrace();
+			}
 		}
 		dis.close();
 
@@ -120,7 +152,10 @@ public class BTreeInternalPage extends BTreePage {
 	 * Retrieve the maximum number of entries this page can hold. (The number of keys)
  	 */
 	public int getMaxEntries() {        
-		int keySize = td.getFieldType(keyField).getLen();
+		if (compact) {
+			return getMaxCompactEntries();
+		}
+		int keySize = getKeySize();
 		int bitsPerEntryIncludingHeader = keySize * 8 + INDEX_SIZE * 8 + 1;
 		// extraBits are: one parent pointer, 1 byte for child page category, 
 		// one extra child pointer (node with m entries has m+1 pointers to children), 1 bit for extra header
@@ -128,6 +163,85 @@ public class BTreeInternalPage extends BTreePage {
         return (BufferPool.getPageSize()*8 - extraBits) / bitsPerEntryIncludingHeader;
 	}
 
+	/**
+	 * Retrieve the maximum number of entries a compact page can hold, which is bounded by
+	 * the size of the smallest entry: a child pointer plus the two front coding bytes.
+	 */
+	static int getMaxCompactEntries() {
+		int bitsPerEntryIncludingHeader = (INDEX_SIZE + COMPACT_KEY_OVERHEAD) * 8 + 1;
+		// extraBits are: one parent pointer, 1 byte for child page category,
+		// one extra child pointer, 1 bit for extra header
+		int extraBits = 2 * INDEX_SIZE * 8 + 8 + 1;
+		return (BufferPool.getPageSize()*8 - extraBits) / bitsPerEntryIncludingHeader;
+	}
+
+	/**
+	 * Retrieve the number of entries, starting at from, that fit on one compact page: as
+	 * many as their front coded keys leave room for, as {@link #getUsedBytes()} counts them.
+	 * @param entries - entries with string keys, sorted by key
+	 * @param from - the index of the first entry of the page
+	 */
+	static int getCompactEntriesThatFit(List<BTreeEntry> entries, int from) {
+		int used = 2 * INDEX_SIZE + 1 + (getMaxCompactEntries() + 1 + 7) / 8;
+		int max = Math.min(getMaxCompactEntries(), entries.size() - from);
+		String prev = "";
+		int n = 0;
+		while (n < max) {
+			String value = ((StringField) entries.get(from + n).getKey()).getValue();
+			used += INDEX_SIZE + COMPACT_KEY_OVERHEAD + value.length()
+					- BTreeKeyCompression.commonPrefixLength(prev, value);
+			if (used > BufferPool.getPageSize()) {
+				break;
+			}
+			prev = value;
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Convert a set of entries with string keys to a byte array in the compact format of a
+	 * BTreeInternalPage. The entries must be sorted by key and all fit on one page.
+	 * @param entries - the sorted entries
+	 * @param childPageCategory - the category of the child pages (either internal or leaf)
+	 * @return a byte array which can be passed to the BTreeInternalPage constructor
+	 */
+	static byte[] createCompactPageData(List<BTreeEntry> entries, int childPageCategory) throws IOException {
+		int len = BufferPool.getPageSize();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
+		DataOutputStream dos = new DataOutputStream(baos);
+
+		dos.writeInt(0); // parent pointer
+		dos.writeByte((byte) childPageCategory);
+
+		// slot 0 holds the extra child pointer, slots 1..n the entries
+		byte[] header = new byte[(getMaxCompactEntries() + 1 + 7) / 8];
+		for (int i=0; i<=entries.size(); i++) {
+			header[i / 8] |= 1 << (i % 8);
+		}
+		dos.write(header);
+
+		dos.writeInt(entries.get(0).getLeftChild().getPageNumber());
+		int written = 2 * INDEX_SIZE + 1 + header.length;
+		String prev = "";
+		for (BTreeEntry e : entries) {
+			String value = ((StringField) e.getKey()).getValue();
+			int shared = BTreeKeyCompression.commonPrefixLength(prev, value);
+			dos.writeInt(e.getRightChild().getPageNumber());
+			dos.writeByte(shared);
+			dos.writeByte(value.length() - shared);
+			dos.writeBytes(value.substring(shared));
+			written += INDEX_SIZE + COMPACT_KEY_OVERHEAD + value.length() - shared;
+			prev = value;
+		}
+		if (written > len) {
+			throw new IOException("entries do not fit on a compact internal page");
+		}
+		dos.write(new byte[len - written]);
+		dos.flush();
+		return baos.toByteArray();
+	}
+
 	/**
 	 * Computes the number of bytes in the header of a B+ internal page with each entry occupying entrySize bytes
 	 * @return the number of bytes in the header
@@ -150,7 +264,7 @@ public class BTreeInternalPage extends BTreePage {
 			{
 				oldDataRef = oldData;
 			}
-			return new BTreeInternalPage(pid,oldDataRef,keyField);
+			return new BTreeInternalPage(pid,oldDataRef,keyFields);
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -174,7 +288,7 @@ public class BTreeInternalPage extends BTreePage {
 		// if associated bit is not set, read forward to the next key, and
 		// return null.
 		if (!isSlotUsed(slotId)) {
-			for (int i=0; i<td.getFieldType(keyField).getLen(); i++) {
+			for (int i=0; i<getKeySize(); i++) {
 				try {
 					dis.readByte();
 				} catch (IOException e) {
@@ -187,7 +301,7 @@ public class BTreeInternalPage extends BTreePage {
 		// read the key field
 		Field f = null;
 		try {
-			f = td.getFieldType(keyField).parse(dis);
+			f = parseKey(dis);
 		} catch (java.text.ParseException e) {
 			e.printStackTrace();
 			throw new NoSuchElementException("parsing error!");
@@ -196,6 +310,58 @@ public class BTreeInternalPage extends BTreePage {
 		return f;
 	}
 
+	/**
+	 * Read the extra child pointer and the front coded entries of a compact page.
+	 */
+	private void readCompactEntries(DataInputStream dis) throws IOException {
+		int firstChild = dis.readInt();
+		children[0] = isSlotUsed(0) ? firstChild : -1;
+		keys[0] = null;
+
+		String prev = "";
+		for (int i=1; i<numSlots; i++) {
+			if (!isSlotUsed(i)) {
+				children[i] = -1;
+				keys[i] = null;
+				continue;
+			}
+			children[i] = dis.readInt();
+			int shared = dis.readUnsignedByte();
+			int suffixLen = dis.readUnsignedByte();
+			byte[] suffix = new byte[suffixLen];
+			dis.readFully(suffix);
+			String value = prev.substring(0, shared) + new String(suffix);
+			keys[i] = new StringField(value, Type.STRING_LEN);
+			prev = value;
+		}
+	}
+
+	/**
+	 * Write the extra child pointer and the used entries of a compact page, front coding
+	 * each key against the previous one.
+	 * @return the number of bytes written
+	 */
+	private int writeCompactEntries(DataOutputStream dos) throws IOException {
+		dos.writeInt(isSlotUsed(0) ? children[0] : 0);
+		int written = INDEX_SIZE;
+
+		String prev = "";
+		for (int i=1; i<numSlots; i++) {
+			if (!isSlotUsed(i)) {
+				continue;
+			}
+			String value = ((StringField) keys[i]).getValue();
+			int shared = BTreeKeyCompression.commonPrefixLength(prev, value);
+			dos.writeInt(children[i]);
+			dos.writeByte(shared);
+			dos.writeByte(value.length() - shared);
+			dos.writeBytes(value.substring(shared));
+			written += INDEX_SIZE + COMPACT_KEY_OVERHEAD + value.length() - shared;
+			prev = value;
+		}
+		return written;
+	}
+
 	/**
 	 * Read child pointers from the source file.
 	 */
@@ -269,6 +435,17 @@ public class BTreeInternalPage extends BTreePage {
             }
         }
 
+		if (compact) {
+			try {
+				int written = INDEX_SIZE + 1 + header.length + writeCompactEntries(dos);
+				dos.write(new byte[Math.max(0, len - written)]);
+				dos.flush();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			return baos.toByteArray();
+		}
+
 		// create the keys
 		// start from 1 because the first key slot is not used
 		// since a node with m keys has m+1 pointers
@@ -276,7 +453,7 @@ public class BTreeInternalPage extends BTreePage {
 
 			// empty slot
 			if (!isSlotUsed(i)) {
-				for (int j=0; j<td.getFieldType(keyField).getLen(); j++) {
+				for (int j=0; j<getKeySize(); j++) {
 					try {
 						dos.writeByte(0);
 					} catch (IOException e) {
@@ -323,7 +500,7 @@ public class BTreeInternalPage extends BTreePage {
 
 		// padding
 		int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.length + 
-				td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length); 
+				getKeySize() * (keys.length - 1) + INDEX_SIZE * children.length); 
 		byte[] zeroes = new byte[zerolen];
 		try {
 			dos.write(zeroes, 0, zerolen);
@@ -403,6 +580,8 @@ public class BTreeInternalPage extends BTreePage {
 	/**
 	 * Update the key and/or child pointers of an entry at the location specified by its 
 	 * record id.
+	 * On a compact page the new key may be longer than the old one, which can leave the page
+	 * overfull; callers must check {@link #isOverfull()} and split the page if needed.
 	 * @param e - the entry with updated key and/or child pointers
 	 * @throws DbException if this entry is not on this page, entry slot is
 	 *         already empty, or updating this key would put the entry out of 
@@ -448,7 +627,7 @@ public class BTreeInternalPage extends BTreePage {
 	 * @param e The entry to add.
 	 */
 	public void insertEntry(BTreeEntry e) throws DbException {
-		if (!e.getKey().getType().equals(td.getFieldType(keyField)))
+		if (!isValidKey(e.getKey()))
 			throw new DbException("key field type mismatch, in insertEntry");
 
 		if(e.getLeftChild().getTableId() != pid.getTableId() || e.getRightChild().getTableId() != pid.getTableId())
@@ -463,6 +642,9 @@ public class BTreeInternalPage extends BTreePage {
 		else if(e.getLeftChild().pgcateg() != childCategory || e.getRightChild().pgcateg() != childCategory)
 			throw new DbException("child page category mismatch in insertEntry");
 
+		if(compact && getUsedBytes() + getEntrySize(e.getKey()) > BufferPool.getPageSize())
+			throw new DbException("called insertEntry on page with no space left for the key.");
+
 		// if this is the first entry, add it and return
 		if(getNumEmptySlots() == getMaxEntries()) {
 			children[0] = e.getLeftChild().getPageNumber();
@@ -565,6 +747,108 @@ public class BTreeInternalPage extends BTreePage {
 		}
 	}
 
+	/**
+	 * Returns true if the keys on this page are stored in the compact, front coded format
+	 */
+	public boolean isCompact() {
+		return compact;
+	}
+
+	/**
+	 * Returns the largest number of bytes a single entry can take up on this page
+	 */
+	public int getMaxEntrySize() {
+		if (compact) {
+			return INDEX_SIZE + COMPACT_KEY_OVERHEAD + Type.STRING_LEN;
+		}
+		return getKeySize() + INDEX_SIZE;
+	}
+
+	/**
+	 * Returns an upper bound on the number of bytes an entry with the given key takes up
+	 * on this page (the actual size on a compact page is smaller if the key shares a
+	 * prefix with its predecessor).
+	 */
+	private int getEntrySize(Field key) {
+		if (compact) {
+			return INDEX_SIZE + COMPACT_KEY_OVERHEAD + ((StringField) key).getValue().length();
+		}
+		return getMaxEntrySize();
+	}
+
+	/**
+	 * Returns the number of bytes of this page which are taken up by the pointers,
+	 * the header and the entries currently stored on it
+	 */
+	public int getUsedBytes() {
+		int used = 2 * INDEX_SIZE + 1 + header.length;
+		if (!compact) {
+			return used + getNumEntries() * getMaxEntrySize();
+		}
+		String prev = "";
+		for (int i=1; i<numSlots; i++) {
+			if (isSlotUsed(i)) {
+				String value = ((StringField) keys[i]).getValue();
+				used += INDEX_SIZE + COMPACT_KEY_OVERHEAD + value.length()
+						- BTreeKeyCompression.commonPrefixLength(prev, value);
+				prev = value;
+			}
+		}
+		return used;
+	}
+
+	/**
+	 * Returns true if another entry is guaranteed to fit on this page, whatever its key.
+	 * For a fixed-size layout this just means a free slot; a compact page additionally needs
+	 * room for a key of the maximum length.
+	 */
+	public boolean hasSpaceForEntry() {
+		if (getNumEmptySlots() == 0) {
+			return false;
+		}
+		return !compact || getUsedBytes() + getMaxEntrySize() <= BufferPool.getPageSize();
+	}
+
+	/**
+	 * Returns true if the entries on this page no longer fit in a page. This can only happen
+	 * on a compact page after {@link #updateEntry(BTreeEntry)} replaced a key with a longer one,
+	 * and the page must then be split before it is written out.
+	 */
+	public boolean isOverfull() {
+		return compact && getUsedBytes() > BufferPool.getPageSize();
+	}
+
+	/**
+	 * Returns true if this page is below minimum occupancy, i.e. less than half of its
+	 * slots are used. Compact pages are measured in bytes; since entries move between pages
+	 * one key at a time, a split can leave a half a few maximum-length entries short of half
+	 * the page, so that much slack is allowed.
+	 */
+	public boolean isBelowMinOccupancy() {
+		if (compact) {
+			return getUsedBytes() < BufferPool.getPageSize() / 2 - 3 * getMaxEntrySize();
+		}
+		int maxEmptySlots = getMaxEntries() - getMaxEntries()/2; // ceiling
+		return getNumEmptySlots() > maxEmptySlots;
+	}
+
+	/**
+	 * Returns true if this page should be merged with the given sibling rather than steal
+	 * entries from it. For a fixed-size layout this is the case when the sibling is at minimum
+	 * occupancy; compact pages are merged whenever both pages and the key pulled down from the
+	 * parent fit on one page.
+	 * @param sibling - the left or right sibling of this page
+	 */
+	public boolean canMergeWith(BTreeInternalPage sibling) {
+		if (compact) {
+			int overhead = 2 * INDEX_SIZE + 1 + header.length;
+			return getUsedBytes() + sibling.getUsedBytes() - overhead + getMaxEntrySize()
+					<= BufferPool.getPageSize();
+		}
+		int maxEmptySlots = getMaxEntries() - getMaxEntries()/2; // ceiling
+		return sibling.getNumEmptySlots() >= maxEmptySlots;
+	}
+
 	/**
 	 * Returns the number of entries (keys) currently stored on this page
 	 */
@@ -768,7 +1052,12 @@ class BTreeInternalPageReverseIterator implements Iterator<BTreeEntry> {
 			while (true) {
 				int entry = curEntry--;
 				Field key = p.getKey(entry);
-				BTreePageId childId = p.getChildId(entry - 1);
+				// the left child of this key is in the closest used slot before it,
+				// which need not be the adjacent one
+				while(curEntry > 0 && !p.isSlotUsed(curEntry)) {
+					--curEntry;
+				}
+				BTreePageId childId = p.getChildId(curEntry);
 				if(key != null && childId != null) {
 					nextToReturn = new BTreeEntry(key, childId, nextChildId);
 					nextToReturn.setRecordId(new RecordId(p.pid, entry));
@@ -0,0 +1,75 @@
+package simpledb.index;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.StringField;
+
+/**
+ * Helper functions for compressing the keys of a B+ tree keyed on a string field.
+ * <p>
+ * Two techniques are used. Separator keys that are copied up into internal nodes
+ * are truncated to the shortest string that still separates the two leaf pages
+ * (suffix truncation), and the keys stored on an internal page are front coded:
+ * each key only records the length of the prefix it shares with the previous key
+ * on the page plus the remaining suffix (prefix compression).
+ *
+ * @see BTreeInternalPage
+ * @see BTreeFile#splitLeafPage
+ */
+public class BTreeKeyCompression {
+
+	/**
+	 * Returns true if internal pages for keys of the given type are stored in the
+	 * compact, variable-length format
+	 * @param keyType - the type of the key field
+	 */
+	public static boolean isCompressible(Type keyType) {
+		return keyType == Type.STRING_TYPE;
+	}
+
+	/**
+	 * Computes the length of the common prefix of two strings
+	 * @param a - the first string
+	 * @param b - the second string
+	 * @return the number of leading characters a and b have in common
+	 */
+	public static int commonPrefixLength(String a, String b) {
+		int n = Math.min(a.length(), b.length());
+		int i = 0;
+		while (i < n && a.charAt(i) == b.charAt(i)) {
+			i++;
+		}
+		return i;
+	}
+
+	/**
+	 * Computes the shortest separator key between two adjacent leaf pages. The result
+	 * is the shortest prefix of the right key that is strictly greater than the left key,
+	 * so every key on the left page is less than the separator and every key on the
+	 * right page is greater than or equal to it.
+	 * <p>
+	 * Keys that cannot be truncated (non-string keys, or equal left and right keys) are
+	 * returned unchanged.
+	 *
+	 * @param left - the largest key on the left page
+	 * @param right - the smallest key on the right page
+	 * @return a key s with left &lt; s &lt;= right, or right if no shorter key exists
+	 */
+	public static Field shortestSeparator(Field left, Field right) {
+		if (left == null || !(left instanceof StringField) || !(right instanceof StringField)) {
+			return right;
+		}
+		String l = ((StringField) left).getValue();
+		String r = ((StringField) right).getValue();
+		if (l.compareTo(r) >= 0) {
+			return right;
+		}
+		// the first position where the two keys differ decides the order, so the prefix
+		// of the right key up to and including that character already sorts after left
+		int len = commonPrefixLength(l, r) + 1;
+		if (len >= r.length()) {
+			return right;
+		}
+		return new StringField(r.substring(0, len), Type.STRING_LEN);
+	}
+}
@@ -5,10 +5,15 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.storage.BufferPool;
+import simpledb.storage.CompositeField;
+import simpledb.storage.Field;
 import simpledb.storage.Page;
+import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionId;
 
+import java.io.DataInputStream;
+
 /**
  * Each instance of BTreeInternalPage stores data for one page of a BTreeFile and 
  * implements the Page interface that is used by BufferPool.
@@ -26,6 +31,7 @@ public abstract class BTreePage implements Page {
 	protected final BTreePageId pid;
 	protected final TupleDesc td;
 	protected final int keyField;
+	protected final int[] keyFields;
 
 	protected int parent; // parent is always internal node or 0 for root node
 	protected byte[] oldData;
@@ -55,11 +61,73 @@ public abstract class BTreePage implements Page {
 	 * @param key - the field which the index is keyed on
 	 */
 	public BTreePage(BTreePageId id, int key) {
+		this(id, new int[]{key});
+	}
+
+	/**
+	 * Create a BTreePage whose index is keyed on several fields, compared in order
+	 * @see CompositeField
+	 *
+	 * @param id - the id of this page
+	 * @param keys - the fields which the index is keyed on
+	 */
+	public BTreePage(BTreePageId id, int[] keys) {
 		this.pid = id;
-		this.keyField = key;
+		this.keyFields = keys.clone();
+		this.keyField = keys[0];
 		this.td = Database.getCatalog().getTupleDesc(id.getTableId());
 	}
 
+	/**
+	 * @return the key of the given tuple
+	 */
+	protected Field getKey(Tuple t) {
+		return CompositeField.keyOf(t, keyFields);
+	}
+
+	/**
+	 * @return the number of bytes a key takes up on disk
+	 */
+	protected int getKeySize() {
+		int size = 0;
+		for (int k : keyFields) {
+			size += td.getFieldType(k).getLen();
+		}
+		return size;
+	}
+
+	/**
+	 * Read a key written by {@link Field#serialize}
+	 */
+	protected Field parseKey(DataInputStream dis) throws java.text.ParseException {
+		if (keyFields.length == 1) {
+			return td.getFieldType(keyField).parse(dis);
+		}
+		Field[] values = new Field[keyFields.length];
+		for (int i = 0; i < keyFields.length; i++) {
+			values[i] = td.getFieldType(keyFields[i]).parse(dis);
+		}
+		return new CompositeField(values);
+	}
+
+	/**
+	 * @return true if f has the type (and, for composite keys, the number of fields) of a key on this page
+	 */
+	protected boolean isValidKey(Field f) {
+		if (keyFields.length == 1) {
+			return f.getType().equals(td.getFieldType(keyField));
+		}
+		if (!(f instanceof CompositeField) || ((CompositeField) f).numFields() != keyFields.length) {
+			return false;
+		}
+		for (int i = 0; i < keyFields.length; i++) {
+			if (!((CompositeField) f).getField(i).getType().equals(td.getFieldType(keyFields[i]))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	/**
 	 * @return the PageId associated with this page.
 	 */
@@ -0,0 +1,144 @@
+package simpledb.index;
+
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Summary of the shape of a B+ tree: its depth, the number of pages on each level
+ * and the fanout of its internal pages. The depth is the number of pages read by a
+ * point lookup, so it is the figure key compression is meant to bring down.
+ *
+ * @see BTreeKeyCompression
+ */
+public class BTreeShape {
+
+	private int depth;
+	private int numInternalPages;
+	private int numLeafPages;
+	private int numTuples;
+	private long totalFanout;
+	private int minFanout = Integer.MAX_VALUE;
+	private int maxFanout;
+	private long internalBytesUsed;
+	private final List<Integer> pagesPerLevel = new ArrayList<>();
+
+	private BTreeShape() {
+	}
+
+	/**
+	 * Walk the given B+ tree and collect its shape
+	 * @param bf - the B+ tree file
+	 * @param tid - the transaction id used to read the pages
+	 * @return the shape of the tree
+	 */
+	public static BTreeShape compute(BTreeFile bf, TransactionId tid)
+			throws DbException, IOException, TransactionAbortedException {
+		BTreeShape shape = new BTreeShape();
+		Map<PageId, Page> dirtypages = new HashMap<>();
+		BTreePageId rootId = bf.getRootPtrPage(tid, dirtypages).getRootId();
+		if (rootId == null) {
+			return shape;
+		}
+
+		List<BTreePageId> level = new ArrayList<>();
+		level.add(rootId);
+		while (!level.isEmpty()) {
+			shape.depth++;
+			shape.pagesPerLevel.add(level.size());
+			List<BTreePageId> next = new ArrayList<>();
+			for (BTreePageId pid : level) {
+				Page p = bf.getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
+				if (pid.pgcateg() == BTreePageId.LEAF) {
+					shape.numLeafPages++;
+					shape.numTuples += ((BTreeLeafPage) p).getNumTuples();
+					continue;
+				}
+				BTreeInternalPage page = (BTreeInternalPage) p;
+				int fanout = page.getNumEntries() + 1;
+				shape.numInternalPages++;
+				shape.totalFanout += fanout;
+				shape.minFanout = Math.min(shape.minFanout, fanout);
+				shape.maxFanout = Math.max(shape.maxFanout, fanout);
+				shape.internalBytesUsed += page.getUsedBytes();
+
+				Iterator<BTreeEntry> it = page.iterator();
+				BTreeEntry e = null;
+				while (it.hasNext()) {
+					e = it.next();
+					next.add(e.getLeftChild());
+				}
+				if (e != null) {
+					next.add(e.getRightChild());
+				}
+			}
+			level = next;
+		}
+		return shape;
+	}
+
+	/**
+	 * @return the number of levels in the tree, i.e. the number of pages read by a point lookup
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	public int getNumInternalPages() {
+		return numInternalPages;
+	}
+
+	public int getNumLeafPages() {
+		return numLeafPages;
+	}
+
+	public int getNumTuples() {
+		return numTuples;
+	}
+
+	/**
+	 * @return the number of pages on each level, starting from the root
+	 */
+	public List<Integer> getPagesPerLevel() {
+		return pagesPerLevel;
+	}
+
+	/**
+	 * @return the average number of children of an internal page, or 0 if the root is a leaf
+	 */
+	public double getAverageFanout() {
+		return numInternalPages == 0 ? 0 : (double) totalFanout / numInternalPages;
+	}
+
+	public int getMinFanout() {
+		return numInternalPages == 0 ? 0 : minFanout;
+	}
+
+	public int getMaxFanout() {
+		return maxFanout;
+	}
+
+	/**
+	 * @return the average number of bytes in use on an internal page
+	 */
+	public double getAverageInternalBytesUsed() {
+		return numInternalPages == 0 ? 0 : (double) internalBytesUsed / numInternalPages;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("depth=%d pagesPerLevel=%s leaves=%d tuples=%d fanout(avg=%.1f, min=%d, max=%d) internalBytesUsed(avg=%.0f)",
+				depth, pagesPerLevel, numLeafPages, numTuples, getAverageFanout(), getMinFanout(), getMaxFanout(),
+				getAverageInternalBytesUsed());
+	}
+}
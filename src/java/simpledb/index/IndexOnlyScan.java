@@ -0,0 +1,168 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+/**
+ * IndexOnlyScan is an operator which answers a scan of a table from one of its
+ * secondary indexes, without reading the table itself. It returns the fields of
+ * the table the index stores (its key and included fields), in table order, in the
+ * order of the index key.
+ * <p>
+ * The returned tuples carry the RecordId of the tuple they were read from.
+ *
+ * @see SecondaryIndex
+ */
+public class IndexOnlyScan implements OpIterator {
+
+	private static final long serialVersionUID = 1L;
+
+	private boolean isOpen = false;
+	private final TransactionId tid;
+	private final SecondaryIndex index;
+	private final IndexPredicate ipred;
+	private final String alias;
+	private final TupleDesc myTd;
+	// 每个输出字段在索引项中的位置
+	private final int[] indexFields;
+	// 索引键的每个字段在输出中的位置
+	private final int[] keyFields;
+	private transient DbFileIterator it;
+
+	/**
+	 * Creates an index-only scan over the specified index as a part of the
+	 * specified transaction.
+	 *
+	 * @param tid
+	 *            The transaction this scan is running as a part of.
+	 * @param index
+	 *            the index to read
+	 * @param tableAlias
+	 *            the alias of the indexed table; the returned tupleDesc has
+	 *            fields with name tableAlias.fieldName
+	 * @param ipred
+	 *            The predicate on (a prefix of) the index key to match. If null,
+	 *            the scan returns every entry of the index
+	 */
+	public IndexOnlyScan(TransactionId tid, SecondaryIndex index, String tableAlias, IndexPredicate ipred) {
+		this.tid = tid;
+		this.index = index;
+		this.alias = tableAlias;
+		this.ipred = ipred;
+
+		TupleDesc td = Database.getCatalog().getTupleDesc(index.getTableId());
+		List<Type> types = new ArrayList<>();
+		List<String> names = new ArrayList<>();
+		List<Integer> fields = new ArrayList<>();
+		int[] outputField = new int[td.numFields()];
+		for (int i = 0; i < td.numFields(); i++) {
+			if (index.covers(i)) {
+				outputField[i] = types.size();
+				types.add(td.getFieldType(i));
+				names.add(tableAlias + "." + td.getFieldName(i));
+				fields.add(index.getIndexField(i));
+			}
+		}
+		this.myTd = new TupleDesc(types.toArray(new Type[0]), names.toArray(new String[0]));
+		this.indexFields = fields.stream().mapToInt(Integer::intValue).toArray();
+		int[] keys = index.getKeyFields();
+		this.keyFields = new int[keys.length];
+		for (int k = 0; k < keys.length; k++) {
+			keyFields[k] = outputField[keys[k]];
+		}
+	}
+
+	/**
+	 * @return the name of the indexed table in the catalog
+	 */
+	public String getTableName() {
+		return Database.getCatalog().getTableName(index.getTableId());
+	}
+
+	/**
+	 * @return the alias of the indexed table
+	 */
+	public String getAlias() {
+		return alias;
+	}
+
+	/**
+	 * @return the position in the output of this scan of each field of the index
+	 *         key, most significant first; the tuples are returned in that order
+	 */
+	public int[] keyFields() {
+		return keyFields.clone();
+	}
+
+	/**
+	 * @return the index this operator reads
+	 */
+	public SecondaryIndex getIndex() {
+		return index;
+	}
+
+	@Override
+	public void open() throws DbException, TransactionAbortedException {
+		if (isOpen)
+			throw new DbException("double open on one OpIterator.");
+
+		BTreeFile file = index.getFile();
+		it = ipred == null ? file.iterator(tid) : file.indexIterator(tid, ipred);
+		it.open();
+		isOpen = true;
+	}
+
+	/**
+	 * Returns the TupleDesc of the covered fields of the indexed table, prefixed
+	 * with the tableAlias string from the constructor.
+	 */
+	@Override
+	public TupleDesc getTupleDesc() {
+		return myTd;
+	}
+
+	@Override
+	public boolean hasNext() throws TransactionAbortedException, DbException {
+		if (!isOpen)
+			throw new IllegalStateException("iterator is closed");
+		return it.hasNext();
+	}
+
+	@Override
+	public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
+		if (!isOpen)
+			throw new IllegalStateException("iterator is closed");
+
+		Tuple entry = it.next();
+		Tuple t = new Tuple(myTd);
+		for (int i = 0; i < indexFields.length; i++) {
+			t.setField(i, entry.getField(indexFields[i]));
+		}
+		t.setRecordId(index.getRecordId(entry));
+		return t;
+	}
+
+	@Override
+	public void close() {
+		if (it != null) {
+			it.close();
+		}
+		isOpen = false;
+	}
+
+	@Override
+	public void rewind() throws DbException, NoSuchElementException, TransactionAbortedException {
+		close();
+		open();
+	}
+}
@@ -0,0 +1,156 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.execution.IndexOpIterator;
+import simpledb.execution.IndexPredicate;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+/**
+ * IndexScan is an access method which reads the tuples of a table matching a
+ * predicate on one of its secondary indexes: it searches the index and fetches
+ * each matching tuple from the table by its RecordId. Tuples are returned in
+ * the order of the index key.
+ * <p>
+ * Unlike {@link IndexOnlyScan} it returns every field of the table, so it can be
+ * used whatever fields the query reads, but it costs up to one page read of the
+ * table per matching entry.
+ *
+ * @see SecondaryIndex
+ */
+public class IndexScan implements IndexOpIterator {
+
+	private static final long serialVersionUID = 1L;
+
+	private boolean isOpen = false;
+	private final TransactionId tid;
+	private final SecondaryIndex index;
+	private IndexPredicate ipred;
+	private final String alias;
+	private final TupleDesc myTd;
+	private transient DbFileIterator it;
+	// 最近一次读取的表页，相邻的索引项常常指向同一页
+	private transient HeapPage lastPage;
+
+	/**
+	 * Creates an index scan over the specified index as a part of the
+	 * specified transaction.
+	 *
+	 * @param tid
+	 *            The transaction this scan is running as a part of.
+	 * @param index
+	 *            the index to search
+	 * @param tableAlias
+	 *            the alias of the indexed table; the returned tupleDesc has
+	 *            fields with name tableAlias.fieldName
+	 * @param ipred
+	 *            The predicate on (a prefix of) the index key to match. If null,
+	 *            the scan returns every tuple of the table, in index order
+	 */
+	public IndexScan(TransactionId tid, SecondaryIndex index, String tableAlias, IndexPredicate ipred) {
+		this.tid = tid;
+		this.index = index;
+		this.alias = tableAlias;
+		this.ipred = ipred;
+
+		TupleDesc td = Database.getCatalog().getTupleDesc(index.getTableId());
+		List<TupleDesc.TDItem> items = new ArrayList<>();
+		for (TupleDesc.TDItem item : td.getTdItems()) {
+			items.add(new TupleDesc.TDItem(item.fieldType, tableAlias + "." + item.fieldName));
+		}
+		this.myTd = new TupleDesc(items);
+	}
+
+	/**
+	 * @return the name of the indexed table in the catalog
+	 */
+	public String getTableName() {
+		return Database.getCatalog().getTableName(index.getTableId());
+	}
+
+	/**
+	 * @return the alias of the indexed table
+	 */
+	public String getAlias() {
+		return alias;
+	}
+
+	/**
+	 * @return the index this operator searches
+	 */
+	public SecondaryIndex getIndex() {
+		return index;
+	}
+
+	@Override
+	public void open() throws DbException, TransactionAbortedException {
+		if (isOpen)
+			throw new DbException("double open on one OpIterator.");
+
+		BTreeFile file = index.getFile();
+		it = ipred == null ? file.iterator(tid) : file.indexIterator(tid, ipred);
+		it.open();
+		lastPage = null;
+		isOpen = true;
+	}
+
+	@Override
+	public void open(IndexPredicate ipred) throws NoSuchElementException, DbException, TransactionAbortedException {
+		this.ipred = ipred;
+		open();
+	}
+
+	/**
+	 * Returns the TupleDesc of the indexed table, prefixed with the tableAlias
+	 * string from the constructor.
+	 */
+	@Override
+	public TupleDesc getTupleDesc() {
+		return myTd;
+	}
+
+	@Override
+	public boolean hasNext() throws TransactionAbortedException, DbException {
+		if (!isOpen)
+			throw new IllegalStateException("iterator is closed");
+		return it.hasNext();
+	}
+
+	@Override
+	public Tuple next() throws NoSuchElementException, TransactionAbortedException, DbException {
+		if (!isOpen)
+			throw new IllegalStateException("iterator is closed");
+
+		RecordId rid = index.getRecordId(it.next());
+		if (lastPage == null || !lastPage.getId().equals(rid.getPageId())) {
+			lastPage = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+		}
+		return lastPage.getTuple(rid.getTupleNumber());
+	}
+
+	@Override
+	public void close() {
+		if (it != null) {
+			it.close();
+		}
+		lastPage = null;
+		isOpen = false;
+	}
+
+	@Override
+	public void rewind() throws DbException, NoSuchElementException, TransactionAbortedException {
+		close();
+		open();
+	}
+
+	@Override
+	public void rewind(IndexPredicate ipred) throws DbException, TransactionAbortedException {
+		close();
+		open(ipred);
+	}
+}
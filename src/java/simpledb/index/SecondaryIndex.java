@@ -0,0 +1,223 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SecondaryIndex is a B+ tree index over some of the fields of a HeapFile. Each tuple of
+ * the table has one entry in the index, which stores the key fields, any included
+ * (non-key) fields and the RecordId of the tuple in the table, as a page number and a
+ * slot number.
+ * <p>
+ * The underlying BTreeFile is keyed on the key fields followed by the RecordId, so that
+ * every entry is unique and can be found again when its tuple is deleted. Searches use
+ * an {@link IndexPredicate} on a prefix of the key fields (see {@link CompositeField}).
+ * <p>
+ * Indexes are registered with {@link simpledb.common.Catalog#addIndex} and are kept up
+ * to date by {@link BufferPool#insertTuple} and {@link BufferPool#deleteTuple}.
+ *
+ * @see IndexOnlyScan
+ */
+public class SecondaryIndex {
+
+	private final String name;
+	private final int tableid;
+	private final int[] keyFields;
+	private final int[] includedFields;
+	private final BTreeFile file;
+
+	/**
+	 * Creates a secondary index on a table, backed by the specified file.
+	 *
+	 * @param f - the file that stores the B+ tree of this index
+	 * @param name - the name of this index; it is added to the catalog as a table with this name
+	 * @param tableid - the id of the indexed table, which must be a HeapFile
+	 * @param keyFields - the fields of the table the index is keyed on, most significant first
+	 * @param includedFields - other fields of the table stored in the index, so that queries
+	 *            that only read them can be answered from the index alone
+	 */
+	public SecondaryIndex(File f, String name, int tableid, int[] keyFields, int[] includedFields) {
+		if (keyFields.length == 0) {
+			throw new IllegalArgumentException("an index needs at least one key field");
+		}
+		if (!(Database.getCatalog().getDatabaseFile(tableid) instanceof HeapFile)) {
+			throw new IllegalArgumentException("secondary indexes can only be created on heap files");
+		}
+		this.name = name;
+		this.tableid = tableid;
+		this.keyFields = keyFields.clone();
+		this.includedFields = includedFields.clone();
+
+		TupleDesc td = getIndexTupleDesc(Database.getCatalog().getTupleDesc(tableid), keyFields, includedFields);
+		int[] indexKey = new int[keyFields.length + 2];
+		for (int i = 0; i < keyFields.length; i++) {
+			indexKey[i] = i;
+		}
+		indexKey[keyFields.length] = td.numFields() - 2;
+		indexKey[keyFields.length + 1] = td.numFields() - 1;
+		this.file = new BTreeFile(f, indexKey, td);
+	}
+
+	/**
+	 * Returns the TupleDesc of the entries of an index: the key fields, the included
+	 * fields and two integer fields holding the page number and slot of the indexed tuple.
+	 */
+	public static TupleDesc getIndexTupleDesc(TupleDesc td, int[] keyFields, int[] includedFields) {
+		int n = keyFields.length + includedFields.length;
+		Type[] types = new Type[n + 2];
+		String[] names = new String[n + 2];
+		for (int i = 0; i < n; i++) {
+			int field = i < keyFields.length ? keyFields[i] : includedFields[i - keyFields.length];
+			types[i] = td.getFieldType(field);
+			names[i] = td.getFieldName(field);
+		}
+		types[n] = Type.INT_TYPE;
+		names[n] = "rid_page";
+		types[n + 1] = Type.INT_TYPE;
+		names[n + 1] = "rid_slot";
+		return new TupleDesc(types, names);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the id of the indexed table
+	 */
+	public int getTableId() {
+		return tableid;
+	}
+
+	/**
+	 * @return the fields of the table the index is keyed on
+	 */
+	public int[] getKeyFields() {
+		return keyFields.clone();
+	}
+
+	/**
+	 * @return the non-key fields of the table stored in the index
+	 */
+	public int[] getIncludedFields() {
+		return includedFields.clone();
+	}
+
+	/**
+	 * @return the B+ tree storing the entries of this index
+	 */
+	public BTreeFile getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns the position in an index entry of the given field of the table
+	 * @param field - a field of the indexed table
+	 * @return the position of the field in the index entry, or -1 if the index does not store it
+	 */
+	public int getIndexField(int field) {
+		for (int i = 0; i < keyFields.length; i++) {
+			if (keyFields[i] == field) {
+				return i;
+			}
+		}
+		for (int i = 0; i < includedFields.length; i++) {
+			if (includedFields[i] == field) {
+				return keyFields.length + i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return true if the index stores the given field of the table
+	 */
+	public boolean covers(int field) {
+		return getIndexField(field) != -1;
+	}
+
+	/**
+	 * Build the index entry for a tuple of the table
+	 * @param t - a tuple of the indexed table, with its RecordId set
+	 */
+	public Tuple toIndexTuple(Tuple t) {
+		TupleDesc td = file.getTupleDesc();
+		Tuple entry = new Tuple(td);
+		int n = keyFields.length + includedFields.length;
+		for (int i = 0; i < n; i++) {
+			entry.setField(i, t.getField(i < keyFields.length ? keyFields[i] : includedFields[i - keyFields.length]));
+		}
+		RecordId rid = t.getRecordId();
+		entry.setField(n, new IntField(rid.getPageId().getPageNumber()));
+		entry.setField(n + 1, new IntField(rid.getTupleNumber()));
+		return entry;
+	}
+
+	/**
+	 * @return the RecordId in the table of the tuple an index entry points to
+	 */
+	public RecordId getRecordId(Tuple entry) {
+		int n = file.getTupleDesc().numFields();
+		int page = ((IntField) entry.getField(n - 2)).getValue();
+		int slot = ((IntField) entry.getField(n - 1)).getValue();
+		return new RecordId(new HeapPageId(tableid, page), slot);
+	}
+
+	/**
+	 * Add the entry for a tuple that was just inserted into the table
+	 * @param tid - the transaction inserting the tuple
+	 * @param t - the inserted tuple, with its RecordId set
+	 */
+	public void insertTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		Database.getBufferPool().insertTuple(tid, file.getId(), toIndexTuple(t));
+	}
+
+	/**
+	 * Remove the entry of a tuple that is being deleted from the table
+	 * @param tid - the transaction deleting the tuple
+	 * @param t - the deleted tuple
+	 * @throws DbException if the index has no entry for the tuple
+	 */
+	public void deleteTuple(TransactionId tid, Tuple t)
+			throws DbException, IOException, TransactionAbortedException {
+		// the key of the entry includes the RecordId, so it identifies exactly one entry
+		Field key = file.getKey(toIndexTuple(t));
+		DbFileIterator it = file.indexIterator(tid, new IndexPredicate(Op.EQUALS, key));
+		it.open();
+		Tuple entry = it.hasNext() ? it.next() : null;
+		it.close();
+		if (entry == null) {
+			throw new DbException("tuple " + t.getRecordId() + " has no entry in index " + name);
+		}
+		Database.getBufferPool().deleteTuple(tid, entry);
+	}
+
+	/**
+	 * Add an entry for every tuple already in the table, e.g. after creating the index
+	 * @param tid - the transaction building the index
+	 */
+	public void build(TransactionId tid) throws DbException, IOException, TransactionAbortedException {
+		DbFileIterator it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+		List<Tuple> tuples = new ArrayList<>();
+		it.open();
+		while (it.hasNext()) {
+			tuples.add(it.next());
+		}
+		it.close();
+		for (Tuple t : tuples) {
+			insertTuple(tid, t);
+		}
+	}
+}
@@ -0,0 +1,398 @@
+package simpledb.optimizer;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * ColumnStats describes the values of a column of a table, as PostgreSQL's
+ * pg_statistic does, from a sample of them:
+ * <ul>
+ * <li>the most common values (MCVs) and the fraction of the tuples holding
+ * each, so that the frequent values of a skewed column are estimated exactly;</li>
+ * <li>an equi-depth histogram of the other values: the bounds of buckets that
+ * each hold the same number of values, so that the buckets are narrow where
+ * the values are dense;</li>
+ * <li>the number of distinct values (NDV), counted by a {@link HyperLogLog}
+ * sketch of the whole column, or extrapolated from the sample.</li>
+ * </ul>
+ * Strings are ordered on their whole value, not on a prefix.
+ */
+public class ColumnStats implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The maximum number of most common values kept.
+     */
+    public static final int MAX_MCVS = 100;
+
+    /**
+     * The number of buckets of the histogram of the values other than the MCVs.
+     */
+    public static final int NUM_BUCKETS = 100;
+
+    private static final Comparator<Field> ORDER = ColumnStats::compare;
+
+    private final Type type;
+    private final Field[] mcvs;
+    private final double[] mcvFreqs;
+    private final double mcvTotal;
+    // 非高频值的等深直方图：bounds[i]到bounds[i+1]之间各占1/(bounds.length-1)
+    private final Field[] bounds;
+    private final double distinct;
+    // 样本是否就是整列：是则不在直方图范围内的值一定不存在
+    private final boolean complete;
+
+    /**
+"     * Compute the statistics of a column from a sample of its values.
+     *
+     * @param type        the type of the column
+     * @param sample      values of the column, uniformly sampled from its tuples
+     * @param totalTuples the number of tuples of the table
+     * @param sketch      a sketch of every value of the column, or null if only
+     *                    the sample was read, in which case the number of distinct
+     *                    values is extrapolated with the Duj1 estimator of Haas
+     *                    and Stokes
+     */
+    public ColumnStats(Type type, List<Field> sample, long totalTuples, HyperLogLog sketch) {
+        this.type = type;
+        Field[] sorted = sample.toArray(new Field[0]);
+        Arrays.sort(sorted, ORDER);
+        int n = sorted.length;
+
+        // 统计样本中每个不同值的出现次数
+        List<Field> values = new ArrayList<>();
+        List<Integer> counts = new ArrayList<>();
+        int singletons = 0;
+        for (int i = 0; i < n; ) {
+            int j = i + 1;
+            while (j < n && compare(sorted[j], sorted[i]) == 0) {
+                j++;
+            }
+            values.add(sorted[i]);
+            counts.add(j - i);
+            if (j - i == 1) {
+                singletons++;
+            }
+            i = j;
+        }
+        int sampleDistinct = values.size();
+
+        long total = Math.max(totalTuples, n);
+        this.complete = n == total;
+        double d;
+        if (sketch != null) {
+            d = n == total ? sampleDistinct : Math.max(sampleDistinct, sketch.estimate());
+        } else if (n == total) {
+            d = sampleDistinct;
+        } else {
+            // Duj1: n * d / (n - f1 + f1 * n / N)
+            d = n * (double) sampleDistinct / (n - singletons + singletons * (double) n / total);
+        }
+        this.distinct = Math.max(Math.min(d, total), sampleDistinct);
+
+        // 整列都在样本中且不同值不多时，所有值都是高频值，估计是精确的。
+        // 否则高频值至少出现两次，超过平均次数的1.25倍，并且（与PostgreSQL
+        // 相同）样本中的次数足以使频率的相对标准误差不超过20%
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < sampleDistinct; i++) {
+            order.add(i);
+        }
+        order.sort((a, b) -> Integer.compare(counts.get(b), counts.get(a)));
+        double minCount = total <= 1 ? 0 : n * (double) (total - n) / ((total - n) + 0.04 * n * (total - 1));
+        double threshold = n == 0 ? 0 : Math.max(Math.max(2, 1.25 * n / sampleDistinct), minCount);
+        boolean exact = n == total && sampleDistinct <= MAX_MCVS;
+        List<Integer> chosen = new ArrayList<>();
+        for (int i : order) {
+            if (chosen.size() == MAX_MCVS || (!exact && counts.get(i) < threshold)) {
+                break;
+            }
+            chosen.add(i);
+        }
+        chosen.sort(Integer::compare);
+        mcvs = new Field[chosen.size()];
+        mcvFreqs = new double[chosen.size()];
+        double sum = 0;
+        boolean[] isMcv = new boolean[sampleDistinct];
+        for (int k = 0; k < chosen.size(); k++) {
+            int i = chosen.get(k);
+            mcvs[k] = values.get(i);
+            mcvFreqs[k] = counts.get(i) / (double) n;
+            sum += mcvFreqs[k];
+            isMcv[i] = true;
+        }
+        mcvTotal = sum;
+
+        List<Field> rest = new ArrayList<>();
+        for (int i = 0; i < sampleDistinct; i++) {
+            if (!isMcv[i]) {
+                for (int c = 0; c < counts.get(i); c++) {
+                    rest.add(values.get(i));
+                }
+            }
+        }
+        if (rest.isEmpty()) {
+            bounds = new Field[0];
+        } else {
+            int buckets = Math.min(NUM_BUCKETS, Math.max(1, rest.size() - 1));
+            bounds = new Field[buckets + 1];
+            for (int b = 0; b <= buckets; b++) {
+                bounds[b] = rest.get((int) ((long) b * (rest.size() - 1) / buckets));
+            }
+        }
+    }
+
+    /**
+     * Order fields of the same type: integers by value, strings by their whole value.
+     */
+    static int compare(Field a, Field b) {
+        if (a instanceof IntField && b instanceof IntField) {
+            return Integer.compare(((IntField) a).getValue(), ((IntField) b).getValue());
+        }
+        return ((StringField) a).getValue().compareTo(((StringField) b).getValue());
+    }
+
+    /**
+     * @return true if the values of this column and of other can be compared
+     */
+    public boolean sameType(ColumnStats other) {
+        return type == other.type;
+    }
+
+    /**
+     * @return the estimated number of distinct values of the column
+     */
+    public double distinct() {
+        return distinct;
+    }
+
+    /**
+     * @return the most common values, in ascending order
+     */
+    public Field[] mcvs() {
+        return mcvs.clone();
+    }
+
+    /**
+     * @return the fraction of the tuples holding each of {@link #mcvs}
+     */
+    public double[] mcvFreqs() {
+        return mcvFreqs.clone();
+    }
+
+    /**
+     * @return the fraction of the tuples whose value is none of the MCVs
+     */
+    private double restFraction() {
+        return bounds.length == 0 ? 0 : Math.max(0, 1 - mcvTotal);
+    }
+
+    private int mcvIndex(Field v) {
+        return Arrays.binarySearch(mcvs, v, ORDER);
+    }
+
+    /**
+     * @return the fraction of the values other than the MCVs that are less
+     *         than v, interpolated within the bucket of v
+     */
+    private double histogramBelow(Field v) {
+        int buckets = bounds.length - 1;
+        if (buckets < 0 || compare(v, bounds[0]) <= 0) {
+            return 0;
+        }
+        if (compare(v, bounds[buckets]) > 0) {
+            return 1;
+        }
+        // bounds[lo] < v <= bounds[lo + 1]
+        int lo = 0, hi = buckets;
+        while (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(bounds[mid], v) < 0) {
+                lo = mid;
+            } else {
+                hi = mid;
+            }
+        }
+        double within = 0.5;
+        if (v instanceof IntField) {
+            double low = ((IntField) bounds[lo]).getValue();
+            double high = ((IntField) bounds[lo + 1]).getValue();
+            within = high > low ? (((IntField) v).getValue() - low) / (high - low) : 0;
+        }
+        return (lo + within) / buckets;
+    }
+
+    /**
+     * A value other than the MCVs holds its share of the other tuples, or, for
+     * an integer in a dense range of the histogram, the part of its bucket
+     * between v and v + 1 if that is more.
+     */
+    private double equalSelectivity(Field v) {
+        int i = mcvIndex(v);
+        if (i >= 0) {
+            return mcvFreqs[i];
+        }
+        double rest = restFraction();
+        if (rest == 0) {
+            return 0;
+        }
+        boolean outside = compare(v, bounds[0]) < 0 || compare(v, bounds[bounds.length - 1]) > 0;
+        if (outside && complete) {
+            return 0;
+        }
+        double sel = rest / Math.max(1, distinct - mcvs.length);
+        if (!outside && v instanceof IntField && ((IntField) v).getValue() < Integer.MAX_VALUE) {
+            Field next = new IntField(((IntField) v).getValue() + 1);
+            sel = Math.max(sel, rest * (histogramBelow(next) - histogramBelow(v)));
+        }
+        return sel;
+    }
+
+    private double lessThanSelectivity(Field v) {
+        double sel = 0;
+        for (int i = 0; i < mcvs.length && compare(mcvs[i], v) < 0; i++) {
+            sel += mcvFreqs[i];
+        }
+        return sel + restFraction() * histogramBelow(v);
+    }
+
+    /**
+     * The fraction of the tuples whose value contains the string s: the
+     * matching MCVs, and for the other values the fraction of the bounds of
+     * the histogram that match, the bounds being a sample of them.
+     */
+    private double likeSelectivity(Field s) {
+        double sel = 0;
+        for (int i = 0; i < mcvs.length; i++) {
+            if (mcvs[i].compare(Predicate.Op.LIKE, s)) {
+                sel += mcvFreqs[i];
+            }
+        }
+        if (bounds.length > 0) {
+            int matches = 0;
+            for (Field b : bounds) {
+                if (b.compare(Predicate.Op.LIKE, s)) {
+                    matches++;
+                }
+            }
+            sel += restFraction() * matches / bounds.length;
+        }
+        return sel;
+    }
+
+    /**
+     * Estimate the selectivity of the predicate <tt>column op v</tt>.
+     *
+     * @return the estimated fraction of the tuples that satisfy the predicate
+     */
+    public double estimateSelectivity(Predicate.Op op, Field v) {
+        double sel;
+        switch (op) {
+            case EQUALS:
+                sel = equalSelectivity(v);
+                break;
+            case NOT_EQUALS:
+                sel = 1 - equalSelectivity(v);
+                break;
+            case LESS_THAN:
+                sel = lessThanSelectivity(v);
+                break;
+            case LESS_THAN_OR_EQ:
+                sel = lessThanSelectivity(v) + equalSelectivity(v);
+                break;
+            case GREATER_THAN:
+                sel = 1 - lessThanSelectivity(v) - equalSelectivity(v);
+                break;
+            case GREATER_THAN_OR_EQ:
+                sel = 1 - lessThanSelectivity(v);
+                break;
+            case LIKE:
+                sel = likeSelectivity(v);
+                break;
+            default:
+                throw new IllegalArgumentException("unsupported operator " + op);
+        }
+        return Math.min(1, Math.max(0, sel));
+    }
+
+    /**
+     * @return the probability that two tuples of the table drawn at random have
+     *         the same value: the sum of the squared frequencies
+     */
+    public double avgEqualSelectivity() {
+        double sel = 0;
+        for (double f : mcvFreqs) {
+            sel += f * f;
+        }
+        double others = distinct - mcvs.length;
+        if (others >= 1) {
+            double rest = restFraction();
+            sel += rest * rest / others;
+        }
+        return sel;
+    }
+
+    /**
+     * Estimate the selectivity of an equi-join of two columns, the fraction of
+     * the pairs of tuples that join, as PostgreSQL's eqjoinsel does: the
+     * frequencies of the MCVs common to both columns are multiplied, and the
+     * other tuples are assumed to match a value of the other column uniformly.
+     *
+     * @param s1        the statistics of the left-hand column
+     * @param s2        the statistics of the right-hand column, of the same type
+     * @param distinct1 the number of distinct values of the left-hand input,
+     *                  at most that of its column
+     * @param distinct2 the number of distinct values of the right-hand input
+     */
+    public static double joinSelectivity(ColumnStats s1, ColumnStats s2, double distinct1, double distinct2) {
+        double nd1 = Math.max(1, distinct1);
+        double nd2 = Math.max(1, distinct2);
+        if (s1.mcvs.length == 0 || s2.mcvs.length == 0) {
+            return 1 / Math.max(nd1, nd2);
+        }
+        double matchProd = 0, match1 = 0, match2 = 0;
+        int matches = 0;
+        for (int i = 0, j = 0; i < s1.mcvs.length && j < s2.mcvs.length; ) {
+            int c = compare(s1.mcvs[i], s2.mcvs[j]);
+            if (c == 0) {
+                matchProd += s1.mcvFreqs[i] * s2.mcvFreqs[j];
+                match1 += s1.mcvFreqs[i];
+                match2 += s2.mcvFreqs[j];
+                matches++;
+                i++;
+                j++;
+            } else if (c < 0) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        double unmatch1 = s1.mcvTotal - match1, unmatch2 = s2.mcvTotal - match2;
+        double other1 = 1 - s1.mcvTotal, other2 = 1 - s2.mcvTotal;
+        // 左侧未匹配的高频值与右侧的非高频值相连，左侧其余的值与右侧未匹配的值相连
+        double sel1 = matchProd;
+        if (nd2 > s2.mcvs.length) {
+            sel1 += unmatch1 * other2 / (nd2 - s2.mcvs.length);
+        }
+        if (nd2 > matches) {
+            sel1 += other1 * (other2 + unmatch2) / (nd2 - matches);
+        }
+        double sel2 = matchProd;
+        if (nd1 > s1.mcvs.length) {
+            sel2 += unmatch2 * other1 / (nd1 - s1.mcvs.length);
+        }
+        if (nd1 > matches) {
+            sel2 += other2 * (other1 + unmatch1) / (nd1 - matches);
+        }
+        return Math.min(1, Math.min(sel1, sel2));
+    }
+}
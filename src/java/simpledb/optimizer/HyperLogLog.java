@@ -0,0 +1,76 @@
+package simpledb.optimizer;
+
+import java.io.Serializable;
+
+/**
+ * A HyperLogLog sketch (Flajolet et al., with the small-range correction of
+ * linear counting) estimates the number of distinct values added to it in
+ * 2^PRECISION bytes, with a standard error of about 1.04 / sqrt(2^PRECISION),
+ * 1.6% here. Sketches of disjoint parts of a table can be merged.
+ */
+public class HyperLogLog implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final int PRECISION = 12;
+    private static final int REGISTERS = 1 << PRECISION;
+
+    private final byte[] registers = new byte[REGISTERS];
+
+    /**
+     * Add a value, given by its hash code; equal values must have equal hash codes.
+     */
+    public void add(int hashCode) {
+        long h = mix(hashCode);
+        int register = (int) (h >>> (64 - PRECISION));
+        // 剩余位中第一个1的位置，即前导零个数加一
+        int rank = Long.numberOfLeadingZeros((h << PRECISION) | (1L << (PRECISION - 1))) + 1;
+        if (rank > registers[register]) {
+            registers[register] = (byte) rank;
+        }
+    }
+
+    /**
+     * Add the values added to other to this sketch.
+     */
+    public void merge(HyperLogLog other) {
+        for (int i = 0; i < REGISTERS; i++) {
+            registers[i] = (byte) Math.max(registers[i], other.registers[i]);
+        }
+    }
+
+    /**
+     * @return the estimated number of distinct values added
+     */
+    public long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0) {
+                zeros++;
+            }
+        }
+        double alpha = 0.7213 / (1 + 1.079 / REGISTERS);
+        double estimate = alpha * REGISTERS * REGISTERS / sum;
+        if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+            // 基数较小时用线性计数
+            estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * The finalizer of MurmurHash3, so that the bits of small or similar hash
+     * codes, such as those of integer fields, are spread over the whole hash.
+     */
+    private static long mix(int hashCode) {
+        long h = hashCode;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
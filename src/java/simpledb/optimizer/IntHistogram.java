@@ -2,6 +2,7 @@ package simpledb.optimizer;
 
 import simpledb.execution.Predicate;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -9,7 +10,9 @@ import java.util.Map;
 
 /** A class to represent a fixed-width histogram over a single integer-based field.
  */
-public class IntHistogram {
+public class IntHistogram implements Serializable {
+
+    private static final long serialVersionUID = 1L;
         private int buckets;
         private int min;
         private int max;
@@ -114,7 +117,10 @@ public class IntHistogram {
     
     /**
      * @return
-     *     the average selectivity of this histogram.
+     *     the average selectivity of this histogram: the expected selectivity
+     *     of an equality predicate whose value is drawn from the histogrammed
+     *     values, that is the sum over the buckets of the fraction of values in
+     *     the bucket times the selectivity of one value of the bucket.
      *     
      *     This is not an indispensable method to implement the basic
      *     join optimization. It may be needed if you want to
@@ -123,14 +129,17 @@ public class IntHistogram {
     public double avgSelectivity()
     {
         // some code goes here
-        int sum = 0;
-        for( int b : selectBuckets) {
-            sum += b;
-        }
-        if (sum == 0) {
+        if (ntups == 0) {
             return 0;
         }
-        return (1.0 * sum) / ntups;
+        // 每个桶至少包含一个整数值
+        double valuesPerBucket = Math.max(width, 1.0);
+        double sel = 0;
+        for( int b : selectBuckets) {
+            double fraction = (1.0 * b) / ntups;
+            sel += fraction * fraction / valuesPerBucket;
+        }
+        return sel;
 
     }
 
@@ -0,0 +1,274 @@
+package simpledb.optimizer;
+
+import simpledb.ParsingException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * The join graph of a query: a vertex per relation and an edge per join. A
+ * relation is a table alias, or the subquery of a {@link LogicalSubplanJoinNode},
+ * whose only edge goes to its outer table. Relations are numbered from 0 and a
+ * set of relations is a bitset in a long, bit i for relation i.
+ */
+class JoinGraph {
+
+    static final int MAX_RELATIONS = Long.SIZE;
+
+    /** the alias of each relation, null for a subquery */
+    private final List<String> aliases = new ArrayList<>();
+    private final Map<String, Integer> relationOf = new HashMap<>();
+    private final LogicalJoinNode[] edges;
+    /** each join with its inputs swapped, or the join itself for a subquery */
+    private final LogicalJoinNode[] swapped;
+    /** the relation of t1 and of t2 of each join, as one-bit sets */
+    private final long[] left;
+    private final long[] right;
+    private final long[] neighbors;
+
+    JoinGraph(List<LogicalJoinNode> joins) throws ParsingException {
+        int n = joins.size();
+        edges = joins.toArray(new LogicalJoinNode[0]);
+        swapped = new LogicalJoinNode[n];
+        left = new long[n];
+        right = new long[n];
+        List<Long> adjacent = new ArrayList<>();
+        for (int e = 0; e < n; e++) {
+            LogicalJoinNode j = edges[e];
+            int r1 = relation(j.t1Alias, adjacent);
+            int r2 = j instanceof LogicalSubplanJoinNode ? relation(null, adjacent) : relation(j.t2Alias, adjacent);
+            left[e] = 1L << r1;
+            right[e] = 1L << r2;
+            adjacent.set(r1, adjacent.get(r1) | right[e]);
+            adjacent.set(r2, adjacent.get(r2) | left[e]);
+            swapped[e] = j instanceof LogicalSubplanJoinNode ? j : j.swapInnerOuter();
+        }
+        neighbors = new long[adjacent.size()];
+        for (int r = 0; r < neighbors.length; r++) {
+            neighbors[r] = adjacent.get(r);
+        }
+    }
+
+    private int relation(String alias, List<Long> adjacent) throws ParsingException {
+        Integer r = alias == null ? null : relationOf.get(alias);
+        if (r == null) {
+            r = aliases.size();
+            if (r == MAX_RELATIONS) {
+                throw new ParsingException("Cannot order joins of more than " + MAX_RELATIONS + " relations");
+            }
+            aliases.add(alias);
+            adjacent.add(0L);
+            if (alias != null) {
+                relationOf.put(alias, r);
+            }
+        }
+        return r;
+    }
+
+    /**
+     * @return the number of relations
+     */
+    int size() {
+        return aliases.size();
+    }
+
+    /**
+     * @return the set of all relations
+     */
+    long all() {
+        return below(size() - 1);
+    }
+
+    /**
+     * @return the alias of relation r, or null if r is a subquery
+     */
+    String alias(int r) {
+        return aliases.get(r);
+    }
+
+    /**
+     * @return the one-bit set of the relation aliased alias
+     */
+    long relationOf(String alias) {
+        return 1L << relationOf.get(alias);
+    }
+
+    /**
+     * @return the one-bit set of the relation of t2 of j, which is the subquery
+     *         of j if j is a {@link LogicalSubplanJoinNode} of this graph
+     */
+    long relationOfInner(LogicalJoinNode j) {
+        if (j instanceof LogicalSubplanJoinNode) {
+            for (int e = 0; e < edges.length; e++) {
+                if (edges[e] == j) {
+                    return right[e];
+                }
+            }
+            throw new NoSuchElementException("subquery join " + j + " is not in the join graph");
+        }
+        return relationOf(j.t2Alias);
+    }
+
+    int numEdges() {
+        return edges.length;
+    }
+
+    LogicalJoinNode edge(int e) {
+        return edges[e];
+    }
+
+    /**
+     * @return edge e with its inputs swapped, see {@link LogicalJoinNode#swapInnerOuter}
+     */
+    LogicalJoinNode swappedEdge(int e) {
+        return swapped[e];
+    }
+
+    /**
+     * @return the one-bit set of the relation of t1 of edge e
+     */
+    long left(int e) {
+        return left[e];
+    }
+
+    /**
+     * @return the one-bit set of the relation of t2 of edge e
+     */
+    long right(int e) {
+        return right[e];
+    }
+
+    /**
+     * @return the relations not in s joined with a relation of s
+     */
+    long neighborhood(long s) {
+        long n = 0;
+        for (long rest = s; rest != 0; rest &= rest - 1) {
+            n |= neighbors[Long.numberOfTrailingZeros(rest)];
+        }
+        return n & ~s;
+    }
+
+    /**
+     * @return the set of relations 0 to i
+     */
+    private static long below(int i) {
+        return i >= MAX_RELATIONS - 1 ? -1L : (1L << (i + 1)) - 1;
+    }
+
+    /**
+     * Enumerate the pairs of disjoint connected sets of relations joined by at
+     * least one edge, each unordered pair once, with the DPccp algorithm of
+     * Moerkotte and Neumann, "Analysis of Two Existing and One New Dynamic
+     * Programming Algorithm for the Generation of Optimal Bushy Join Trees
+     * without Cross Products", VLDB 2006. Unlike enumerating all subsets of
+     * relations, the work is proportional to the number of pairs.
+     *
+     * @return the pairs, the two sets of pair k at 2k and 2k+1, ordered by the
+     *         size of their union, so that the plans of both sets of a pair are
+     *         known when it is reached
+     */
+    long[] csgCmpPairs() {
+        Pairs pairs = new Pairs();
+        for (int i = size() - 1; i >= 0; i--) {
+            long v = 1L << i;
+            emitCsg(v, pairs);
+            enumerateCsgRec(v, below(i), pairs);
+        }
+        return pairs.bySize(size());
+    }
+
+    /**
+     * Emit the connected supersets of s1 that add relations neither in x nor
+     * in s1, and their complements
+     */
+    private void enumerateCsgRec(long s1, long x, Pairs pairs) {
+        long n = neighborhood(s1) & ~x;
+        if (n == 0) {
+            return;
+        }
+        for (long sub = n; sub != 0; sub = (sub - 1) & n) {
+            emitCsg(s1 | sub, pairs);
+        }
+        for (long sub = n; sub != 0; sub = (sub - 1) & n) {
+            enumerateCsgRec(s1 | sub, x | n, pairs);
+        }
+    }
+
+    /**
+     * Emit the pairs of s1 with connected sets joined with it whose relations
+     * all come after the first relation of s1
+     */
+    private void emitCsg(long s1, Pairs pairs) {
+        long x = s1 | below(Long.numberOfTrailingZeros(s1));
+        long n = neighborhood(s1) & ~x;
+        for (int i = MAX_RELATIONS - 1 - Long.numberOfLeadingZeros(n); i >= 0; i--) {
+            long v = 1L << i;
+            if ((n & v) != 0) {
+                pairs.add(s1, v);
+                enumerateCmpRec(s1, v, x | (below(i) & n), pairs);
+            }
+        }
+    }
+
+    /**
+     * Emit the pairs of s1 with the connected supersets of s2 that add
+     * relations not in x
+     */
+    private void enumerateCmpRec(long s1, long s2, long x, Pairs pairs) {
+        long n = neighborhood(s2) & ~x;
+        if (n == 0) {
+            return;
+        }
+        for (long sub = n; sub != 0; sub = (sub - 1) & n) {
+            pairs.add(s1, s2 | sub);
+        }
+        for (long sub = n; sub != 0; sub = (sub - 1) & n) {
+            enumerateCmpRec(s1, s2 | sub, x | n, pairs);
+        }
+    }
+
+    /**
+     * A growing array of pairs of sets
+     */
+    private static class Pairs {
+        private long[] sets = new long[64];
+        private int size;
+
+        void add(long s1, long s2) {
+            if (size + 2 > sets.length) {
+                sets = Arrays.copyOf(sets, sets.length * 2);
+            }
+            sets[size++] = s1;
+            sets[size++] = s2;
+        }
+
+        /**
+         * @return the pairs sorted by the size of their union, which is at
+         *         most relations
+         */
+        long[] bySize(int relations) {
+            // 计数排序：先数出每种大小的对数，再按大小放置
+            int[] start = new int[relations + 2];
+            for (int k = 0; k < size; k += 2) {
+                start[Long.bitCount(sets[k] | sets[k + 1]) + 1] += 2;
+            }
+            for (int b = 1; b < start.length; b++) {
+                start[b] += start[b - 1];
+            }
+            long[] sorted = new long[size];
+            for (int k = 0; k < size; k += 2) {
+                int bits = Long.bitCount(sets[k] | sets[k + 1]);
+                int at = start[bits];
+                start[bits] += 2;
+                sorted[at] = sets[k];
+                sorted[at + 1] = sets[k + 1];
+            }
+            return sorted;
+        }
+    }
+}
@@ -3,7 +3,14 @@ package simpledb.optimizer;
 import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.IndexOnlyScan;
+import simpledb.index.IndexScan;
+import simpledb.index.SecondaryIndex;
+import simpledb.storage.DbFile;
 import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
 
 import java.util.*;
 
@@ -16,8 +23,16 @@ import javax.swing.tree.*;
  * logical plan.
  */
 public class JoinOptimizer {
+    /**
+     * The largest number of relations whose joins {@link #orderJoins} orders
+     * by dynamic programming when none is set, from the simpledb.dpRelations
+     * system property; the joins of more relations are ordered greedily.
+     */
+    public static final int DEFAULT_MAX_DP_RELATIONS = Integer.getInteger("simpledb.dpRelations", 12);
+
     final LogicalPlan p;
     final List<LogicalJoinNode> joins;
+    private int maxDpRelations = DEFAULT_MAX_DP_RELATIONS;
 
     /**
      * Constructor
@@ -49,6 +64,29 @@ public class JoinOptimizer {
      */
     public static OpIterator instantiateJoin(LogicalJoinNode lj,
                                              OpIterator plan1, OpIterator plan2) throws ParsingException {
+        return instantiateJoin(lj, plan1, plan2, null);
+    }
+
+    /**
+     * Return best iterator for computing a given logical join, as
+     * {@link #instantiateJoin(LogicalJoinNode, OpIterator, OpIterator)}, using
+     * the algorithm the optimizer chose for lj if any. If it chose an index
+     * nested loop join, plan2 is read by searching an index of its table in
+     * transaction tid; without such an index, or without a choice, the join
+     * algorithm follows from the predicate and the order of the inputs.
+     *
+     * @param lj
+     *            The join being considered
+     * @param plan1
+     *            The left join node's child
+     * @param plan2
+     *            The right join node's child
+     * @param tid
+     *            the transaction the plan runs in; if null no index scan is added
+     */
+    public static OpIterator instantiateJoin(LogicalJoinNode lj,
+                                             OpIterator plan1, OpIterator plan2,
+                                             TransactionId tid) throws ParsingException {
 
         int t1id = 0, t2id = 0;
         OpIterator j;
@@ -72,27 +110,278 @@ public class JoinOptimizer {
         }
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
-
-        if (lj.p == Predicate.Op.EQUALS) {
+        boolean asc = SortMergeJoin.isAscending(lj.p);
+        boolean sorted1 = isSortedOn(plan1, t1id, asc);
+        boolean sorted2 = isSortedOn(plan2, t2id, asc);
+
+        LogicalJoinNode.Algorithm algorithm = lj.algorithm;
+        OpIterator probe = algorithm == LogicalJoinNode.Algorithm.INDEX_NESTED_LOOP && tid != null
+                ? indexProbePlan(plan2, t2id, tid) : null;
+
+        if (probe != null) {
+            j = new IndexNestedLoopJoin(p, plan1, probe);
+        } else if (algorithm == LogicalJoinNode.Algorithm.HASH && lj.p == Predicate.Op.EQUALS) {
+            j = new HashEquiJoin(p, plan1, plan2);
+        } else if (algorithm == LogicalJoinNode.Algorithm.SORT_MERGE && SortMergeJoin.supports(lj.p)) {
+            j = new SortMergeJoin(p, plan1, plan2, sorted1, sorted2, ExternalSort.DEFAULT_MAX_TUPLES);
+        } else if (algorithm == LogicalJoinNode.Algorithm.NESTED_LOOP) {
+            j = new BlockNestedLoopJoin(p, plan1, plan2);
+        } else if (lj.p == Predicate.Op.EQUALS && sorted1 && sorted2) {
+            // both inputs are already in join order: merge them instead of building a hash table
+            j = new SortMergeJoin(p, plan1, plan2, true, true, ExternalSort.DEFAULT_MAX_TUPLES);
+        } else if (lj.p == Predicate.Op.EQUALS) {
 
             try {
                 // dynamically load HashEquiJoin -- if it doesn't exist, just
                 // fall back on regular join
                 Class<?> c = Class.forName("simpledb.execution.HashEquiJoin");
-                java.lang.reflect.Constructor<?> ct = c.getConstructors()[0];
+                java.lang.reflect.Constructor<?> ct = c.getConstructor(
+                        JoinPredicate.class, OpIterator.class, OpIterator.class);
                 j = (OpIterator) ct
                         .newInstance(new Object[] { p, plan1, plan2 });
             } catch (Exception e) {
                 j = new Join(p, plan1, plan2);
             }
+        } else if (SortMergeJoin.supports(lj.p)) {
+            j = new SortMergeJoin(p, plan1, plan2, sorted1, sorted2, ExternalSort.DEFAULT_MAX_TUPLES);
         } else {
-            j = new Join(p, plan1, plan2);
+            j = new BlockNestedLoopJoin(p, plan1, plan2);
         }
 
         return j;
 
     }
 
+    /**
+     * Turn the plan of a base table, a scan under filters, into one that can be
+     * searched for the tuples matching each tuple of an index nested loop join:
+     * the scan is replaced by a scan of the B+ tree file of the table, if it is
+     * keyed on field, or of a secondary index whose first key field is field.
+     *
+     * @param plan  the plan of the inner table of the join
+     * @param field the join field, in the output of plan
+     * @param tid   the transaction the plan runs in
+     * @return plan with its scan replaced, or null if the table has no index on field
+     */
+    static OpIterator indexProbePlan(OpIterator plan, int field, TransactionId tid) {
+        Filter parent = null;
+        OpIterator scan = plan;
+        while (scan instanceof Filter) {
+            parent = (Filter) scan;
+            scan = parent.getChildren()[0];
+        }
+
+        OpIterator probe;
+        if (scan instanceof BTreeScan && ((BTreeScan) scan).keyField() == field) {
+            probe = scan;
+        } else if (scan instanceof IndexScan && ((IndexScan) scan).getIndex().getKeyFields()[0] == field) {
+            probe = scan;
+        } else if (scan instanceof SeqScan) {
+            SeqScan ss = (SeqScan) scan;
+            probe = indexScanOn(ss.getTableId(), ss.getAlias(), ss.tableField(field), tid);
+            if (probe != null) {
+                // 索引扫描返回整个元组：下推到顺序扫描中的谓词改由其上的Filter计算
+                for (Predicate p : ss.getPredicates()) {
+                    probe = new Filter(p, probe);
+                }
+            }
+        } else if (scan instanceof BTreeScan) {
+            BTreeScan bs = (BTreeScan) scan;
+            probe = indexScanOn(Database.getCatalog().getTableId(bs.getTableName()), bs.getAlias(), field, tid);
+        } else if (scan instanceof IndexScan) {
+            IndexScan is = (IndexScan) scan;
+            probe = indexScanOn(is.getIndex().getTableId(), is.getAlias(), field, tid);
+        } else {
+            // IndexOnlyScan的输出字段顺序与表不同，上面的Filter无法直接换成整表的扫描
+            return null;
+        }
+        if (probe == null) {
+            return null;
+        }
+        if (parent == null) {
+            return probe;
+        }
+        parent.setChildren(new OpIterator[]{probe});
+        return plan;
+    }
+
+    /**
+     * @return a scan of an index of the table keyed on field, the B+ tree file of
+     *         the table or else one of its secondary indexes, or null if there is none
+     */
+    private static OpIterator indexScanOn(int tableId, String alias, int field, TransactionId tid) {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (file instanceof BTreeFile && ((BTreeFile) file).keyFields()[0] == field) {
+            return new BTreeScan(tid, tableId, alias, null);
+        }
+        SecondaryIndex index = findIndex(tableId, field);
+        return index == null ? null : new IndexScan(tid, index, alias, null);
+    }
+
+    /**
+     * @return a secondary index of the table whose first key field is field, or null
+     */
+    private static SecondaryIndex findIndex(int tableId, int field) {
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId)) {
+            if (index.getKeyFields()[0] == field) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Whether a plan returns its tuples ordered on a field, so that a sort-merge
+     * join does not have to sort it. B+ tree scans and index scans are ordered on
+     * their key, and so is a sequential scan of a B+ tree file, which reads its
+     * leaf pages in order; filters and projections keep the order of their child.
+     *
+     * @param plan  the plan
+     * @param field the index of the field in the output of plan
+     * @param asc   true for ascending order, false for descending
+     * @return true if the tuples of plan are known to be in that order
+     */
+    public static boolean isSortedOn(OpIterator plan, int field, boolean asc) {
+        if (plan instanceof BTreeScan) {
+            BTreeScan scan = (BTreeScan) plan;
+            return scan.keyField() == field && scan.isReverse() != asc;
+        } else if (plan instanceof SeqScan) {
+            SeqScan scan = (SeqScan) plan;
+            DbFile file = Database.getCatalog().getDatabaseFile(scan.getTableId());
+            return asc && file instanceof BTreeFile && ((BTreeFile) file).keyFields()[0] == scan.tableField(field);
+        } else if (plan instanceof IndexOnlyScan) {
+            // the output is in table order, so the key is not necessarily field 0
+            return field == ((IndexOnlyScan) plan).keyFields()[0] && asc;
+        } else if (plan instanceof IndexScan) {
+            return field == ((IndexScan) plan).getIndex().getKeyFields()[0] && asc;
+        } else if (plan instanceof Filter) {
+            return isSortedOn(((Filter) plan).getChildren()[0], field, asc);
+        } else if (plan instanceof Project) {
+            Project project = (Project) plan;
+            return project.getFieldList() != null
+                    && isSortedOn(project.getChildren()[0], project.getFieldList().get(field), asc);
+        } else if (plan instanceof OrderBy) {
+            OrderBy orderBy = (OrderBy) plan;
+            return orderBy.getOrderByField() == field && orderBy.isASC() == asc;
+        } else if (plan instanceof TopN) {
+            TopN topN = (TopN) plan;
+            return topN.getOrderByFields()[0] == field && topN.getAscending()[0] == asc;
+        } else if (plan instanceof Limit) {
+            return isSortedOn(((Limit) plan).getChildren()[0], field, asc);
+        } else if (plan instanceof SortMergeJoin) {
+            // an equality merge join returns its tuples ordered on the join fields
+            SortMergeJoin smj = (SortMergeJoin) plan;
+            JoinPredicate jp = smj.getJoinPredicate();
+            int td1n = smj.getChildren()[0].getTupleDesc().numFields();
+            return jp.getOperator() == Predicate.Op.EQUALS && asc
+                    && (field == jp.getField1() || field == td1n + jp.getField2());
+        } else if (plan instanceof StreamAggregate) {
+            // groups come out in the order of the child, keyed on the first group-by field
+            StreamAggregate agg = (StreamAggregate) plan;
+            int[] gfields = agg.groupFields();
+            return field == 0 && gfields.length > 0 && isSortedOn(agg.getChildren()[0], gfields[0], asc);
+        }
+        return false;
+    }
+
+    /**
+     * Whether a plan returns all the tuples with equal values of some fields one
+     * after the other, so that a {@link StreamAggregate} can group them without
+     * a hash table. That is the case if the plan is sorted, in any direction, on
+     * those fields, in any order, before any other field.
+     *
+     * @param plan   the plan
+     * @param fields the indexes of the fields in the output of plan
+     * @return true if the tuples of plan are known to be grouped on fields
+     */
+    public static boolean isGroupedOn(OpIterator plan, int[] fields) {
+        if (fields.length == 0) {
+            return true;
+        }
+        int[] order = sortFields(plan);
+        if (order.length < fields.length) {
+            return false;
+        }
+        Set<Integer> leading = new HashSet<>();
+        for (int i = 0; i < fields.length; i++) {
+            leading.add(order[i]);
+        }
+        for (int f : fields) {
+            if (!leading.remove(f)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the fields the tuples of plan are known to be sorted on, most
+     *         significant first, in whatever direction; none if it is unknown
+     */
+    private static int[] sortFields(OpIterator plan) {
+        if (plan instanceof BTreeScan) {
+            BTreeScan scan = (BTreeScan) plan;
+            if (scan.keyField() < 0) {
+                return new int[0];
+            }
+            int tableId = Database.getCatalog().getTableId(scan.getTableName());
+            return ((BTreeFile) Database.getCatalog().getDatabaseFile(tableId)).keyFields();
+        } else if (plan instanceof SeqScan) {
+            DbFile file = Database.getCatalog().getDatabaseFile(((SeqScan) plan).getTableId());
+            boolean whole = ((SeqScan) plan).getFields() == null;
+            return whole && file instanceof BTreeFile ? ((BTreeFile) file).keyFields() : new int[0];
+        } else if (plan instanceof IndexOnlyScan) {
+            return ((IndexOnlyScan) plan).keyFields();
+        } else if (plan instanceof IndexScan) {
+            return ((IndexScan) plan).getIndex().getKeyFields();
+        } else if (plan instanceof Filter || plan instanceof Limit) {
+            return sortFields(((Operator) plan).getChildren()[0]);
+        } else if (plan instanceof Project) {
+            // the order survives as long as its fields are projected
+            Project project = (Project) plan;
+            List<Integer> fieldList = project.getFieldList();
+            if (fieldList == null) {
+                return new int[0];
+            }
+            int[] childOrder = sortFields(project.getChildren()[0]);
+            int n = 0;
+            while (n < childOrder.length && fieldList.contains(childOrder[n])) {
+                childOrder[n] = fieldList.indexOf(childOrder[n]);
+                n++;
+            }
+            return Arrays.copyOf(childOrder, n);
+        } else if (plan instanceof OrderBy) {
+            return ((OrderBy) plan).getOrderByFields();
+        } else if (plan instanceof TopN) {
+            return ((TopN) plan).getOrderByFields();
+        } else if (plan instanceof SortMergeJoin) {
+            SortMergeJoin smj = (SortMergeJoin) plan;
+            JoinPredicate jp = smj.getJoinPredicate();
+            return jp.getOperator() == Predicate.Op.EQUALS ? new int[]{jp.getField1()} : new int[0];
+        } else if (plan instanceof StreamAggregate) {
+            // the group-by fields keep the order they have in the child
+            StreamAggregate agg = (StreamAggregate) plan;
+            int[] gfields = agg.groupFields();
+            int[] childOrder = sortFields(agg.getChildren()[0]);
+            int n = 0;
+            while (n < childOrder.length && indexOf(gfields, childOrder[n]) >= 0) {
+                childOrder[n] = indexOf(gfields, childOrder[n]);
+                n++;
+            }
+            return Arrays.copyOf(childOrder, n);
+        }
+        return new int[0];
+    }
+
+    private static int indexOf(int[] fields, int field) {
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] == field) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -101,7 +390,10 @@ public class JoinOptimizer {
      * the amount of data that must be read over the course of the query, as
      * well as the number of CPU opertions performed by your join. Assume that
      * the cost of a single predicate application is roughly 1.
-     * 
+     * <p>
+     * This is the cost of the algorithm instantiateJoin uses when the optimizer
+     * did not choose one: a hash join for equality, a sort-merge join for a
+     * range predicate and a nested loop join otherwise.
      * 
      * @param j
      *            A LogicalJoinNode representing the join operation being
@@ -126,12 +418,238 @@ public class JoinOptimizer {
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return cost1 + card1 * cost2 + card1 * card2;
+            LogicalJoinNode.Algorithm algorithm;
+            if (j.p == Predicate.Op.EQUALS) {
+                algorithm = LogicalJoinNode.Algorithm.HASH;
+            } else if (SortMergeJoin.supports(j.p)) {
+                algorithm = LogicalJoinNode.Algorithm.SORT_MERGE;
+            } else {
+                algorithm = LogicalJoinNode.Algorithm.NESTED_LOOP;
+            }
+            return estimateJoinCost(j, algorithm, card1, card2, cost1, cost2, null, null);
+        }
+    }
+
+    /**
+     * Estimate the cost of a join whose right-hand side may be a base table, as
+     * {@link #estimateJoinCost(LogicalJoinNode, int, int, double, double)}, but
+     * choosing the cheapest algorithm, including an index nested loop join when
+     * that table has an index on the join field.
+     *
+     * @param innerStats
+     *            the statistics of the right-hand table if the right-hand side
+     *            of the join is that table, null if it is a join of several tables
+     * @return the cost of the cheapest algorithm
+     */
+    public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, TableStats innerStats) {
+        return estimateJoinCost(j, cheapestAlgorithm(j, card1, card2, cost1, cost2, null, innerStats),
+                card1, card2, cost1, cost2, null, innerStats);
+    }
+
+    /**
+     * @return the algorithm of least estimated cost for j, see
+     *         {@link #estimateJoinCost(LogicalJoinNode, LogicalJoinNode.Algorithm, int, int, double, double, TableStats, TableStats)}
+     */
+    LogicalJoinNode.Algorithm cheapestAlgorithm(LogicalJoinNode j, int card1, int card2, double cost1,
+                                                double cost2, TableStats outerStats, TableStats innerStats) {
+        LogicalJoinNode.Algorithm best = LogicalJoinNode.Algorithm.NESTED_LOOP;
+        double bestCost = Double.POSITIVE_INFINITY;
+        for (LogicalJoinNode.Algorithm algorithm : LogicalJoinNode.Algorithm.values()) {
+            double cost = estimateJoinCost(j, algorithm, card1, card2, cost1, cost2, outerStats, innerStats);
+            if (cost < bestCost) {
+                best = algorithm;
+                bestCost = cost;
+            }
         }
+        return best;
+    }
+
+    /**
+     * Estimate the cost of evaluating a join with a given algorithm. Each input
+     * is produced once at its cost, except the right-hand side of a nested loop
+     * join, and the predicate costs 1 per pair of tuples compared:
+     * <ul>
+     * <li>NESTED_LOOP reads the right-hand side once per block of left-hand
+     * tuples. When it is a base table that fits in the buffer pool, the
+     * rescans find its pages there and cost one per page.</li>
+     * <li>HASH builds a table of the left-hand side and probes it with the
+     * right-hand side. The part of both inputs beyond the
+     * {@link HashEquiJoin#MAP_SIZE} tuples kept in memory is written to
+     * disk and read back once.</li>
+     * <li>SORT_MERGE sorts both inputs, except a base table scanned in the
+     * order of its B+ tree key, and merges them; a range join compares each
+     * left-hand tuple with the matching prefix of the right-hand side.</li>
+     * <li>INDEX_NESTED_LOOP searches an index of the right-hand table, see
+     * {@link #estimateIndexJoinCost}.</li>
+     * </ul>
+     *
+     * @param outerStats
+     *            the statistics of the left-hand table if the left-hand side of
+     *            the join is that table, null otherwise
+     * @param innerStats
+     *            the statistics of the right-hand table if the right-hand side of
+     *            the join is that table, null otherwise
+     * @return the estimated cost, or Double.POSITIVE_INFINITY if the algorithm
+     *         cannot evaluate the join; the cost of a subquery does not depend
+     *         on the algorithm
+     */
+    public double estimateJoinCost(LogicalJoinNode j, LogicalJoinNode.Algorithm algorithm, int card1, int card2,
+                                   double cost1, double cost2, TableStats outerStats, TableStats innerStats) {
+        if (j instanceof LogicalSubplanJoinNode) {
+            return estimateJoinCost(j, card1, card2, cost1, cost2);
+        }
+        switch (algorithm) {
+            case NESTED_LOOP: {
+                // 每块外表元组扫描一遍内表，第一遍之后内表可能已在缓冲池中
+                int blocks = (card1 + outerBlockTuples(j) - 1) / outerBlockTuples(j);
+                double rescan = fitsInBufferPool(innerStats, 0) ? innerStats.pages() : cost2;
+                return cost1 + cost2 + Math.max(0, blocks - 1) * rescan + (double) card1 * card2;
+            }
+            case HASH: {
+                if (j.p != Predicate.Op.EQUALS) {
+                    return Double.POSITIVE_INFINITY;
+                }
+                double cost = cost1 + cost2 + card1 + card2;
+                if (card1 > HashEquiJoin.MAP_SIZE) {
+                    // 混合哈希连接：溢出的分区写出后再读一遍
+                    cost += 2 * (cost1 + cost2) * (1 - (double) HashEquiJoin.MAP_SIZE / card1);
+                }
+                return cost;
+            }
+            case SORT_MERGE: {
+                if (!SortMergeJoin.supports(j.p)) {
+                    return Double.POSITIVE_INFINITY;
+                }
+                boolean asc = SortMergeJoin.isAscending(j.p);
+                double cost = cost1 + cost2 + card1 + card2;
+                if (SortMergeJoin.needsSortedChild1(j.p) && !scansInOrder(j.t1Alias, j.f1PureName, asc, outerStats)) {
+                    cost += sortCost(card1, cost1);
+                }
+                if (!scansInOrder(j.t2Alias, j.f2PureName, asc, innerStats)) {
+                    cost += sortCost(card2, cost2);
+                }
+                if (j.p != Predicate.Op.EQUALS) {
+                    // 对每个外表元组读取内表中匹配的前缀，工作量与输出成正比
+                    cost += 0.3 * card1 * card2;
+                }
+                return cost;
+            }
+            case INDEX_NESTED_LOOP:
+                return estimateIndexJoinCost(j, card1, cost1, innerStats);
+            default:
+                throw new IllegalArgumentException("unknown join algorithm " + algorithm);
+        }
+    }
+
+    /**
+     * @return true if the table with statistics stats, plus extraPages more
+     *         pages, fits in the buffer pool, so that it is read from disk once
+     *         however often it is scanned; false if stats is null
+     */
+    private static boolean fitsInBufferPool(TableStats stats, int extraPages) {
+        return stats != null && stats.pages() + extraPages <= Database.getBufferPool().getNumPages();
+    }
+
+    /**
+     * @return true if the side of a join that is the base table aliased alias,
+     *         with statistics stats, is read in the order of field, as a scan of
+     *         a B+ tree file keyed on field is; false if the side is a join
+     */
+    private boolean scansInOrder(String alias, String field, boolean asc, TableStats stats) {
+        Integer tableId = p.getTableId(alias);
+        if (stats == null || !asc || tableId == null) {
+            return false;
+        }
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        try {
+            return file instanceof BTreeFile
+                    && ((BTreeFile) file).keyFields()[0] == file.getTupleDesc().fieldNameToIndex(field);
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Estimate the cost of an {@link IndexNestedLoopJoin}: the left-hand side is
+     * read once, and for each of its tuples an index on the join field of the
+     * right-hand table is searched and the matching tuples are read. The B+ tree
+     * file of the table is preferred to a secondary index, as instantiateJoin does.
+     * When the table and its index fit in the buffer pool, their pages are read
+     * from disk at most once whatever the number of searches.
+     *
+     * @param innerStats
+     *            the statistics of the right-hand table, or null if the right-hand
+     *            side of the join is not a base table
+     * @return the estimated cost, or Double.POSITIVE_INFINITY if the join cannot
+     *         be evaluated by searching an index
+     */
+    public double estimateIndexJoinCost(LogicalJoinNode j, int card1, double cost1, TableStats innerStats) {
+        if (j instanceof LogicalSubplanJoinNode || innerStats == null) {
+            return Double.POSITIVE_INFINITY;
+        }
+        Predicate.Op probeOp = IndexNestedLoopJoin.probeOp(j.p);
+        Integer tableId = p.getTableId(j.t2Alias);
+        if (probeOp == null || tableId == null) {
+            return Double.POSITIVE_INFINITY;
+        }
+        int field;
+        try {
+            field = Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(j.f2PureName);
+        } catch (NoSuchElementException e) {
+            return Double.POSITIVE_INFINITY;
+        }
+
+        double sel = innerStats.avgSelectivity(field, probeOp);
+        double probeCost;
+        int indexPages;
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (file instanceof BTreeFile && ((BTreeFile) file).keyFields()[0] == field) {
+            probeCost = innerStats.estimateBTreeSearchCost(sel);
+            indexPages = 0;
+        } else {
+            SecondaryIndex index = findIndex(tableId, field);
+            if (index == null) {
+                return Double.POSITIVE_INFINITY;
+            }
+            probeCost = innerStats.estimateIndexScanCost(index, sel);
+            indexPages = index.getFile().numPages();
+        }
+        double io = card1 * probeCost;
+        if (fitsInBufferPool(innerStats, indexPages)) {
+            io = Math.min(io, (double) (innerStats.pages() + indexPages) * innerStats.ioCostPerPage());
+        }
+        return cost1 + io + card1 * sel * innerStats.totalTuples();
+    }
+
+    /**
+     * @return the number of tuples of the left-hand table of j that a
+     *         {@link BlockNestedLoopJoin} keeps in memory; the left-hand side may
+     *         be a join with wider tuples, so this is an upper bound
+     */
+    private int outerBlockTuples(LogicalJoinNode j) {
+        Integer tableId = p.getTableId(j.t1Alias);
+        if (tableId == null) {
+            return BlockNestedLoopJoin.DEFAULT_BLOCK_PAGES;
+        }
+        return BlockNestedLoopJoin.tuplesPerBlock(Database.getCatalog().getTupleDesc(tableId),
+                BlockNestedLoopJoin.DEFAULT_BLOCK_PAGES);
+    }
+
+    /**
+     * Estimate the cost of sorting the output of a plan with an {@link ExternalSort}.
+     *
+     * @param card     the number of tuples to sort
+     * @param scanCost the cost of reading the tuples once
+     * @return card log card comparisons, plus writing and reading the tuples
+     *         once more if they do not fit in memory
+     */
+    static double sortCost(int card, double scanCost) {
+        double cpu = card * Math.log(Math.max(card, 2)) / Math.log(2);
+        if (card > ExternalSort.DEFAULT_MAX_TUPLES) {
+            return cpu + 2 * scanCost;
+        }
+        return cpu;
     }
 
     /**
@@ -168,6 +686,12 @@ public class JoinOptimizer {
 
     /**
      * Estimate the join cardinality of two tables.
+     * <p>
+     * An equi-join on a primary key returns a tuple per tuple of the other side.
+     * Otherwise the selectivity of an equi-join is estimated from the most common
+     * values and numbers of distinct values of both columns, see
+     * {@link ColumnStats#joinSelectivity}, falling back to the larger input when
+     * either column has no statistics.
      * */
     public static int estimateTableJoinCardinality(Predicate.Op joinOp,
                                                    String table1Alias, String table2Alias, String field1PureName,
@@ -182,7 +706,16 @@ public class JoinOptimizer {
             } else if (!t1pkey && t2pkey) {
                 card = card1;
             } else if (!t1pkey && !t2pkey) {
-                card = Math.max(card1,card2);
+                ColumnStats s1 = columnStats(table1Alias, field1PureName, stats, tableAliasToId);
+                ColumnStats s2 = columnStats(table2Alias, field2PureName, stats, tableAliasToId);
+                if (s1 != null && s2 != null && s1.sameType(s2)) {
+                    // 过滤后每侧的不同值个数不超过其元组数
+                    double sel = ColumnStats.joinSelectivity(s1, s2,
+                            Math.min(s1.distinct(), card1), Math.min(s2.distinct(), card2));
+                    card = (int) Math.min(Integer.MAX_VALUE, Math.round(sel * card1 * card2));
+                } else {
+                    card = Math.max(card1, card2);
+                }
             } else {
                 card = Math.min(card1,card2);
             }
@@ -194,40 +727,36 @@ public class JoinOptimizer {
     }
 
     /**
-     * Helper method to enumerate all of the subsets of a given size of a
-     * specified vector.
-     * 
-     * @param v
-     *            The vector whose subsets are desired
-     * @param size
-     *            The size of the subsets of interest
-     * @return a set of all subsets of the specified size
+     * @return the statistics of the column field of the table aliased alias, or
+     *         null if they are unknown
      */
-    public <T> Set<Set<T>> enumerateSubsets(List<T> v, int size) {
-        Set<Set<T>> els = new HashSet<>();
-        els.add(new HashSet<>());
-        // Iterator<Set> it;
-        // long start = System.currentTimeMillis();
-        for (int i = 0; i < size; i++) {
-            Set<Set<T>> newels = new HashSet<>();
-            for (Set<T> s : els) {
-                for (T t : v) {
-                    Set<T> news = new HashSet<>(s);
-                    if (news.add(t)) {
-                        newels.add(news);
-                    }
-                }
-            }
-            els = newels;
+    private static ColumnStats columnStats(String alias, String field, Map<String, TableStats> stats,
+                                           Map<String, Integer> tableAliasToId) {
+        Integer tableId = tableAliasToId == null ? null : tableAliasToId.get(alias);
+        if (tableId == null || stats == null) {
+            return null;
+        }
+        TableStats s = stats.get(Database.getCatalog().getTableName(tableId));
+        if (s == null) {
+            return null;
+        }
+        try {
+            return s.getColumnStats(Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(field));
+        } catch (NoSuchElementException e) {
+            return null;
         }
-
-        return els;
-
     }
 
     /**
      * Compute a logical, reasonably efficient join on the specified tables. See
      * PS4 for hints on how this should be implemented.
+     * <p>
+     * The joins of up to {@link #setMaxDpRelations maxDpRelations} relations
+     * are ordered by dynamic programming over the connected sets of relations
+     * of the join graph: the best plan of a set is the cheapest join of the best
+     * plans of two of its parts, for each pair of parts enumerated by
+     * {@link JoinGraph#csgCmpPairs}, so plans may be bushy trees. The joins of
+     * more relations are ordered greedily, see {@link #orderGreedily}.
      * 
      * @param stats
      *            Statistics for each table involved in the join, referenced by
@@ -239,218 +768,240 @@ public class JoinOptimizer {
      * @param explain
      *            Indicates whether your code should explain its query plan or
      *            simply execute it
-     * @return A List<LogicalJoinNode> that stores joins in the left-deep
-     *         order in which they should be executed.
+     * @return A List<LogicalJoinNode> that stores joins in the order in which
+     *         they should be executed; a join combines the plans of the joins
+     *         before it that contain its two tables
      * @throws ParsingException
      *             when stats or filter selectivities is missing a table in the
-     *             join, or or when another internal error occurs
+     *             join, when the joins do not connect all tables, or when
+     *             another internal error occurs
      */
     public List<LogicalJoinNode> orderJoins(
             Map<String, TableStats> stats,
             Map<String, Double> filterSelectivities, boolean explain)
             throws ParsingException {
 
-        // some code goes here
-        //Replace the following
-        CostCard bestCostCard = new CostCard();
+        // a query over a single table has nothing to order
+        if (joins.isEmpty()) {
+            return joins;
+        }
+        JoinGraph g = new JoinGraph(joins);
         PlanCache planCache = new PlanCache();
-        int size = joins.size();
-        for (int i = 1; i <= size; i++) {
-            Set<Set<LogicalJoinNode>> subSets = enumerateSubsets(joins, i);
-            for (Set<LogicalJoinNode> subSet : subSets) {
-                Double bestCostSoFar = Double.MAX_VALUE;
-                bestCostCard = new CostCard();
-                for( LogicalJoinNode j : subSet) {
-                    CostCard costCard = computeCostAndCardOfSubplan(stats, filterSelectivities, j, subSet, bestCostSoFar, planCache);
-                    if (costCard != null) {
-                        bestCostSoFar = costCard.cost;
-                        bestCostCard = costCard;
-                    }
-                }
-                if (bestCostSoFar != Double.MAX_VALUE) {
-                    planCache.addPlan(subSet,bestCostSoFar, bestCostCard.card,bestCostCard.plan);
+        for (int r = 0; r < g.size(); r++) {
+            planCache.addPlan(1L << r, scanPlan(g.alias(r), stats, filterSelectivities));
+        }
+        CostCard best;
+        if (g.size() <= maxDpRelations) {
+            long[] pairs = g.csgCmpPairs();
+            for (int k = 0; k < pairs.length; k += 2) {
+                long s = pairs[k] | pairs[k + 1];
+                CostCard prev = planCache.getPlan(s);
+                CostCard costCard = joinPlans(g, planCache, pairs[k], pairs[k + 1],
+                        prev == null ? Double.POSITIVE_INFINITY : prev.cost, stats);
+                if (costCard != null) {
+                    planCache.addPlan(s, costCard);
                 }
-
             }
-            if (explain) {
-                printJoins(bestCostCard.plan,planCache,stats,filterSelectivities);
-            }
-
+            best = planCache.getPlan(g.all());
+        } else {
+            best = orderGreedily(g, planCache, stats);
         }
-        return bestCostCard.plan;
-
+        if (best == null) {
+            throw new ParsingException("Query does not include join expressions joining all nodes!");
+        }
+        if (explain) {
+            printJoins(best.plan, planCache, g);
+        }
+        return best.plan;
     }
 
-
+    /**
+     * Set the largest number of relations whose joins {@link #orderJoins}
+     * orders by dynamic programming, {@link #DEFAULT_MAX_DP_RELATIONS} by default.
+     */
+    public void setMaxDpRelations(int maxDpRelations) {
+        this.maxDpRelations = maxDpRelations;
+    }
 
     // ===================== Private Methods =================================
 
+    /**
+     * Order the joins with Greedy Operator Ordering (Fegaras, "A New Heuristic
+     * for Optimizing Large Queries", DEXA 1998): starting from a plan per
+     * relation, join the two plans whose join has the smallest estimated
+     * cardinality, until one plan is left. The plans may be bushy trees.
+     *
+     * @param pc
+     *            holds the plan of each relation, and receives the plans of
+     *            the sets of relations joined
+     * @return the plan joining all relations, or null if the join graph is
+     *         not connected
+     */
+    private CostCard orderGreedily(JoinGraph g, PlanCache pc, Map<String, TableStats> stats) {
+        List<Long> parts = new ArrayList<>();
+        for (int r = 0; r < g.size(); r++) {
+            parts.add(1L << r);
+        }
+        while (parts.size() > 1) {
+            CostCard best = null;
+            int bestI = -1, bestK = -1;
+            for (int i = 0; i < parts.size(); i++) {
+                long neighbors = g.neighborhood(parts.get(i));
+                for (int k = i + 1; k < parts.size(); k++) {
+                    if ((neighbors & parts.get(k)) == 0) {
+                        continue;
+                    }
+                    CostCard costCard = joinPlans(g, pc, parts.get(i), parts.get(k),
+                            Double.POSITIVE_INFINITY, stats);
+                    if (best == null || costCard.card < best.card
+                            || (costCard.card == best.card && costCard.cost < best.cost)) {
+                        best = costCard;
+                        bestI = i;
+                        bestK = k;
+                    }
+                }
+            }
+            if (best == null) {
+                return null;
+            }
+            long s = parts.get(bestI) | parts.get(bestK);
+            pc.addPlan(s, best);
+            parts.set(bestI, s);
+            parts.remove(bestK);
+        }
+        return pc.getPlan(parts.get(0));
+    }
 
+    /**
+     * @return the plan of a scan of the table aliased alias, with the
+     *         cardinality left by its filters, or of a subquery if alias is
+     *         null, whose cost is part of the cost of the join with it
+     * @throws ParsingException
+     *             when the table is unknown
+     */
+    private CostCard scanPlan(String alias, Map<String, TableStats> stats,
+            Map<String, Double> filterSelectivities) throws ParsingException {
+        CostCard cc = new CostCard();
+        cc.plan = new ArrayList<>();
+        if (alias != null) {
+            Integer tableId = this.p.getTableId(alias);
+            if (tableId == null) {
+                throw new ParsingException("Unknown table " + alias);
+            }
+            TableStats s = stats.get(Database.getCatalog().getTableName(tableId));
+            cc.cost = s.estimateScanCost();
+            cc.card = s.estimateTableCardinality(filterSelectivities.get(alias));
+        }
+        return cc;
+    }
 
+    /**
+     * @return the statistics of the table if s is a single table, null if it
+     *         is a subquery or several relations
+     */
+    private TableStats relationStats(JoinGraph g, long s, Map<String, TableStats> stats) {
+        if (Long.bitCount(s) != 1) {
+            return null;
+        }
+        String alias = g.alias(Long.numberOfTrailingZeros(s));
+        return alias == null ? null : stats.get(Database.getCatalog().getTableName(this.p.getTableId(alias)));
+    }
 
     /**
-     * This is a helper method that computes the cost and cardinality of joining
-     * joinToRemove to joinSet (joinSet should contain joinToRemove), given that
-     * all of the subsets of size joinSet.size() - 1 have already been computed
-     * and stored in PlanCache pc.
+     * Compute the cost and cardinality of the cheapest join of the best plans
+     * of the disjoint sets of relations s1 and s2, stored in pc. Each join
+     * between them is tried in both directions with its cheapest algorithm;
+     * the other joins between them, which close cycles of the join graph,
+     * follow it in the plan.
      * 
+     * @param bestCostSoFar
+     *            the cost of the best plan of the union of s1 and s2 so far
      * @param stats
      *            table stats for all of the tables, referenced by table names
      *            rather than alias (see {@link #orderJoins})
-     * @param filterSelectivities
-     *            the selectivities of the filters over each of the tables
-     *            (where tables are indentified by their alias or name if no
-     *            alias is given)
-     * @param joinToRemove
-     *            the join to remove from joinSet
-     * @param joinSet
-     *            the set of joins being considered
-     * @param bestCostSoFar
-     *            the best way to join joinSet so far (minimum of previous
-     *            invocations of computeCostAndCardOfSubplan for this joinSet,
-     *            from returned CostCard)
-     * @param pc
-     *            the PlanCache for this join; should have subplans for all
-     *            plans of size joinSet.size()-1
      * @return A {@link CostCard} objects desribing the cost, cardinality,
-     *         optimal subplan
-     * @throws ParsingException
-     *             when stats, filterSelectivities, or pc object is missing
-     *             tables involved in join
+     *         optimal subplan, or null if no join connects s1 and s2 for less
+     *         than bestCostSoFar
      */
-    @SuppressWarnings("unchecked")
-    private CostCard computeCostAndCardOfSubplan(
-            Map<String, TableStats> stats,
-            Map<String, Double> filterSelectivities,
-            LogicalJoinNode joinToRemove, Set<LogicalJoinNode> joinSet,
-            double bestCostSoFar, PlanCache pc) throws ParsingException {
-
-        LogicalJoinNode j = joinToRemove;
-
-        List<LogicalJoinNode> prevBest;
-
-        if (this.p.getTableId(j.t1Alias) == null) {
-            throw new ParsingException("Unknown table " + j.t1Alias);
-        }
-        if (this.p.getTableId(j.t2Alias) == null) {
-            throw new ParsingException("Unknown table " + j.t2Alias);
-        }
-
-        String table1Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t1Alias));
-        String table2Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t2Alias));
-        String table1Alias = j.t1Alias;
-        String table2Alias = j.t2Alias;
-
-        Set<LogicalJoinNode> news = new HashSet<>(joinSet);
-        news.remove(j);
-
-        double t1cost, t2cost;
-        int t1card, t2card;
-        boolean leftPkey, rightPkey;
-
-        if (news.isEmpty()) { // base case -- both are base relations
-            prevBest = new ArrayList<>();
-            t1cost = stats.get(table1Name).estimateScanCost();
-            t1card = stats.get(table1Name).estimateTableCardinality(
-                    filterSelectivities.get(j.t1Alias));
-            leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
-            t2cost = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateScanCost();
-            t2card = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateTableCardinality(
-                            filterSelectivities.get(j.t2Alias));
-            rightPkey = table2Alias != null && isPkey(table2Alias,
-                    j.f2PureName);
-        } else {
-            // news is not empty -- figure best way to join j to news
-            prevBest = pc.getOrder(news);
-
-            // possible that we have not cached an answer, if subset
-            // includes a cross product
-            if (prevBest == null) {
-                return null;
-            }
-
-            double prevBestCost = pc.getCost(news);
-            int bestCard = pc.getCard(news);
-
-            // estimate cost of right subtree
-            if (doesJoin(prevBest, table1Alias)) { // j.t1 is in prevBest
-                t1cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t1card = bestCard;
-                leftPkey = hasPkey(prevBest);
-
-                t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateScanCost();
-                t2card = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateTableCardinality(
-                                filterSelectivities.get(j.t2Alias));
-                rightPkey = j.t2Alias != null && isPkey(j.t2Alias,
-                        j.f2PureName);
-            } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
-                                                        // (both
-                // shouldn't be)
-                t2cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t2card = bestCard;
-                rightPkey = hasPkey(prevBest);
-                t1cost = stats.get(table1Name).estimateScanCost();
-                t1card = stats.get(table1Name).estimateTableCardinality(
-                        filterSelectivities.get(j.t1Alias));
-                leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
+    private CostCard joinPlans(JoinGraph g, PlanCache pc, long s1, long s2,
+            double bestCostSoFar, Map<String, TableStats> stats) {
+        LogicalJoinNode best = null;
+        LogicalJoinNode.Algorithm bestAlgorithm = null;
+        double bestCost = Double.POSITIVE_INFINITY;
+        int bestEdge = -1;
+        long bestOuter = 0, bestInner = 0;
+
+        for (int e = 0; e < g.numEdges(); e++) {
+            long outer, inner;
+            if ((g.left(e) & s1) != 0 && (g.right(e) & s2) != 0) {
+                outer = s1;
+                inner = s2;
+            } else if ((g.left(e) & s2) != 0 && (g.right(e) & s1) != 0) {
+                outer = s2;
+                inner = s1;
             } else {
-                // don't consider this plan if one of j.t1 or j.t2
-                // isn't a table joined in prevBest (cross product)
-                return null;
+                continue;
+            }
+            // 两种内外表顺序下各自选出代价最小的连接算法；子查询只能作内表
+            for (int swap = 0; swap < 2; swap++) {
+                LogicalJoinNode j = swap == 0 ? g.edge(e) : g.swappedEdge(e);
+                if (swap == 1 && j instanceof LogicalSubplanJoinNode) {
+                    break;
+                }
+                long o = swap == 0 ? outer : inner;
+                long i = swap == 0 ? inner : outer;
+                CostCard po = pc.getPlan(o), pi = pc.getPlan(i);
+                TableStats so = relationStats(g, o, stats), si = relationStats(g, i, stats);
+                LogicalJoinNode.Algorithm algorithm = cheapestAlgorithm(j, po.card, pi.card, po.cost, pi.cost, so, si);
+                double cost = estimateJoinCost(j, algorithm, po.card, pi.card, po.cost, pi.cost, so, si);
+                if (best == null || cost < bestCost) {
+                    best = j;
+                    bestAlgorithm = algorithm;
+                    bestCost = cost;
+                    bestEdge = e;
+                    bestOuter = o;
+                    bestInner = i;
+                }
             }
         }
-
-        // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
-
-        LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
-        if (cost2 < cost1) {
-            boolean tmp;
-            j = j2;
-            cost1 = cost2;
-            tmp = rightPkey;
-            rightPkey = leftPkey;
-            leftPkey = tmp;
-        }
-        if (cost1 >= bestCostSoFar) {
+        if (best == null || bestCost >= bestCostSoFar) {
             return null;
         }
 
+        LogicalJoinNode j = best;
+        if (!(j instanceof LogicalSubplanJoinNode)) {
+            // 连接节点也出现在其他集合的计划里，算法记在副本上
+            j = new LogicalJoinNode(j.t1Alias, j.t2Alias, j.f1PureName, j.f2PureName, j.p);
+            j.algorithm = bestAlgorithm;
+        }
+        CostCard po = pc.getPlan(bestOuter), pi = pc.getPlan(bestInner);
         CostCard cc = new CostCard();
-
-        cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey,
-                rightPkey, stats);
-        cc.cost = cost1;
-        cc.plan = new ArrayList<>(prevBest);
-        cc.plan.add(j); // prevbest is left -- add new join to end
+        cc.card = estimateJoinCardinality(j, po.card, pi.card,
+                hasPkey(bestOuter, j.t1Alias, j.f1PureName, po.plan),
+                hasPkey(bestInner, j.t2Alias, j.f2PureName, pi.plan), stats);
+        cc.cost = bestCost;
+        cc.plan = new ArrayList<>(po.plan.size() + pi.plan.size() + 1);
+        cc.plan.addAll(po.plan);
+        cc.plan.addAll(pi.plan);
+        cc.plan.add(j);
+        for (int e = 0; e < g.numEdges(); e++) {
+            if (e != bestEdge && ((g.left(e) | g.right(e)) & s1) != 0 && ((g.left(e) | g.right(e)) & s2) != 0) {
+                cc.plan.add(g.edge(e));
+            }
+        }
         return cc;
     }
 
     /**
-     * Return true if the specified table is in the list of joins, false
-     * otherwise
+     * Return true if the side of a join made of the relations s, joined by
+     * the plan order, is a primary key: the table aliased alias joined on its
+     * primary key field, or a plan that joins a primary key
      */
-    private boolean doesJoin(List<LogicalJoinNode> joinlist, String table) {
-        for (LogicalJoinNode j : joinlist) {
-            if (j.t1Alias.equals(table)
-                    || (j.t2Alias != null && j.t2Alias.equals(table))) {
-                return true;
-            }
+    private boolean hasPkey(long s, String alias, String field, List<LogicalJoinNode> order) {
+        if (Long.bitCount(s) == 1) {
+            return alias != null && isPkey(alias, field);
         }
-        return false;
+        return hasPkey(order);
     }
 
     /**
@@ -493,16 +1044,10 @@ public class JoinOptimizer {
      *            the join plan to visualize
      * @param pc
      *            the PlanCache accumulated whild building the optimal plan
-     * @param stats
-     *            table statistics for base tables
-     * @param selectivities
-     *            the selectivities of the filters over each of the tables
-     *            (where tables are indentified by their alias or name if no
-     *            alias is given)
+     * @param g
+     *            the join graph whose relations index the plans of pc
      */
-    private void printJoins(List<LogicalJoinNode> js, PlanCache pc,
-            Map<String, TableStats> stats,
-            Map<String, Double> selectivities) {
+    private void printJoins(List<LogicalJoinNode> js, PlanCache pc, JoinGraph g) {
 
         JFrame f = new JFrame("Join Plan for " + p.getQuery());
 
@@ -514,77 +1059,37 @@ public class JoinOptimizer {
 
         f.setSize(300, 500);
 
-        Map<String, DefaultMutableTreeNode> m = new HashMap<>();
-
-        // int numTabs = 0;
-
-        // int k;
-        DefaultMutableTreeNode root = null, treetop = null;
-        HashSet<LogicalJoinNode> pathSoFar = new HashSet<>();
-        boolean neither;
+        // 每个关系当前所在的子计划，以及子计划的树节点
+        long[] part = new long[g.size()];
+        Map<Long, DefaultMutableTreeNode> m = new HashMap<>();
+        for (int r = 0; r < g.size(); r++) {
+            part[r] = 1L << r;
+            m.put(part[r], new DefaultMutableTreeNode(g.alias(r) == null ? "Subplan"
+                    : (g.alias(r) + " (Cost = " + pc.getCost(part[r])
+                            + ", card = " + pc.getCard(part[r]) + ")")));
+        }
+        DefaultMutableTreeNode treetop = null;
 
         System.out.println(js);
         for (LogicalJoinNode j : js) {
-            pathSoFar.add(j);
-            System.out.println("PATH SO FAR = " + pathSoFar);
-
-            String table1Name = Database.getCatalog().getTableName(
-                    this.p.getTableId(j.t1Alias));
-            String table2Name = Database.getCatalog().getTableName(
-                    this.p.getTableId(j.t2Alias));
-
-            // Double c = pc.getCost(pathSoFar);
-            neither = true;
-
-            root = new DefaultMutableTreeNode("Join " + j + " (Cost ="
-                    + pc.getCost(pathSoFar) + ", card = "
-                    + pc.getCard(pathSoFar) + ")");
-            DefaultMutableTreeNode n = m.get(j.t1Alias);
-            if (n == null) { // never seen this table before
-                n = new DefaultMutableTreeNode(j.t1Alias
-                        + " (Cost = "
-                        + stats.get(table1Name).estimateScanCost()
-                        + ", card = "
-                        + stats.get(table1Name).estimateTableCardinality(
-                                selectivities.get(j.t1Alias)) + ")");
-                root.add(n);
-            } else {
-                // make left child root n
-                root.add(n);
-                neither = false;
+            long s1 = part[Long.numberOfTrailingZeros(g.relationOf(j.t1Alias))];
+            long s2 = part[Long.numberOfTrailingZeros(g.relationOfInner(j))];
+            if (s1 == s2) {
+                // closes a cycle of the join graph within one subplan
+                continue;
             }
-            m.put(j.t1Alias, root);
-
-            n = m.get(j.t2Alias);
-            if (n == null) { // never seen this table before
-
-                n = new DefaultMutableTreeNode(
-                        j.t2Alias == null ? "Subplan"
-                                : (j.t2Alias
-                                        + " (Cost = "
-                                        + stats.get(table2Name)
-                                                .estimateScanCost()
-                                        + ", card = "
-                                        + stats.get(table2Name)
-                                                .estimateTableCardinality(
-                                                        selectivities
-                                                                .get(j.t2Alias)) + ")"));
-                root.add(n);
-            } else {
-                // make right child root n
-                root.add(n);
-                neither = false;
+            long s = s1 | s2;
+            System.out.println("PATH SO FAR = " + pc.getOrder(s));
+
+            DefaultMutableTreeNode root = new DefaultMutableTreeNode("Join " + j + " (Cost ="
+                    + pc.getCost(s) + ", card = "
+                    + pc.getCard(s) + ")");
+            root.add(m.get(s1));
+            root.add(m.get(s2));
+            m.put(s, root);
+            for (long rest = s; rest != 0; rest &= rest - 1) {
+                part[Long.numberOfTrailingZeros(rest)] = s;
             }
-            m.put(j.t2Alias, root);
-
-            // unless this table doesn't join with other tables,
-            // all tables are accessed from root
-            if (!neither) {
-                for (String key : m.keySet()) {
-                    m.put(key, root);
-                }
-            }
-
             treetop = root;
         }
 
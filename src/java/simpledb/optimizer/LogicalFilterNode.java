@@ -6,7 +6,9 @@ import simpledb.execution.Predicate;
     <p>
     Filter is of the form t.f p c
     <p>
-    Where t is a table, f is a field in t, p is a predicate, and c is a constant
+    Where t is a table, f is a field in t, p is a predicate, and c is a constant,
+    or a parameter of a prepared statement that is bound to a constant when the
+    plan is run
 */
 public class LogicalFilterNode {
     /** The alias of a table (or the name if no alias) over which the filter ranges */
@@ -15,8 +17,11 @@ public class LogicalFilterNode {
     /** The predicate in the filter */
     public final Predicate.Op p;
     
-    /* The constant on the right side of the filter */
+    /* The constant on the right side of the filter, null for a parameter */
     public final String c;
+
+    /** The number of the parameter on the right side of the filter, from 0, or -1 for a constant */
+    public final int param;
     
     /** The field from t which is in the filter. The pure name, without alias or tablename*/
     public final String fieldPureName;
@@ -24,9 +29,19 @@ public class LogicalFilterNode {
     public final String fieldQuantifiedName;
     
     public LogicalFilterNode(String table, String field, Predicate.Op pred, String constant) {
+        this(table, field, pred, constant, -1);
+    }
+
+    /** A filter comparing field with parameter param, which is bound later */
+    public LogicalFilterNode(String table, String field, Predicate.Op pred, int param) {
+        this(table, field, pred, null, param);
+    }
+
+    private LogicalFilterNode(String table, String field, Predicate.Op pred, String constant, int param) {
         tableAlias = table;
         p = pred;
         c = constant;
+        this.param = param;
         String[] tmps = field.split("[.]");
         if (tmps.length>1)
             fieldPureName = tmps[tmps.length-1];
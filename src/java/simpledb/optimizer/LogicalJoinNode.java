@@ -25,6 +25,24 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** The join algorithms the optimizer chooses from */
+    public enum Algorithm {
+        /** a {@link simpledb.execution.BlockNestedLoopJoin}, for any predicate */
+        NESTED_LOOP,
+        /** a {@link simpledb.execution.HashEquiJoin} building on t1, for equality */
+        HASH,
+        /** a {@link simpledb.execution.SortMergeJoin}, for equality and range predicates */
+        SORT_MERGE,
+        /** an {@link simpledb.execution.IndexNestedLoopJoin} searching an index on t2.f2
+         * for each tuple of t1 */
+        INDEX_NESTED_LOOP
+    }
+
+    /** The algorithm the optimizer found cheapest for this join, or null if it
+     * was not chosen by cost, in which case the join is instantiated by the
+     * predicate and the order of the inputs */
+    public Algorithm algorithm;
+
     public LogicalJoinNode() {
     }
 
@@ -4,6 +4,11 @@ import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.IndexOnlyScan;
+import simpledb.index.IndexScan;
+import simpledb.index.SecondaryIndex;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionId;
 
@@ -15,9 +20,8 @@ import java.io.File;
  * the parser and is ready to be processed by the optimizer.
  * <p>
  * A LogicalPlan consits of a collection of table scan nodes, join
- * nodes, filter nodes, a select list, and a group by field.
- * LogicalPlans can only represent queries with one aggregation field
- * and one group by field.
+ * nodes, filter nodes, a select list, group by fields and the
+ * aggregates computed over each group.
  * <p>
  * LogicalPlans can be converted to physical (optimized) plans using
  * the {@link #physicalPlan} method, which uses the
@@ -28,17 +32,24 @@ public class LogicalPlan {
     private List<LogicalJoinNode> joins;
     private final List<LogicalScanNode> tables;
     private final List<LogicalFilterNode> filters;
+    // 不能表示为字段与常量比较的过滤条件
+    private final List<Expression> expressionFilters = new ArrayList<>();
     private final Map<String, OpIterator> subplanMap;
     private final Map<String,Integer> tableMap;
 
     private final List<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private final List<String> groupByFields = new ArrayList<>();
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private final List<String> aggOps = new ArrayList<>();
+    private final List<String> aggFields = new ArrayList<>();
+    private boolean hasOrderBy = false;
+    private final List<String> oByFields = new ArrayList<>();
+    private final List<Boolean> oByAscs = new ArrayList<>();
+    private int limit = -1;
     private String query;
+    private int numParameters = 0;
+    // joins已按JoinOptimizer选出的顺序排列，之后转换为物理计划时不再排序
+    private volatile boolean joinsOrdered = false;
 //    private Query owner;
 
     /** Constructor -- generate an empty logical plan */
@@ -53,6 +64,33 @@ public class LogicalPlan {
         this.query = "";
     }
 
+    /** A copy of plan whose parameters are bound to the given values.  The nodes of plan
+        are shared, and the copy is converted to a physical plan without modifying plan */
+    private LogicalPlan(LogicalPlan plan, List<String> parameters) {
+        this();
+        query = plan.query;
+        joinsOrdered = plan.joinsOrdered;
+        joins = plan.joins;
+        tables.addAll(plan.tables);
+        tableMap.putAll(plan.tableMap);
+        for (LogicalFilterNode lf : plan.filters) {
+            filters.add(lf.param < 0 ? lf
+                    : new LogicalFilterNode(lf.tableAlias, lf.fieldPureName, lf.p, parameters.get(lf.param)));
+        }
+        for (Expression e : plan.expressionFilters) {
+            expressionFilters.add(e.bind(parameters));
+        }
+        selectList.addAll(plan.selectList);
+        groupByFields.addAll(plan.groupByFields);
+        hasAgg = plan.hasAgg;
+        aggOps.addAll(plan.aggOps);
+        aggFields.addAll(plan.aggFields);
+        hasOrderBy = plan.hasOrderBy;
+        oByFields.addAll(plan.oByFields);
+        oByAscs.addAll(plan.oByAscs);
+        limit = plan.limit;
+    }
+
     /** Set the text of the query representing this logical plan.  Does NOT parse the
         specified query -- this method is just used so that the object can print the
         SQL it represents.
@@ -108,6 +146,59 @@ public class LogicalPlan {
         filters.add(lf);
     }
 
+    /** Add a filter comparing a field with the next parameter of the query, the ? of a
+     *   prepared statement, whose value is given to
+     *   {@link #physicalPlan(TransactionId, Map, boolean, List)}.  Parameters are numbered
+     *   from 0 in the order they are added.
+     *   @param field The name of the field, as for {@link #addFilter}
+     *   @param p The predicate for the filter
+     *   @throws ParsingException if field is not in one of the tables added via
+     *   {@link #addScan} or if field is ambiguous
+     */
+    public void addParameterFilter(String field, Predicate.Op p) throws ParsingException {
+        field = disambiguateName(field);
+        String table = field.split("[.]")[0];
+
+        filters.add(new LogicalFilterNode(table, field.split("[.]")[1], p, numParameters++));
+    }
+
+    /** Add a parameter of the query that is an operand of an expression filter.
+     *  @return the number of the parameter, for {@link Expression#parameter}
+     */
+    public int addParameter() {
+        return numParameters++;
+    }
+
+    /** @return the number of parameters added via {@link #addParameterFilter} and {@link #addParameter} */
+    public int numParameters() {
+        return numParameters;
+    }
+
+    /** Add a filter that is evaluated as an expression, such as an OR of comparisons.  It is
+     *   applied to its table if it only reads fields of one table, and to the result of the joins
+     *   otherwise.
+     *   @param e a condition on the qualified names (alias.field) of fields of the tables added
+     *   via {@link #addScan}, and parameters added via {@link #addParameter}
+     *   @throws ParsingException if e reads a field of an unknown table
+     */
+    public void addExpressionFilter(Expression e) throws ParsingException {
+        for (String alias : aliasesOf(e)) {
+            if (!tableMap.containsKey(alias))
+                throw new ParsingException("Unknown table in WHERE clause " + alias);
+        }
+        expressionFilters.add(e);
+    }
+
+    /** @return the aliases of the tables whose fields an expression reads */
+    private static Set<String> aliasesOf(Expression e) {
+        List<String> columns = new ArrayList<>();
+        e.columns(columns);
+        Set<String> aliases = new HashSet<>();
+        for (String c : columns)
+            aliases.add(c.split("[.]")[0]);
+        return aliases;
+    }
+
     /** Add a join between two fields of two different tables.  
      *  @param joinField1 The name of the first join field; this can
      *  be a fully qualified name (e.g., tableName.field or
@@ -179,7 +270,8 @@ public class LogicalPlan {
     */
     public void addProjectField(String fname, String aggOp) throws ParsingException {
         fname=disambiguateName(fname);
-        if (fname.equals("*"))
+        // COUNT(*) counts the tuples; a plain * selects every field
+        if (fname.equals("*") && aggOp == null)
             fname="null.*";
         System.out.println("Added select list field " + fname);
         if (aggOp != null) {
@@ -188,37 +280,60 @@ public class LogicalPlan {
         selectList.add(new LogicalSelectListNode(aggOp, fname));
     }
     
-    /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+    /** Add an aggregate over the field to the query.  All the aggregates of a query are
+        computed in one pass, over the groups of every GROUP BY field added.
         @param op the aggregation operator
-        @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param afield the field to aggregate over, or * for COUNT(*)
+        @param gfield a field to group by, or null; it is added once however many
+        aggregates name it
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
         afield=disambiguateName(afield);
+        aggOps.add(op);
+        aggFields.add(afield);
         if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+            addGroupBy(gfield);
         hasAgg = true;
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add a GROUP BY field to the query.  Groups are keyed on the GROUP BY fields in the
+        order they are added.
+        @param gfield the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupBy(String gfield) throws ParsingException {
+        gfield=disambiguateName(gfield);
+        if (!groupByFields.contains(gfield))
+            groupByFields.add(gfield);
+    }
+
+    /** Add an ORDER BY expression in the specified order on the specified field.  Fields are
+        ordered on in the order they are added: ties on the first field are ordered by the second,
+        and so on.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      * @throws ParsingException 
     */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
+        oByFields.add(field);
+        oByAscs.add(asc);
         hasOrderBy = true;
     }
 
+    /** Return only the first n tuples of the result, in the ORDER BY order if there is one.
+        @param n the number of tuples to return, or -1 for all of them
+    */
+    public void setLimit(int n) {
+        limit = n;
+    }
+
+    /** @return the number of tuples the query returns at most, or -1 if it has no LIMIT */
+    public int getLimit() {
+        return limit;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -226,7 +341,7 @@ public class LogicalPlan {
      *  @throws ParsingException if the field cannot be found in any of the tables, or if the
      *   field is ambiguous (appears in multiple tables)
      */
-    String disambiguateName(String name) throws ParsingException {
+    public String disambiguateName(String name) throws ParsingException {
 
         String[] fields = name.split("[.]");
         if (fields.length == 2 && (!fields[0].equals("null")))
@@ -288,16 +403,47 @@ public class LogicalPlan {
      *  @return A OpIterator representing this plan.
      */ 
     public OpIterator physicalPlan(TransactionId t, Map<String,TableStats> baseTableStats, boolean explain) throws ParsingException {
+        for (LogicalFilterNode lf : filters) {
+            if (lf.c == null)
+                throw new ParsingException("Parameter " + (lf.param + 1) + " of the query is not bound");
+        }
         Iterator<LogicalScanNode> tableIt = tables.iterator();
         Map<String,String> equivMap = new HashMap<>();
         Map<String,Double> filterSelectivities = new HashMap<>();
         Map<String,TableStats> statsMap = new HashMap<>();
+        // 结果已经按ORDER BY字段有序时，不需要再排序
+        boolean sortedByScan = false;
+        // 过滤条件已下推到顺序扫描中的表
+        Set<String> pushedDown = new HashSet<>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
-            SeqScan ss = null;
+            OpIterator ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+                TupleDesc td = file.getTupleDesc();
+                IndexPredicate ipred = null;
+                if (file instanceof BTreeFile) {
+                    ipred = chooseIndexPredicate(table.alias, td, ((BTreeFile) file).keyFields());
+                }
+                if (file instanceof BTreeFile && isOrderedByKey(table.alias, td, ((BTreeFile) file).keyFields())) {
+                    // read the tree in the order asked for instead of sorting the result
+                    ss = new BTreeScan(t, file.getId(), table.alias, ipred, !oByAscs.get(0));
+                    sortedByScan = true;
+                } else if (ipred != null || file instanceof BTreeFile
+                        && isGroupedByKey(table.alias, td, ((BTreeFile) file).keyFields())) {
+                    // a scan of the tree returns the groups one after the other, for a streaming aggregate
+                    ss = new BTreeScan(t, file.getId(), table.alias, ipred);
+                } else {
+                    ss = chooseSecondaryIndexScan(t, table, td,
+                            baseTableStats.get(Database.getCatalog().getTableName(table.t)));
+                    if (ss == null && file instanceof HeapFile) {
+                        ss = pushDownScan(t, table, td);
+                        pushedDown.add(table.alias);
+                    } else if (ss == null) {
+                        ss = new SeqScan(t, file.getId(), table.alias);
+                    }
+                }
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -315,39 +461,47 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lf.tableAlias);
             }
 
-            Field f;
-            Type ftyp;
-            TupleDesc td = subplanMap.get(lf.tableAlias).getTupleDesc();
-
-            try {//td.fieldNameToIndex(disambiguateName(lf.fieldPureName))
-                ftyp = td.getFieldType(td.fieldNameToIndex(lf.fieldQuantifiedName));
-            } catch (NoSuchElementException e) {
-                throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
-            }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c));
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
-
-            Predicate p = null;
-            try {
-                p = new Predicate(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
-            } catch (NoSuchElementException e) {
-                throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
+            // the statistics are indexed by the fields of the table, which an index-only scan may not all return
+            Predicate tp = tablePredicate(lf);
+            if (!pushedDown.contains(lf.tableAlias)) {
+                Predicate p = null;
+                try {
+                    p = new Predicate(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, tp.getOperand());
+                } catch (NoSuchElementException e) {
+                    throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
+                }
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
-            double sel = s.estimateSelectivity(subplan.getTupleDesc().fieldNameToIndex(lf.fieldQuantifiedName), lf.p, f);
+            double sel = s.estimateSelectivity(tp.getField(), lf.p, tp.getOperand());
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+
+        // 只读取一张表的表达式在连接前过滤，其余的在所有连接之后
+        List<Expression> afterJoins = new ArrayList<>();
+        for (Expression e : expressionFilters) {
+            Set<String> aliases = aliasesOf(e);
+            if (aliases.size() != 1) {
+                afterJoins.add(e);
+                continue;
+            }
+            String alias = aliases.iterator().next();
+            subplanMap.put(alias, expressionFilter(e, subplanMap.get(alias)));
+            int tableId = this.getTableId(alias);
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(tableId));
+            double sel = e.estimateSelectivity(s, alias, Database.getCatalog().getTupleDesc(tableId));
+            filterSelectivities.put(alias, filterSelectivities.get(alias) * sel);
+        }
         
-        JoinOptimizer jo = new JoinOptimizer(this,joins);
+        if (!joinsOrdered) {
+            JoinOptimizer jo = new JoinOptimizer(this,joins);
 
-        joins = jo.orderJoins(statsMap,filterSelectivities,explain);
+            joins = jo.orderJoins(statsMap,filterSelectivities,explain);
+        }
 
         for (LogicalJoinNode lj : joins) {
             OpIterator plan1;
@@ -381,7 +535,7 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
 
             OpIterator j;
-            j = JoinOptimizer.instantiateJoin(lj, plan1, plan2);
+            j = JoinOptimizer.instantiateJoin(lj, plan1, plan2, t);
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
@@ -406,35 +560,45 @@ public class LogicalPlan {
         }
         
         OpIterator node = subplanMap.entrySet().iterator().next().getValue();
+        for (Expression e : afterJoins)
+            node = expressionFilter(e, node);
 
         //walk the select list, to determine order in which to project output fields
         List<Integer> outFields = new ArrayList<>();
         List<Type> outTypes = new ArrayList<>();
+        // 聚合的输出为所有分组字段，之后依次是每个聚合
+        List<String> aggKeys = new ArrayList<>();
+        for (int i = 0; i < aggOps.size(); i++)
+            aggKeys.add(aggOps.get(i).toUpperCase() + "(" + aggFields.get(i) + ")");
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.get(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                int agg = aggKeys.indexOf(si.aggOp.toUpperCase() + "(" + si.fname + ")");
+                if (agg < 0)
+                    throw new ParsingException("Aggregate " + si.aggOp + "(" + si.fname + ") was not added to the plan");
+                outFields.add(groupByFields.size() + agg);
                 TupleDesc td = node.getTupleDesc();
-//                int  id;
-                try {
-//                    id = 
-                    td.fieldNameToIndex(si.fname);
-                } catch (NoSuchElementException e) {
-                    throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
+                if (!si.fname.equals("*")) {
+                    try {
+                        td.fieldNameToIndex(si.fname);
+                    } catch (NoSuchElementException e) {
+                        throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
+                    }
                 }
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int g = groupByFields.indexOf(si.fname);
+                    if (g < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(g);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -459,25 +623,424 @@ public class LogicalPlan {
 
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
+            OpIterator aggNode;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
+                int[] gfields = new int[groupByFields.size()];
+                for (int i = 0; i < gfields.length; i++)
+                    gfields[i] = td.fieldNameToIndex(groupByFields.get(i));
+                int[] afields = new int[aggFields.size()];
+                Aggregator.Op[] ops = new Aggregator.Op[aggOps.size()];
+                for (int i = 0; i < afields.length; i++) {
+                    // COUNT(*)只计数元组，任取第一个字段
+                    afields[i] = aggFields.get(i).equals("*") ? 0 : td.fieldNameToIndex(aggFields.get(i));
+                    ops[i] = getAggOp(aggOps.get(i));
+                }
+                if (gfields.length > 0 && JoinOptimizer.isGroupedOn(node, gfields)) {
+                    // 输入已按分组字段有序，每个分组结束时即可输出，不需要哈希表
+                    aggNode = new StreamAggregate(node, afields, ops, gfields);
+                } else {
+                    aggNode = new Aggregate(node, afields, ops, gfields);
+                }
             } catch (NoSuchElementException | IllegalArgumentException e) {
                 throw new simpledb.ParsingException(e);
             }
             node = aggNode;
+            if (hasOrderBy && oByFields.size() == 1) {
+                // a streaming aggregate keeps the order of its input on the first group-by field
+                int field = node.getTupleDesc().fieldNameToIndex(oByFields.get(0));
+                sortedByScan = JoinOptimizer.isSortedOn(node, field, oByAscs.get(0));
+            }
         }
 
-        if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+        if (hasOrderBy && !sortedByScan) {
+            TupleDesc td = node.getTupleDesc();
+            int[] fields = new int[oByFields.size()];
+            boolean[] ascs = new boolean[oByFields.size()];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = td.fieldNameToIndex(oByFields.get(i));
+                ascs[i] = oByAscs.get(i);
+            }
+            if (limit >= 0) {
+                // 只保留前limit个元组，不需要排序整个输入
+                node = new TopN(fields, ascs, limit, node);
+            } else {
+                node = new OrderBy(fields, ascs, node);
+            }
+        } else if (limit >= 0) {
+            // the result is already in order, or in no particular order: stop reading it after limit tuples
+            node = new Limit(limit, node);
         }
 
         return new Project(outFields, outTypes, node);
     }
 
+    /** Convert this LogicalPlan into a physical plan, as {@link #physicalPlan(TransactionId, Map, boolean)}
+     *   does, with its parameters bound to the given values.  The joins are ordered the first time,
+     *   using the selectivities of the first values, and later calls keep that order, so that a
+     *   query run many times with different values is optimized once.  Otherwise this LogicalPlan is
+     *   not modified, and several threads may convert it at once.
+     *  @param parameters the value of each parameter, in the order they were added via
+     *    {@link #addParameterFilter}; the value of an integer field is a String representing an integer
+     *  @throws ParsingException if there is not one value per parameter, or the plan is not valid
+     *  @return A OpIterator representing this plan.
+     */
+    public OpIterator physicalPlan(TransactionId t, Map<String,TableStats> baseTableStats, boolean explain,
+                                   List<String> parameters) throws ParsingException {
+        if (parameters.size() != numParameters)
+            throw new ParsingException("Expected " + numParameters + " parameters, got " + parameters.size());
+        LogicalPlan bound = new LogicalPlan(this, parameters);
+        OpIterator plan = bound.physicalPlan(t, baseTableStats, explain);
+        if (!joinsOrdered) {
+            joins = bound.joins;
+            joinsOrdered = true;
+        }
+        return plan;
+    }
+
+    /** Returns a filter on an expression, compiled for the schema of its child
+     *  @throws ParsingException if the expression is not a valid condition on the fields of child
+     */
+    private static Filter expressionFilter(Expression e, OpIterator child) throws ParsingException {
+        try {
+            return new Filter(e, child);
+        } catch (NoSuchElementException | IllegalArgumentException ex) {
+            throw new ParsingException("Invalid expression " + e + ": " + ex.getMessage());
+        }
+    }
+
+    /** Returns the predicate of a filter on the fields of its table
+     *  @throws ParsingException if the field of the filter is not in the table
+     */
+    private Predicate tablePredicate(LogicalFilterNode lf) throws ParsingException {
+        TupleDesc td = Database.getCatalog().getTupleDesc(this.getTableId(lf.tableAlias));
+        int field;
+        try {
+            field = td.fieldNameToIndex(lf.fieldPureName);
+        } catch (NoSuchElementException e) {
+            throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
+        }
+        return new Predicate(field, lf.p, constantField(td.getFieldType(field), lf.c));
+    }
+
+    /** Returns a sequential scan of a heap file that evaluates the filters of the table and
+     *  returns only the fields of the table that the rest of the query reads, so that joins and
+     *  aggregates above it handle narrower tuples.
+     *  @param table the table
+     *  @param td the schema of the table
+     */
+    private SeqScan pushDownScan(TransactionId t, LogicalScanNode table, TupleDesc td) throws ParsingException {
+        List<Predicate> predicates = new ArrayList<>();
+        for (LogicalFilterNode lf : filters) {
+            if (lf.tableAlias.equals(table.alias))
+                predicates.add(tablePredicate(lf));
+        }
+        int[] fields = null;
+        Set<String> read = fieldsRead(table.alias, false);
+        if (read != null) {
+            List<Integer> kept = new ArrayList<>();
+            for (int i = 0; i < td.numFields(); i++) {
+                if (read.contains(td.getFieldName(i)))
+                    kept.add(i);
+            }
+            // COUNT(*)之类不读取任何字段时，保留第一个字段
+            if (kept.isEmpty())
+                kept.add(0);
+            if (kept.size() < td.numFields()) {
+                fields = new int[kept.size()];
+                for (int i = 0; i < fields.length; i++)
+                    fields[i] = kept.get(i);
+            }
+        }
+        return new SeqScan(t, table.t, table.alias, predicates.toArray(new Predicate[0]), fields);
+    }
+
+    /** Convert the constant of a filter into a Field of the given type */
+    private static Field constantField(Type type, String constant) {
+        if (type == Type.INT_TYPE)
+            return new IntField(Integer.parseInt(constant));
+        else
+            return new StringField(constant, Type.STRING_LEN);
+    }
+
+    /** Returns true if this query reads a single table and groups it on the leading key fields of
+     *  a B+ tree on that table, in any order, so that scanning the tree returns the tuples of each
+     *  group one after the other.
+     *  @param alias the alias of the table in this plan
+     *  @param td the schema of the table
+     *  @param keyFields the fields of the table the B+ tree is keyed on
+     */
+    private boolean isGroupedByKey(String alias, TupleDesc td, int[] keyFields) {
+        if (!hasAgg || groupByFields.isEmpty() || !joins.isEmpty() || tables.size() != 1
+                || groupByFields.size() > keyFields.length)
+            return false;
+        for (int i = 0; i < groupByFields.size(); i++) {
+            if (!groupByFields.contains(alias + "." + td.getFieldName(keyFields[i])))
+                return false;
+        }
+        return true;
+    }
+
+    /** Returns true if this query reads a single table, without aggregation, and orders the
+     *  result on leading key fields of a B+ tree on that table, all in the same direction, so
+     *  that scanning the tree in key order (or in reverse for a descending order) produces the
+     *  result already sorted.
+     *  @param alias the alias of the table in this plan
+     *  @param td the schema of the table
+     *  @param keyFields the fields of the table the B+ tree is keyed on
+     */
+    private boolean isOrderedByKey(String alias, TupleDesc td, int[] keyFields) {
+        if (!hasOrderBy || hasAgg || !joins.isEmpty() || tables.size() != 1
+                || oByFields.size() > keyFields.length)
+            return false;
+        for (int i = 0; i < oByFields.size(); i++) {
+            if (!oByFields.get(i).equals(alias + "." + td.getFieldName(keyFields[i]))
+                    || !oByAscs.get(i).equals(oByAscs.get(0)))
+                return false;
+        }
+        return true;
+    }
+
+    /** Choose a predicate with which a B+ tree keyed on fields of a table can be searched
+     *  instead of scanning the whole table, using the filters on that table.
+     *  <p>
+     *  Equality filters on the leading key fields become an equality search on that key
+     *  prefix (a {@link CompositeField} if there are several). Range filters on the key field
+     *  that follows the prefix narrow it down to a range, bounded on both sides if there is
+     *  both a lower and an upper bound: with a prefix, from (prefix, lower) to (prefix, upper),
+     *  where a missing bound is the prefix itself.  The filters themselves are still
+     *  applied above the scan, so the index only has to narrow down the tuples read.
+     *
+     *  @param alias the alias of the table in this plan
+     *  @param td the schema of the table
+     *  @param keyFields the fields of the table the B+ tree is keyed on
+     *  @return the predicate to search the index with, or null if no filter can use it
+     */
+    private IndexPredicate chooseIndexPredicate(String alias, TupleDesc td, int[] keyFields) {
+        List<Field> prefix = new ArrayList<>();
+        for (int k : keyFields) {
+            LogicalFilterNode eq = null;
+            for (LogicalFilterNode lf : filters) {
+                if (lf.tableAlias.equals(alias) && lf.p == Predicate.Op.EQUALS
+                        && lf.fieldPureName.equals(td.getFieldName(k))) {
+                    eq = lf;
+                    break;
+                }
+            }
+            if (eq == null)
+                break;
+            prefix.add(constantField(td.getFieldType(k), eq.c));
+        }
+        IndexPredicate equality = null;
+        if (prefix.size() == 1)
+            equality = new IndexPredicate(Predicate.Op.EQUALS, prefix.get(0));
+        else if (prefix.size() > 1)
+            equality = new IndexPredicate(Predicate.Op.EQUALS, new CompositeField(prefix.toArray(new Field[0])));
+        if (prefix.size() == keyFields.length)
+            return equality;
+
+        int next = keyFields[prefix.size()];
+        LogicalFilterNode lower = null, upper = null;
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.tableAlias.equals(alias) || !lf.fieldPureName.equals(td.getFieldName(next)))
+                continue;
+            switch (lf.p) {
+                case GREATER_THAN:
+                case GREATER_THAN_OR_EQ:
+                    if (lower == null)
+                        lower = lf;
+                    break;
+                case LESS_THAN:
+                case LESS_THAN_OR_EQ:
+                    if (upper == null)
+                        upper = lf;
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (lower == null && upper == null)
+            return equality;
+        Type type = td.getFieldType(next);
+        if (prefix.isEmpty()) {
+            if (lower != null && upper != null)
+                return new IndexPredicate(lower.p, constantField(type, lower.c), upper.p, constantField(type, upper.c));
+            if (lower != null)
+                return new IndexPredicate(lower.p, constantField(type, lower.c));
+            return new IndexPredicate(upper.p, constantField(type, upper.c));
+        }
+        // 前缀只比较共有的字段，所以缺少的一边用前缀本身作为边界
+        CompositeField all = new CompositeField(prefix.toArray(new Field[0]));
+        Field lo = all;
+        Predicate.Op loOp = Predicate.Op.GREATER_THAN_OR_EQ;
+        if (lower != null) {
+            lo = withField(prefix, constantField(type, lower.c));
+            loOp = lower.p;
+        }
+        Field hi = all;
+        Predicate.Op hiOp = Predicate.Op.LESS_THAN_OR_EQ;
+        if (upper != null) {
+            hi = withField(prefix, constantField(type, upper.c));
+            hiOp = upper.p;
+        }
+        return new IndexPredicate(loOp, lo, hiOp, hi);
+    }
+
+    /** @return the composite key of the fields of prefix followed by f */
+    private static CompositeField withField(List<Field> prefix, Field f) {
+        Field[] fields = prefix.toArray(new Field[prefix.size() + 1]);
+        fields[prefix.size()] = f;
+        return new CompositeField(fields);
+    }
+
+    /** Choose the cheapest way of reading a table through one of its secondary indexes, if
+     *  any is cheaper than a sequential scan of the table according to its statistics.
+     *  <p>
+     *  An index that stores every field the query reads is answered with an {@link IndexOnlyScan};
+     *  otherwise an {@link IndexScan} fetches the matching tuples from the table, which only pays
+     *  off for selective predicates.
+     *
+     *  @param t the transaction the scan will run as a part of
+     *  @param table the table to read
+     *  @param td the schema of the table
+     *  @param stats the statistics of the table, or null if there are none
+     *  @return the index scan to read the table with, or null if the table should be scanned
+     */
+    private OpIterator chooseSecondaryIndexScan(TransactionId t, LogicalScanNode table, TupleDesc td, TableStats stats) {
+        if (stats == null)
+            return null;
+        OpIterator best = null;
+        double bestCost = stats.estimateScanCost();
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(table.t)) {
+            IndexPredicate ipred = chooseIndexPredicate(table.alias, td, index.getKeyFields());
+            if (ipred == null)
+                continue;
+            double sel = indexSelectivity(stats, index.getKeyFields(), ipred);
+            if (coversQuery(index, table.alias, td)) {
+                double cost = stats.estimateIndexOnlyScanCost(index, sel);
+                if (cost < bestCost) {
+                    best = new IndexOnlyScan(t, index, table.alias, ipred);
+                    bestCost = cost;
+                }
+            } else {
+                double cost = stats.estimateIndexScanCost(index, sel);
+                if (cost < bestCost) {
+                    best = new IndexScan(t, index, table.alias, ipred);
+                    bestCost = cost;
+                }
+            }
+        }
+        return best;
+    }
+
+    /** Estimate the selectivity of a predicate chosen by {@link #chooseIndexPredicate}: the product
+     *  of the selectivities of the equalities on a key prefix, and of the range on the key field
+     *  after it if there is one.
+     */
+    private static double indexSelectivity(TableStats stats, int[] keyFields, IndexPredicate ipred) {
+        Field[] lower = fieldsOf(ipred.getField());
+        if (ipred.getUpperField() == null) {
+            double sel = 1.0;
+            for (int i = 0; i < lower.length; i++) {
+                sel *= stats.estimateSelectivity(keyFields[i], ipred.getOp(), lower[i]);
+            }
+            return sel;
+        }
+        Field[] upper = fieldsOf(ipred.getUpperField());
+        // 两个边界共有的等值前缀，之后的字段上是范围；只有前缀的一边没有界
+        int n = Math.min(lower.length, upper.length);
+        if (lower.length == upper.length)
+            n--;
+        double sel = 1.0;
+        for (int i = 0; i < n; i++) {
+            sel *= stats.estimateSelectivity(keyFields[i], Predicate.Op.EQUALS, lower[i]);
+        }
+        double lo = lower.length > n ? stats.estimateSelectivity(keyFields[n], ipred.getOp(), lower[n]) : 1.0;
+        double hi = upper.length > n ? stats.estimateSelectivity(keyFields[n], ipred.getUpperOp(), upper[n]) : 1.0;
+        // 两个边界之外的元组互不重叠
+        return sel * Math.max(lo + hi - 1.0, 0.0);
+    }
+
+    /** @return the fields of a composite field, or f alone */
+    private static Field[] fieldsOf(Field f) {
+        if (!(f instanceof CompositeField))
+            return new Field[]{f};
+        CompositeField c = (CompositeField) f;
+        Field[] fields = new Field[c.numFields()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = c.getField(i);
+        }
+        return fields;
+    }
+
+    /** Returns true if a secondary index stores every field of a table that this query reads,
+     *  so that the table does not need to be read at all.
+     *  @param index a secondary index of the table
+     *  @param alias the alias of the table in this plan
+     *  @param td the schema of the table
+     */
+    private boolean coversQuery(SecondaryIndex index, String alias, TupleDesc td) {
+        Set<String> fields = fieldsRead(alias, true);
+        if (fields == null)
+            return false;
+
+        for (String f : fields) {
+            try {
+                if (!index.covers(td.fieldNameToIndex(f)))
+                    return false;
+            } catch (NoSuchElementException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Returns the pure names of the fields of a table that this query reads.
+     *  @param alias the alias of the table in this plan
+     *  @param withFilters true to include the fields the filters of the table compare
+     *  @return the fields, or null if the query reads every field of every table (SELECT *)
+     */
+    private Set<String> fieldsRead(String alias, boolean withFilters) {
+        Set<String> fields = new HashSet<>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.equals("null.*"))
+                return null;
+            addFieldOf(fields, alias, si.fname);
+        }
+        for (LogicalFilterNode lf : filters) {
+            if (withFilters && lf.tableAlias.equals(alias))
+                fields.add(lf.fieldPureName);
+        }
+        // expression filters are evaluated above the scan, which must return their fields
+        for (Expression e : expressionFilters) {
+            List<String> columns = new ArrayList<>();
+            e.columns(columns);
+            for (String c : columns)
+                addFieldOf(fields, alias, c);
+        }
+        for (LogicalJoinNode lj : joins) {
+            if (alias.equals(lj.t1Alias))
+                fields.add(lj.f1PureName);
+            if (alias.equals(lj.t2Alias))
+                fields.add(lj.f2PureName);
+        }
+        for (String f : groupByFields)
+            addFieldOf(fields, alias, f);
+        for (String f : aggFields)
+            addFieldOf(fields, alias, f);
+        for (String f : oByFields)
+            addFieldOf(fields, alias, f);
+        return fields;
+    }
+
+    /** Add the pure name of a qualified field name (alias.field) to fields if it belongs to alias */
+    private static void addFieldOf(Set<String> fields, String alias, String qualifiedName) {
+        if (qualifiedName == null)
+            return;
+        String[] parts = qualifiedName.split("[.]");
+        if (parts.length == 2 && parts[0].equals(alias))
+            fields.add(parts[1]);
+    }
+
     public static void main(String[] argv) {
         // construct a 3-column table schema
         Type[] types = new Type[]{ Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
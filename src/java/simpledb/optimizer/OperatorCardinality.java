@@ -2,8 +2,16 @@ package simpledb.optimizer;
 
 import simpledb.common.Database;
 import simpledb.execution.*;
+import simpledb.index.BTreeScan;
+import simpledb.index.IndexOnlyScan;
+import simpledb.index.IndexScan;
+import simpledb.storage.TupleDesc;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * A utility class, which computes the estimated cardinalities of an operator
@@ -29,10 +37,26 @@ public class OperatorCardinality {
         } else if (o instanceof Join) {
             return updateJoinCardinality((Join) o, tableAliasToId, tableStats);
         } else if (o instanceof HashEquiJoin) {
-            return updateHashEquiJoinCardinality((HashEquiJoin) o,
-                    tableAliasToId, tableStats);
+            HashEquiJoin j = (HashEquiJoin) o;
+            return updatePhysicalJoinCardinality(j, j.getJoinPredicate(),
+                    j.getJoinField1Name(), j.getJoinField2Name(), tableAliasToId, tableStats);
+        } else if (o instanceof SortMergeJoin) {
+            SortMergeJoin j = (SortMergeJoin) o;
+            return updatePhysicalJoinCardinality(j, j.getJoinPredicate(),
+                    j.getJoinField1Name(), j.getJoinField2Name(), tableAliasToId, tableStats);
+        } else if (o instanceof BlockNestedLoopJoin) {
+            BlockNestedLoopJoin j = (BlockNestedLoopJoin) o;
+            return updatePhysicalJoinCardinality(j, j.getJoinPredicate(),
+                    j.getJoinField1Name(), j.getJoinField2Name(), tableAliasToId, tableStats);
+        } else if (o instanceof IndexNestedLoopJoin) {
+            IndexNestedLoopJoin j = (IndexNestedLoopJoin) o;
+            return updatePhysicalJoinCardinality(j, j.getJoinPredicate(),
+                    j.getJoinField1Name(), j.getJoinField2Name(), tableAliasToId, tableStats);
         } else if (o instanceof Aggregate) {
-            return updateAggregateCardinality((Aggregate) o, tableAliasToId,
+            return updateAggregateCardinality(o, ((Aggregate) o).groupFields(), tableAliasToId,
+                    tableStats);
+        } else if (o instanceof StreamAggregate) {
+            return updateAggregateCardinality(o, ((StreamAggregate) o).groupFields(), tableAliasToId,
                     tableStats);
         } else {
             OpIterator[] children = o.getChildren();
@@ -43,12 +67,14 @@ public class OperatorCardinality {
                     hasJoinPK = updateOperatorCardinality(
                             (Operator) children[0], tableAliasToId, tableStats);
                     childC = ((Operator) children[0]).getEstimatedCardinality();
-                } else if (children[0] instanceof SeqScan) {
-                    childC = tableStats.get(
-                            ((SeqScan) children[0]).getTableName())
-                            .estimateTableCardinality(1.0);
+                } else if (isScan(children[0])) {
+                    childC = scanCardinality(children[0], tableStats);
                 }
             }
+            if (o instanceof TopN)
+                childC = Math.min(childC, ((TopN) o).getLimit());
+            else if (o instanceof Limit)
+                childC = Math.min(childC, ((Limit) o).getLimit());
             o.setEstimatedCardinality(childC);
             return hasJoinPK;
         }
@@ -59,6 +85,9 @@ public class OperatorCardinality {
             Map<String, TableStats> tableStats) {
         OpIterator child = f.getChildren()[0];
         Predicate pred = f.getPredicate();
+        if (pred == null) {
+            return updateExpressionFilterCardinality(f, tableAliasToId, tableStats);
+        }
         String[] tmp = child.getTupleDesc().getFieldName(pred.getField())
                 .split("[.]");
         String tableAlias = tmp[0];
@@ -79,10 +108,8 @@ public class OperatorCardinality {
                 f.setEstimatedCardinality((int) (oChild
                         .getEstimatedCardinality() * selectivity) + 1);
                 return hasJoinPK;
-            } else if (child instanceof SeqScan) {
-                f.setEstimatedCardinality((int) (tableStats.get(
-                        ((SeqScan) child).getTableName())
-                        .estimateTableCardinality(1.0) * selectivity) + 1);
+            } else if (isScan(child)) {
+                f.setEstimatedCardinality((int) (scanCardinality(child, tableStats) * selectivity) + 1);
                 return false;
             }
         }
@@ -90,6 +117,43 @@ public class OperatorCardinality {
         return false;
     }
 
+    /**
+     * The selectivity of a filter on an expression is estimated from the
+     * statistics of its table when all the fields it reads are fields of one
+     * table, and is {@link Expression#DEFAULT_SELECTIVITY} otherwise.
+     */
+    private static boolean updateExpressionFilterCardinality(Filter f,
+            Map<String, Integer> tableAliasToId,
+            Map<String, TableStats> tableStats) {
+        OpIterator child = f.getChildren()[0];
+        Set<String> aliases = new HashSet<>();
+        List<String> columns = new ArrayList<>();
+        f.getExpression().columns(columns);
+        for (String c : columns) {
+            aliases.add(c.split("[.]")[0]);
+        }
+        double selectivity = Expression.DEFAULT_SELECTIVITY;
+        if (aliases.size() == 1) {
+            String alias = aliases.iterator().next();
+            Integer tableId = tableAliasToId.get(alias);
+            if (tableId != null) {
+                selectivity = f.getExpression().estimateSelectivity(
+                        tableStats.get(Database.getCatalog().getTableName(tableId)), alias,
+                        Database.getCatalog().getTupleDesc(tableId));
+            }
+        }
+        boolean hasJoinPK = false;
+        int childCard = 1;
+        if (child instanceof Operator) {
+            hasJoinPK = updateOperatorCardinality((Operator) child, tableAliasToId, tableStats);
+            childCard = ((Operator) child).getEstimatedCardinality();
+        } else if (isScan(child)) {
+            childCard = scanCardinality(child, tableStats);
+        }
+        f.setEstimatedCardinality((int) (childCard * selectivity) + 1);
+        return hasJoinPK;
+    }
+
     private static boolean updateJoinCardinality(Join j,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
@@ -122,9 +186,8 @@ public class OperatorCardinality {
             child1HasJoinPK = pk || child1HasJoinPK;
             child1Card = child1O.getEstimatedCardinality();
             child1Card = child1Card > 0 ? child1Card : 1;
-        } else if (child1 instanceof SeqScan) {
-            child1Card = tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0);
+        } else if (isScan(child1)) {
+            child1Card = scanCardinality(child1, tableStats);
         }
 
         if (child2 instanceof Operator) {
@@ -134,9 +197,8 @@ public class OperatorCardinality {
             child2HasJoinPK = pk || child2HasJoinPK;
             child2Card = child2O.getEstimatedCardinality();
             child2Card = child2Card > 0 ? child2Card : 1;
-        } else if (child2 instanceof SeqScan) {
-            child2Card = tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0);
+        } else if (isScan(child2)) {
+            child2Card = scanCardinality(child2, tableStats);
         }
 
         j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
@@ -146,7 +208,12 @@ public class OperatorCardinality {
         return child1HasJoinPK || child2HasJoinPK;
     }
 
-    private static boolean updateHashEquiJoinCardinality(HashEquiJoin j,
+    /**
+     * Update the cardinality of a HashEquiJoin, SortMergeJoin, BlockNestedLoopJoin
+     * or IndexNestedLoopJoin; they only differ from Join in how they are built.
+     */
+    private static boolean updatePhysicalJoinCardinality(Operator j, JoinPredicate pred,
+                                                         String joinField1Name, String joinField2Name,
                                                          Map<String, Integer> tableAliasToId,
                                                          Map<String, TableStats> tableStats) {
 
@@ -156,10 +223,10 @@ public class OperatorCardinality {
         int child1Card = 1;
         int child2Card = 1;
 
-        String[] tmp1 = j.getJoinField1Name().split("[.]");
+        String[] tmp1 = joinField1Name.split("[.]");
         String tableAlias1 = tmp1[0];
         String pureFieldName1 = tmp1[1];
-        String[] tmp2 = j.getJoinField2Name().split("[.]");
+        String[] tmp2 = joinField2Name.split("[.]");
         String tableAlias2 = tmp2[0];
         String pureFieldName2 = tmp2[1];
 
@@ -177,9 +244,8 @@ public class OperatorCardinality {
             child1HasJoinPK = pk || child1HasJoinPK;
             child1Card = child1O.getEstimatedCardinality();
             child1Card = child1Card > 0 ? child1Card : 1;
-        } else if (child1 instanceof SeqScan) {
-            child1Card = tableStats.get(((SeqScan) child1)
-                    .getTableName()).estimateTableCardinality(1.0);
+        } else if (isScan(child1)) {
+            child1Card = scanCardinality(child1, tableStats);
         }
 
         if (child2 instanceof Operator) {
@@ -189,19 +255,18 @@ public class OperatorCardinality {
             child2HasJoinPK = pk || child2HasJoinPK;
             child2Card = child2O.getEstimatedCardinality();
             child2Card = child2Card > 0 ? child2Card : 1;
-        } else if (child2 instanceof SeqScan) {
-            child2Card = tableStats.get(((SeqScan) child2)
-                    .getTableName()).estimateTableCardinality(1.0);
+        } else if (isScan(child2)) {
+            child2Card = scanCardinality(child2, tableStats);
         }
 
-        j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(j
-                .getJoinPredicate().getOperator(), tableAlias1, tableAlias2,
+        j.setEstimatedCardinality(JoinOptimizer.estimateTableJoinCardinality(
+                pred.getOperator(), tableAlias1, tableAlias2,
                 pureFieldName1, pureFieldName2, child1Card, child2Card,
                 child1HasJoinPK, child2HasJoinPK, tableStats, tableAliasToId));
         return child1HasJoinPK || child2HasJoinPK;
     }
 
-    private static boolean updateAggregateCardinality(Aggregate a,
+    private static boolean updateAggregateCardinality(Operator a, int[] gfields,
             Map<String, Integer> tableAliasToId,
             Map<String, TableStats> tableStats) {
         OpIterator child = a.getChildren()[0];
@@ -214,34 +279,68 @@ public class OperatorCardinality {
             childCard = oChild.getEstimatedCardinality();
         }
 
-        if (a.groupField() == Aggregator.NO_GROUPING) {
+        if (gfields.length == 0) {
             a.setEstimatedCardinality(1);
             return hasJoinPK;
         }
 
-        if (child instanceof SeqScan) {
-            childCard = tableStats.get(((SeqScan) child).getTableName())
-                    .estimateTableCardinality(1.0);
+        if (isScan(child)) {
+            childCard = scanCardinality(child, tableStats);
         }
 
-        String[] tmp = a.groupFieldName().split("[.]");
-        String tableAlias = tmp[0];
-        String pureFieldName = tmp[1];
-        Integer tableId = tableAliasToId.get(tableAlias);
-
-        double groupFieldAvgSelectivity = 1.0;
-        if (tableId != null) {
-            groupFieldAvgSelectivity = tableStats.get(
-                    Database.getCatalog().getTableName(tableId))
-                    .avgSelectivity(
-                            Database.getCatalog().getTupleDesc(tableId)
-                                    .fieldNameToIndex(pureFieldName),
-                            Predicate.Op.EQUALS);
-            a.setEstimatedCardinality((int) (Math.min(childCard,
-                    1.0 / groupFieldAvgSelectivity)));
-            return hasJoinPK;
+        // 每个分组字段的不同值个数相乘，得到分组数的上限
+        TupleDesc childTd = child.getTupleDesc();
+        double groups = 1.0;
+        for (int gfield : gfields) {
+            String[] tmp = childTd.getFieldName(gfield).split("[.]");
+            Integer tableId = tmp.length == 2 ? tableAliasToId.get(tmp[0]) : null;
+            if (tableId == null) {
+                a.setEstimatedCardinality(childCard);
+                return hasJoinPK;
+            }
+            groups *= tableStats.get(Database.getCatalog().getTableName(tableId))
+                    .numDistinct(Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(tmp[1]));
         }
-        a.setEstimatedCardinality(childCard);
+        a.setEstimatedCardinality((int) (Math.min(childCard, groups)));
         return hasJoinPK;
     }
+
+    /**
+     * @return true if o reads a base table, either sequentially or through a B+ tree or index
+     */
+    private static boolean isScan(OpIterator o) {
+        return o instanceof SeqScan || o instanceof BTreeScan || o instanceof IndexOnlyScan
+                || o instanceof IndexScan;
+    }
+
+    /**
+     * @return the estimated number of tuples returned by the scan o, with the
+     *         selectivity of the predicates pushed into a sequential scan
+     */
+    private static int scanCardinality(OpIterator o, Map<String, TableStats> tableStats) {
+        TableStats stats = tableStats.get(scanTableName(o));
+        double selectivity = 1.0;
+        if (o instanceof SeqScan) {
+            for (Predicate p : ((SeqScan) o).getPredicates()) {
+                selectivity *= stats.estimateSelectivity(p.getField(), p.getOp(), p.getOperand());
+            }
+        }
+        return stats.estimateTableCardinality(selectivity);
+    }
+
+    /**
+     * @return the name of the table read by the scan o
+     */
+    private static String scanTableName(OpIterator o) {
+        if (o instanceof BTreeScan) {
+            return ((BTreeScan) o).getTableName();
+        }
+        if (o instanceof IndexOnlyScan) {
+            return ((IndexOnlyScan) o).getTableName();
+        }
+        if (o instanceof IndexScan) {
+            return ((IndexScan) o).getTableName();
+        }
+        return ((SeqScan) o).getTableName();
+    }
 }
@@ -0,0 +1,110 @@
+package simpledb.optimizer;
+
+import simpledb.common.Catalog;
+import simpledb.common.Database;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of the logical plans of queries, keyed by their normalized
+ * SQL, so that a query run again, with the same or other parameters, is neither
+ * parsed nor optimized again; see {@link LogicalPlan#physicalPlan}.
+ * <p>
+ * When the cache is full the least recently used plan is dropped. A plan is
+ * dropped as well when the catalog changes, or when the statistics of one of
+ * the tables it reads are replaced, so that it is optimized again.
+ *
+ * @Threadsafe
+ */
+public class QueryPlanCache {
+
+    /**
+     * The number of plans a cache keeps, from the simpledb.planCache system
+     * property
+     */
+    public static final int DEFAULT_CAPACITY = Integer.getInteger("simpledb.planCache", 256);
+
+    private static class Entry {
+        final LogicalPlan plan;
+        final long catalogVersion;
+        /** the statistics of each table of the plan when it was cached */
+        final Map<String, TableStats> stats = new HashMap<>();
+
+        Entry(LogicalPlan plan, long catalogVersion) {
+            this.plan = plan;
+            this.catalogVersion = catalogVersion;
+        }
+    }
+
+    private final Map<String, Entry> plans;
+
+    /**
+     * @param capacity the number of plans to keep at most
+     */
+    public QueryPlanCache(int capacity) {
+        // 按访问顺序排列，最久未使用的计划在最前
+        plans = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @param sql the normalized text of a query
+     * @return the plan cached for sql, or null if there is none or it is no
+     *         longer valid
+     */
+    public synchronized LogicalPlan get(String sql) {
+        Entry e = plans.get(sql);
+        if (e == null) {
+            return null;
+        }
+        if (e.catalogVersion != Database.getCatalog().getVersion()) {
+            plans.remove(sql);
+            return null;
+        }
+        for (Map.Entry<String, TableStats> s : e.stats.entrySet()) {
+            if (TableStats.getTableStats(s.getKey()) != s.getValue()) {
+                plans.remove(sql);
+                return null;
+            }
+        }
+        return e.plan;
+    }
+
+    /**
+     * Cache the plan of a query, replacing the one cached for the same text if
+     * any. The plan stays valid as long as the catalog and the statistics of
+     * its tables are the current ones.
+     *
+     * @param sql the normalized text of the query
+     * @param plan the plan of the query
+     */
+    public synchronized void put(String sql, LogicalPlan plan) {
+        Catalog catalog = Database.getCatalog();
+        Entry e = new Entry(plan, catalog.getVersion());
+        for (int tableid : plan.getTableAliasToIdMapping().values()) {
+            String name = catalog.getTableName(tableid);
+            e.stats.put(name, TableStats.getTableStats(name));
+        }
+        plans.put(sql, e);
+    }
+
+    /**
+     * @return the number of plans cached, some of which may no longer be valid
+     */
+    public synchronized int size() {
+        return plans.size();
+    }
+
+    /** Drop every plan */
+    public synchronized void clear() {
+        plans.clear();
+    }
+}
@@ -2,18 +2,40 @@ package simpledb.optimizer;
 
 import simpledb.common.Database;
 import simpledb.common.DbException;
-import simpledb.common.Type;
+import simpledb.execution.ParallelPlanner;
 import simpledb.execution.Predicate;
-import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.SecondaryIndex;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * TableStats represents statistics (e.g., histograms) about base tables in a
@@ -21,7 +43,10 @@ import java.util.concurrent.ConcurrentMap;
  * 
  * This class is not needed in implementing lab1 and lab2.
  */
-public class TableStats {
+public class TableStats implements Serializable {
+
+    // 2：直方图换成了ColumnStats，旧版本保存的统计信息在加载时重新计算
+    private static final long serialVersionUID = 2L;
 
     private static final ConcurrentMap<String, TableStats> statsMap = new ConcurrentHashMap<>();
 
@@ -51,37 +76,184 @@ public class TableStats {
         return statsMap;
     }
 
+    /**
+     * Compute the statistics of every table of the catalog, analyzing up to
+     * {@link ParallelPlanner#DEFAULT_PARALLELISM} tables at a time.
+     */
     public static void computeStatistics() {
+        List<Integer> tableIds = new ArrayList<>();
         Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
+        while (tableIt.hasNext()) {
+            tableIds.add(tableIt.next());
+        }
 
         System.out.println("Computing table stats.");
+        analyze(tableIds);
+        System.out.println("Done.");
+    }
+
+    /**
+     * Load the statistics that {@link #saveStatistics} wrote to statsFile for the
+     * tables of the catalog, compute those of the other tables, and save them
+     * all back to statsFile. The statistics of a table whose schema or number of
+     * pages differs from the saved one are computed again.
+     *
+     * @param statsFile the file the statistics are kept in, which need not exist
+     */
+    public static void computeStatistics(File statsFile) {
+        Map<String, TableStats> saved = loadStatistics(statsFile);
+        List<Integer> tableIds = new ArrayList<>();
+        int loaded = 0;
+        Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
         while (tableIt.hasNext()) {
             int tableid = tableIt.next();
-            TableStats s = new TableStats(tableid, IO_COST_PER_PAGE);
-            setTableStats(Database.getCatalog().getTableName(tableid), s);
+            String name = Database.getCatalog().getTableName(tableid);
+            TableStats s = saved.get(name);
+            if (s != null && s.bind(tableid)) {
+                setTableStats(name, s);
+                loaded++;
+            } else {
+                tableIds.add(tableid);
+            }
+        }
+
+        System.out.println("Loaded stats of " + loaded + " tables, computing stats of " + tableIds.size() + ".");
+        analyze(tableIds);
+        try {
+            saveStatistics(statsFile);
+        } catch (IOException e) {
+            e.printStackTrace();
         }
         System.out.println("Done.");
     }
 
+    private static void analyze(List<Integer> tableIds) {
+        if (tableIds.isEmpty()) {
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(ParallelPlanner.DEFAULT_PARALLELISM, tableIds.size())));
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int tableid : tableIds) {
+                tasks.add(pool.submit(() -> setTableStats(Database.getCatalog().getTableName(tableid),
+                        new TableStats(tableid, IO_COST_PER_PAGE))));
+            }
+            for (Future<?> task : tasks) {
+                try {
+                    task.get();
+                } catch (ExecutionException e) {
+                    e.getCause().printStackTrace();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
     /**
-     * Number of bins for the histogram. Feel free to increase this value over
-     * 100, though our tests assume that you have at least 100 bins in your
-     * histograms.
+     * Write the statistics of every table to statsFile, replacing it atomically.
+     * The changes made to a table since it was analyzed are saved too, so a
+     * table that was stale is analyzed again after the statistics are loaded.
      */
-    static final int NUM_HIST_BINS = 100;
-    private DbFile dbFile;
+    public static void saveStatistics(File statsFile) throws IOException {
+        HashMap<String, TableStats> snapshot = new HashMap<>();
+        for (Map.Entry<String, TableStats> e : statsMap.entrySet()) {
+            e.getValue().fold();
+            snapshot.put(e.getKey(), e.getValue());
+        }
+        File tmp = new File(statsFile.getPath() + ".tmp");
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeObject(snapshot);
+        }
+        Files.move(tmp.toPath(), statsFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, TableStats> loadStatistics(File statsFile) {
+        if (!statsFile.exists()) {
+            return new HashMap<>();
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(statsFile)))) {
+            return (Map<String, TableStats>) in.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            // 文件损坏或版本不兼容时重新统计
+            System.out.println("Ignoring table stats in " + statsFile + ": " + e);
+            return new HashMap<>();
+        }
+    }
+
+    /**
+     * A table is analyzed again once the tuples inserted into and deleted from
+     * it since its statistics were computed are more than ANALYZE_THRESHOLD
+     * plus ANALYZE_SCALE_FACTOR times its number of tuples, as PostgreSQL's
+     * autovacuum does.
+     */
+    public static final int ANALYZE_THRESHOLD = 50;
+    public static final double ANALYZE_SCALE_FACTOR = 0.1;
+
+    // 后台重新统计的线程；同一张表同时只有一个统计任务
+    private static final ExecutorService analyzer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "analyze");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final Set<String> analyzing = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Analyze again, in the background, every table whose statistics are
+     * stale; see {@link #isStale}. The new statistics replace the old ones when
+     * they are ready. Call it after a transaction commits, so that the analysis
+     * does not wait for the locks of the caller.
+     *
+     * @return the analyses started
+     */
+    public static List<Future<?>> analyzeStaleTables() {
+        List<Future<?>> tasks = new ArrayList<>();
+        for (Map.Entry<String, TableStats> e : statsMap.entrySet()) {
+            String name = e.getKey();
+            TableStats old = e.getValue();
+            if (old.isStale() && analyzing.add(name)) {
+                tasks.add(analyzer.submit(() -> {
+                    try {
+                        statsMap.replace(name, old, new TableStats(old.tableId, old.ioCostPerPage, old.sampleSize));
+                    } finally {
+                        analyzing.remove(name);
+                    }
+                }));
+            }
+        }
+        return tasks;
+    }
+
+    /**
+     * The number of tuples the column statistics are built from when none is given,
+     * from the simpledb.stats.sample system property. Smaller tables are read
+     * in full.
+     */
+    public static final int SAMPLE_SIZE = Integer.getInteger("simpledb.stats.sample", 100000);
+
+    private transient DbFile dbFile;
     private int ioCostPerPage;
+    private int sampleSize;
     private TupleDesc tupleDesc;
     private int tableId;
     private int pageNum;
     private int tupleNum;
     private int fieldNum;
-    Map<Integer,IntHistogram> intHistogramMap;
-    Map<Integer,StringHistogram> stringHistogramMap;
+    // 统计后插入、删除的元组数：保存时已有的变化，加上缓冲池计数器自基准值以来的增量
+    private long pendingInserts;
+    private long pendingDeletes;
+    private transient long baseInserts;
+    private transient long baseDeletes;
+    private ColumnStats[] columns;
 
     /**
      * Create a new TableStats object, that keeps track of statistics on each
-     * column of a table
+     * column of a table, from a sample of {@link #SAMPLE_SIZE} tuples.
      * 
      * @param tableid
      *            The table over which to compute statistics
@@ -90,116 +262,231 @@ public class TableStats {
      *            sequential-scan IO and disk seeks.
      */
     public TableStats(int tableid, int ioCostPerPage) {
+        this(tableid, ioCostPerPage, SAMPLE_SIZE);
+    }
+
+    /**
+     * Create a new TableStats object from a sample of the tuples of a table.
+     * <p>
+     * A heap file with more than twice the pages needed to hold sampleSize tuples
+     * is sampled by pages: random pages are read in full, and the number of
+     * tuples and of distinct values are extrapolated from them. Any other file
+     * is read once, counting its tuples, sketching the distinct values of each
+     * column with a {@link HyperLogLog} and keeping a uniform reservoir sample
+     * of sampleSize tuples. The {@link ColumnStats} of each column are built
+     * from the sample.
+     *
+     * @param tableid
+     *            The table over which to compute statistics
+     * @param ioCostPerPage
+     *            The cost per page of IO.
+     * @param sampleSize
+     *            The number of tuples to build the column statistics from
+     */
+    public TableStats(int tableid, int ioCostPerPage, int sampleSize) {
+        if (sampleSize < 1) {
+            throw new IllegalArgumentException("sample size must be positive: " + sampleSize);
+        }
         this.tableId = tableid;
         this.ioCostPerPage = ioCostPerPage;
+        this.sampleSize = sampleSize;
+        // 统计期间的修改也算作统计之后的变化
+        this.baseInserts = BufferPool.getInsertCount(tableid);
+        this.baseDeletes = BufferPool.getDeleteCount(tableid);
         this.dbFile = Database.getCatalog().getDatabaseFile(tableid);
         this.tupleDesc = dbFile.getTupleDesc();
-        HeapFile heapFile = (HeapFile) dbFile;
-        this.pageNum = heapFile.numPages();
-        intHistogramMap = new HashMap<>();
-        stringHistogramMap = new HashMap<>();
-        Type[] type = getType(tupleDesc);
-        this.fieldNum = type.length;
-        this.tupleNum = 0;
-        TransactionId transactionId = new TransactionId();
-        SeqScan seqScan = new SeqScan(transactionId,tableId);
-        int[] maxs = new int[fieldNum];
-        int[] mins = new int[fieldNum];
-        try {
-            seqScan.open();
-
-            for (int i = 0;i < fieldNum;i++) {
-
-                int max = Integer.MIN_VALUE;
-                int min = Integer.MAX_VALUE;
-                while (seqScan.hasNext()) {
-                    if(i == 0) {
-                        tupleNum++;
-                    }
-                    Tuple tuple = seqScan.next();
-                    Field field = tuple.getField(i);
-                    Type type1 = field.getType();
-                    if (type1 == Type.STRING_TYPE) {
-                        continue;
-                    }
-                    IntField intField = (IntField) field;
-                    int val = intField.getValue();
-                    max = Math.max(max,val);
-                    min = Math.min(min,val);
+        this.fieldNum = tupleDesc.numFields();
+        this.pageNum = numPages(dbFile);
 
+        // 随机数种子取表号，同一张表每次得到相同的统计信息和查询计划
+        Random random = new Random(tableid);
+        HyperLogLog[] sketches = null;
+        List<Tuple> sample = new ArrayList<>();
+        TransactionId tid = new TransactionId();
+        try {
+            int pagesToSample = (int) Math.min(Integer.MAX_VALUE,
+                    ((long) sampleSize + tuplesPerPage() - 1) / tuplesPerPage());
+            if (dbFile instanceof HeapFile && pageNum > 2L * pagesToSample) {
+                tupleNum = samplePages(tid, (HeapFile) dbFile, pagesToSample, random, sample);
+            } else {
+                sketches = new HyperLogLog[fieldNum];
+                for (int i = 0; i < fieldNum; i++) {
+                    sketches[i] = new HyperLogLog();
                 }
-                maxs[i] = max;
-                mins[i] = min;
-                seqScan.rewind();
+                tupleNum = scan(tid, sampleSize, random, sample, sketches);
             }
-        } catch (Exception e) {
+        } catch (DbException | TransactionAbortedException e) {
             e.printStackTrace();
         } finally {
-            seqScan.close();
+            Database.getBufferPool().transactionComplete(tid);
         }
-        for (int i = 0; i < fieldNum;i++) {
-            if (type[i] == Type.INT_TYPE) {
-                IntHistogram intHistogram = new IntHistogram(NUM_HIST_BINS,mins[i],maxs[i]);
-                intHistogramMap.put(i,intHistogram);
-            } else {
-                StringHistogram stringHistogram = new StringHistogram(NUM_HIST_BINS);
-                stringHistogramMap.put(i,stringHistogram);
+        if (pageNum < 0) {
+            pageNum = (tupleNum + tuplesPerPage() - 1) / tuplesPerPage();
+        }
+
+        columns = new ColumnStats[fieldNum];
+        List<Field> values = new ArrayList<>(sample.size());
+        for (int i = 0; i < fieldNum; i++) {
+            values.clear();
+            for (Tuple t : sample) {
+                values.add(t.getField(i));
             }
+            columns[i] = new ColumnStats(tupleDesc.getFieldType(i), values, tupleNum, sketches == null ? null : sketches[i]);
         }
+    }
 
-        addValueToHist();
+    /**
+     * @return the number of pages of file, or -1 if it is not known before it is read
+     */
+    private static int numPages(DbFile file) {
+        if (file instanceof HeapFile) {
+            return ((HeapFile) file).numPages();
+        }
+        if (file instanceof BTreeFile) {
+            return ((BTreeFile) file).numPages();
+        }
+        return -1;
+    }
 
+    /**
+     * @return the number of pages of the table now
+     */
+    int pages() {
+        int pages = numPages(dbFile);
+        return pages < 0 ? pageNum : pages;
+    }
 
+    /**
+     * Attach statistics read from a file to the table tableid.
+     *
+     * @return false if the schema or the size of the table no longer match, so
+     *         that the statistics must be computed again
+     */
+    private boolean bind(int tableid) {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        int pages = numPages(file);
+        // 保存后表结构变了，或数据文件在数据库之外被修改
+        if (!tupleDesc.equals(file.getTupleDesc()) || (pages >= 0 && pages != pageNum)) {
+            return false;
+        }
+        this.tableId = tableid;
+        this.dbFile = file;
+        this.baseInserts = BufferPool.getInsertCount(tableid);
+        this.baseDeletes = BufferPool.getDeleteCount(tableid);
+        return true;
+    }
 
+    /**
+     * Move the changes counted by the buffer pool since the base values into
+     * the saved counts, and record the current number of pages.
+     */
+    private synchronized void fold() {
+        long inserts = BufferPool.getInsertCount(tableId);
+        long deletes = BufferPool.getDeleteCount(tableId);
+        pendingInserts += inserts - baseInserts;
+        pendingDeletes += deletes - baseDeletes;
+        baseInserts = inserts;
+        baseDeletes = deletes;
+        pageNum = pages();
+    }
 
+    /**
+     * @return the number of tuples inserted into the table since it was analyzed
+     */
+    public synchronized long insertsSinceAnalyze() {
+        return pendingInserts + BufferPool.getInsertCount(tableId) - baseInserts;
+    }
 
-        // For this function, you'll have to get the
-        // DbFile for the table in question,
-        // then scan through its tuples and calculate
-        // the values that you need.
-        // You should try to do this reasonably efficiently, but you don't
-        // necessarily have to (for example) do everything
-        // in a single scan of the table.
-        // some code goes here
+    /**
+     * @return the number of tuples deleted from the table since it was analyzed
+     */
+    public synchronized long deletesSinceAnalyze() {
+        return pendingDeletes + BufferPool.getDeleteCount(tableId) - baseDeletes;
     }
 
-    private Type[] getType(TupleDesc tupleDesc) {
-        int numFields = tupleDesc.numFields();
-        Type[] types = new Type[numFields];
-        for (int i = 0; i <numFields;i++) {
-            types[i] = tupleDesc.getFieldType(i);
-        }
-        return types;
+    /**
+     * @return true if the table changed enough since it was analyzed that its
+     *         histograms should be computed again
+     */
+    public boolean isStale() {
+        return insertsSinceAnalyze() + deletesSinceAnalyze() > ANALYZE_THRESHOLD + ANALYZE_SCALE_FACTOR * tupleNum;
+    }
 
+    /**
+     * @return the number of tuples that fit on a page of a heap file of this table
+     */
+    private int tuplesPerPage() {
+        return Math.max(1, BufferPool.getPageSize() * 8 / (tupleDesc.getSize() * 8 + 1));
     }
-    private void addValueToHist(){
-        TransactionId tid = new TransactionId();
-        SeqScan seqScan = new SeqScan(tid,tableId);
+
+    /**
+     * Read the whole table once, keeping a reservoir sample of its tuples and
+     * adding the values of each column to its sketch.
+     *
+     * @return the number of tuples of the table
+     */
+    private int scan(TransactionId tid, int sampleSize, Random random, List<Tuple> sample,
+                     HyperLogLog[] sketches) throws DbException, TransactionAbortedException {
+        DbFileIterator it = dbFile.iterator(tid);
+        int count = 0;
+        it.open();
         try {
-            seqScan.open();
-            while (seqScan.hasNext()) {
-                Tuple tuple = seqScan.next();
-                for (int i = 0; i < fieldNum;i++) {
-                    Field field = tuple.getField(i);
-                    Type type = field.getType();
-                    if (type == Type.INT_TYPE) {
-                        IntField intField = (IntField) field;
-                        int value = intField.getValue();
-                        intHistogramMap.get(i).addValue(value);
-                    } else {
-                        StringField stringField = (StringField) field;
-                        String value = stringField.getValue();
-                        stringHistogramMap.get(i).addValue(value);
+            while (it.hasNext()) {
+                Tuple t = it.next();
+                for (int i = 0; i < fieldNum; i++) {
+                    sketches[i].add(t.getField(i).hashCode());
+                }
+                count++;
+                // 蓄水池抽样：第count个元组以sampleSize/count的概率替换样本中的一个
+                if (sample.size() < sampleSize) {
+                    sample.add(t);
+                } else {
+                    int slot = random.nextInt(count);
+                    if (slot < sampleSize) {
+                        sample.set(slot, t);
                     }
                 }
-
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         } finally {
-            seqScan.close();
+            it.close();
         }
+        return count;
+    }
 
+    /**
+     * Read n random pages of file into sample.
+     *
+     * @return the number of tuples of the table, extrapolated from the pages read
+     */
+    private int samplePages(TransactionId tid, HeapFile file, int n, Random random, List<Tuple> sample)
+            throws DbException, TransactionAbortedException {
+        // Floyd算法选出n个不同的页，按页号顺序读取
+        Set<Integer> chosen = new HashSet<>();
+        for (int j = pageNum - n; j < pageNum; j++) {
+            int p = random.nextInt(j + 1);
+            chosen.add(chosen.contains(p) ? j : p);
+        }
+        List<Integer> pages = new ArrayList<>(chosen);
+        Collections.sort(pages);
+        for (int p : pages) {
+            DbFileIterator it = file.iterator(tid, p, p + 1);
+            it.open();
+            try {
+                while (it.hasNext()) {
+                    sample.add(it.next());
+                }
+            } finally {
+                it.close();
+            }
+        }
+        return (int) Math.round((double) sample.size() * pageNum / n);
+    }
+
+    /**
+     * @return the cost of reading a page of the table
+     */
+    int ioCostPerPage() {
+        return ioCostPerPage;
     }
 
     /**
@@ -216,12 +503,58 @@ public class TableStats {
      */
     public double estimateScanCost() {
         // some code goes here
-        return pageNum * ioCostPerPage;
+        return pages() * ioCostPerPage;
 
 
 
     }
 
+    /**
+     * Estimates the cost of reading the tuples of the table that match a predicate
+     * on a secondary index, given the selectivity of that predicate: the matching
+     * part of the index is read, then each matching tuple is fetched from the table.
+     * <p>
+     * The index is not clustered, so matching tuples are spread over the table. The
+     * number of distinct table pages read is estimated with Cardenas' formula,
+     * pages * (1 - (1 - 1/pages)^matches), which grows with the number of matches
+     * up to the whole table.
+     *
+     * @param index a secondary index of this table
+     * @param selectivityFactor the selectivity of the predicate on the index key
+     * @return The estimated cost of the index scan.
+     */
+    public double estimateIndexScanCost(SecondaryIndex index, double selectivityFactor) {
+        double matches = selectivityFactor * totalTuples();
+        int pages = pages();
+        double tablePages = pages == 0 ? 0 : pages * (1 - Math.pow(1 - 1.0 / pages, matches));
+        return estimateIndexOnlyScanCost(index, selectivityFactor) + tablePages * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of searching the B+ tree file of this table for the
+     * tuples matching a predicate on its key: a descent from the root plus the
+     * matching fraction of the file.
+     *
+     * @param selectivityFactor the selectivity of the predicate on the key
+     * @return The estimated cost of the search.
+     */
+    public double estimateBTreeSearchCost(double selectivityFactor) {
+        return (1 + Math.ceil(selectivityFactor * pages())) * ioCostPerPage;
+    }
+
+    /**
+     * Estimates the cost of answering a predicate on a secondary index from the
+     * index alone: a descent from the root plus the matching fraction of the index.
+     *
+     * @param index a secondary index of this table
+     * @param selectivityFactor the selectivity of the predicate on the index key
+     * @return The estimated cost of the index-only scan.
+     */
+    public double estimateIndexOnlyScanCost(SecondaryIndex index, double selectivityFactor) {
+        int indexPages = index.getFile().numPages();
+        return (1 + Math.ceil(selectivityFactor * indexPages)) * ioCostPerPage;
+    }
+
     /**
      * This method returns the number of tuples in the relation, given that a
      * predicate with selectivity selectivityFactor is applied.
@@ -232,7 +565,7 @@ public class TableStats {
      *         selectivityFactor
      */
     public int estimateTableCardinality(double selectivityFactor) {
-        double v = selectivityFactor * tupleNum;
+        double v = selectivityFactor * totalTuples();
         return (int) v;
 
     }
@@ -249,12 +582,17 @@ public class TableStats {
      * */
     public double avgSelectivity(int field, Predicate.Op op) {
         // some code goes here
-        Type[] type = getType(tupleDesc);
-        Type type1 = type[field];
-        if (type1 == Type.INT_TYPE) {
-            return intHistogramMap.get(field).avgSelectivity();
-        } else {
-            return stringHistogramMap.get(field).avgSelectivity();
+        double equals = columns[field].avgEqualSelectivity();
+        switch (op) {
+            case EQUALS:
+                return equals;
+            case NOT_EQUALS:
+                return 1 - equals;
+            case LIKE:
+                return 1.0;
+            default:
+                // 值取自同一列时，范围比较平均选中一半的元组
+                return 0.5;
         }
 
     }
@@ -274,26 +612,31 @@ public class TableStats {
      */
     public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
         // some code goes here
-        Type fieldType = tupleDesc.getFieldType(field);
-        if (fieldType == Type.INT_TYPE) {
-            IntField field1 = (IntField) constant;
-            int value = field1.getValue();
-            return intHistogramMap.get(field).estimateSelectivity(op,value);
-        } else {
-            StringField stringField = (StringField) constant;
-            String value = stringField.getValue();
-            return stringHistogramMap.get(field).estimateSelectivity(op,value);
+        return columns[field].estimateSelectivity(op, constant);
+    }
 
-        }
+    /**
+     * @return the statistics of a column of the table: its most common values,
+     *         histogram and number of distinct values
+     */
+    public ColumnStats getColumnStats(int field) {
+        return columns[field];
+    }
 
+    /**
+     * @return the estimated number of distinct values of a column of the table
+     */
+    public double numDistinct(int field) {
+        return columns[field].distinct();
     }
 
     /**
-     * return the total number of tuples in this table
+     * return the total number of tuples in this table: those counted when it
+     * was analyzed, plus those inserted and minus those deleted since
      * */
     public int totalTuples() {
         // some code goes here
-        return this.tupleNum;
+        return (int) Math.max(0, tupleNum + insertsSinceAnalyze() - deletesSinceAnalyze());
     }
 
 }
@@ -6,6 +6,7 @@ import simpledb.common.Database;
 import simpledb.common.Permissions;
 import simpledb.common.DbException;
 import simpledb.common.DeadlockException;
+import simpledb.index.SecondaryIndex;
 import simpledb.storage.evict.EvictStrategy;
 import simpledb.storage.evict.LRUEvict;
 import simpledb.transaction.TransactionAbortedException;
@@ -18,6 +19,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -62,6 +64,10 @@ public class BufferPool {
 
     private LockManager lockManager;
 
+    // 每张表插入和删除的元组数，重置缓冲池后仍然保留，供TableStats判断统计信息是否过期
+    private static final ConcurrentHashMap<Integer, AtomicLong> insertCounts = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Integer, AtomicLong> deleteCounts = new ConcurrentHashMap<>();
+
     public BufferPool(int numPages) {
         // some code goes here
         this.numPages = numPages;
@@ -71,6 +77,13 @@ public class BufferPool {
 
     }
 
+    /**
+     * @return the maximum number of pages this buffer pool caches
+     */
+    public int getNumPages() {
+        return numPages;
+    }
+
     public static int getPageSize() {
         return pageSize;
     }
@@ -122,22 +135,29 @@ public class BufferPool {
         }
         // some code goes here
         // 如果缓存池中没有
-        if (!pageStore.containsKey(pid)) {
-            // 获取
-            DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-            Page page = dbFile.readPage(pid);
-            // 是否超过大小
-            evict.modifyData(pid);
-            if (pageStore.size() >= numPages) {
-                // 淘汰 (后面的 Exercise 书写)
-                evictPage();
+        Page page = pageStore.get(pid);
+        if (page == null) {
+            // 并行扫描的多个线程可能同时读入页面，淘汰策略的链表不是线程安全的
+            synchronized (this) {
+                page = pageStore.get(pid);
+                if (page == null) {
+                    // 获取
+                    DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
+                    page = dbFile.readPage(pid);
+                    // 是否超过大小
+                    evict.modifyData(pid);
+                    if (pageStore.size() >= numPages) {
+                        // 淘汰 (后面的 Exercise 书写)
+                        evictPage();
+                    }
+                    // 放入缓存
+
+                    pageStore.put(pid, page);
+                }
             }
-            // 放入缓存
-
-            pageStore.put(pid, page);
         }
         // 从 缓存池 中获取
-        return pageStore.get(pid);
+        return page;
     }
 
     /**
@@ -209,6 +229,8 @@ public class BufferPool {
      * their markDirty bit, and adds versions of any pages that have
      * been dirtied to the cache (replacing any existing versions of those pages) so
      * that future requests see up-to-date pages.
+     * <p>
+     * The secondary indexes of the table get an entry for the new tuple.
      *
      * @param tid     the transaction adding the tuple
      * @param tableId the table to add the tuple to
@@ -220,6 +242,10 @@ public class BufferPool {
         DbFile dbFile =  Database.getCatalog().getDatabaseFile(tableId);
         List<Page> pages = dbFile.insertTuple(tid, t);
         updateBufferPool(pages, tid);
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId)) {
+            index.insertTuple(tid, t);
+        }
+        insertCounts.computeIfAbsent(tableId, id -> new AtomicLong()).incrementAndGet();
         // not necessary for Exercise1
     }
 
@@ -232,6 +258,8 @@ public class BufferPool {
      * their markDirty bit, and adds versions of any pages that have
      * been dirtied to the cache (replacing any existing versions of those pages) so
      * that future requests see up-to-date pages.
+     * <p>
+     * The entries of the tuple in the secondary indexes of its table are removed too.
      *
      * @param tid the transaction deleting the tuple.
      * @param t   the tuple to delete
@@ -241,13 +269,36 @@ public class BufferPool {
         PageId pageId = t.getRecordId().getPageId();
         int tableId = pageId.getTableId();
         DbFile dbFile =  Database.getCatalog().getDatabaseFile(tableId);
+        // 先删除索引项，此时元组的RecordId仍然有效
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId)) {
+            index.deleteTuple(tid, t);
+        }
         List<Page> pages = dbFile.deleteTuple(tid, t);
         updateBufferPool(pages, tid);
+        deleteCounts.computeIfAbsent(tableId, id -> new AtomicLong()).incrementAndGet();
 
         // some code goes here
         // not necessary for Exercise1
     }
 
+    /**
+     * @return the number of tuples inserted into the table through any buffer
+     *         pool since the process started, including those of aborted transactions
+     */
+    public static long getInsertCount(int tableId) {
+        AtomicLong count = insertCounts.get(tableId);
+        return count == null ? 0 : count.get();
+    }
+
+    /**
+     * @return the number of tuples deleted from the table through any buffer
+     *         pool since the process started, including those of aborted transactions
+     */
+    public static long getDeleteCount(int tableId) {
+        AtomicLong count = deleteCounts.get(tableId);
+        return count == null ? 0 : count.get();
+    }
+
     public void updateBufferPool(List<Page> pages, TransactionId tid) {
         for (Page page : pages) {
             page.markDirty(true, tid);
@@ -0,0 +1,163 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Instance of Field that stores the values of several fields, used as the key of
+ * a B+ tree keyed on more than one column. Composite fields are compared
+ * lexicographically, field by field.
+ * <p>
+ * A composite field may be compared with a shorter composite field (or with a
+ * single field, which is treated as a composite field of length one). Only the
+ * leading fields both values have are compared, so a key prefix is equal to every
+ * key that starts with it. This is what allows range scans on a key prefix.
+ */
+public class CompositeField implements Field {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Field[] fields;
+
+    /**
+     * Constructor.
+     *
+     * @param fields The values of this field, in key order; must not be empty.
+     */
+    public CompositeField(Field... fields) {
+        if (fields.length == 0) {
+            throw new IllegalArgumentException("a composite field needs at least one field");
+        }
+        this.fields = fields.clone();
+    }
+
+    /**
+     * Returns the key of a tuple on the given fields: the field itself if there
+     * is only one, otherwise a CompositeField of the fields in the given order.
+     *
+     * @param t The tuple to read the key from
+     * @param keyFields The indexes of the key fields in the tuple
+     */
+    public static Field keyOf(Tuple t, int[] keyFields) {
+        if (keyFields.length == 1) {
+            return t.getField(keyFields[0]);
+        }
+        Field[] values = new Field[keyFields.length];
+        for (int i = 0; i < keyFields.length; i++) {
+            values[i] = t.getField(keyFields[i]);
+        }
+        return new CompositeField(values);
+    }
+
+    /**
+     * @return the number of fields in this composite field
+     */
+    public int numFields() {
+        return fields.length;
+    }
+
+    /**
+     * @return the i-th field of this composite field
+     */
+    public Field getField(int i) {
+        return fields[i];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("(");
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(fields[i]);
+        }
+        return sb.append(")").toString();
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(fields);
+    }
+
+    @Override
+    public boolean equals(Object field) {
+        if (!(field instanceof CompositeField)) {
+            return false;
+        }
+        return Arrays.equals(fields, ((CompositeField) field).fields);
+    }
+
+    /**
+     * Writes the fields one after another, each in its own format.
+     */
+    @Override
+    public void serialize(DataOutputStream dos) throws IOException {
+        for (Field f : fields) {
+            f.serialize(dos);
+        }
+    }
+
+    /**
+     * Compare the specified field to the value of this Field. Only the leading
+     * fields present in both values are compared.
+     * Return semantics are as specified by Field.compare
+     *
+     * @see Field#compare
+     */
+    @Override
+    public boolean compare(Predicate.Op op, Field val) {
+        int cmp = compareTo(val);
+
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return cmp == 0;
+            case NOT_EQUALS:
+                return cmp != 0;
+            case GREATER_THAN:
+                return cmp > 0;
+            case GREATER_THAN_OR_EQ:
+                return cmp >= 0;
+            case LESS_THAN:
+                return cmp < 0;
+            case LESS_THAN_OR_EQ:
+                return cmp <= 0;
+        }
+
+        return false;
+    }
+
+    /**
+     * Compares the common leading fields of this field and val
+     * @return a negative number, zero or a positive number as this field is less than,
+     *   equal to (on the common prefix), or greater than val
+     */
+    private int compareTo(Field val) {
+        Field[] other = val instanceof CompositeField ? ((CompositeField) val).fields : new Field[]{val};
+        int n = Math.min(fields.length, other.length);
+        for (int i = 0; i < n; i++) {
+            if (fields[i].compare(Predicate.Op.LESS_THAN, other[i])) {
+                return -1;
+            }
+            if (fields[i].compare(Predicate.Op.GREATER_THAN, other[i])) {
+                return 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Return the Type of this field. Type only describes single values, so this is
+     * the type of the leading field.
+     *
+     * @return the type of the first field
+     */
+    @Override
+    public Type getType() {
+        return fields[0].getType();
+    }
+}
@@ -3,6 +3,8 @@ package simpledb.storage;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Permissions;
+import simpledb.execution.Expression;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -148,11 +150,13 @@ public class HeapFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         List<Page> pages = new ArrayList<>();
+        // VARCHAR 字段的类型先检查一遍, hasRoomFor 按截断后的大小判断
+        Tuple fitted = HeapPage.fitVarchars(tupleDesc, t);
         // 先判断当前是否由已经存在的页是否由剩余空间
         for(int i = 0; i <numPages();i++) {
             HeapPageId heapPageId = new HeapPageId(this.getId(),i);
             HeapPage page = (HeapPage)Database.getBufferPool().getPage(tid, heapPageId, Permissions.READ_WRITE);
-            if (page.getNumEmptySlots() != 0) {
+            if (page.hasRoomFor(fitted)) {
                 page.insertTuple(t);
                 pages.add(page);
                 return pages;
@@ -197,25 +201,95 @@ public class HeapFile implements DbFile {
     @Override
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
-        return new HeapFileIterator(this, tid);
+        return iterator(tid, 0, -1, new Predicate[0], null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of a range of pages of this file, so
+     * that several scans can each read a part of the file.
+     *
+     * @param tid       the transaction the pages are read in
+     * @param firstPage the number of the first page to read
+     * @param endPage   the number of the page after the last one to read
+     */
+    public DbFileIterator iterator(TransactionId tid, int firstPage, int endPage) {
+        if (endPage < firstPage) {
+            throw new IllegalArgumentException("invalid page range " + firstPage + " to " + endPage);
+        }
+        return iterator(tid, firstPage, endPage, new Predicate[0], null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of a range of pages of this file that
+     * satisfy every one of the predicates, each with only some of its fields; see
+     * {@link HeapPage#iterator(Expression.Condition, int[], TupleDesc)}. The
+     * predicates are compiled into one condition for the whole scan.
+     *
+     * @param tid        the transaction the pages are read in
+     * @param firstPage  the number of the first page to read
+     * @param endPage    the number of the page after the last one to read, or -1
+     *                   to read to the end of the file
+     * @param predicates predicates on the fields of the table
+     * @param fields     the fields of the table to return, in order, or null for
+     *                   all of them
+     */
+    public DbFileIterator iterator(TransactionId tid, int firstPage, int endPage, Predicate[] predicates,
+                                   int[] fields) {
+        if (firstPage < 0 || endPage >= 0 && endPage < firstPage) {
+            throw new IllegalArgumentException("invalid page range " + firstPage + " to " + endPage);
+        }
+        TupleDesc projected = tupleDesc;
+        if (fields != null) {
+            List<TupleDesc.TDItem> items = new ArrayList<>();
+            for (int f : fields) {
+                items.add(tupleDesc.getTdItems().get(f));
+            }
+            projected = new TupleDesc(items);
+        }
+        Expression.Condition condition = predicates.length == 0 ? null
+                : Expression.of(predicates).compileCondition(tupleDesc);
+        return new HeapFileIterator(this, tid, firstPage, endPage, condition, fields, projected);
     }
 
     private static final class HeapFileIterator implements DbFileIterator{
         private final HeapFile heapFile;
         private final TransactionId tid;
+        // 读取的页范围[firstPage, endPage)，endPage为-1时读到文件末尾
+        private final int firstPage;
+        private final int endPage;
+        // 下推到扫描中的谓词和输出的字段
+        private final Expression.Condition condition;
+        private final int[] fields;
+        private final TupleDesc projected;
         // 元组迭代器
         private Iterator<Tuple> iterator;
         private int whichPage;
 
-        public HeapFileIterator(HeapFile heapFile, TransactionId tid) {
+        public HeapFileIterator(HeapFile heapFile, TransactionId tid, int firstPage, int endPage,
+                                Expression.Condition condition, int[] fields, TupleDesc projected) {
             this.heapFile = heapFile;
             this.tid = tid;
+            this.firstPage = firstPage;
+            this.endPage = endPage;
+            this.condition = condition;
+            this.fields = fields;
+            this.projected = projected;
+        }
+
+        private int lastPage() {
+            int numPages = heapFile.numPages();
+            return (endPage < 0 ? numPages : Math.min(endPage, numPages)) - 1;
         }
 
         @Override
         public void open() throws DbException, TransactionAbortedException {
             // 获取第一页的全部元组
-            whichPage = 0;
+            whichPage = firstPage;
+            if (endPage >= 0 && whichPage > lastPage()) {
+                // 空的页范围
+                iterator = null;
+                return;
+            }
             iterator = getPageTuple(whichPage);
         }
 
@@ -226,7 +300,7 @@ public class HeapFile implements DbFile {
                 HeapPageId pid = new HeapPageId(heapFile.getId(), pageNumber);
                 // 从缓存池中查询相应的页面 读权限
                 HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
-                return page.iterator();
+                return page.iterator(condition, fields, projected);
             }
             throw new DbException(String.format("heapFile %d not contain page %d", pageNumber, heapFile.getId()));
         }
@@ -240,7 +314,7 @@ public class HeapFile implements DbFile {
             // 如果已经遍历结束
             if(!iterator.hasNext()){
                 // 是否还存在下一页，小于文件的最大页
-                while(whichPage < (heapFile.numPages() - 1)){
+                while(whichPage < lastPage()){
                     whichPage++;
                     // 获取下一页
                     iterator = getPageTuple(whichPage);
@@ -4,8 +4,10 @@ import simpledb.common.Type;
 import simpledb.common.Utility;
 
 import java.io.*;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -13,6 +15,10 @@ import java.util.List;
  * pages of binary data in the appropriate format for simpledb heap pages
  * Pages are padded out to a specified length, and written consecutive in a
  * data file.
+ * <p>
+ * Tables with VARCHAR fields use the slotted layout of HeapPage; files of
+ * fixed slots written before a string field was declared varchar(n) can be
+ * migrated to it with {@link #migrate}.
  */
 
 public class HeapFileEncoder {
@@ -229,4 +235,158 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+  /** Convert the specified input text file into a binary page file with
+   * the layout of td: the slotted layout of HeapPage if td has VARCHAR
+   * fields, otherwise fixed slots as written by
+   * {@link #convert(File, File, int, int, Type[], char)}. <br>
+   * Each line of the input file is a tuple, with its fields separated by
+   * fieldSeparator; blank lines are ignored.
+   *
+   * @see HeapPage
+   * @param inFile The input file to read data from
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in the output file
+   * @param td the schema of the tuples
+   * @param fieldSeparator the character between the fields of a line
+   * @throws IOException if the input/output file can't be opened or a
+   *   malformed input line is encountered
+   */
+  public static void convert(File inFile, File outFile, int npagebytes, TupleDesc td, char fieldSeparator)
+      throws IOException {
+    Type[] types = new Type[td.numFields()];
+    for (int i = 0; i < types.length; i++) {
+      types[i] = td.getFieldType(i);
+    }
+    if (!td.isVariableLength()) {
+      convert(inFile, outFile, npagebytes, types.length, types, fieldSeparator);
+      return;
+    }
+    Pattern separator = Pattern.compile(Pattern.quote(String.valueOf(fieldSeparator)));
+    try (BufferedReader br = new BufferedReader(new FileReader(inFile));
+         SlottedPageWriter writer = new SlottedPageWriter(outFile, npagebytes, td)) {
+      String line;
+      while ((line = br.readLine()) != null) {
+        if (line.trim().isEmpty()) {
+          continue;
+        }
+        String[] values = separator.split(line, -1);
+        if (values.length != types.length) {
+          throw new IOException("BAD LINE : " + line);
+        }
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < types.length; i++) {
+          String v = values[i].trim();
+          if (types[i] == Type.INT_TYPE) {
+            try {
+              t.setField(i, new IntField(Integer.parseInt(v)));
+            } catch (NumberFormatException e) {
+              throw new IOException("BAD LINE : " + line);
+            }
+          } else {
+            t.setField(i, new StringField(v, td.getMaxLen(i) > 0 ? td.getMaxLen(i) : Type.STRING_LEN));
+          }
+        }
+        writer.add(t);
+      }
+    }
+  }
+
+  /** Convert a binary page file of fixed slots, with fields of the types of
+   * td, into a page file with the slotted layout of td, so that a table
+   * whose string fields are now declared varchar(n) can read the data
+   * written before. Strings longer than n are cut to n characters.
+   *
+   * @see HeapPage
+   * @param inFile The page file of fixed slots to read
+   * @param outFile The output file to write data to
+   * @param npagebytes The number of bytes per page in both files
+   * @param td the new schema of the table, with VARCHAR fields
+   * @throws IOException if the input/output file can't be opened or a page
+   *   can't be parsed
+   * @throws IllegalArgumentException if td has no VARCHAR field
+   */
+  public static void migrate(File inFile, File outFile, int npagebytes, TupleDesc td) throws IOException {
+    if (!td.isVariableLength()) {
+      throw new IllegalArgumentException("schema " + td + " has no VARCHAR field");
+    }
+    // 旧文件的布局: header 位图加上固定大小的 slot
+    int nrecbytes = 0;
+    for (int i = 0; i < td.numFields(); i++) {
+      nrecbytes += td.getFieldType(i).getLen();
+    }
+    int nrecords = (npagebytes * 8) / (nrecbytes * 8 + 1);
+    int nheaderbytes = (nrecords + 7) / 8;
+
+    long npages = inFile.length() / npagebytes;
+    byte[] page = new byte[npagebytes];
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(inFile)));
+         SlottedPageWriter writer = new SlottedPageWriter(outFile, npagebytes, td)) {
+      for (long p = 0; p < npages; p++) {
+        in.readFully(page);
+        for (int slot = 0; slot < nrecords; slot++) {
+          if ((page[slot / 8] & (1 << (slot % 8))) == 0) {
+            continue;
+          }
+          DataInputStream dis = new DataInputStream(
+              new ByteArrayInputStream(page, nheaderbytes + slot * nrecbytes, nrecbytes));
+          Tuple t = new Tuple(td);
+          try {
+            for (int i = 0; i < td.numFields(); i++) {
+              t.setField(i, td.getFieldType(i).parse(dis));
+            }
+          } catch (java.text.ParseException e) {
+            throw new IOException("slot " + slot + " of page " + p + ": " + e.getMessage());
+          }
+          writer.add(t);
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes tuples to consecutive pages of the slotted layout, each filled
+   * with as many tuples as fit. An empty file gets one empty page.
+   */
+  private static class SlottedPageWriter implements Closeable {
+    private final OutputStream os;
+    private final int npagebytes;
+    private final TupleDesc td;
+    private final List<Tuple> page = new ArrayList<>();
+    private int bytes = 0;
+    private int npages = 0;
+
+    SlottedPageWriter(File outFile, int npagebytes, TupleDesc td) throws IOException {
+      this.os = new BufferedOutputStream(new FileOutputStream(outFile));
+      this.npagebytes = npagebytes;
+      this.td = td;
+    }
+
+    void add(Tuple t) throws IOException {
+      int size = HeapPage.recordSize(td, t);
+      if (!HeapPage.fits(npagebytes, 1, size)) {
+        throw new IOException("tuple does not fit in a page of " + npagebytes + " bytes: " + t);
+      }
+      if (!HeapPage.fits(npagebytes, page.size() + 1, bytes + size)) {
+        flush();
+      }
+      page.add(t);
+      bytes += size;
+    }
+
+    private void flush() throws IOException {
+      os.write(HeapPage.slottedPageData(td, page.toArray(new Tuple[0]), npagebytes));
+      page.clear();
+      bytes = 0;
+      npages++;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!page.isEmpty() || npages == 0) {
+        flush();
+      }
+      os.close();
+    }
+  }
 }
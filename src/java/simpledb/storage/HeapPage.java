@@ -4,14 +4,26 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Catalog;
+import simpledb.common.Type;
+import simpledb.execution.Expression;
 import simpledb.transaction.TransactionId;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A page of a table with VARCHAR fields has a slotted layout instead of the
+ * header bitmap and fixed slots: 2 bytes of number of slots and 2 bytes of
+ * offset of the first record, then a slot directory of 2 bytes of offset and
+ * 2 bytes of length for each slot, with offset 0 for an empty slot, and the
+ * records packed at the end of the page. A VARCHAR field of a record takes
+ * only 1 byte more than its value, other fields their fixed width. The
+ * slot of a tuple, its record id, does not change while it is on the page.
+ * Pages of this layout must be at most 65535 bytes.
  *
  * @see HeapFile
  * @see BufferPool
@@ -28,6 +40,24 @@ public class HeapPage implements Page {
 
     byte[] oldData;
     private final Byte oldDataLock= (byte) 0;
+    // 全部为 INT 的表用紧凑元组保存
+    private final boolean compact;
+    // 有 VARCHAR 字段的表使用 slotted 布局, 此时 header 为空
+    private final boolean slotted;
+    // slotted 页中目录的项数, 以及所有记录的字节数
+    private int slotCount;
+    private int usedBytes;
+
+    // slotted 页头: 目录项数和第一条记录的偏移
+    private static final int SLOTTED_HEADER = 4;
+    private static final int SLOT_SIZE = 4;
+
+    private static boolean compactTuples = true;
+
+    // THIS FUNCTION SHOULD ONLY BE USED FOR TESTING!!
+    public static void setCompactTuples(boolean compact) {
+        compactTuples = compact;
+    }
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -48,7 +78,16 @@ public class HeapPage implements Page {
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
-        this.numSlots = getNumTuples();
+        this.slotted = td.isVariableLength();
+        this.numSlots = slotted ? maxSlots(td, BufferPool.getPageSize()) : getNumTuples();
+        this.compact = compactTuples && td.isAllInt();
+        if (slotted) {
+            header = new byte[0];
+            tuples = new Tuple[numSlots];
+            readSlots(data);
+            setBeforeImage();
+            return;
+        }
         DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
         // allocate and read the header slots of this page
@@ -72,6 +111,165 @@ public class HeapPage implements Page {
         setBeforeImage();
     }
 
+    /**
+     * Read the slot directory and the records of a page of the slotted layout.
+     */
+    private void readSlots(byte[] data) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int entries = buf.getShort(0) & 0xffff;
+        if (entries > numSlots) {
+            throw new IOException("page " + pid + " has " + entries + " slots, more than " + numSlots);
+        }
+        for (int i = 0; i < entries; i++) {
+            int offset = buf.getShort(SLOTTED_HEADER + SLOT_SIZE * i) & 0xffff;
+            int length = buf.getShort(SLOTTED_HEADER + SLOT_SIZE * i + 2) & 0xffff;
+            if (offset == 0) {
+                continue;
+            }
+            try {
+                Tuple t = readRecord(new DataInputStream(new ByteArrayInputStream(data, offset, length)), td);
+                t.setRecordId(new RecordId(pid, i));
+                tuples[i] = t;
+            } catch (java.text.ParseException e) {
+                throw new IOException("slot " + i + " of page " + pid + ": " + e.getMessage());
+            }
+            usedBytes += length;
+        }
+        slotCount = entries;
+    }
+
+    /**
+     * @return the largest number of slots of a page of the slotted layout, of
+     *         records of the smallest size
+     */
+    private static int maxSlots(TupleDesc td, int pageSize) {
+        int minSize = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            minSize += td.getMaxLen(i) > 0 ? Type.varcharLen(0) : td.getFieldType(i).getLen();
+        }
+        return (pageSize - SLOTTED_HEADER) / (SLOT_SIZE + minSize);
+    }
+
+    /**
+     * @return a tuple of td read from a record of the slotted layout
+     */
+    static Tuple readRecord(DataInputStream dis, TupleDesc td) throws java.text.ParseException {
+        Tuple t = new Tuple(td);
+        for (int j = 0; j < td.numFields(); j++) {
+            int maxLen = td.getMaxLen(j);
+            t.setField(j, maxLen > 0 ? Type.parseVarchar(dis, maxLen) : td.getFieldType(j).parse(dis));
+        }
+        return t;
+    }
+
+    /**
+     * Write t as a record of the slotted layout; a VARCHAR(n) value longer
+     * than n is cut to n characters.
+     */
+    static void writeRecord(DataOutputStream dos, TupleDesc td, Tuple t) throws IOException {
+        for (int j = 0; j < td.numFields(); j++) {
+            int maxLen = td.getMaxLen(j);
+            if (maxLen > 0) {
+                ((StringField) t.getField(j)).serializeVarchar(dos, maxLen);
+            } else {
+                t.getField(j).serialize(dos);
+            }
+        }
+    }
+
+    /**
+     * @return t, or a copy of t with each VARCHAR(n) value cut to n characters
+     *         as writeRecord stores it, so a cached page holds the same tuples
+     *         as the page read back from disk; t itself is not changed
+     * @throws DbException if a VARCHAR field of t is not a string
+     */
+    static Tuple fitVarchars(TupleDesc td, Tuple t) throws DbException {
+        boolean cut = false;
+        for (int j = 0; j < td.numFields(); j++) {
+            int maxLen = td.getMaxLen(j);
+            if (maxLen <= 0) {
+                continue;
+            }
+            if (!(t.getField(j) instanceof StringField)) {
+                throw new DbException("field " + j + " of " + t + " is not a VARCHAR(" + maxLen + ") value");
+            }
+            cut |= ((StringField) t.getField(j)).getValue().length() > maxLen;
+        }
+        if (!cut) {
+            return t;
+        }
+        Tuple fitted = new Tuple(t.getTupleDesc());
+        for (int j = 0; j < td.numFields(); j++) {
+            int maxLen = td.getMaxLen(j);
+            String value = maxLen > 0 ? ((StringField) t.getField(j)).getValue() : null;
+            fitted.setField(j, value != null && value.length() > maxLen
+                    ? new StringField(value.substring(0, maxLen), Type.STRING_LEN) : t.getField(j));
+        }
+        fitted.setRecordId(t.getRecordId());
+        return fitted;
+    }
+
+    /**
+     * @return the number of bytes of t as a record of the slotted layout
+     */
+    static int recordSize(TupleDesc td, Tuple t) {
+        int size = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            int maxLen = td.getMaxLen(j);
+            size += maxLen > 0 ? ((StringField) t.getField(j)).varcharSize(maxLen) : td.getFieldType(j).getLen();
+        }
+        return size;
+    }
+
+    /**
+     * @return true if records of the given sizes fit in a page of the slotted
+     *         layout, with a slot directory of the given number of slots
+     */
+    static boolean fits(int pageSize, int slots, int recordBytes) {
+        return SLOTTED_HEADER + SLOT_SIZE * slots + recordBytes <= pageSize;
+    }
+
+    /**
+     * Generates the data of a page of the slotted layout with the given
+     * tuples, null for an empty slot, in their slots.
+     *
+     * @throws IllegalArgumentException if the tuples do not fit in a page
+     */
+    static byte[] slottedPageData(TupleDesc td, Tuple[] tuples, int pageSize) {
+        int entries = tuples.length;
+        while (entries > 0 && tuples[entries - 1] == null) {
+            entries--;
+        }
+        byte[] data = new byte[pageSize];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(baos);
+        // 记录从页尾向前存放
+        int end = pageSize;
+        for (int i = 0; i < entries; i++) {
+            if (tuples[i] == null) {
+                continue;
+            }
+            baos.reset();
+            try {
+                writeRecord(dos, td, tuples[i]);
+                dos.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            end -= baos.size();
+            if (end < SLOTTED_HEADER + SLOT_SIZE * entries) {
+                throw new IllegalArgumentException("the tuples do not fit in a page of " + pageSize + " bytes");
+            }
+            System.arraycopy(baos.toByteArray(), 0, data, end, baos.size());
+            buf.putShort(SLOTTED_HEADER + SLOT_SIZE * i, (short) end);
+            buf.putShort(SLOTTED_HEADER + SLOT_SIZE * i + 2, (short) baos.size());
+        }
+        buf.putShort(0, (short) entries);
+        buf.putShort(2, (short) end);
+        return data;
+    }
+
     /** Retrieve the number of tuples on this page.
      @return the number of tuples on this page
      */
@@ -151,9 +349,23 @@ public class HeapPage implements Page {
             return null;
         }
 
+        RecordId rid = new RecordId(pid, slotId);
+        if (compact) {
+            int[] values = new int[td.numFields()];
+            try {
+                for (int j = 0; j < values.length; j++) {
+                    values[j] = dis.readInt();
+                }
+            } catch (IOException e) {
+                throw new NoSuchElementException("error reading tuple");
+            }
+            Tuple t = new Tuple(td, values);
+            t.setRecordId(rid);
+            return t;
+        }
+
         // read fields in the tuple
         Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
         t.setRecordId(rid);
         try {
             for (int j=0; j<td.numFields(); j++) {
@@ -181,6 +393,9 @@ public class HeapPage implements Page {
      */
     @Override
     public byte[] getPageData() {
+        if (slotted) {
+            return slottedPageData(td, tuples, BufferPool.getPageSize());
+        }
         int len = BufferPool.getPageSize();
         ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
         DataOutputStream dos = new DataOutputStream(baos);
@@ -212,6 +427,16 @@ public class HeapPage implements Page {
             }
 
             // non-empty slot
+            if (tuples[i].isCompact()) {
+                try {
+                    for (int j = 0; j < td.numFields(); j++) {
+                        dos.writeInt(tuples[i].getInt(j));
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+                continue;
+            }
             for (int j=0; j<td.numFields(); j++) {
                 Field f = tuples[i].getField(j);
                 try {
@@ -273,6 +498,9 @@ public class HeapPage implements Page {
 
             throw new DbException("this slot is already empty");
         }
+        if (slotted) {
+            usedBytes -= recordSize(td, tuples[tupleNumber]);
+        }
         tuples[tupleNumber] = null;
         markSlotUsed(tupleNumber,false);
 
@@ -289,6 +517,20 @@ public class HeapPage implements Page {
     public void insertTuple(Tuple t) throws DbException {
         // some code goes here
         // not necessary for lab1
+        if (slotted) {
+            Tuple stored = fitVarchars(td, t);
+            int slot = freeSlot();
+            int size = recordSize(td, stored);
+            if (slot >= numSlots || !fits(BufferPool.getPageSize(), Math.max(slotCount, slot + 1), usedBytes + size)) {
+                throw new DbException("this page is already full");
+            }
+            t.setRecordId(new RecordId(this.pid, slot));
+            stored.setRecordId(t.getRecordId());
+            tuples[slot] = stored;
+            slotCount = Math.max(slotCount, slot + 1);
+            usedBytes += size;
+            return;
+        }
         for (int i = 0; i <tuples.length ;i++) {
             if (tuples[i] == null) {
                 if (isSlotUsed(i)) {
@@ -305,6 +547,30 @@ public class HeapPage implements Page {
 
     }
 
+    /**
+     * @return the first empty slot of the directory of a slotted page, or the
+     *         slot after it
+     */
+    private int freeSlot() {
+        int slot = 0;
+        while (slot < slotCount && tuples[slot] != null) {
+            slot++;
+        }
+        return slot;
+    }
+
+    /**
+     * @return true if insertTuple(t) would find room for t on this page
+     */
+    public boolean hasRoomFor(Tuple t) {
+        if (!slotted) {
+            return getNumEmptySlots() > 0;
+        }
+        int slot = freeSlot();
+        return slot < numSlots
+                && fits(BufferPool.getPageSize(), Math.max(slotCount, slot + 1), usedBytes + recordSize(td, t));
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
@@ -331,10 +597,25 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Returns the number of empty slots on this page.
+     * Returns the number of empty slots on this page. For a page with VARCHAR
+     * fields, this is the number of tuples of the largest size that still fit.
      */
     public int getNumEmptySlots() {
         // some code goes here
+        if (slotted) {
+            int free = BufferPool.getPageSize() - SLOTTED_HEADER - SLOT_SIZE * slotCount - usedBytes;
+            int reusable = slotCount;
+            for (int i = 0; i < slotCount; i++) {
+                if (tuples[i] != null) {
+                    reusable--;
+                }
+            }
+            // 先复用空的目录项, 之后每条记录还需要一个目录项
+            int n = Math.min(reusable, Math.max(0, free) / td.getSize());
+            free -= n * td.getSize();
+            n += Math.max(0, free) / (td.getSize() + SLOT_SIZE);
+            return Math.min(n, numSlots - (slotCount - reusable));
+        }
         int numUsedSlot = 0;
         for(byte b :header) {
             // System.out.println(b);
@@ -355,6 +636,9 @@ public class HeapPage implements Page {
      * Returns true if associated slot on this page is filled.
      */
     public boolean isSlotUsed(int i) {
+        if (slotted) {
+            return i >= 0 && i < numSlots && tuples[i] != null;
+        }
         // some code goes here
         // 先获取到对应的字节，在从字节中找到对应的bit
         int index = i / 8;
@@ -364,10 +648,26 @@ public class HeapPage implements Page {
         return (this.header[index] & (1 << offset)) != 0;
     }
 
+    /**
+     * Returns the tuple stored in the given slot of this page.
+     * @param i the slot number of the tuple
+     * @throws NoSuchElementException if the slot is not in use
+     */
+    public Tuple getTuple(int i) {
+        if (i < 0 || i >= numSlots || !isSlotUsed(i)) {
+            throw new NoSuchElementException("slot " + i + " of page " + pid + " is empty");
+        }
+        return tuples[i];
+    }
+
     /**
      * Abstraction to fill or clear a slot on this page.
      */
     private void markSlotUsed(int i, boolean value) {
+        if (slotted) {
+            // slotted 页中 tuples[i] 是否为空即表示 slot 是否使用
+            return;
+        }
         int index = i /8;
         int offset = i % 8;
         if (!value) {
@@ -388,12 +688,35 @@ public class HeapPage implements Page {
 
         // some code goes here
 
+        return iterator(null, null, td);
+    }
+
+    /**
+     * Returns an iterator over the tuples on this page that satisfy a condition,
+     * each with only some of its fields. The condition is evaluated on the
+     * tuples stored in the page, and a new tuple is built only for those that
+     * satisfy it.
+     *
+     * @param condition  a condition compiled for the schema of the table, or
+     *                   null to return every tuple
+     * @param fields     the fields of the table to return, in order, or null to
+     *                   return the tuples stored in the page
+     * @param projected  the schema of the returned tuples, with the types of fields
+     */
+    public Iterator<Tuple> iterator(Expression.Condition condition, int[] fields, TupleDesc projected) {
         return new Iterator<Tuple>() {
             private int nextSlot = 0;
             @Override
             public boolean hasNext() {
-                // getNumTuples() - getNumEmptySlots()为当前已经使用的slot的数量
-                return nextSlot < getNumTuples() - getNumEmptySlots();
+                // 跳过空的slot和不满足谓词的元组，删除元组后已使用的slot不一定是连续的
+                while (nextSlot < numSlots && !(isSlotUsed(nextSlot) && matches(tuples[nextSlot]))) {
+                    nextSlot++;
+                }
+                return nextSlot < numSlots;
+            }
+
+            private boolean matches(Tuple t) {
+                return condition == null || condition.test(t);
             }
 
             @Override
@@ -402,11 +725,11 @@ public class HeapPage implements Page {
                 if (!hasNext()) {
                     throw new NoSuchElementException();
                 }
-                while (!isSlotUsed(nextSlot)) {
-                    // 获取被使用的slot
-                    nextSlot++;
+                Tuple t = tuples[nextSlot++];
+                if (fields == null) {
+                    return t;
                 }
-                return tuples[nextSlot++];
+                return t.project(projected, fields);
             }
         };
     }
@@ -14,6 +14,17 @@ public class IntField implements Field {
 
     private final int value;
 
+    // 常用的小整数共享同一个对象, 与 Integer.valueOf 相同
+    private static final int CACHE_LOW = -128;
+    private static final int CACHE_HIGH = 1023;
+    private static final IntField[] CACHE = new IntField[CACHE_HIGH - CACHE_LOW + 1];
+
+    static {
+        for (int i = 0; i < CACHE.length; i++) {
+            CACHE[i] = new IntField(CACHE_LOW + i);
+        }
+    }
+
     public int getValue() {
         return value;
     }
@@ -27,6 +38,15 @@ public class IntField implements Field {
         value = i;
     }
 
+    /**
+     * Returns an IntField of the given value, shared for small values.
+     *
+     * @param i The value of the field.
+     */
+    public static IntField valueOf(int i) {
+        return i >= CACHE_LOW && i <= CACHE_HIGH ? CACHE[i - CACHE_LOW] : new IntField(i);
+    }
+
     @Override
     public String toString() {
         return Integer.toString(value);
@@ -74,6 +74,29 @@ public class StringField implements Field {
 		}
 	}
 
+	/**
+	 * Write this string as a VARCHAR(maxLen): 1 byte of length followed by
+	 * the string, cut to maxLen characters, without padding.
+	 * 
+	 * @param dos
+	 *            Where the string is written
+	 * @param maxLen
+	 *            The maximum length of the VARCHAR
+	 * @see simpledb.common.Type#parseVarchar
+	 */
+	public void serializeVarchar(DataOutputStream dos, int maxLen) throws IOException {
+		String s = value.length() > maxLen ? value.substring(0, maxLen) : value;
+		dos.writeByte(s.length());
+		dos.writeBytes(s);
+	}
+
+	/**
+	 * @return the number of bytes written by serializeVarchar(dos, maxLen)
+	 */
+	public int varcharSize(int maxLen) {
+		return Type.varcharLen(Math.min(value.length(), maxLen));
+	}
+
 	/**
 	 * Compare the specified field to the value of this Field. Return semantics
 	 * are as specified by Field.compare
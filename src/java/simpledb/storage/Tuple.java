@@ -19,6 +19,8 @@ public class Tuple implements Serializable {
     private RecordId recordId;
     private TupleDesc tupleDesc;
     private  List<Field> fields;
+    // 全部为 INT 的紧凑元组直接保存 int 值, 此时 fields 为 null
+    private int[] ints;
 
     /**
      * Create a new tuple with the specified schema (type).
@@ -33,6 +35,24 @@ public class Tuple implements Serializable {
         // some code goes here
     }
 
+    /**
+     * Create a compact tuple of a schema with only INT fields, which keeps
+     * the values in an int array instead of a list of IntField objects.
+     *
+     * @param td
+     *            the schema of this tuple; all its fields must be INT_TYPE.
+     * @param values
+     *            the values of the fields of this tuple, which the tuple
+     *            keeps without copying.
+     */
+    public Tuple(TupleDesc td, int[] values) {
+        if (values.length != td.numFields()) {
+            throw new IllegalArgumentException("expected " + td.numFields() + " values, got " + values.length);
+        }
+        this.tupleDesc = td;
+        this.ints = values;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -71,6 +91,13 @@ public class Tuple implements Serializable {
      *            new value for the field.
      */
     public void setField(int i, Field f) {
+        if (ints != null) {
+            if (!(f instanceof IntField)) {
+                throw new UnsupportedOperationException("类型不匹配");
+            }
+            ints[i] = ((IntField) f).getValue();
+            return;
+        }
         // 先检测索引是否符合规范
         int maxSize = this.tupleDesc.getSize();
         if (i < 0 || i >= maxSize) {
@@ -98,8 +125,11 @@ public class Tuple implements Serializable {
      */
     public Field getField(int i) {
 
-        int maxSize = this.tupleDesc.getSize();
-        if (i < 0 || i >= maxSize) {
+        if (ints != null) {
+            return IntField.valueOf(ints[i]);
+        }
+        // 按字段个数检查, 而不是每次累加 TupleDesc 的字节数
+        if (i < 0 || i >= fields.size()) {
             try {
                 throw new NoSuchFieldException();
             } catch (NoSuchFieldException e) {
@@ -111,6 +141,77 @@ public class Tuple implements Serializable {
         return fields.get(i);
     }
 
+    /**
+     * Returns the value of the ith field, which must be an INT field, without
+     * allocating an IntField for a compact tuple.
+     *
+     * @param i
+     *            field index to return. Must be a valid index.
+     */
+    public int getInt(int i) {
+        return ints != null ? ints[i] : ((IntField) fields.get(i)).getValue();
+    }
+
+    /**
+     * @return true if this tuple keeps its values in an int array
+     */
+    public boolean isCompact() {
+        return ints != null;
+    }
+
+    /**
+     * Returns a new tuple with the given fields of this tuple, in order, and
+     * the record id of this tuple. The result is compact if this tuple is.
+     *
+     * @param td
+     *            the schema of the result
+     * @param fieldList
+     *            the indexes of the fields of this tuple to keep
+     */
+    public Tuple project(TupleDesc td, int[] fieldList) {
+        Tuple result;
+        if (ints != null) {
+            int[] values = new int[fieldList.length];
+            for (int i = 0; i < fieldList.length; i++) {
+                values[i] = ints[fieldList[i]];
+            }
+            result = new Tuple(td, values);
+        } else {
+            result = new Tuple(td);
+            for (int i = 0; i < fieldList.length; i++) {
+                result.setField(i, fields.get(fieldList[i]));
+            }
+        }
+        result.setRecordId(recordId);
+        return result;
+    }
+
+    /**
+     * Returns the concatenation of two tuples, as returned by the joins. The
+     * result is compact if both tuples are.
+     *
+     * @param td
+     *            the schema of the result, the merge of those of t1 and t2
+     */
+    public static Tuple merge(TupleDesc td, Tuple t1, Tuple t2) {
+        int n1 = t1.getTupleDesc().numFields();
+        int n2 = t2.getTupleDesc().numFields();
+        if (t1.ints != null && t2.ints != null) {
+            int[] values = new int[n1 + n2];
+            System.arraycopy(t1.ints, 0, values, 0, n1);
+            System.arraycopy(t2.ints, 0, values, n1, n2);
+            return new Tuple(td, values);
+        }
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < n1; i++) {
+            t.setField(i, t1.getField(i));
+        }
+        for (int i = 0; i < n2; i++) {
+            t.setField(n1 + i, t2.getField(i));
+        }
+        return t;
+    }
+
     /**
      * Returns the contents of this Tuple as a string. Note that to pass the
      * system tests, the format needs to be as follows:
@@ -124,7 +225,7 @@ public class Tuple implements Serializable {
         return "Tuple{" +
                 "recordId=" + recordId +
                 ", tupleDesc=" + tupleDesc +
-                ", fields=" + fields +
+                ", fields=" + (ints != null ? Arrays.toString(ints) : fields) +
                 '}';
     }
 
@@ -135,6 +236,13 @@ public class Tuple implements Serializable {
     public Iterator<Field> fields()
     {
         // some code goes here
+        if (ints != null) {
+            List<Field> values = new ArrayList<>(ints.length);
+            for (int v : ints) {
+                values.add(IntField.valueOf(v));
+            }
+            return values.iterator();
+        }
         return fields.iterator();
     }
 
@@ -144,6 +252,13 @@ public class Tuple implements Serializable {
     public void resetTupleDesc(TupleDesc td)
     {
         // some code goes here
+        if (ints != null) {
+            if (td.numFields() != ints.length || !td.isAllInt()) {
+                throw new UnsupportedOperationException("与field长度不匹配");
+            }
+            this.tupleDesc = td;
+            return;
+        }
         if (this.fields == null) {
             this.tupleDesc = td;
         }
@@ -0,0 +1,213 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.util.Arrays;
+
+/**
+ * TupleBatch holds up to {@link #capacity()} rows of a relation column by column:
+ * an int[] for every INT_TYPE field and a String[] for every STRING_TYPE field.
+ * It is the unit of work of the batch operators (see
+ * {@link simpledb.execution.BatchOpIterator}).
+ * <p>
+ * Rows are stored at positions 0 .. {@link #size()}-1. An optional selection vector
+ * lists the positions of the rows that are part of the batch, in order, so that a
+ * filter can drop rows without moving any data. Without one, every stored row is
+ * selected. Operators read row i of a batch at column position {@link #row(int)}.
+ * <p>
+ * Column arrays may be shared between batches (a projection only rearranges them),
+ * so an operator must not modify a batch it did not create.
+ */
+public class TupleBatch {
+
+    /** The default number of rows in a batch */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    private final int[][] intColumns;
+    private final String[][] stringColumns;
+    private int size;
+    // 选择向量，为null时所有行都被选中
+    private int[] selection;
+    private int selected;
+
+    /**
+     * Create an empty batch with room for capacity rows of the given schema.
+     *
+     * @param td the schema of the rows
+     * @param capacity the maximum number of rows
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        this.intColumns = new int[td.numFields()][];
+        this.stringColumns = new String[td.numFields()][];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                intColumns[i] = new int[capacity];
+            } else {
+                stringColumns[i] = new String[capacity];
+            }
+        }
+    }
+
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a batch of the given schema over existing column arrays, e.g. a
+     * projection of another batch. The batch shares the arrays.
+     */
+    private TupleBatch(TupleDesc td, int capacity, int[][] intColumns, String[][] stringColumns,
+                       int size, int[] selection, int selected) {
+        this.td = td;
+        this.capacity = capacity;
+        this.intColumns = intColumns;
+        this.stringColumns = stringColumns;
+        this.size = size;
+        this.selection = selection;
+        this.selected = selected;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the maximum number of rows this batch can store
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of rows stored in this batch, selected or not
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of selected rows of this batch
+     */
+    public int numRows() {
+        return selection == null ? size : selected;
+    }
+
+    /**
+     * @return the position in the column arrays of the i-th selected row
+     */
+    public int row(int i) {
+        return selection == null ? i : selection[i];
+    }
+
+    /**
+     * @return true if no more rows can be appended to this batch
+     */
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /**
+     * @return the values of an INT_TYPE field, indexed by row position
+     */
+    public int[] getInts(int field) {
+        return intColumns[field];
+    }
+
+    /**
+     * @return the values of a STRING_TYPE field, indexed by row position
+     */
+    public String[] getStrings(int field) {
+        return stringColumns[field];
+    }
+
+    /**
+     * Restrict this batch to the rows at the given positions.
+     *
+     * @param positions the positions of the selected rows, in increasing order;
+     *            the batch keeps a reference to the array
+     * @param count the number of valid entries of positions
+     */
+    public void setSelection(int[] positions, int count) {
+        this.selection = positions;
+        this.selected = count;
+    }
+
+    /**
+     * Remove every row and the selection vector, so the batch can be filled again.
+     */
+    public void clear() {
+        size = 0;
+        selection = null;
+        selected = 0;
+    }
+
+    /**
+     * Set the number of rows stored, after the column arrays were filled directly.
+     */
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    /**
+     * Append a row to the batch.
+     *
+     * @param t a tuple with the schema of this batch
+     * @throws IllegalStateException if the batch is full
+     */
+    public void addTuple(Tuple t) {
+        if (isFull()) {
+            throw new IllegalStateException("batch is full");
+        }
+        for (int i = 0; i < intColumns.length; i++) {
+            Field f = t.getField(i);
+            if (intColumns[i] != null) {
+                intColumns[i][size] = ((IntField) f).getValue();
+            } else {
+                stringColumns[i][size] = ((StringField) f).getValue();
+            }
+        }
+        size++;
+    }
+
+    /**
+     * Build a Tuple holding the i-th selected row of this batch.
+     */
+    public Tuple getTuple(int i) {
+        int r = row(i);
+        Tuple t = new Tuple(td);
+        for (int f = 0; f < intColumns.length; f++) {
+            if (intColumns[f] != null) {
+                t.setField(f, new IntField(intColumns[f][r]));
+            } else {
+                t.setField(f, new StringField(stringColumns[f][r], Type.STRING_LEN));
+            }
+        }
+        return t;
+    }
+
+    /**
+     * Returns a batch of the selected rows of this batch restricted to some of its
+     * fields. The column arrays and the selection vector are shared, not copied.
+     *
+     * @param fields the fields of this batch to keep, in output order
+     * @param projected the schema of the result
+     */
+    public TupleBatch project(int[] fields, TupleDesc projected) {
+        int[][] ints = new int[fields.length][];
+        String[][] strings = new String[fields.length][];
+        for (int i = 0; i < fields.length; i++) {
+            ints[i] = intColumns[fields[i]];
+            strings[i] = stringColumns[fields[i]];
+        }
+        return new TupleBatch(projected, capacity, ints, strings, size, selection, selected);
+    }
+
+    @Override
+    public String toString() {
+        return "TupleBatch(" + numRows() + " of " + size + " rows, " + Arrays.toString(td.getTdItems().toArray()) + ")";
+    }
+}
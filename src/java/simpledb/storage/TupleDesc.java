@@ -33,14 +33,28 @@ public class TupleDesc implements Serializable {
          * */
         public final String fieldName;
 
+        /**
+         * The maximum length n of a VARCHAR(n) field, stored with only the
+         * characters of its value, or 0 for a field of fixed width
+         * */
+        public final int maxLen;
+
         public TDItem(Type t, String n) {
+            this(t, n, 0);
+        }
+
+        public TDItem(Type t, String n, int maxLen) {
+            if (maxLen < 0 || maxLen > Type.VARCHAR_MAX_LEN || maxLen > 0 && t != Type.STRING_TYPE) {
+                throw new IllegalArgumentException("invalid VARCHAR(" + maxLen + ") of type " + t);
+            }
             this.fieldName = n;
             this.fieldType = t;
+            this.maxLen = maxLen;
         }
 
         @Override
         public String toString() {
-            return fieldName + "(" + fieldType + ")";
+            return fieldName + "(" + (maxLen > 0 ? "VARCHAR(" + maxLen + ")" : fieldType) + ")";
         }
 
 
@@ -95,6 +109,28 @@ public class TupleDesc implements Serializable {
         }
     }
 
+    /**
+     * Create a new TupleDesc whose STRING fields may be VARCHARs, stored with
+     * the slotted layout of HeapPage.
+     *
+     * @param typeAr
+     *            array specifying the number of and types of fields in this
+     *            TupleDesc. It must contain at least one entry.
+     * @param fieldAr
+     *            array specifying the names of the fields. Note that names may
+     *            be null.
+     * @param maxLens
+     *            the maximum length n of each VARCHAR(n) field, or 0 for a
+     *            field of fixed width
+     * @throws IllegalArgumentException if a VARCHAR is not a STRING field
+     */
+    public TupleDesc(Type[] typeAr, String[] fieldAr, int[] maxLens) {
+        tdItems = new ArrayList<>();
+        for (int i = 0; i < typeAr.length; i++) {
+            tdItems.add(new TDItem(typeAr[i], fieldAr[i], maxLens[i]));
+        }
+    }
+
     public TupleDesc(List<TDItem> list) {
         this.tdItems = list;
     }
@@ -181,15 +217,57 @@ public class TupleDesc implements Serializable {
         // some code goes here
     }
 
+    /**
+     * @return the maximum length n of the ith field if it is a VARCHAR(n), or 0
+     *         if it has a fixed width
+     * @throws NoSuchElementException
+     *             if i is not a valid field reference.
+     */
+    public int getMaxLen(int i) throws NoSuchElementException {
+        if (i < 0 || i >= tdItems.size()) {
+            throw new NoSuchElementException();
+        }
+        return tdItems.get(i).maxLen;
+    }
+
+    /**
+     * @return true if some field of this TupleDesc is a VARCHAR, so that its
+     *         tuples do not all have the same size
+     */
+    public boolean isVariableLength() {
+        for (TDItem t : tdItems) {
+            if (t.maxLen > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if all the fields of this TupleDesc are INT_TYPE, so that
+     *         its tuples can be kept compact
+     * @see Tuple#Tuple(TupleDesc, int[])
+     */
+    public boolean isAllInt() {
+        for (TDItem t : tdItems) {
+            if (t.fieldType != Type.INT_TYPE) {
+                return false;
+            }
+        }
+        return !tdItems.isEmpty();
+    }
+
     /**
      * @return The size (in bytes) of tuples corresponding to this TupleDesc.
-     *         Note that tuples from a given TupleDesc are of a fixed size.
+     *         Note that tuples from a given TupleDesc are of a fixed size,
+     *         unless it has VARCHAR fields, in which case this is the size of
+     *         the largest tuple.
      */
     public int getSize() {
         // some code goes here
         int size = 0;
         for (TDItem t: tdItems) {
-            size +=t.fieldType.getLen();
+            size += t.maxLen > 0 ? Type.varcharLen(t.maxLen) : t.fieldType.getLen();
         }
 
 
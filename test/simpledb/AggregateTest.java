@@ -3,6 +3,13 @@ package simpledb;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Before;
@@ -13,6 +20,7 @@ import simpledb.common.Utility;
 import simpledb.execution.Aggregate;
 import simpledb.execution.Aggregator;
 import simpledb.execution.OpIterator;
+import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
 
@@ -191,6 +199,170 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  private static List<String> readSorted(OpIterator op) throws Exception {
+    List<String> result = new ArrayList<>();
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      result.add(t.getField(0) + " " + t.getField(1));
+    }
+    Collections.sort(result);
+    return result;
+  }
+
+  /**
+   * With fewer groups in memory than in the input, the tuples of the other
+   * groups are spilled and aggregated afterwards, with the same result.
+   */
+  @Test public void spillingMatchesInMemory() throws Exception {
+    Random random = new Random(17);
+    int[] values = new int[2 * 5000];
+    for (int i = 0; i < values.length; i += 2) {
+      values[i] = random.nextInt(700);
+      values[i + 1] = random.nextInt(1000) - 500;
+    }
+    for (Aggregator.Op op : new Aggregator.Op[]{Aggregator.Op.MIN, Aggregator.Op.MAX,
+        Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT}) {
+      Aggregate inMemory = new Aggregate(TestUtil.createTupleList(width1, values), 1, 0, op);
+      inMemory.open();
+      List<String> expected = readSorted(inMemory);
+      assertEquals(0, inMemory.numSpilledPartitions());
+      inMemory.close();
+      assertEquals(700, expected.size());
+
+      Aggregate spilled = new Aggregate(TestUtil.createTupleList(width1, values), 1, 0, op, 20);
+      spilled.open();
+      assertTrue(spilled.numSpilledPartitions() > 0);
+      assertEquals(expected, readSorted(spilled));
+      spilled.rewind();
+      assertEquals(expected, readSorted(spilled));
+      spilled.close();
+      // opening again does not count the tuples twice
+      spilled.open();
+      assertEquals(expected, readSorted(spilled));
+      spilled.close();
+    }
+  }
+
+  /**
+   * Spilling with string group values
+   */
+  @Test public void spillingStringGroups() throws Exception {
+    Object[] values = new Object[2 * 600];
+    for (int i = 0; i < values.length; i += 2) {
+      values[i] = "g" + (i % 97);
+      values[i + 1] = i;
+    }
+    Aggregate inMemory = new Aggregate(TestUtil.createTupleList(width1, values), 1, 0, Aggregator.Op.SUM);
+    inMemory.open();
+    List<String> expected = readSorted(inMemory);
+    inMemory.close();
+    Aggregate spilled = new Aggregate(TestUtil.createTupleList(width1, values), 1, 0, Aggregator.Op.SUM, 5);
+    spilled.open();
+    assertTrue(spilled.numSpilledPartitions() > 0);
+    assertEquals(expected, readSorted(spilled));
+    spilled.close();
+  }
+
+  private static List<String> readAllSorted(OpIterator op) throws Exception {
+    List<String> result = new ArrayList<>();
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      StringBuilder row = new StringBuilder();
+      for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+        row.append(i == 0 ? "" : " ").append(t.getField(i));
+      }
+      result.add(row.toString());
+    }
+    Collections.sort(result);
+    return result;
+  }
+
+  /**
+   * Several aggregates over a key of two group-by fields are computed in one
+   * pass, in memory or spilled, with the results of a straightforward
+   * computation.
+   */
+  @Test public void multipleAggregatesAndGroups() throws Exception {
+    Random random = new Random(23);
+    int[] values = new int[3 * 4000];
+    for (int i = 0; i < values.length; i += 3) {
+      values[i] = random.nextInt(30);
+      values[i + 1] = random.nextInt(20);
+      values[i + 2] = random.nextInt(1000) - 500;
+    }
+    Map<String, int[]> groups = new HashMap<>();
+    for (int i = 0; i < values.length; i += 3) {
+      int[] acc = groups.get(values[i] + " " + values[i + 1]);
+      if (acc == null) {
+        acc = new int[]{0, 0, Integer.MIN_VALUE, Integer.MAX_VALUE};
+        groups.put(values[i] + " " + values[i + 1], acc);
+      }
+      acc[0]++;
+      acc[1] += values[i + 2];
+      acc[2] = Math.max(acc[2], values[i + 2]);
+      acc[3] = Math.min(acc[3], values[i + 1]);
+    }
+    List<String> expected = new ArrayList<>();
+    for (Map.Entry<String, int[]> e : groups.entrySet()) {
+      int[] acc = e.getValue();
+      expected.add(e.getKey() + " " + acc[0] + " " + acc[1] + " " + acc[2] + " " + acc[3] + " " + acc[1] / acc[0]);
+    }
+    Collections.sort(expected);
+
+    int[] afields = {2, 2, 2, 1, 2};
+    Aggregator.Op[] ops = {Aggregator.Op.COUNT, Aggregator.Op.SUM, Aggregator.Op.MAX,
+        Aggregator.Op.MIN, Aggregator.Op.AVG};
+    int[] gfields = {0, 1};
+    Aggregate inMemory = new Aggregate(TestUtil.createTupleList(3, values), afields, ops, gfields);
+    TupleDesc td = inMemory.getTupleDesc();
+    assertEquals(7, td.numFields());
+    assertEquals(Type.INT_TYPE, td.getFieldType(6));
+    inMemory.open();
+    assertEquals(expected, readAllSorted(inMemory));
+    assertEquals(0, inMemory.numSpilledPartitions());
+    inMemory.close();
+
+    Aggregate spilled = new Aggregate(TestUtil.createTupleList(3, values), afields, ops, gfields, 25);
+    spilled.open();
+    assertTrue(spilled.numSpilledPartitions() > 0);
+    assertEquals(expected, readAllSorted(spilled));
+    spilled.rewind();
+    assertEquals(expected, readAllSorted(spilled));
+    spilled.close();
+  }
+
+  /**
+   * Each aggregate computed together with others has the result it has when
+   * computed alone, with and without grouping.
+   */
+  @Test public void multipleAggregatesMatchSingle() throws Exception {
+    Aggregator.Op[] ops = {Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.SUM,
+        Aggregator.Op.AVG, Aggregator.Op.COUNT};
+    int[] afields = {1, 1, 1, 1, 1};
+    for (int[] gfields : new int[][]{{}, {0}}) {
+      Aggregate all = new Aggregate(scan1, afields, ops, gfields);
+      all.open();
+      List<Tuple> rows = new ArrayList<>();
+      while (all.hasNext()) {
+        rows.add(all.next());
+      }
+      all.close();
+      for (int i = 0; i < ops.length; i++) {
+        Aggregate single = new Aggregate(scan1, 1, gfields.length == 0 ? Aggregator.NO_GROUPING : 0, ops[i]);
+        single.open();
+        for (Tuple row : rows) {
+          Tuple t = single.next();
+          if (gfields.length > 0) {
+            assertEquals(t.getField(0), row.getField(0));
+          }
+          assertEquals(t.getField(gfields.length), row.getField(gfields.length + i));
+        }
+        assertTrue(!single.hasNext());
+        single.close();
+      }
+    }
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,387 @@
+package simpledb;
+
+import org.junit.After;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class BTreeKeyCompressionTest extends SimpleDbTestBase {
+
+	private static final TupleDesc STRING_KEY_TD =
+			new TupleDesc(new Type[]{Type.STRING_TYPE, Type.INT_TYPE}, new String[]{"name", "id"});
+
+	private static StringField str(String s) {
+		return new StringField(s, Type.STRING_LEN);
+	}
+
+	private static String key(int i) {
+		return String.format("customer-%06d", i);
+	}
+
+	@After public void tearDown() {
+		BufferPool.resetPageSize();
+		Database.reset();
+	}
+
+	/**
+	 * Unit test for BTreeKeyCompression.shortestSeparator()
+	 */
+	@Test public void shortestSeparator() {
+		assertEquals(str("b"), BTreeKeyCompression.shortestSeparator(str("apple"), str("banana")));
+		assertEquals(str("ab"), BTreeKeyCompression.shortestSeparator(str("aaaa"), str("abzz")));
+		assertEquals(str("abc"), BTreeKeyCompression.shortestSeparator(str("ab"), str("abcdef")));
+		assertEquals(str("customer-000124"),
+				BTreeKeyCompression.shortestSeparator(str("customer-000123"), str("customer-000124")));
+		// equal keys (duplicates spanning two pages) can not be shortened
+		assertEquals(str("same"), BTreeKeyCompression.shortestSeparator(str("same"), str("same")));
+		// non-string keys are left alone
+		assertEquals(new IntField(7), BTreeKeyCompression.shortestSeparator(new IntField(3), new IntField(7)));
+	}
+
+	/**
+	 * A compact internal page should survive a round trip through its byte representation
+	 * and hold far more entries than a fixed-size page
+	 */
+	@Test public void compactPageRoundTrip() throws Exception {
+		Database.getCatalog().addTable(new SkeletonFile(-1, STRING_KEY_TD), SystemTestUtil.getUUID());
+		BTreePageId pid = new BTreePageId(-1, 1, BTreePageId.INTERNAL);
+
+		List<BTreeEntry> entries = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			entries.add(new BTreeEntry(str(key(i * 10)),
+					new BTreePageId(-1, 100 + i, BTreePageId.LEAF),
+					new BTreePageId(-1, 101 + i, BTreePageId.LEAF)));
+		}
+		byte[] data = BTreeFileEncoder.convertToInternalPage(entries, BufferPool.getPageSize(),
+				Type.STRING_TYPE, BTreePageId.LEAF);
+		BTreeInternalPage page = new BTreeInternalPage(pid, data, 0);
+		assertTrue(page.isCompact());
+		assertEquals(20, page.getNumEntries());
+		assertTrue(page.getMaxEntries() > BufferPool.getPageSize() / Type.STRING_TYPE.getLen());
+
+		BTreeInternalPage copy = new BTreeInternalPage(pid, page.getPageData(), 0);
+		Iterator<BTreeEntry> it = copy.iterator();
+		for (int i = 0; i < 20; i++) {
+			BTreeEntry e = it.next();
+			assertEquals(str(key(i * 10)), e.getKey());
+			assertEquals(100 + i, e.getLeftChild().getPageNumber());
+			assertEquals(101 + i, e.getRightChild().getPageNumber());
+		}
+		assertFalse(it.hasNext());
+		// the shared "customer-000" prefix is only stored once
+		assertTrue(copy.getUsedBytes() < 20 * page.getMaxEntrySize() / 4);
+	}
+
+	/**
+	 * Inserting and deleting string keys should keep the tree searchable while internal
+	 * pages hold many more than the ~30 entries a fixed-size string page can
+	 */
+	@Test public void insertAndDeleteStringKeys() throws Exception {
+		BTreeFile bf = createStringKeyedFile();
+		int n = 3000;
+		List<Integer> order = new ArrayList<>();
+		for (int i = 0; i < n; i++) {
+			order.add(i);
+		}
+		Collections.shuffle(order, new Random(42));
+
+		TransactionId tid = new TransactionId();
+		for (int i : order) {
+			Tuple t = new Tuple(STRING_KEY_TD);
+			t.setField(0, str(key(i)));
+			t.setField(1, new IntField(i));
+			Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+		}
+		Database.getBufferPool().transactionComplete(tid);
+
+		tid = new TransactionId();
+		BTreeShape shape = BTreeShape.compute(bf, tid);
+		assertEquals(n, shape.getNumTuples());
+		// a fixed-size internal page holds only 30 string keys, so ~150 leaves would need three levels
+		assertEquals(shape.toString(), 2, shape.getDepth());
+		assertTrue(shape.toString(), shape.getMaxFanout() > 100);
+		assertSorted(bf, tid, n);
+		for (int i = 0; i < n; i += 97) {
+			assertEquals(1, countMatches(bf, tid, new IndexPredicate(Op.EQUALS, str(key(i)))));
+		}
+		assertEquals(n / 2, countMatches(bf, tid, new IndexPredicate(Op.GREATER_THAN_OR_EQ, str(key(n / 2)))));
+
+		// delete two thirds of the tuples, forcing pages to steal and merge
+		List<Tuple> toDelete = new ArrayList<>();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			if (((IntField) t.getField(1)).getValue() % 3 != 0) {
+				toDelete.add(t);
+			}
+		}
+		it.close();
+		for (Tuple t : toDelete) {
+			Database.getBufferPool().deleteTuple(tid, t);
+		}
+		Database.getBufferPool().transactionComplete(tid);
+
+		tid = new TransactionId();
+		int remaining = n - toDelete.size();
+		assertEquals(remaining, BTreeShape.compute(bf, tid).getNumTuples());
+		assertSorted(bf, tid, remaining);
+		for (int i = 0; i < n; i += 97) {
+			assertEquals(i % 3 == 0 ? 1 : 0, countMatches(bf, tid, new IndexPredicate(Op.EQUALS, str(key(i)))));
+		}
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * A bulk loaded string-keyed tree packs its internal pages by the bytes of their front
+	 * coded keys: the ~330 leaves of 10000 tuples fit under one root, where pages of ~30
+	 * fixed-size keys would need three levels
+	 */
+	@Test public void bulkLoadedStringKeys() throws Exception {
+		int n = 10000;
+		BTreeFile bf = bulkLoad(n);
+		TransactionId tid = new TransactionId();
+		BTreeShape shape = BTreeShape.compute(bf, tid);
+		assertEquals(n, shape.getNumTuples());
+		assertEquals(shape.toString(), 2, shape.getDepth());
+		assertEquals(shape.toString(), shape.getNumLeafPages(), shape.getMaxFanout());
+		assertSorted(bf, tid, n);
+		for (int i = 0; i < n; i += 97) {
+			assertEquals(1, countMatches(bf, tid, new IndexPredicate(Op.EQUALS, str(key(i)))));
+		}
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * With small pages a bulk loaded tree has several full internal pages per level, with
+	 * the last two balanced, and takes further inserts
+	 */
+	@Test public void bulkLoadedStringKeysWithSmallPages() throws Exception {
+		BufferPool.setPageSize(1024);
+		int n = 10000;
+		BTreeFile bf = bulkLoad(n);
+		TransactionId tid = new TransactionId();
+		BTreeShape shape = BTreeShape.compute(bf, tid);
+		assertEquals(shape.toString(), 3, shape.getDepth());
+		assertTrue(shape.toString(), shape.getPagesPerLevel().get(1) > 5);
+		// every page but the root is at least half full
+		assertTrue(shape.toString(), shape.getMinFanout() * 2 >= shape.getMaxFanout()
+				|| shape.getPagesPerLevel().get(0) == 1 && shape.getMinFanout() >= 2);
+		assertSorted(bf, tid, n);
+
+		for (int i = 0; i < 500; i++) {
+			Tuple t = new Tuple(STRING_KEY_TD);
+			t.setField(0, str(key(i * 20) + "x"));
+			t.setField(1, new IntField(n + i));
+			Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+		}
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+		assertSorted(bf, tid, n + 500);
+		for (int i = 0; i < n; i += 37) {
+			assertEquals(1, countMatches(bf, tid, new IndexPredicate(Op.EQUALS, str(key(i)))));
+		}
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * With small pages the tree grows several internal levels, so deletions also exercise
+	 * stealing between and merging of compact internal pages
+	 */
+	@Test public void deepTreeWithSmallPages() throws Exception {
+		BufferPool.setPageSize(1024);
+		BTreeFile bf = createStringKeyedFile();
+		int n = 4000;
+		TransactionId tid = new TransactionId();
+		for (int i = 0; i < n; i++) {
+			// insert in an order that keeps splitting pages in the middle of the key range
+			int k = (i * 7919) % n;
+			Tuple t = new Tuple(STRING_KEY_TD);
+			t.setField(0, str(key(k)));
+			t.setField(1, new IntField(k));
+			Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+		}
+		Database.getBufferPool().transactionComplete(tid);
+
+		tid = new TransactionId();
+		assertTrue(BTreeShape.compute(bf, tid).getDepth() >= 3);
+		assertSorted(bf, tid, n);
+
+		List<Tuple> toDelete = new ArrayList<>();
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			if (((IntField) t.getField(1)).getValue() % 25 != 0) {
+				toDelete.add(t);
+			}
+		}
+		it.close();
+		Collections.shuffle(toDelete, new Random(7));
+		for (Tuple t : toDelete) {
+			Database.getBufferPool().deleteTuple(tid, t);
+		}
+		Database.getBufferPool().transactionComplete(tid);
+
+		tid = new TransactionId();
+		assertSorted(bf, tid, n / 25);
+		for (int i = 0; i < n; i += 37) {
+			assertEquals(i % 25 == 0 ? 1 : 0, countMatches(bf, tid, new IndexPredicate(Op.EQUALS, str(key(i)))));
+		}
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * Compact pages are balanced by bytes: stealing from a sibling full of long keys should
+	 * move only a few entries, leave both pages above minimum occupancy and keep the keys
+	 * ordered around the new parent key
+	 */
+	@Test public void stealFromCompactInternalPage() throws Exception {
+		BTreeFile bf = createStringKeyedFile(50);
+		Map<PageId, Page> dirtypages = new HashMap<>();
+		TransactionId tid = new TransactionId();
+		BTreePageId siblingId = new BTreePageId(bf.getId(), 1, BTreePageId.INTERNAL);
+		BTreePageId pageId = new BTreePageId(bf.getId(), 2, BTreePageId.INTERNAL);
+		BTreePageId parentId = new BTreePageId(bf.getId(), 3, BTreePageId.INTERNAL);
+		BTreeInternalPage sibling = new BTreeInternalPage(siblingId, BTreeInternalPage.createEmptyPageData(), 0);
+		BTreeInternalPage page = new BTreeInternalPage(pageId, BTreeInternalPage.createEmptyPageData(), 0);
+		BTreeInternalPage parent = new BTreeInternalPage(parentId, BTreeInternalPage.createEmptyPageData(), 0);
+		dirtypages.put(siblingId, sibling);
+		dirtypages.put(pageId, page);
+		dirtypages.put(parentId, parent);
+
+		// the left sibling is nearly full of maximum-length keys that share no prefix
+		int child = 4;
+		while (sibling.hasSpaceForEntry()) {
+			String k = padded((char) ('A' + child - 4), Type.STRING_LEN);
+			sibling.insertEntry(new BTreeEntry(str(k), new BTreePageId(bf.getId(), child, BTreePageId.LEAF),
+					new BTreePageId(bf.getId(), child + 1, BTreePageId.LEAF)));
+			child++;
+		}
+		int firstPageChild = ++child;
+		page.insertEntry(new BTreeEntry(str(padded('z', 10)), new BTreePageId(bf.getId(), firstPageChild, BTreePageId.LEAF),
+				new BTreePageId(bf.getId(), firstPageChild + 1, BTreePageId.LEAF)));
+		BTreeEntry entry = new BTreeEntry(str("y"), siblingId, pageId);
+		parent.insertEntry(entry);
+		sibling.setParentId(parentId);
+		page.setParentId(parentId);
+
+		int totalEntries = sibling.getNumEntries() + page.getNumEntries();
+		assertTrue(page.isBelowMinOccupancy());
+		assertFalse(page.canMergeWith(sibling));
+		bf.stealFromLeftInternalPage(tid, dirtypages, page, sibling, parent, entry);
+
+		// one key moved up into the parent, the old parent key came down
+		assertEquals(totalEntries, sibling.getNumEntries() + page.getNumEntries());
+		assertFalse(page.isBelowMinOccupancy());
+		assertFalse(sibling.isBelowMinOccupancy());
+		assertTrue(Math.abs(page.getUsedBytes() - sibling.getUsedBytes()) <= 3 * page.getMaxEntrySize());
+		Field parentKey = parent.iterator().next().getKey();
+		assertTrue(sibling.reverseIterator().next().getKey().compare(Op.LESS_THAN_OR_EQ, parentKey));
+		assertTrue(page.iterator().next().getKey().compare(Op.GREATER_THAN_OR_EQ, parentKey));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private static String padded(char c, int len) {
+		char[] chars = new char[len];
+		Arrays.fill(chars, c);
+		return new String(chars);
+	}
+
+	private static BTreeFile createStringKeyedFile() throws Exception {
+		return createStringKeyedFile(0);
+	}
+
+	/**
+	 * Create a string-keyed B+ tree file that already contains the given number of empty pages
+	 */
+	private static BTreeFile createStringKeyedFile(int pages) throws Exception {
+		File f = File.createTempFile("strkeys", ".dat");
+		f.deleteOnExit();
+		if (pages > 0) {
+			try (BufferedOutputStream bw = new BufferedOutputStream(new FileOutputStream(f))) {
+				bw.write(BTreeRootPtrPage.createEmptyPageData());
+				for (int i = 0; i < pages; i++) {
+					bw.write(BTreePage.createEmptyPageData());
+				}
+			}
+		}
+		BTreeFile bf = new BTreeFile(f, 0, STRING_KEY_TD);
+		Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+		Database.resetBufferPool(2000);
+		return bf;
+	}
+
+	/**
+	 * Bulk load a string-keyed B+ tree file with the keys key(0) .. key(n - 1)
+	 */
+	private static BTreeFile bulkLoad(int n) throws Exception {
+		File text = File.createTempFile("strkeys", ".txt");
+		text.deleteOnExit();
+		try (FileWriter w = new FileWriter(text)) {
+			for (int i = 0; i < n; i++) {
+				w.write(key(i) + "," + i + "\n");
+			}
+		}
+		File hFile = File.createTempFile("strkeys", ".heap");
+		hFile.deleteOnExit();
+		File bFile = File.createTempFile("strkeys", ".dat");
+		bFile.deleteOnExit();
+		BTreeFile bf = BTreeFileEncoder.convert(text, hFile, bFile, BufferPool.getPageSize(), 2,
+				new Type[]{Type.STRING_TYPE, Type.INT_TYPE}, ',', 0);
+		Database.resetBufferPool(2000);
+		return bf;
+	}
+
+	private static void assertSorted(BTreeFile bf, TransactionId tid, int expected) throws Exception {
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		String prev = "";
+		int count = 0;
+		while (it.hasNext()) {
+			String value = ((StringField) it.next().getField(0)).getValue();
+			assertTrue(prev.compareTo(value) <= 0);
+			prev = value;
+			count++;
+		}
+		it.close();
+		assertEquals(expected, count);
+	}
+
+	private static int countMatches(BTreeFile bf, TransactionId tid, IndexPredicate ipred) throws Exception {
+		DbFileIterator it = bf.indexIterator(tid, ipred);
+		it.open();
+		int count = 0;
+		while (it.hasNext()) {
+			it.next();
+			count++;
+		}
+		it.close();
+		return count;
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BTreeKeyCompressionTest.class);
+	}
+}
@@ -0,0 +1,231 @@
+package simpledb;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import Zql.ZQuery;
+import Zql.ZqlParser;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.execution.Predicate.Op;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class BatchOperatorTest extends SimpleDbTestBase {
+
+	private static final int ROWS = 3000;
+	private static final int MAX_VALUE = 50;
+	// 批次比一页的元组数小，使扫描跨越批次和页
+	private static final int BATCH_SIZE = 100;
+
+	private HeapFile table;
+	private List<List<Integer>> rows;
+	private TransactionId tid;
+
+	@Before public void setUp() throws Exception {
+		rows = new ArrayList<>();
+		table = SystemTestUtil.createRandomHeapFile(3, ROWS, MAX_VALUE, null, rows);
+		tid = new TransactionId();
+	}
+
+	@After public void tearDown() throws Exception {
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private BatchSeqScan scan() {
+		return new BatchSeqScan(tid, table.getId(), "t", BATCH_SIZE);
+	}
+
+	@Test public void seqScan() throws Exception {
+		SystemTestUtil.matchTuples(new BatchToRow(scan()), rows);
+		assertEquals("t." + table.getTupleDesc().getFieldName(0), scan().getTupleDesc().getFieldName(0));
+	}
+
+	@Test public void filter() throws Exception {
+		for (Op op : new Op[]{Op.EQUALS, Op.NOT_EQUALS, Op.LESS_THAN, Op.LESS_THAN_OR_EQ,
+				Op.GREATER_THAN, Op.GREATER_THAN_OR_EQ}) {
+			Predicate p = new Predicate(1, op, new IntField(20));
+			List<List<Integer>> expected = new ArrayList<>();
+			for (List<Integer> row : rows) {
+				if (p.filter(SystemTestUtil.toTuple(row)))
+					expected.add(row);
+			}
+			SystemTestUtil.matchTuples(new BatchToRow(new BatchFilter(p, scan())), expected);
+		}
+
+		// 两个过滤器叠加时，第二个只看第一个选中的行
+		Predicate p1 = new Predicate(0, Op.LESS_THAN, new IntField(25));
+		Predicate p2 = new Predicate(2, Op.GREATER_THAN_OR_EQ, new IntField(10));
+		List<List<Integer>> expected = new ArrayList<>();
+		for (List<Integer> row : rows) {
+			if (row.get(0) < 25 && row.get(2) >= 10)
+				expected.add(row);
+		}
+		SystemTestUtil.matchTuples(new BatchToRow(new BatchFilter(p2, new BatchFilter(p1, scan()))), expected);
+	}
+
+	@Test public void stringFilter() throws Exception {
+		OpIterator strings = TestUtil.createTupleList(2,
+				new Object[]{1, "apple", 2, "banana", 3, "grape", 4, "pineapple", 5, "banana"});
+		BatchFilter filter = new BatchFilter(new Predicate(1, Op.LIKE,
+				new StringField("apple", Type.STRING_LEN)), new RowToBatch(strings, 2));
+		List<List<Integer>> ids = new ArrayList<>();
+		BatchToRow it = new BatchToRow(new BatchProject(Collections.singletonList(0),
+				Collections.singletonList(Type.INT_TYPE), filter));
+		ids.add(Collections.singletonList(1));
+		ids.add(Collections.singletonList(4));
+		SystemTestUtil.matchTuples(it, ids);
+	}
+
+	@Test public void project() throws Exception {
+		BatchProject project = new BatchProject(Arrays.asList(2, 0),
+				Arrays.asList(Type.INT_TYPE, Type.INT_TYPE), scan());
+		assertEquals(scan().getTupleDesc().getFieldName(2), project.getTupleDesc().getFieldName(0));
+		List<List<Integer>> expected = new ArrayList<>();
+		for (List<Integer> row : rows) {
+			expected.add(Arrays.asList(row.get(2), row.get(0)));
+		}
+		SystemTestUtil.matchTuples(new BatchToRow(project), expected);
+	}
+
+	@Test public void aggregate() throws Exception {
+		for (Aggregator.Op op : new Aggregator.Op[]{Aggregator.Op.MIN, Aggregator.Op.MAX,
+				Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT}) {
+			// 分组聚合与行算子的结果一致
+			List<List<Integer>> expected = SystemTestUtil.readAll(new Aggregate(
+					new SeqScan(tid, table.getId(), "t"), 2, 1, op));
+			SystemTestUtil.matchTuples(new BatchToRow(new BatchAggregate(scan(), 2, 1, op)), expected);
+
+			SystemTestUtil.matchTuples(new BatchToRow(new BatchAggregate(scan(), 2,
+					Aggregator.NO_GROUPING, op)), Collections.singletonList(Collections.singletonList(aggregate(op))));
+		}
+
+		// 没有输入时只有COUNT有结果
+		Predicate none = new Predicate(0, Op.GREATER_THAN, new IntField(MAX_VALUE));
+		SystemTestUtil.matchTuples(new BatchToRow(new BatchAggregate(new BatchFilter(none, scan()), 2,
+				Aggregator.NO_GROUPING, Aggregator.Op.COUNT)), Collections.singletonList(Collections.singletonList(0)));
+		SystemTestUtil.matchTuples(new BatchToRow(new BatchAggregate(new BatchFilter(none, scan()), 2,
+				Aggregator.NO_GROUPING, Aggregator.Op.SUM)), Collections.emptyList());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void stringAggregateOnlyCounts() {
+		OpIterator strings = TestUtil.createTupleList(2, new Object[]{1, "a", 2, "b"});
+		new BatchAggregate(new RowToBatch(strings), 1, 0, Aggregator.Op.SUM);
+	}
+
+	@Test public void hashJoin() throws Exception {
+		List<List<Integer>> smallRows = new ArrayList<>();
+		HeapFile small = SystemTestUtil.createRandomHeapFile(2, 200, MAX_VALUE, null, smallRows);
+		JoinPredicate p = new JoinPredicate(1, Op.EQUALS, 0);
+
+		List<List<Integer>> expected = new ArrayList<>();
+		for (List<Integer> left : rows) {
+			for (List<Integer> right : smallRows) {
+				if (left.get(1).equals(right.get(0))) {
+					List<Integer> joined = new ArrayList<>(left);
+					joined.addAll(right);
+					expected.add(joined);
+				}
+			}
+		}
+		BatchHashJoin join = new BatchHashJoin(p, scan(),
+				new BatchSeqScan(tid, small.getId(), "s", BATCH_SIZE));
+		assertEquals(5, join.getTupleDesc().numFields());
+		SystemTestUtil.matchTuples(new BatchToRow(join), expected);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void hashJoinNeedsEquality() {
+		new BatchHashJoin(new JoinPredicate(0, Op.LESS_THAN, 0), scan(), scan());
+	}
+
+	@Test public void planner() throws Exception {
+		Predicate p = new Predicate(0, Op.LESS_THAN, new IntField(30));
+		OpIterator rowPlan = new Aggregate(new Filter(p, new SeqScan(tid, table.getId(), "t")),
+				2, 1, Aggregator.Op.SUM);
+		List<List<Integer>> expected = SystemTestUtil.readAll(rowPlan);
+
+		OpIterator plan = BatchPlanner.vectorize(new OrderBy(0, true, new Aggregate(
+				new Filter(p, new SeqScan(tid, table.getId(), "t")), 2, 1, Aggregator.Op.SUM)), tid);
+		assertTrue(plan instanceof OrderBy);
+		OpIterator child = ((OrderBy) plan).getChildren()[0];
+		assertTrue(child instanceof BatchToRow);
+		assertTrue(((BatchToRow) child).getChild() instanceof BatchAggregate);
+		SystemTestUtil.matchTuples(plan, expected);
+
+		// 没有批量版本的算子通过RowToBatch接入
+		BatchOpIterator batch = BatchPlanner.toBatch(new Filter(p, new OrderBy(0, true,
+				new SeqScan(tid, table.getId(), "t"))), tid);
+		assertTrue(batch instanceof BatchFilter);
+	}
+
+	/**
+	 * The parser runs a query on batch operators when simpledb.batch asks for
+	 * it, and on row operators otherwise.
+	 */
+	@Test public void parserBatch() throws Exception {
+		List<List<Integer>> events = new ArrayList<>();
+		File f = SystemTestUtil.createRandomHeapFileUnopened(2, ROWS, MAX_VALUE, null, events);
+		HeapFile t = new HeapFile(f, new TupleDesc(new Type[]{Type.INT_TYPE, Type.INT_TYPE}, new String[]{"a", "b"}));
+		Database.getCatalog().addTable(t, "events");
+		TableStats.setTableStats("events", new TableStats(t.getId(), 1000));
+		String sql = "SELECT e.a, e.b FROM events e WHERE e.a < 30;";
+		List<List<Integer>> expected = new ArrayList<>();
+		for (List<Integer> row : events) {
+			if (row.get(0) < 30)
+				expected.add(row);
+		}
+
+		boolean batch = Parser.batch;
+		try {
+			for (boolean b : new boolean[]{false, true}) {
+				Parser.batch = b;
+				ZQuery q = (ZQuery) new ZqlParser(new ByteArrayInputStream(sql.getBytes())).readStatement();
+				OpIterator plan = new Parser().handleQueryStatement(q, tid).getPhysicalPlan();
+				assertEquals(b, plan instanceof BatchToRow);
+				SystemTestUtil.matchTuples(plan, expected);
+			}
+		} finally {
+			Parser.batch = batch;
+		}
+	}
+
+	/**
+	 * @return the aggregate of the last column over all rows
+	 */
+	private int aggregate(Aggregator.Op op) {
+		IntSummaryStatistics stats = rows.stream().mapToInt(row -> row.get(2)).summaryStatistics();
+		switch (op) {
+			case MIN:
+				return stats.getMin();
+			case MAX:
+				return stats.getMax();
+			case SUM:
+				return (int) stats.getSum();
+			case AVG:
+				return (int) stats.getSum() / (int) stats.getCount();
+			default:
+				return (int) stats.getCount();
+		}
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BatchOperatorTest.class);
+	}
+}
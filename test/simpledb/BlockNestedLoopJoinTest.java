@@ -0,0 +1,105 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Utility;
+import simpledb.execution.BlockNestedLoopJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.Predicate;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BlockNestedLoopJoinTest extends SimpleDbTestBase {
+
+  private final Random random = new Random(5);
+
+  /**
+   * A TupleIterator that counts how many times it is rewound.
+   */
+  private static class CountingIterator extends TupleIterator {
+    private static final long serialVersionUID = 1L;
+    int rewinds = 0;
+
+    CountingIterator(TupleDesc td, List<Tuple> tuples) {
+      super(td, tuples);
+    }
+
+    @Override
+    public void rewind() {
+      rewinds++;
+      super.rewind();
+    }
+  }
+
+  /**
+   * The join returns the same tuples whatever the block size, and child2 is
+   * scanned once per block of child1.
+   */
+  @Test public void matchesNestedLoopJoin() throws Exception {
+    List<Tuple> left = SystemTestUtil.randomTuples(random, 2000, 30, 30);
+    List<Tuple> right = SystemTestUtil.randomTuples(random, 40, 30, 30, 30);
+    int perBlock = BlockNestedLoopJoin.tuplesPerBlock(Utility.getTupleDesc(2), 1);
+    for (Predicate.Op op : new Predicate.Op[]{Predicate.Op.EQUALS, Predicate.Op.NOT_EQUALS,
+        Predicate.Op.GREATER_THAN}) {
+      JoinPredicate p = new JoinPredicate(0, op, 1);
+      List<List<Integer>> expected = SystemTestUtil.nestedLoopJoin(left, right, p);
+      for (int blockPages : new int[]{1, 3, 100}) {
+        CountingIterator inner = new CountingIterator(Utility.getTupleDesc(3), right);
+        BlockNestedLoopJoin join = new BlockNestedLoopJoin(p,
+            new TupleIterator(Utility.getTupleDesc(2), left), inner, blockPages);
+        SystemTestUtil.matchSorted(join, expected);
+        int blocks = (left.size() + perBlock * blockPages - 1) / (perBlock * blockPages);
+        assertEquals(blocks - 1, inner.rewinds);
+      }
+    }
+  }
+
+  @Test public void emptyInputs() throws Exception {
+    List<Tuple> tuples = SystemTestUtil.randomTuples(random, 50, 10, 10);
+    JoinPredicate p = new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0);
+    BlockNestedLoopJoin join = new BlockNestedLoopJoin(p, new TupleIterator(Utility.getTupleDesc(2), tuples),
+        new TupleIterator(Utility.getTupleDesc(2), new ArrayList<>()), 1);
+    join.open();
+    assertFalse(join.hasNext());
+    join.close();
+
+    join = new BlockNestedLoopJoin(p, new TupleIterator(Utility.getTupleDesc(2), new ArrayList<>()),
+        new TupleIterator(Utility.getTupleDesc(2), tuples), 1);
+    join.open();
+    assertFalse(join.hasNext());
+    join.close();
+  }
+
+  @Test public void rewind() throws Exception {
+    List<Tuple> left = SystemTestUtil.randomTuples(random, 1000, 10, 10);
+    List<Tuple> right = SystemTestUtil.randomTuples(random, 100, 10, 10);
+    BlockNestedLoopJoin join = new BlockNestedLoopJoin(new JoinPredicate(0, Predicate.Op.LESS_THAN, 1),
+        new TupleIterator(Utility.getTupleDesc(2), left), new TupleIterator(Utility.getTupleDesc(2), right), 1);
+    join.open();
+    Tuple first = join.next();
+    for (int i = 0; i < 5000 && join.hasNext(); i++) {
+      join.next();
+    }
+    join.rewind();
+    assertEquals(first.toString(), join.next().toString());
+    join.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(BlockNestedLoopJoinTest.class);
+  }
+}
@@ -0,0 +1,157 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Type;
+import simpledb.execution.Predicate.Op;
+import simpledb.optimizer.ColumnStats;
+import simpledb.optimizer.HyperLogLog;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+
+public class ColumnStatsTest {
+
+	/**
+	 * Value k (0 <= k < 10) appears 1000 >> k times, and 2000 more values
+	 * 100..2099 once each.
+	 */
+	private static List<Field> skewed() {
+		List<Field> values = new ArrayList<>();
+		for (int k = 0; k < 10; k++) {
+			for (int i = 0; i < (1000 >> k); i++) {
+				values.add(new IntField(k));
+			}
+		}
+		for (int v = 100; v < 2100; v++) {
+			values.add(new IntField(v));
+		}
+		Collections.shuffle(values, new Random(1));
+		return values;
+	}
+
+	/**
+	 * The sketch estimates the number of distinct values within a few percent,
+	 * ignores repeated values, and sketches of two parts merge into a sketch of
+	 * the whole.
+	 */
+	@Test public void hyperLogLogTest() {
+		HyperLogLog small = new HyperLogLog();
+		for (int i = 0; i < 10; i++) {
+			small.add(new IntField(i).hashCode());
+		}
+		Assert.assertEquals(10, small.estimate());
+
+		HyperLogLog all = new HyperLogLog();
+		HyperLogLog even = new HyperLogLog();
+		HyperLogLog odd = new HyperLogLog();
+		for (int round = 0; round < 2; round++) {
+			for (int i = 0; i < 200000; i++) {
+				all.add(i);
+				(i % 2 == 0 ? even : odd).add(i);
+			}
+		}
+		Assert.assertEquals(200000, all.estimate(), 200000 * 0.05);
+		even.merge(odd);
+		Assert.assertEquals(all.estimate(), even.estimate());
+	}
+
+	/**
+	 * The frequent values of a column read in full are estimated exactly, and
+	 * the rare ones as sharing the rest of the tuples.
+	 */
+	@Test public void skewedColumnTest() {
+		List<Field> values = skewed();
+		int n = values.size();
+		ColumnStats s = new ColumnStats(Type.INT_TYPE, values, n, null);
+
+		Assert.assertEquals(2010, s.distinct(), 0.001);
+		Assert.assertEquals(1000.0 / n, s.estimateSelectivity(Op.EQUALS, new IntField(0)), 1e-9);
+		Assert.assertEquals(250.0 / n, s.estimateSelectivity(Op.EQUALS, new IntField(2)), 1e-9);
+		Assert.assertEquals(1.0 / n, s.estimateSelectivity(Op.EQUALS, new IntField(1500)), 0.5 / n);
+		Assert.assertEquals(0.0, s.estimateSelectivity(Op.EQUALS, new IntField(5000)), 0.0);
+		Assert.assertEquals(0.0, s.estimateSelectivity(Op.EQUALS, new IntField(-1)), 0.0);
+
+		// 小于1100：高频值和一半的单次值
+		double below = (n - 2000 + 1000.0) / n;
+		Assert.assertEquals(below, s.estimateSelectivity(Op.LESS_THAN, new IntField(1100)), 0.01);
+		Assert.assertEquals(1 - below, s.estimateSelectivity(Op.GREATER_THAN_OR_EQ, new IntField(1100)), 0.01);
+		Assert.assertEquals(1000.0 / n, s.estimateSelectivity(Op.LESS_THAN, new IntField(1)), 1e-9);
+		Assert.assertEquals(1.0, s.estimateSelectivity(Op.LESS_THAN_OR_EQ, new IntField(2099)), 1e-9);
+
+		double sumSquares = 0;
+		for (int k = 0; k < 10; k++) {
+			sumSquares += Math.pow((1000 >> k) / (double) n, 2);
+		}
+		Assert.assertEquals(sumSquares, s.avgEqualSelectivity(), sumSquares * 0.05);
+	}
+
+	/**
+	 * The number of distinct values of a sample of a column is extrapolated
+	 * to the whole column.
+	 */
+	@Test public void sampledDistinctTest() {
+		Random random = new Random(2);
+		List<Field> sample = new ArrayList<>();
+		// 100000个元组中均匀分布20000个不同值，抽样10000个
+		for (int i = 0; i < 10000; i++) {
+			sample.add(new IntField(random.nextInt(20000)));
+		}
+		ColumnStats s = new ColumnStats(Type.INT_TYPE, sample, 100000, null);
+		Assert.assertEquals(20000, s.distinct(), 20000 * 0.3);
+		Assert.assertEquals(0.5, s.estimateSelectivity(Op.LESS_THAN, new IntField(10000)), 0.02);
+	}
+
+	/**
+	 * The selectivity of an equi-join of two skewed columns matches their MCVs.
+	 */
+	@Test public void joinSelectivityTest() {
+		List<Field> values = skewed();
+		int n = values.size();
+		ColumnStats s = new ColumnStats(Type.INT_TYPE, values, n, null);
+		double expected = 2000.0 / n / n;
+		for (int k = 0; k < 10; k++) {
+			expected += Math.pow((1000 >> k) / (double) n, 2);
+		}
+		double sel = ColumnStats.joinSelectivity(s, s, s.distinct(), s.distinct());
+		Assert.assertEquals(expected, sel, expected * 0.05);
+		// 没有高频值时退化为1/max(不同值个数)
+		ColumnStats uniform = new ColumnStats(Type.INT_TYPE, values.subList(0, 0), 0, null);
+		Assert.assertEquals(1 / s.distinct(), ColumnStats.joinSelectivity(s, uniform, s.distinct(), 1), 1e-9);
+	}
+
+	/**
+	 * Strings are ordered on their whole value, and LIKE matches the MCVs and
+	 * the histogram bounds.
+	 */
+	@Test public void stringColumnTest() {
+		List<Field> values = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			values.add(new StringField("common", 20));
+		}
+		for (int i = 0; i < 900; i++) {
+			values.add(new StringField("v" + (1000 + i), 20));
+		}
+		ColumnStats s = new ColumnStats(Type.STRING_TYPE, values, 1000, null);
+		Assert.assertEquals(0.1, s.estimateSelectivity(Op.EQUALS, new StringField("common", 20)), 1e-9);
+		Assert.assertEquals(0.001, s.estimateSelectivity(Op.EQUALS, new StringField("v1500", 20)), 1e-6);
+		// "common"也小于"v1450"
+		Assert.assertEquals(0.55, s.estimateSelectivity(Op.LESS_THAN, new StringField("v1450", 20)), 0.02);
+		Assert.assertEquals(0.1, s.estimateSelectivity(Op.LIKE, new StringField("comm", 20)), 0.01);
+		Assert.assertEquals(0.9, s.estimateSelectivity(Op.LIKE, new StringField("v1", 20)), 0.01);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(ColumnStatsTest.class);
+	}
+}
@@ -0,0 +1,228 @@
+package simpledb;
+
+import org.junit.After;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.BTreeChecker;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class CompositeKeyTest extends SimpleDbTestBase {
+
+	private static final int TENANTS = 20;
+	private static final int TIMESTAMPS = 200;
+
+	private static final TupleDesc EVENTS_TD = new TupleDesc(
+			new Type[]{Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE}, new String[]{"tenant", "ts", "value"});
+
+	private static CompositeField key(int... values) {
+		Field[] fields = new Field[values.length];
+		for (int i = 0; i < values.length; i++) {
+			fields[i] = new IntField(values[i]);
+		}
+		return new CompositeField(fields);
+	}
+
+	@After public void tearDown() {
+		BufferPool.resetPageSize();
+		Database.reset();
+	}
+
+	@Test public void lexicographicCompare() {
+		assertTrue(key(1, 5).compare(Op.LESS_THAN, key(2, 0)));
+		assertTrue(key(2, 0).compare(Op.LESS_THAN, key(2, 1)));
+		assertTrue(key(2, 1).compare(Op.EQUALS, key(2, 1)));
+		assertFalse(key(2, 1).compare(Op.NOT_EQUALS, key(2, 1)));
+		assertTrue(key(3, 0).compare(Op.GREATER_THAN_OR_EQ, key(2, 9)));
+
+		// a prefix is equal to every key that starts with it
+		assertTrue(key(2, 7).compare(Op.EQUALS, key(2)));
+		assertTrue(key(2, 7).compare(Op.EQUALS, new IntField(2)));
+		assertTrue(key(2, 7).compare(Op.LESS_THAN, key(3)));
+		assertFalse(key(2, 7).compare(Op.GREATER_THAN, key(2)));
+
+		assertEquals(key(4, 2), key(4, 2));
+		assertEquals(key(4, 2).hashCode(), key(4, 2).hashCode());
+		assertNotEquals(key(4, 2), key(4));
+	}
+
+	@Test public void insertScanAndDelete() throws Exception {
+		BufferPool.setPageSize(512);
+		BTreeFile bf = createEventsFile();
+		TransactionId tid = new TransactionId();
+		List<Tuple> tuples = insertEvents(bf, tid);
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+
+		// the whole table comes back ordered on (tenant, ts)
+		DbFileIterator it = bf.iterator(tid);
+		it.open();
+		Field prev = null;
+		int count = 0;
+		while (it.hasNext()) {
+			Field k = bf.getKey(it.next());
+			assertTrue(prev == null || prev.compare(Op.LESS_THAN, k));
+			prev = k;
+			count++;
+		}
+		it.close();
+		assertEquals(TENANTS * TIMESTAMPS, count);
+
+		// prefix and full key searches
+		assertEquals(TIMESTAMPS, countMatches(bf, tid, new IndexPredicate(Op.EQUALS, key(7))));
+		assertEquals(TIMESTAMPS, countMatches(bf, tid, new IndexPredicate(Op.EQUALS, new IntField(7))));
+		assertEquals(1, countMatches(bf, tid, new IndexPredicate(Op.EQUALS, key(7, 42))));
+		assertEquals(0, countMatches(bf, tid, new IndexPredicate(Op.EQUALS, key(TENANTS))));
+		assertEquals(3 * TIMESTAMPS, countMatches(bf, tid, new IndexPredicate(Op.LESS_THAN, key(3))));
+		assertEquals((TIMESTAMPS - 150) + (TENANTS - 8) * TIMESTAMPS,
+				countMatches(bf, tid, new IndexPredicate(Op.GREATER_THAN_OR_EQ, key(7, 150))));
+		assertEquals((TENANTS - 8) * TIMESTAMPS,
+				countMatches(bf, tid, new IndexPredicate(Op.GREATER_THAN, key(7))));
+
+		// delete every other timestamp of tenant 7 and all of tenant 8
+		for (Tuple t : tuples) {
+			int tenant = ((IntField) t.getField(0)).getValue();
+			int ts = ((IntField) t.getField(1)).getValue();
+			if ((tenant == 7 && ts % 2 == 1) || tenant == 8) {
+				Database.getBufferPool().deleteTuple(tid, t);
+			}
+		}
+		BTreeChecker.checkRep(bf, tid, new HashMap<>(), true);
+		assertEquals(TIMESTAMPS / 2, countMatches(bf, tid, new IndexPredicate(Op.EQUALS, key(7))));
+		assertEquals(0, countMatches(bf, tid, new IndexPredicate(Op.EQUALS, key(8))));
+		assertEquals(0, countMatches(bf, tid, new IndexPredicate(Op.EQUALS, key(7, 41))));
+		assertEquals(TIMESTAMPS, countMatches(bf, tid, new IndexPredicate(Op.EQUALS, key(9))));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	@Test public void optimizerUsesKeyPrefix() throws Exception {
+		BTreeFile bf = createEventsFile();
+		TransactionId tid = new TransactionId();
+		insertEvents(bf, tid);
+		Database.getBufferPool().transactionComplete(tid);
+
+		String table = Database.getCatalog().getTableName(bf.getId());
+		Map<String, TableStats> stats = new HashMap<>();
+		stats.put(table, new TableStats(bf.getId(), 1000));
+
+		tid = new TransactionId();
+		Parser p = new Parser();
+		LogicalPlan lp = p.generateLogicalPlan(tid,
+				"SELECT * FROM " + table + " e WHERE e.tenant = 7 AND e.ts >= 150 AND e.value < 100000;");
+		OpIterator plan = lp.physicalPlan(tid, stats, false);
+		BTreeScan scan = findScan(plan);
+		assertNotNull(scan);
+		SystemTestUtil.matchTuples(plan, expectedEvents(7, 150));
+		// the scan itself searches the range ((7, 150), (7)), not every event of tenant 7
+		assertEquals(TIMESTAMPS - 150, count(scan));
+
+		lp = p.generateLogicalPlan(tid,
+				"SELECT * FROM " + table + " e WHERE e.tenant = 7 AND e.ts > 10 AND e.ts <= 20;");
+		assertEquals(10, count(findScan(lp.physicalPlan(tid, stats, false))));
+		lp = p.generateLogicalPlan(tid, "SELECT * FROM " + table + " e WHERE e.tenant = 7 AND e.ts < 5;");
+		assertEquals(5, count(findScan(lp.physicalPlan(tid, stats, false))));
+
+		// a filter on the second key field alone cannot use the index
+		lp = p.generateLogicalPlan(tid, "SELECT * FROM " + table + " e WHERE e.ts = 3;");
+		assertNull(findScan(lp.physicalPlan(tid, stats, false)));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private static int count(OpIterator it) throws Exception {
+		it.open();
+		int count = 0;
+		while (it.hasNext()) {
+			it.next();
+			count++;
+		}
+		it.close();
+		return count;
+	}
+
+	private static List<List<Integer>> expectedEvents(int tenant, int fromTs) {
+		List<List<Integer>> expected = new ArrayList<>();
+		for (int ts = fromTs; ts < TIMESTAMPS; ts++) {
+			expected.add(Arrays.asList(tenant, ts, tenant * 1000 + ts));
+		}
+		return expected;
+	}
+
+	private static BTreeScan findScan(OpIterator op) {
+		if (op instanceof BTreeScan) {
+			return (BTreeScan) op;
+		}
+		if (op instanceof Operator) {
+			for (OpIterator child : ((Operator) op).getChildren()) {
+				BTreeScan scan = findScan(child);
+				if (scan != null) {
+					return scan;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static BTreeFile createEventsFile() throws Exception {
+		File f = File.createTempFile("events", ".dat");
+		f.deleteOnExit();
+		BTreeFile bf = new BTreeFile(f, new int[]{0, 1}, EVENTS_TD);
+		Database.getCatalog().addTable(bf, "events");
+		Database.resetBufferPool(2000);
+		return bf;
+	}
+
+	private static List<Tuple> insertEvents(BTreeFile bf, TransactionId tid) throws Exception {
+		List<Tuple> tuples = new ArrayList<>();
+		for (int tenant = 0; tenant < TENANTS; tenant++) {
+			for (int ts = 0; ts < TIMESTAMPS; ts++) {
+				Tuple t = new Tuple(EVENTS_TD);
+				t.setField(0, new IntField(tenant));
+				t.setField(1, new IntField(ts));
+				t.setField(2, new IntField(tenant * 1000 + ts));
+				tuples.add(t);
+			}
+		}
+		Collections.shuffle(tuples, new Random(27));
+		for (Tuple t : tuples) {
+			Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+		}
+		return tuples;
+	}
+
+	private static int countMatches(BTreeFile bf, TransactionId tid, IndexPredicate ipred) throws Exception {
+		DbFileIterator it = bf.indexIterator(tid, ipred);
+		it.open();
+		int count = 0;
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			assertTrue(bf.getKey(t).compare(ipred.getOp(), ipred.getField()));
+			count++;
+		}
+		it.close();
+		return count;
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(CompositeKeyTest.class);
+	}
+}
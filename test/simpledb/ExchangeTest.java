@@ -0,0 +1,269 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.*;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+import Zql.ZQuery;
+import Zql.ZqlParser;
+
+public class ExchangeTest extends SimpleDbTestBase {
+
+  private final Random random = new Random(31);
+
+  private OpIterator[] randomInputs(int n, int count, int maxValue) {
+    OpIterator[] inputs = new OpIterator[n];
+    for (int i = 0; i < n; i++) {
+      List<Tuple> tuples = new ArrayList<>();
+      for (int j = 0; j < count; j++) {
+        Tuple t = new Tuple(Utility.getTupleDesc(2));
+        t.setField(0, new IntField(random.nextInt(maxValue)));
+        t.setField(1, new IntField(i * count + j));
+        tuples.add(t);
+      }
+      inputs[i] = new TupleIterator(Utility.getTupleDesc(2), tuples);
+    }
+    return inputs;
+  }
+
+  private static List<List<Integer>> readAll(OpIterator[] inputs) throws Exception {
+    List<List<Integer>> result = new ArrayList<>();
+    for (OpIterator input : inputs) {
+      result.addAll(SystemTestUtil.readAll(input));
+    }
+    return result;
+  }
+
+  @Test public void gather() throws Exception {
+    OpIterator[] inputs = randomInputs(4, 3000, 100);
+    List<List<Integer>> expected = SystemTestUtil.sorted(readAll(inputs));
+    ExchangeConsumer gather = Exchange.gather(inputs);
+    assertEquals(expected, SystemTestUtil.sorted(SystemTestUtil.readAll(gather)));
+
+    // rewinding runs the producers again
+    gather.open();
+    for (int i = 0; i < 10; i++) {
+      gather.next();
+    }
+    gather.rewind();
+    int n = 0;
+    while (gather.hasNext()) {
+      gather.next();
+      n++;
+    }
+    gather.close();
+    assertEquals(expected.size(), n);
+  }
+
+  /**
+   * Every tuple goes to one consumer, and all the tuples with the same value of
+   * the field to the same consumer. The consumers are read by threads of their
+   * own, as they are when they are producers of another exchange.
+   */
+  @Test public void repartition() throws Exception {
+    OpIterator[] inputs = randomInputs(3, 2000, 50);
+    List<List<Integer>> expected = SystemTestUtil.sorted(readAll(inputs));
+    ExchangeConsumer[] consumers = Exchange.repartition(inputs, new int[]{0}, 4);
+    List<List<List<Integer>>> results = new ArrayList<>();
+    List<Thread> threads = new ArrayList<>();
+    for (ExchangeConsumer consumer : consumers) {
+      List<List<Integer>> result = Collections.synchronizedList(new ArrayList<>());
+      results.add(result);
+      Thread t = new Thread(() -> {
+        try {
+          result.addAll(SystemTestUtil.readAll(consumer));
+        } catch (Exception e) {
+          throw new RuntimeException(e);
+        }
+      });
+      threads.add(t);
+      t.start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    List<List<Integer>> all = new ArrayList<>();
+    Map<Integer, Integer> consumerOf = new HashMap<>();
+    for (int i = 0; i < results.size(); i++) {
+      for (List<Integer> row : results.get(i)) {
+        Integer previous = consumerOf.put(row.get(0), i);
+        assertTrue(previous == null || previous == i);
+      }
+      all.addAll(results.get(i));
+    }
+    assertEquals(expected, SystemTestUtil.sorted(all));
+  }
+
+  @Test public void broadcast() throws Exception {
+    OpIterator[] inputs = randomInputs(2, 500, 50);
+    List<List<Integer>> expected = SystemTestUtil.sorted(readAll(inputs));
+    ExchangeConsumer[] consumers = Exchange.broadcast(inputs, 3);
+    for (ExchangeConsumer consumer : consumers) {
+      consumer.open();
+    }
+    for (ExchangeConsumer consumer : consumers) {
+      List<List<Integer>> result = new ArrayList<>();
+      while (consumer.hasNext()) {
+        result.add(SystemTestUtil.tupleToList(consumer.next()));
+      }
+      assertEquals(expected, SystemTestUtil.sorted(result));
+    }
+    for (ExchangeConsumer consumer : consumers) {
+      consumer.close();
+    }
+  }
+
+  /**
+   * A consumer closed before reading everything stops producers that wait for
+   * room in its queue.
+   */
+  @Test public void closeEarly() throws Exception {
+    ExchangeConsumer gather = Exchange.gather(randomInputs(4, 20000, 10));
+    assertEquals(5, SystemTestUtil.readAll(new Limit(5, gather)).size());
+
+    ExchangeConsumer[] consumers = Exchange.repartition(randomInputs(2, 20000, 10), new int[]{0}, 2);
+    consumers[0].open();
+    consumers[0].next();
+    consumers[0].close();
+    // the producers finish although consumer 1 was never opened
+  }
+
+  /**
+   * An exception thrown by a producer is thrown by the consumer.
+   */
+  @Test public void producerFailure() throws Exception {
+    OpIterator failing = new Filter(new Predicate(0, Predicate.Op.EQUALS, new IntField(0)),
+        randomInputs(1, 10, 5)[0]) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        throw new DbException("broken");
+      }
+    };
+    ExchangeConsumer gather = Exchange.gather(failing, randomInputs(1, 10, 5)[0]);
+    gather.open();
+    try {
+      while (gather.hasNext()) {
+        gather.next();
+      }
+      fail("expected the failure of the producer");
+    } catch (DbException e) {
+      assertTrue(e.getMessage().contains("broken"));
+    }
+    gather.close();
+  }
+
+  private static Set<Class<?>> operators(OpIterator plan) {
+    Set<Class<?>> classes = new HashSet<>();
+    classes.add(plan.getClass());
+    if (plan instanceof Operator) {
+      for (OpIterator child : ((Operator) plan).getChildren()) {
+        classes.addAll(operators(child));
+      }
+    }
+    return classes;
+  }
+
+  /**
+   * The parallel plan of a partial and final aggregate over a filter, and of a
+   * repartitioned hash join, return the tuples of the serial plan.
+   */
+  @Test public void parallelPlans() throws Exception {
+    HeapFile left = SystemTestUtil.createRandomHeapFile(3, 20000, 200, null, new ArrayList<>());
+    HeapFile right = SystemTestUtil.createRandomHeapFile(2, 1000, 2000, null, new ArrayList<>());
+    TransactionId tid = new TransactionId();
+    Aggregator.Op[] ops = {Aggregator.Op.AVG, Aggregator.Op.COUNT, Aggregator.Op.MIN,
+        Aggregator.Op.MAX, Aggregator.Op.SUM};
+    int[] afields = {1, 2, 2, 2, 2};
+    for (int[] gfields : new int[][]{{0}, {}}) {
+      OpIterator serial = new Aggregate(new Filter(new Predicate(2, Predicate.Op.GREATER_THAN, new IntField(50)),
+          new SeqScan(tid, left.getId(), "l")), afields, ops, gfields);
+      List<List<Integer>> expected = SystemTestUtil.readAll(serial);
+      OpIterator parallel = ParallelPlanner.parallelize(serial, tid, 4);
+      assertTrue(operators(parallel).contains(ExchangeConsumer.class));
+      assertEquals(SystemTestUtil.sorted(expected), SystemTestUtil.sorted(SystemTestUtil.readAll(parallel)));
+    }
+
+    for (boolean splitBuild : new boolean[]{true, false}) {
+      OpIterator build = new SeqScan(tid, right.getId(), "r");
+      if (!splitBuild) {
+        build = new OrderBy(0, true, build);
+      }
+      OpIterator serial = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1), build,
+          new SeqScan(tid, left.getId(), "l"));
+      List<List<Integer>> expected = SystemTestUtil.readAll(serial);
+      OpIterator parallel = ParallelPlanner.parallelize(serial, tid, 3);
+      assertEquals(SystemTestUtil.sorted(expected), SystemTestUtil.sorted(SystemTestUtil.readAll(parallel)));
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * The parser runs a query in parallel when simpledb.parallelism asks for it,
+   * and serially otherwise.
+   */
+  @Test public void parserParallelism() throws Exception {
+    List<List<Integer>> rows = new ArrayList<>();
+    File f = SystemTestUtil.createRandomHeapFileUnopened(2, 5000, 100, null, rows);
+    HeapFile table = new HeapFile(f, new TupleDesc(new Type[]{Type.INT_TYPE, Type.INT_TYPE}, new String[]{"a", "b"}));
+    Database.getCatalog().addTable(table, "events");
+    TableStats.setTableStats("events", new TableStats(table.getId(), 1000));
+    String sql = "SELECT e.a, e.b FROM events e WHERE e.a < 50;";
+    List<List<Integer>> expected = new ArrayList<>();
+    for (List<Integer> row : rows) {
+      if (row.get(0) < 50)
+        expected.add(row);
+    }
+
+    int parallelism = Parser.parallelism;
+    try {
+      for (int dop : new int[]{1, 4}) {
+        Parser.parallelism = dop;
+        TransactionId tid = new TransactionId();
+        ZQuery q = (ZQuery) new ZqlParser(new ByteArrayInputStream(sql.getBytes())).readStatement();
+        OpIterator plan = new Parser().handleQueryStatement(q, tid).getPhysicalPlan();
+        assertEquals(dop > 1, operators(plan).contains(ExchangeConsumer.class));
+        assertEquals(SystemTestUtil.sorted(expected), SystemTestUtil.sorted(SystemTestUtil.readAll(plan)));
+        Database.getBufferPool().transactionComplete(tid);
+      }
+    } finally {
+      Parser.parallelism = parallelism;
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ExchangeTest.class);
+  }
+}
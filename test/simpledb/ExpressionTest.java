@@ -0,0 +1,238 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.Expression;
+import simpledb.execution.Expression.ArithmeticOp;
+import simpledb.execution.Filter;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class ExpressionTest extends SimpleDbTestBase {
+
+  private static final TupleDesc TD = new TupleDesc(new Type[]{Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE},
+      new String[]{"t.a", "t.b", "t.s"});
+
+  private List<Tuple> tuples;
+  private List<List<Integer>> rows;
+  private TransactionId tid;
+
+  private static Tuple tuple(int a, int b, String s) {
+    Tuple t = new Tuple(TD);
+    t.setField(0, new IntField(a));
+    t.setField(1, new IntField(b));
+    t.setField(2, new StringField(s, Type.STRING_LEN));
+    return t;
+  }
+
+  @Before public void setUp() throws Exception {
+    tuples = new ArrayList<>();
+    for (int i = 0; i < 20; i++) {
+      tuples.add(tuple(i, 20 - i, "name" + i));
+    }
+    rows = new ArrayList<>();
+    File f = SystemTestUtil.createRandomHeapFileUnopened(3, 500, 40, null, rows);
+    HeapFile table = new HeapFile(f, Utility.getTupleDesc(3, "c"));
+    Database.getCatalog().addTable(table, "r");
+    TableStats.setTableStats("r", new TableStats(table.getId(), 1000));
+    tid = new TransactionId();
+  }
+
+  /** @return the values of a of the tuples satisfying e */
+  private List<Integer> select(Expression e) {
+    Expression.Condition c = e.compileCondition(TD);
+    List<Integer> result = new ArrayList<>();
+    for (Tuple t : tuples) {
+      if (c.test(t)) {
+        result.add(((IntField) t.getField(0)).getValue());
+      }
+    }
+    return result;
+  }
+
+  private static Expression a() {
+    return Expression.column("t.a");
+  }
+
+  private static Expression s() {
+    return Expression.column("t.s");
+  }
+
+  private static Expression string(String s) {
+    return Expression.constant(new StringField(s, Type.STRING_LEN));
+  }
+
+  /**
+   * Comparisons of fields, constants and arithmetic, with the constant on
+   * either side.
+   */
+  @Test public void comparisons() {
+    assertEquals(Arrays.asList(0, 1, 2), select(Expression.compare(Predicate.Op.LESS_THAN, a(), Expression.constant(3))));
+    assertEquals(Arrays.asList(17, 18, 19), select(Expression.compare(Predicate.Op.LESS_THAN, Expression.constant(16), a())));
+    assertEquals(Arrays.asList(10), select(Expression.compare(Predicate.Op.EQUALS, a(), Expression.field(1))));
+    // a * 2 + b = 25
+    assertEquals(Arrays.asList(5), select(Expression.compare(Predicate.Op.EQUALS,
+        Expression.arithmetic(ArithmeticOp.PLUS,
+            Expression.arithmetic(ArithmeticOp.TIMES, a(), Expression.constant(2)), Expression.field(1)),
+        Expression.constant(25))));
+    assertEquals(Arrays.asList(0, 7, 14), select(Expression.compare(Predicate.Op.EQUALS,
+        Expression.arithmetic(ArithmeticOp.MODULO, a(), Expression.constant(7)), Expression.constant(0))));
+    assertEquals(Arrays.asList(8, 9), select(Expression.compare(Predicate.Op.GREATER_THAN_OR_EQ, s(), string("name8"))));
+    assertEquals(Arrays.asList(1, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19),
+        select(Expression.compare(Predicate.Op.LIKE, s(), string("e1"))));
+
+    try {
+      Expression.compare(Predicate.Op.EQUALS, a(), s()).compileCondition(TD);
+      fail("expected an IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  /**
+   * AND, OR, NOT, IN, BETWEEN and LIKE patterns.
+   */
+  @Test public void conditions() {
+    Expression small = Expression.compare(Predicate.Op.LESS_THAN, a(), Expression.constant(2));
+    Expression large = Expression.compare(Predicate.Op.GREATER_THAN, a(), Expression.constant(17));
+    Expression even = Expression.compare(Predicate.Op.EQUALS,
+        Expression.arithmetic(ArithmeticOp.MODULO, a(), Expression.constant(2)), Expression.constant(0));
+    assertEquals(Arrays.asList(0, 1, 18, 19), select(Expression.or(small, large)));
+    assertEquals(Arrays.asList(0, 18), select(Expression.and(Expression.or(small, large), even)));
+    assertEquals(20, select(Expression.or(small, large, Expression.and())).size());
+    assertTrue(select(Expression.or()).isEmpty());
+    assertEquals(16, select(Expression.not(Expression.or(small, large))).size());
+
+    assertEquals(Arrays.asList(3, 5, 11), select(Expression.in(a(),
+        Arrays.asList(Expression.constant(11), Expression.constant(3), Expression.constant(5), Expression.constant(40)))));
+    assertEquals(Arrays.asList(2, 4), select(Expression.in(s(), Arrays.asList(string("name4"), string("name2")))));
+    assertEquals(Arrays.asList(10), select(Expression.in(a(), Arrays.asList(Expression.field(1)))));
+    assertEquals(Arrays.asList(4, 5, 6), select(Expression.between(a(), Expression.constant(4), Expression.constant(6))));
+
+    assertEquals(Arrays.asList(1, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19), select(Expression.like(s(), "name1%")));
+    assertEquals(Arrays.asList(3, 13), select(Expression.like(s(), "%3")));
+    assertEquals(Arrays.asList(7, 17), select(Expression.like(s(), "%7%")));
+    assertEquals(Arrays.asList(12), select(Expression.like(s(), "name12")));
+    assertEquals(Arrays.asList(10, 11, 12, 13, 14, 15, 16, 17, 18, 19), select(Expression.like(s(), "n_me1_")));
+    assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), select(Expression.like(s(), "_a%e_")));
+  }
+
+  /**
+   * A parameter is bound to the text of its value, converted to the type of
+   * what it is compared with.
+   */
+  @Test public void parameters() {
+    Expression e = Expression.or(Expression.compare(Predicate.Op.EQUALS, a(), Expression.parameter(0)),
+        Expression.compare(Predicate.Op.EQUALS, s(), Expression.parameter(1)));
+    try {
+      e.compileCondition(TD);
+      fail("expected an IllegalArgumentException");
+    } catch (IllegalArgumentException ex) {
+      // expected
+    }
+    assertEquals(Arrays.asList(3, 8), select(e.bind(Arrays.asList("3", "name8"))));
+    assertEquals(Arrays.asList(5), select(e.bind(Arrays.asList("5", "x"))));
+  }
+
+  /**
+   * Filter and Project evaluate compiled expressions.
+   */
+  @Test public void operators() throws Exception {
+    OpIterator child = new TupleIterator(TD, tuples);
+    Filter filter = new Filter(Expression.between(a(), Expression.constant(2), Expression.constant(4)), child);
+    Project project = new Project(Arrays.asList(
+        Expression.arithmetic(ArithmeticOp.MINUS, Expression.field(1), a()), s(), Expression.constant(7)),
+        new String[]{"d", "s", "k"}, filter);
+    assertEquals(Type.INT_TYPE, project.getTupleDesc().getFieldType(0));
+    assertEquals(Type.STRING_TYPE, project.getTupleDesc().getFieldType(1));
+    assertEquals("d", project.getTupleDesc().getFieldName(0));
+    assertNull(project.getFieldList());
+
+    List<String> result = new ArrayList<>();
+    project.open();
+    while (project.hasNext()) {
+      Tuple t = project.next();
+      result.add(t.getField(0) + " " + t.getField(1) + " " + t.getField(2));
+    }
+    project.close();
+    assertEquals(Arrays.asList("16 name2 7", "14 name3 7", "12 name4 7"), result);
+
+    try {
+      new Filter(Expression.compare(Predicate.Op.EQUALS, Expression.column("t.x"), Expression.constant(1)), child);
+      fail("expected a NoSuchElementException");
+    } catch (java.util.NoSuchElementException e) {
+      // expected
+    }
+  }
+
+  /**
+   * A compiled join predicate compares as the predicate does.
+   */
+  @Test public void joinPredicate() {
+    for (Predicate.Op op : Predicate.Op.values()) {
+      JoinPredicate p = new JoinPredicate(0, op, 1);
+      JoinPredicate.Compiled c = p.compile(TD, TD);
+      for (Tuple t1 : tuples) {
+        for (Tuple t2 : tuples) {
+          assertEquals(p.filter(t1, t2), c.filter(t1, t2));
+        }
+      }
+    }
+  }
+
+  /**
+   * The parser evaluates conditions that are not comparisons of a field with
+   * a constant as expressions, alone or with a prepared statement.
+   */
+  @Test public void parser() throws Exception {
+    String query = "SELECT r.c0 FROM r WHERE (r.c1 < 5 OR r.c2 + r.c1 >= 70) AND r.c0 NOT IN (1, 2, 3)"
+        + " AND r.c0 BETWEEN 0 AND 30;";
+    List<List<Integer>> expected = new ArrayList<>();
+    for (List<Integer> row : rows) {
+      int c0 = row.get(0);
+      if ((row.get(1) < 5 || row.get(2) + row.get(1) >= 70) && c0 != 1 && c0 != 2 && c0 != 3 && c0 >= 0 && c0 <= 30) {
+        expected.add(Arrays.asList(c0));
+      }
+    }
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid, query);
+    SystemTestUtil.matchTuples(lp.physicalPlan(tid, TableStats.getStatsMap(), false), expected);
+
+    PreparedStatement ps = new PreparedStatement(query);
+    assertEquals(7, ps.getLogicalPlan().numParameters());
+    SystemTestUtil.matchTuples(ps.physicalPlan(tid), expected);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ExpressionTest.class);
+  }
+}
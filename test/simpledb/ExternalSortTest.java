@@ -0,0 +1,160 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.ExternalSort;
+import simpledb.execution.OrderBy;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ExternalSortTest extends SimpleDbTestBase {
+
+  private static int value(Tuple t, int field) {
+    return ((IntField) t.getField(field)).getValue();
+  }
+
+  /**
+   * Read sort and check that field 0 is in order and that tuples with equal
+   * values keep the order of field 1, their position in the input.
+   */
+  private static void checkSorted(ExternalSort sort, int count, boolean asc) throws Exception {
+    Tuple prev = null;
+    int n = 0;
+    while (sort.hasNext()) {
+      Tuple t = sort.next();
+      if (prev != null) {
+        int c = Integer.compare(value(prev, 0), value(t, 0));
+        assertTrue(asc ? c <= 0 : c >= 0);
+        if (c == 0)
+          assertTrue(value(prev, 1) < value(t, 1));
+      }
+      prev = t;
+      n++;
+    }
+    assertEquals(count, n);
+  }
+
+  @Test public void inMemory() throws Exception {
+    List<Tuple> tuples = SystemTestUtil.randomTuples(new Random(7), 500, 50, SystemTestUtil.POSITION);
+    ExternalSort sort = new ExternalSort(0, true, new TupleIterator(Utility.getTupleDesc(2), tuples));
+    sort.open();
+    assertEquals(0, sort.numRuns());
+    checkSorted(sort, 500, true);
+    sort.close();
+  }
+
+  @Test public void sortedRuns() throws Exception {
+    List<Tuple> tuples = SystemTestUtil.randomTuples(new Random(7), 5000, 300, SystemTestUtil.POSITION);
+    Comparator<Tuple> desc = (a, b) -> Integer.compare(value(b, 0), value(a, 0));
+    ExternalSort sort = new ExternalSort(desc, 400, new TupleIterator(Utility.getTupleDesc(2), tuples));
+    sort.open();
+    assertEquals(13, sort.numRuns());
+    checkSorted(sort, 5000, false);
+
+    // rewind in the middle of the output starts from the first tuple again
+    sort.rewind();
+    Tuple first = sort.next();
+    sort.hasNext();
+    sort.rewind();
+    assertEquals(first.toString(), sort.next().toString());
+    sort.close();
+  }
+
+  /**
+   * More runs than can be merged at once are first merged into longer runs.
+   */
+  @Test public void multiPassMerge() throws Exception {
+    List<Tuple> tuples = SystemTestUtil.randomTuples(new Random(7), 3000, 1000, SystemTestUtil.POSITION);
+    ExternalSort sort = new ExternalSort((a, b) -> Integer.compare(value(a, 0), value(b, 0)), 20,
+        new TupleIterator(Utility.getTupleDesc(2), tuples));
+    sort.open();
+    assertEquals(3, sort.numRuns());
+    checkSorted(sort, 3000, true);
+    sort.close();
+  }
+
+  /**
+   * OrderBy on field 0 descending then field 1 ascending, sorting in runs, returns
+   * the same tuples after a rewind and after being opened again.
+   */
+  @Test public void orderByMultipleFields() throws Exception {
+    List<Tuple> tuples = SystemTestUtil.randomTuples(new Random(9), 2000, 10, 100, SystemTestUtil.POSITION);
+    OrderBy ob = new OrderBy(new int[]{0, 1}, new boolean[]{false, true}, 300,
+        new TupleIterator(Utility.getTupleDesc(3), tuples));
+    for (int pass = 0; pass < 2; pass++) {
+      ob.open();
+      for (int rewind = 0; rewind < 2; rewind++) {
+        Tuple prev = null;
+        int n = 0;
+        while (ob.hasNext()) {
+          Tuple t = ob.next();
+          if (prev != null) {
+            int c = Integer.compare(value(t, 0), value(prev, 0));
+            if (c == 0)
+              c = Integer.compare(value(prev, 1), value(t, 1));
+            if (c == 0)
+              c = Integer.compare(value(prev, 2), value(t, 2));
+            assertTrue(c < 0);
+          }
+          prev = t;
+          n++;
+        }
+        assertEquals(2000, n);
+        ob.rewind();
+      }
+      ob.close();
+    }
+  }
+
+  /**
+   * Strings are written to runs without their padding and read back unchanged.
+   */
+  @Test public void stringFieldsInRuns() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[]{Type.STRING_TYPE, Type.INT_TYPE});
+    Random random = new Random(4);
+    List<Tuple> tuples = new ArrayList<>();
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      StringBuilder sb = new StringBuilder();
+      int len = random.nextInt(12);
+      for (int j = 0; j < len; j++)
+        sb.append((char) ('a' + random.nextInt(26)));
+      Tuple t = new Tuple(td);
+      t.setField(0, new StringField(sb.toString(), Type.STRING_LEN));
+      t.setField(1, new IntField(i));
+      tuples.add(t);
+      expected.add(sb.toString());
+    }
+    expected.sort(null);
+    OrderBy ob = new OrderBy(new int[]{0}, new boolean[]{true}, 100, new TupleIterator(td, tuples));
+    ob.open();
+    List<String> actual = new ArrayList<>();
+    while (ob.hasNext())
+      actual.add(((StringField) ob.next().getField(0)).getValue());
+    ob.close();
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ExternalSortTest.class);
+  }
+}
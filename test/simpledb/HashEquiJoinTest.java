@@ -0,0 +1,155 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.Predicate;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+  private static final int MEMORY = 100;
+  private final Random random = new Random(42);
+
+  /**
+   * A TupleIterator that counts how many times it is rewound.
+   */
+  private static class CountingIterator extends TupleIterator {
+    private static final long serialVersionUID = 1L;
+    int rewinds = 0;
+
+    CountingIterator(TupleDesc td, List<Tuple> tuples) {
+      super(td, tuples);
+    }
+
+    @Override
+    public void rewind() {
+      rewinds++;
+      super.rewind();
+    }
+  }
+
+  /**
+   * A build side within the budget is joined in memory.
+   */
+  @Test public void inMemory() throws Exception {
+    List<Tuple> left = SystemTestUtil.randomTuples(random, 80, 20, 20);
+    List<Tuple> right = SystemTestUtil.randomTuples(random, 500, 20, 20, 20);
+    HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1),
+        new TupleIterator(Utility.getTupleDesc(2), left), new TupleIterator(Utility.getTupleDesc(3), right), MEMORY);
+    SystemTestUtil.matchTuples(join,
+        SystemTestUtil.nestedLoopJoin(left, right, new JoinPredicate(0, Predicate.Op.EQUALS, 1)));
+  }
+
+  /**
+   * A build side twenty times the budget is partitioned to disk, and the probe
+   * side is still read only once.
+   */
+  @Test public void spillsPartitions() throws Exception {
+    List<Tuple> left = SystemTestUtil.randomTuples(random, 2000, 500, 500);
+    List<Tuple> right = SystemTestUtil.randomTuples(random, 3000, 500, 500, 500);
+    CountingIterator probe = new CountingIterator(Utility.getTupleDesc(3), right);
+    HashEquiJoin join = new HashEquiJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0),
+        new TupleIterator(Utility.getTupleDesc(2), left), probe, MEMORY);
+    List<List<Integer>> expected =
+        SystemTestUtil.nestedLoopJoin(left, right, new JoinPredicate(1, Predicate.Op.EQUALS, 0));
+    SystemTestUtil.matchTuples(join, expected);
+    assertEquals(0, probe.rewinds);
+
+    // rewind starts over and returns the same tuples
+    join.open();
+    assertTrue(join.numSpilledPartitions() > 0);
+    int count = 0;
+    while (join.hasNext()) {
+      join.next();
+      count++;
+    }
+    join.rewind();
+    while (join.hasNext()) {
+      join.next();
+      count--;
+    }
+    join.close();
+    assertEquals(0, count);
+  }
+
+  /**
+   * All build tuples with the same join value cannot be partitioned; they are
+   * joined a chunk of the budget at a time.
+   */
+  @Test public void skewedKey() throws Exception {
+    List<Tuple> left = new ArrayList<>();
+    for (int i = 0; i < 350; i++) {
+      Tuple t = new Tuple(Utility.getTupleDesc(2));
+      t.setField(0, new IntField(7));
+      t.setField(1, new IntField(i));
+      left.add(t);
+    }
+    List<Tuple> right = SystemTestUtil.randomTuples(random, 40, 10);
+    HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        new TupleIterator(Utility.getTupleDesc(2), left), new TupleIterator(Utility.getTupleDesc(1), right), MEMORY);
+    SystemTestUtil.matchTuples(join,
+        SystemTestUtil.nestedLoopJoin(left, right, new JoinPredicate(0, Predicate.Op.EQUALS, 0)));
+  }
+
+  /**
+   * String join values are spilled and read back.
+   */
+  @Test public void stringKeys() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[]{Type.STRING_TYPE, Type.INT_TYPE});
+    List<Tuple> left = new ArrayList<>();
+    List<Tuple> right = new ArrayList<>();
+    for (int i = 0; i < 600; i++) {
+      for (List<Tuple> side : Arrays.asList(left, right)) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new StringField("key" + random.nextInt(300), Type.STRING_LEN));
+        t.setField(1, new IntField(i));
+        side.add(t);
+      }
+    }
+    HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+        new TupleIterator(td, left), new TupleIterator(td, right), MEMORY);
+    int expected = 0;
+    for (Tuple l : left) {
+      for (Tuple r : right) {
+        if (l.getField(0).equals(r.getField(0)))
+          expected++;
+      }
+    }
+    join.open();
+    int count = 0;
+    while (join.hasNext()) {
+      Tuple t = join.next();
+      assertEquals(t.getField(0), t.getField(2));
+      count++;
+    }
+    assertTrue(join.numSpilledPartitions() > 0);
+    join.close();
+    assertEquals(expected, count);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashEquiJoinTest.class);
+  }
+}
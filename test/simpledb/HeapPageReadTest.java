@@ -102,6 +102,32 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * The tuples of a page of INT fields are compact, unless compact tuples
+     * are turned off, and the page writes the same bytes either way.
+     */
+    @Test public void compactTuples() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Iterator<Tuple> it = page.iterator();
+        int row = 0;
+        while (it.hasNext()) {
+            Tuple tup = it.next();
+            assertTrue(tup.isCompact());
+            assertEquals(EXAMPLE_VALUES[row][1], tup.getInt(1));
+            row++;
+        }
+        assertTrue(Arrays.equals(EXAMPLE_DATA, page.getPageData()));
+
+        HeapPage.setCompactTuples(false);
+        try {
+            HeapPage listPage = new HeapPage(pid, EXAMPLE_DATA);
+            assertFalse(listPage.iterator().next().isCompact());
+            assertTrue(Arrays.equals(EXAMPLE_DATA, listPage.getPageData()));
+        } finally {
+            HeapPage.setCompactTuples(true);
+        }
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
@@ -0,0 +1,186 @@
+package simpledb;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.*;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.BTreeUtility;
+import simpledb.index.IndexScan;
+import simpledb.index.SecondaryIndex;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+	private static final int ROWS = 3000;
+	private static final int MAX_VALUE = 500;
+
+	private TransactionId tid;
+	private BTreeFile tree;
+	private List<List<Integer>> treeRows;
+	private HeapFile heap;
+	private SecondaryIndex heapIndex;
+	private List<List<Integer>> heapRows;
+	private List<Tuple> outer;
+
+	/**
+	 * Create a B+ tree keyed on field 0 and a heap file with a secondary index on field 1
+	 */
+	@Before public void setUp() throws Exception {
+		treeRows = new ArrayList<>();
+		tree = BTreeUtility.createRandomBTreeFile(2, ROWS, MAX_VALUE, null, treeRows, 0);
+		Database.getCatalog().addTable(tree, "tree");
+
+		heapRows = new ArrayList<>();
+		File f = SystemTestUtil.createRandomHeapFileUnopened(2, ROWS, MAX_VALUE, null, heapRows);
+		heap = new HeapFile(f, new TupleDesc(new Type[]{Type.INT_TYPE, Type.INT_TYPE}, new String[]{"a", "b"}));
+		Database.getCatalog().addTable(heap, "heap");
+		File indexFile = File.createTempFile("heap_b", ".dat");
+		indexFile.deleteOnExit();
+		heapIndex = new SecondaryIndex(indexFile, "heap_b", heap.getId(), new int[]{1}, new int[0]);
+		Database.getCatalog().addIndex(heapIndex);
+
+		tid = new TransactionId();
+		heapIndex.build(tid);
+		Database.getBufferPool().transactionComplete(tid);
+		tid = new TransactionId();
+
+		outer = SystemTestUtil.randomTuples(new Random(3), 40, MAX_VALUE);
+	}
+
+	@After public void tearDown() throws Exception {
+		Database.getBufferPool().transactionComplete(tid);
+		Database.reset();
+	}
+
+	private OpIterator outer() {
+		return new TupleIterator(Utility.getTupleDesc(1), outer);
+	}
+
+	/**
+	 * Probing the B+ tree file on its key matches a nested loop join, for equality and ranges
+	 */
+	@Test public void probeBTree() throws Exception {
+		for (Op op : new Op[]{Op.EQUALS, Op.LESS_THAN, Op.GREATER_THAN_OR_EQ}) {
+			IndexNestedLoopJoin join = new IndexNestedLoopJoin(new JoinPredicate(0, op, 0), outer(),
+					new BTreeScan(tid, tree.getId(), "tree", null));
+			SystemTestUtil.matchSorted(join, SystemTestUtil.nestedLoopJoin(outer, SystemTestUtil.toTuples(treeRows),
+					new JoinPredicate(0, op, 0)));
+		}
+	}
+
+	/**
+	 * Probing a secondary index, with a filter on the inner table above the index scan
+	 */
+	@Test public void probeSecondaryIndexUnderFilter() throws Exception {
+		OpIterator inner = new Filter(new Predicate(0, Op.LESS_THAN, new IntField(MAX_VALUE / 2)),
+				new IndexScan(tid, heapIndex, "heap", null));
+		IndexNestedLoopJoin join = new IndexNestedLoopJoin(new JoinPredicate(0, Op.EQUALS, 1), outer(), inner);
+
+		List<List<Integer>> filtered = new ArrayList<>();
+		for (List<Integer> r : heapRows) {
+			if (r.get(0) < MAX_VALUE / 2)
+				filtered.add(r);
+		}
+		List<List<Integer>> expected = SystemTestUtil.nestedLoopJoin(outer, SystemTestUtil.toTuples(filtered),
+				new JoinPredicate(0, Op.EQUALS, 1));
+		SystemTestUtil.matchSorted(join, expected);
+
+		// rewind in the middle of the output starts from the first tuple again
+		join.open();
+		Tuple first = join.next();
+		join.next();
+		join.hasNext();
+		join.rewind();
+		assertEquals(first.toString(), join.next().toString());
+		join.close();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void notEquals() {
+		new IndexNestedLoopJoin(new JoinPredicate(0, Op.NOT_EQUALS, 0), outer(),
+				new BTreeScan(tid, tree.getId(), "tree", null));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void innerWithoutIndex() {
+		new IndexNestedLoopJoin(new JoinPredicate(0, Op.EQUALS, 0), outer(),
+				new SeqScan(tid, heap.getId(), "heap"));
+	}
+
+	/**
+	 * A join marked by the optimizer replaces the scan of the inner table by a
+	 * scan of its index on the join field, keeping the filters above it
+	 */
+	@Test public void optimizerChoosesIndexJoin() throws Exception {
+		OpIterator outerScan = new SeqScan(tid, heap.getId(), "o");
+		LogicalJoinNode lj = new LogicalJoinNode("o", "heap", "a", "b", Op.EQUALS);
+		lj.algorithm = LogicalJoinNode.Algorithm.INDEX_NESTED_LOOP;
+		Filter inner = new Filter(new Predicate(0, Op.GREATER_THAN, new IntField(0)),
+				new SeqScan(tid, heap.getId(), "heap"));
+		OpIterator j = JoinOptimizer.instantiateJoin(lj, outerScan, inner, tid);
+		assertTrue(j instanceof IndexNestedLoopJoin);
+		assertTrue(inner.getChildren()[0] instanceof IndexScan);
+
+		// without an index on the join field the inner table is read as it is
+		lj = new LogicalJoinNode("o", "heap", "a", "a", Op.EQUALS);
+		lj.algorithm = LogicalJoinNode.Algorithm.INDEX_NESTED_LOOP;
+		j = JoinOptimizer.instantiateJoin(lj, new SeqScan(tid, heap.getId(), "o"),
+				new SeqScan(tid, heap.getId(), "heap"), tid);
+		assertTrue(j instanceof HashEquiJoin);
+	}
+
+	/**
+	 * For a small outer input searching the index is cheaper than scanning the
+	 * inner table
+	 */
+	@Test public void indexJoinCost() throws Exception {
+		Database.getBufferPool().transactionComplete(tid);
+		TableStats stats = new TableStats(heap.getId(), 1000);
+		LogicalPlan lp = new LogicalPlan();
+		lp.addScan(heap.getId(), "o");
+		lp.addScan(heap.getId(), "heap");
+		JoinOptimizer jo = new JoinOptimizer(lp, new ArrayList<>());
+		LogicalJoinNode lj = new LogicalJoinNode("o", "heap", "a", "b", Op.EQUALS);
+
+		double scanCost = stats.estimateScanCost();
+		int card = stats.totalTuples();
+		// 内表只有几页，外表一个元组时搜索索引才比读一遍内表建哈希表便宜
+		double small = jo.estimateIndexJoinCost(lj, 1, 1000, stats);
+		assertTrue(small < jo.estimateJoinCost(lj, 1, card, 1000, scanCost));
+		assertEquals(small, jo.estimateJoinCost(lj, 1, card, 1000, scanCost, stats), 0.001);
+
+		// no index on field a, and no index nested loop join for inequality
+		assertEquals(Double.POSITIVE_INFINITY,
+				jo.estimateIndexJoinCost(new LogicalJoinNode("o", "heap", "b", "a", Op.EQUALS), 2, 1000, stats), 0);
+		assertEquals(Double.POSITIVE_INFINITY,
+				jo.estimateIndexJoinCost(new LogicalJoinNode("o", "heap", "a", "b", Op.NOT_EQUALS), 2, 1000, stats), 0);
+		assertEquals(Double.POSITIVE_INFINITY, jo.estimateIndexJoinCost(lj, 2, 1000, null), 0);
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+	}
+}
@@ -154,6 +154,60 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         checkJoinEstimateCosts(jo, equalsJoinNode);
     }
 
+    /**
+     * The join order chosen by orderJoins() records the cheapest algorithm of
+     * each join: a hash join for equality, a sort-merge join for a range and a
+     * nested loop join for the other predicates. A nested loop join over a
+     * table that no longer fits in the buffer pool costs more.
+     */
+    @Test
+    public void chooseJoinAlgorithmTest() throws ParsingException, IOException {
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put(tableName1, stats1);
+        stats.put(tableName2, stats2);
+        Map<String, Double> filterSelectivities = new HashMap<>();
+        filterSelectivities.put("t1", 1.0);
+        filterSelectivities.put("t2", 1.0);
+
+        Predicate.Op[] ops = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+                Predicate.Op.NOT_EQUALS };
+        LogicalJoinNode.Algorithm[] expected = {
+                LogicalJoinNode.Algorithm.HASH,
+                LogicalJoinNode.Algorithm.SORT_MERGE,
+                LogicalJoinNode.Algorithm.NESTED_LOOP };
+        for (int i = 0; i < ops.length; i++) {
+            List<LogicalJoinNode> nodes = new ArrayList<>();
+            nodes.add(new LogicalJoinNode("t1", "t2", "c1", "c2", ops[i]));
+            List<LogicalJoinNode> result = new JoinOptimizer(
+                    p.generateLogicalPlan(tid, "SELECT * FROM " + tableName1
+                            + " t1, " + tableName2 + " t2 WHERE t1.c1 "
+                            + ops[i] + " t2.c2;"), nodes).orderJoins(stats,
+                    filterSelectivities, false);
+            Assert.assertEquals(expected[i], result.get(0).algorithm);
+            // the nodes given to the optimizer are not changed
+            Assert.assertNull(nodes.get(0).algorithm);
+        }
+
+        // TA 有十几页，缓冲池装得下时后续扫描不再读盘
+        JoinOptimizer jo = new JoinOptimizer(p.generateLogicalPlan(tid,
+                "SELECT * FROM " + tableName2 + " t2, " + tableName1
+                        + " t1 WHERE t2.c1 <> t1.c2;"), new ArrayList<>());
+        LogicalJoinNode j = new LogicalJoinNode("t2", "t1", "c1", "c2",
+                Predicate.Op.NOT_EQUALS);
+        double cached = jo.estimateJoinCost(j,
+                LogicalJoinNode.Algorithm.NESTED_LOOP, 10000, 1000,
+                stats2.estimateScanCost(), stats1.estimateScanCost(), stats2,
+                stats1);
+        Database.resetBufferPool(2);
+        double uncached = jo.estimateJoinCost(j,
+                LogicalJoinNode.Algorithm.NESTED_LOOP, 10000, 1000,
+                stats2.estimateScanCost(), stats1.estimateScanCost(), stats2,
+                stats1);
+        Assert.assertTrue(cached < uncached);
+    }
+
     private void checkJoinEstimateCosts(JoinOptimizer jo,
             LogicalJoinNode equalsJoinNode) {
         int[] card1s = new int[20];
@@ -629,4 +683,105 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertTrue(result.get(result.size() - 1).t2Alias.equals("a")
                 || result.get(result.size() - 1).t1Alias.equals("a"));
     }
+
+    /**
+     * Replay a join order as LogicalPlan.physicalPlan() does: each join
+     * combines the plans that contain its two tables, which must differ.
+     * 
+     * @return the numbers of tables in the two inputs of the last join
+     */
+    private static int[] lastJoinInputs(List<LogicalJoinNode> order) {
+        Map<String, Set<String>> plans = new HashMap<>();
+        int[] inputs = null;
+        for (LogicalJoinNode j : order) {
+            Set<String> left = plans.getOrDefault(j.t1Alias,
+                    new HashSet<>(Collections.singleton(j.t1Alias)));
+            Set<String> right = plans.getOrDefault(j.t2Alias,
+                    new HashSet<>(Collections.singleton(j.t2Alias)));
+            Assert.assertNotSame(left, right);
+            inputs = new int[] { left.size(), right.size() };
+            left.addAll(right);
+            for (String alias : left) {
+                plans.put(alias, left);
+            }
+        }
+        return inputs;
+    }
+
+    /**
+     * Set up a chain a - b - c - d of copies of TA where a and d are very
+     * selective, so that the best plan joins a with b and c with d before
+     * joining both results, rather than joining each table to one growing
+     * plan.
+     */
+    private JoinOptimizer bushyChain(Map<String, TableStats> stats,
+            Map<String, Double> filterSelectivities) throws IOException,
+            ParsingException {
+        List<LogicalJoinNode> nodes = new ArrayList<>();
+        for (String name : new String[] { "a", "b", "c", "d" }) {
+            HeapFile f = createDuplicateHeapFile(tuples1, 10, "c");
+            Database.getCatalog().addTable(f, name);
+            stats.put(name, new TableStats(f.getId(), 19));
+        }
+        filterSelectivities.put("a", 0.001);
+        filterSelectivities.put("b", 1.0);
+        filterSelectivities.put("c", 1.0);
+        filterSelectivities.put("d", 0.001);
+        nodes.add(new LogicalJoinNode("a", "b", "c0", "c0", Predicate.Op.EQUALS));
+        nodes.add(new LogicalJoinNode("b", "c", "c1", "c1", Predicate.Op.EQUALS));
+        nodes.add(new LogicalJoinNode("c", "d", "c2", "c2", Predicate.Op.EQUALS));
+        Collections.shuffle(nodes);
+        return new JoinOptimizer(new Parser().generateLogicalPlan(
+                new TransactionId(),
+                "SELECT COUNT(a.c0) FROM a, b, c, d WHERE a.c0 = b.c0 AND b.c1 = c.c1 AND c.c2 = d.c2;"),
+                nodes);
+    }
+
+    /**
+     * The dynamic programming over sets of tables finds bushy plans
+     */
+    @Test
+    public void bushyOrderJoinsTest() throws IOException, ParsingException {
+        Map<String, TableStats> stats = new HashMap<>();
+        Map<String, Double> filterSelectivities = new HashMap<>();
+        JoinOptimizer j = bushyChain(stats, filterSelectivities);
+        List<LogicalJoinNode> result = j.orderJoins(stats,
+                filterSelectivities, false);
+        Assert.assertEquals(3, result.size());
+        Assert.assertArrayEquals(new int[] { 2, 2 }, lastJoinInputs(result));
+    }
+
+    /**
+     * Above the largest number of tables ordered by dynamic programming the
+     * joins are ordered greedily, joining first the plans with the smallest
+     * result, which may also give bushy plans
+     */
+    @Test
+    public void greedyOrderJoinsTest() throws IOException, ParsingException {
+        Map<String, TableStats> stats = new HashMap<>();
+        Map<String, Double> filterSelectivities = new HashMap<>();
+        JoinOptimizer j = bushyChain(stats, filterSelectivities);
+        j.setMaxDpRelations(2);
+        List<LogicalJoinNode> result = j.orderJoins(stats,
+                filterSelectivities, false);
+        Assert.assertEquals(3, result.size());
+        Assert.assertArrayEquals(new int[] { 2, 2 }, lastJoinInputs(result));
+    }
+
+    /**
+     * Tables that are not joined with the others cannot be ordered without a
+     * cross product
+     */
+    @Test(expected = ParsingException.class)
+    public void disconnectedJoinsTest() throws IOException, ParsingException {
+        Map<String, TableStats> stats = new HashMap<>();
+        Map<String, Double> filterSelectivities = new HashMap<>();
+        bushyChain(stats, filterSelectivities);
+        List<LogicalJoinNode> nodes = new ArrayList<>();
+        nodes.add(new LogicalJoinNode("a", "b", "c0", "c0", Predicate.Op.EQUALS));
+        nodes.add(new LogicalJoinNode("c", "d", "c2", "c2", Predicate.Op.EQUALS));
+        new JoinOptimizer(new Parser().generateLogicalPlan(new TransactionId(),
+                "SELECT COUNT(a.c0) FROM a, b, c, d WHERE a.c0 = b.c0 AND c.c2 = d.c2;"),
+                nodes).orderJoins(stats, filterSelectivities, false);
+    }
 }
@@ -0,0 +1,235 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.QueryPlanCache;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class PreparedStatementTest extends SimpleDbTestBase {
+
+  private List<List<Integer>> rows1;
+  private List<List<Integer>> rows2;
+  private HeapFile table1;
+  private TransactionId tid;
+
+  private static HeapFile table(String name, List<List<Integer>> rows) throws Exception {
+    File f = SystemTestUtil.createRandomHeapFileUnopened(2, 300, 50, null, rows);
+    HeapFile table = new HeapFile(f, new TupleDesc(new Type[]{Type.INT_TYPE, Type.INT_TYPE}, new String[]{"a", "b"}));
+    Database.getCatalog().addTable(table, name);
+    TableStats.setTableStats(name, new TableStats(table.getId(), 1000));
+    return table;
+  }
+
+  @Before public void setUp() throws Exception {
+    rows1 = new ArrayList<>();
+    rows2 = new ArrayList<>();
+    table1 = table("t1", rows1);
+    table("t2", rows2);
+    tid = new TransactionId();
+  }
+
+  /** The b of the tuples of t1 whose a is below max and whose b is min or more */
+  private List<List<Integer>> expected(int max, int min) {
+    List<List<Integer>> result = new ArrayList<>();
+    for (List<Integer> row : rows1) {
+      if (row.get(0) < max && row.get(1) >= min) {
+        result.add(Arrays.asList(row.get(1)));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Constants and parameters are replaced by ?, blanks collapsed, and a
+   * statement that is not a single SELECT is not normalized.
+   */
+  @Test public void normalize() {
+    List<String> values = new ArrayList<>();
+    assertEquals("SELECT t.a FROM t WHERE t.b = ? AND t.c = ? AND t.a < ? LIMIT 3;",
+        PreparedStatement.normalize("SELECT  t.a\n FROM t WHERE t.b = 5 AND t.c = 'x''y' AND t.a < ? limit 3;", values));
+    assertEquals(Arrays.asList("5", "x''y", null), values);
+
+    values.clear();
+    assertEquals("select r0.c1, \"c2\" from r0 where r0.c1=?;",
+        PreparedStatement.normalize("select r0.c1, \"c2\" from r0 where r0.c1=12", values));
+    assertEquals(Arrays.asList("12"), values);
+
+    values.clear();
+    assertEquals("SELECT t.a FROM t WHERE t.s LIKE 'a_%' AND t.s LIKE ?;",
+        PreparedStatement.normalize("SELECT t.a FROM t WHERE t.s LIKE 'a_%' AND t.s LIKE 'b';", values));
+    assertEquals(Arrays.asList("b"), values);
+
+    // Zql reads ? only on the right of a comparison
+    values.clear();
+    assertEquals("SELECT t.a FROM t WHERE 3 = t.a AND t.b > -3 AND t.c < t.b - 2 AND t.d = 4 * t.b;",
+        PreparedStatement.normalize("SELECT t.a FROM t WHERE 3 = t.a AND t.b > -3 AND t.c < t.b - 2 AND t.d = 4 * t.b;", values));
+    assertEquals(Arrays.asList(), values);
+
+    values.clear();
+    assertEquals("SELECT t.a FROM t WHERE t.a IN (?, ?) AND t.b BETWEEN ? AND ? AND (2 = t.c);",
+        PreparedStatement.normalize("SELECT t.a FROM t WHERE t.a IN (1, 2) AND t.b BETWEEN 3 AND 4 AND (2 = t.c);", values));
+    assertEquals(Arrays.asList("1", "2", "3", "4"), values);
+
+    assertNull(PreparedStatement.normalize("SELECT t.a FROM t WHERE t.a = (SELECT s.a FROM s);", values));
+    assertNull(PreparedStatement.normalize("SELECT t.a FROM t; SELECT t.b FROM t;", values));
+    assertNull(PreparedStatement.normalize("INSERT INTO t VALUES (1, 2);", values));
+    assertNull(PreparedStatement.normalize("SELECT t.a FROM t WHERE t.b = 'x;", values));
+  }
+
+  /**
+   * Queries that differ only in their constants share one plan, which returns
+   * the tuples of each.
+   */
+  @Test public void sharedPlan() throws Exception {
+    PreparedStatement ps1 = new PreparedStatement("SELECT t1.b FROM t1 WHERE t1.a < 10 AND t1.b >= 3;");
+    PreparedStatement ps2 = new PreparedStatement("SELECT t1.b FROM t1 WHERE t1.a < 30 AND t1.b >= 20;");
+    assertEquals(ps1.getSql(), ps2.getSql());
+    assertEquals(0, ps1.numParameters());
+    assertSame(ps1.getLogicalPlan(), ps2.getLogicalPlan());
+    assertEquals(2, ps1.getLogicalPlan().numParameters());
+
+    SystemTestUtil.matchTuples(ps1.physicalPlan(tid), expected(10, 3));
+    SystemTestUtil.matchTuples(ps2.physicalPlan(tid), expected(30, 20));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * A constant on the left of a comparison or after a minus stays in the
+   * statement, and a statement whose normalized text Zql cannot read is run
+   * unprepared.
+   */
+  @Test public void constantsZqlCannotBind() throws Exception {
+    PreparedStatement ps = PreparedStatement.of("SELECT t1.b FROM t1 WHERE 3 = t1.a;");
+    assertNotNull(ps);
+    List<List<Integer>> expected = new ArrayList<>();
+    for (List<Integer> row : rows1) {
+      if (row.get(0) == 3) {
+        expected.add(Arrays.asList(row.get(1)));
+      }
+    }
+    SystemTestUtil.matchTuples(ps.physicalPlan(tid), expected);
+
+    ps = PreparedStatement.of("SELECT t1.b FROM t1 WHERE t1.a > -3 AND t1.b >= 10;");
+    assertNotNull(ps);
+    assertEquals(1, ps.getLogicalPlan().numParameters());
+    SystemTestUtil.matchTuples(ps.physicalPlan(tid), expected(Integer.MAX_VALUE, 10));
+
+    assertNull(PreparedStatement.of("SELECT t1.b FROM t1 WHERE ? = t1.a;"));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Each ? is bound to the value given for it, and a wrong number of values
+   * is rejected.
+   */
+  @Test public void parameters() throws Exception {
+    PreparedStatement ps = new PreparedStatement("SELECT t1.b FROM t1 WHERE t1.a < ? AND t1.b >= 5;");
+    assertEquals(1, ps.numParameters());
+    for (int max : new int[]{0, 7, 25, 50}) {
+      SystemTestUtil.matchTuples(ps.physicalPlan(tid, max), expected(max, 5));
+    }
+    try {
+      ps.physicalPlan(tid);
+      fail("expected a ParsingException");
+    } catch (ParsingException e) {
+      // expected
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * A plan with parameters must be bound before it is run; a join is ordered
+   * once and the order kept for other values.
+   */
+  @Test public void logicalPlanParameters() throws Exception {
+    LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+        "SELECT t1.b, t2.b FROM t1, t2 WHERE t1.a = t2.a AND t1.b < ? AND t2.b = ?;");
+    assertEquals(2, lp.numParameters());
+    try {
+      lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+      fail("expected a ParsingException");
+    } catch (ParsingException e) {
+      // expected
+    }
+    for (int b = 0; b < 50; b += 7) {
+      List<List<Integer>> expected = new ArrayList<>();
+      for (List<Integer> r1 : rows1) {
+        for (List<Integer> r2 : rows2) {
+          if (r1.get(0).equals(r2.get(0)) && r1.get(1) < 20 && r2.get(1) == b) {
+            expected.add(Arrays.asList(r1.get(1), r2.get(1)));
+          }
+        }
+      }
+      SystemTestUtil.matchTuples(lp.physicalPlan(tid, TableStats.getStatsMap(), false,
+          Arrays.asList("20", String.valueOf(b))), expected);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * A plan is dropped when the catalog changes or the statistics of one of its
+   * tables are replaced, but not when those of another table are.
+   */
+  @Test public void invalidation() throws Exception {
+    PreparedStatement ps = new PreparedStatement("SELECT t1.b FROM t1 WHERE t1.a < 10;");
+    LogicalPlan lp = ps.getLogicalPlan();
+    assertSame(lp, ps.getLogicalPlan());
+
+    TableStats.setTableStats("t2", new TableStats(Database.getCatalog().getTableId("t2"), 1000));
+    assertSame(lp, ps.getLogicalPlan());
+
+    TableStats.setTableStats("t1", new TableStats(table1.getId(), 1000));
+    LogicalPlan replanned = ps.getLogicalPlan();
+    assertNotSame(lp, replanned);
+    assertSame(replanned, ps.getLogicalPlan());
+
+    Database.getCatalog().addTable(Utility.createEmptyHeapFile(
+        File.createTempFile("table", ".dat").getAbsolutePath(), 2), "t3");
+    assertNotSame(replanned, ps.getLogicalPlan());
+  }
+
+  /**
+   * A full cache drops the least recently used plan.
+   */
+  @Test public void leastRecentlyUsed() throws Exception {
+    QueryPlanCache cache = new QueryPlanCache(2);
+    LogicalPlan[] plans = new LogicalPlan[3];
+    for (int i = 0; i < plans.length; i++) {
+      plans[i] = new Parser().generateLogicalPlan(tid, "SELECT t1.b FROM t1 WHERE t1.a < " + i + ";");
+    }
+    cache.put("q0", plans[0]);
+    cache.put("q1", plans[1]);
+    assertSame(plans[0], cache.get("q0"));
+    cache.put("q2", plans[2]);
+    assertEquals(2, cache.size());
+    assertSame(plans[0], cache.get("q0"));
+    assertNull(cache.get("q1"));
+    assertSame(plans[2], cache.get("q2"));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(PreparedStatementTest.class);
+  }
+}
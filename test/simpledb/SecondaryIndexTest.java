@@ -0,0 +1,297 @@
+package simpledb;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.*;
+import simpledb.execution.Predicate.Op;
+import simpledb.index.IndexOnlyScan;
+import simpledb.index.IndexScan;
+import simpledb.index.SecondaryIndex;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class SecondaryIndexTest extends SimpleDbTestBase {
+
+	private static final int ROWS = 2000;
+	private static final int CATEGORIES = 20;
+
+	private static final TupleDesc ORDERS_TD = new TupleDesc(
+			new Type[]{Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE}, new String[]{"id", "category", "amount"});
+
+	private HeapFile orders;
+	private SecondaryIndex byCategory;
+	private List<List<Integer>> rows;
+
+	/**
+	 * Create the orders table with an index on category that includes amount
+	 */
+	@Before public void setUp() throws Exception {
+		rows = new ArrayList<>();
+		File f = SystemTestUtil.createRandomHeapFileUnopened(3, ROWS, CATEGORIES, null, rows);
+		orders = new HeapFile(f, ORDERS_TD);
+		Database.getCatalog().addTable(orders, "orders");
+
+		File indexFile = File.createTempFile("orders_category", ".dat");
+		indexFile.deleteOnExit();
+		byCategory = new SecondaryIndex(indexFile, "orders_category", orders.getId(), new int[]{1}, new int[]{2});
+		Database.getCatalog().addIndex(byCategory);
+		TransactionId tid = new TransactionId();
+		byCategory.build(tid);
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	@After public void tearDown() {
+		Database.reset();
+	}
+
+	@Test public void catalogTracksIndexes() {
+		assertEquals(Collections.singletonList(byCategory), Database.getCatalog().getIndexes(orders.getId()));
+		assertTrue(Database.getCatalog().getIndexes(byCategory.getFile().getId()).isEmpty());
+		assertEquals(byCategory.getFile(), Database.getCatalog().getDatabaseFile(
+				Database.getCatalog().getTableId("orders_category")));
+		assertTrue(byCategory.covers(1));
+		assertTrue(byCategory.covers(2));
+		assertFalse(byCategory.covers(0));
+	}
+
+	@Test public void insertAndDeleteMaintainIndex() throws Exception {
+		TransactionId tid = new TransactionId();
+		assertIndexMatchesTable(tid);
+
+		// insert a batch of orders in category 3 through the Insert operator
+		List<Tuple> added = new ArrayList<>();
+		for (int i = 0; i < 300; i++) {
+			Tuple t = new Tuple(ORDERS_TD);
+			t.setField(0, new IntField(ROWS + i));
+			t.setField(1, new IntField(3));
+			t.setField(2, new IntField(i));
+			added.add(t);
+		}
+		drain(new Insert(tid, new TupleIterator(ORDERS_TD, added), orders.getId()));
+		assertIndexMatchesTable(tid);
+
+		// delete every order with a small amount through the Delete operator
+		drain(new Delete(tid, new Filter(new Predicate(2, Op.LESS_THAN, new IntField(150)),
+				new SeqScan(tid, orders.getId(), "orders"))));
+		assertIndexMatchesTable(tid);
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	@Test public void indexOnlyScan() throws Exception {
+		TransactionId tid = new TransactionId();
+		IndexOnlyScan scan = new IndexOnlyScan(tid, byCategory, "o",
+				new IndexPredicate(Op.EQUALS, new IntField(5)));
+		assertEquals(2, scan.getTupleDesc().numFields());
+		assertEquals("o.category", scan.getTupleDesc().getFieldName(0));
+		assertEquals("o.amount", scan.getTupleDesc().getFieldName(1));
+
+		List<List<Integer>> expected = new ArrayList<>();
+		for (List<Integer> row : rows) {
+			if (row.get(1) == 5) {
+				expected.add(Arrays.asList(row.get(1), row.get(2)));
+			}
+		}
+		SystemTestUtil.matchTuples(scan, expected);
+
+		// the RecordIds point back into the table
+		Map<RecordId, Tuple> table = readTable(tid);
+		scan.open();
+		while (scan.hasNext()) {
+			Tuple t = scan.next();
+			Tuple row = table.get(t.getRecordId());
+			assertEquals(t.getField(0), row.getField(1));
+			assertEquals(t.getField(1), row.getField(2));
+		}
+		scan.close();
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * An index-only scan returns its fields in table order, so an index keyed on
+	 * amount that includes category is ordered, and grouped, on its second field.
+	 */
+	@Test public void indexOnlyScanOrder() throws Exception {
+		File indexFile = File.createTempFile("orders_amount", ".dat");
+		indexFile.deleteOnExit();
+		SecondaryIndex byAmount = new SecondaryIndex(indexFile, "orders_amount", orders.getId(),
+				new int[]{2}, new int[]{1});
+		Database.getCatalog().addIndex(byAmount);
+		TransactionId tid = new TransactionId();
+		byAmount.build(tid);
+
+		IndexOnlyScan scan = new IndexOnlyScan(tid, byAmount, "o", null);
+		assertEquals("o.category", scan.getTupleDesc().getFieldName(0));
+		assertArrayEquals(new int[]{1}, scan.keyFields());
+		assertTrue(JoinOptimizer.isSortedOn(scan, 1, true));
+		assertFalse(JoinOptimizer.isSortedOn(scan, 0, true));
+		assertTrue(JoinOptimizer.isGroupedOn(scan, new int[]{1}));
+		assertFalse(JoinOptimizer.isGroupedOn(scan, new int[]{0}));
+
+		int last = Integer.MIN_VALUE;
+		scan.open();
+		while (scan.hasNext()) {
+			int amount = ((IntField) scan.next().getField(1)).getValue();
+			assertTrue(last <= amount);
+			last = amount;
+		}
+		scan.close();
+
+		// a key of (amount, id) comes out as (id, amount)
+		indexFile = File.createTempFile("orders_amount_id", ".dat");
+		indexFile.deleteOnExit();
+		SecondaryIndex byAmountId = new SecondaryIndex(indexFile, "orders_amount_id", orders.getId(),
+				new int[]{2, 0}, new int[0]);
+		Database.getCatalog().addIndex(byAmountId);
+		byAmountId.build(tid);
+		scan = new IndexOnlyScan(tid, byAmountId, "o", null);
+		assertArrayEquals(new int[]{1, 0}, scan.keyFields());
+		assertTrue(JoinOptimizer.isGroupedOn(scan, new int[]{0, 1}));
+		assertFalse(JoinOptimizer.isGroupedOn(scan, new int[]{0}));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	@Test public void optimizerPicksCoveringIndex() throws Exception {
+		Map<String, TableStats> stats = new HashMap<>();
+		stats.put("orders", new TableStats(orders.getId(), 1000));
+		TransactionId tid = new TransactionId();
+		Parser p = new Parser();
+
+		LogicalPlan lp = p.generateLogicalPlan(tid,
+				"SELECT o.amount FROM orders o WHERE o.category = 7 AND o.amount > 3;");
+		OpIterator plan = lp.physicalPlan(tid, stats, false);
+		assertTrue(contains(plan, IndexOnlyScan.class));
+		List<List<Integer>> expected = new ArrayList<>();
+		for (List<Integer> row : rows) {
+			if (row.get(1) == 7 && row.get(2) > 3) {
+				expected.add(Collections.singletonList(row.get(2)));
+			}
+		}
+		SystemTestUtil.matchTuples(plan, expected);
+
+		// id is not stored in the index, so the table has to be read
+		lp = p.generateLogicalPlan(tid, "SELECT o.id FROM orders o WHERE o.category = 7;");
+		assertFalse(contains(lp.physicalPlan(tid, stats, false), IndexOnlyScan.class));
+		lp = p.generateLogicalPlan(tid, "SELECT * FROM orders o WHERE o.category = 7;");
+		assertFalse(contains(lp.physicalPlan(tid, stats, false), IndexOnlyScan.class));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	@Test public void indexScan() throws Exception {
+		TransactionId tid = new TransactionId();
+		IndexScan scan = new IndexScan(tid, byCategory, "o", new IndexPredicate(Op.EQUALS, new IntField(5)));
+		assertEquals(3, scan.getTupleDesc().numFields());
+		assertEquals("o.id", scan.getTupleDesc().getFieldName(0));
+
+		List<List<Integer>> expected = new ArrayList<>();
+		for (List<Integer> row : rows) {
+			if (row.get(1) == 5) {
+				expected.add(row);
+			}
+		}
+		SystemTestUtil.matchTuples(scan, expected);
+
+		// the same operator can be reopened with another predicate
+		expected.clear();
+		for (List<Integer> row : rows) {
+			if (row.get(1) < 2) {
+				expected.add(row);
+			}
+		}
+		scan.rewind(new IndexPredicate(Op.LESS_THAN, new IntField(2)));
+		List<List<Integer>> actual = new ArrayList<>();
+		while (scan.hasNext()) {
+			actual.add(SystemTestUtil.tupleToList(scan.next()));
+		}
+		scan.close();
+		assertEquals(expected.size(), actual.size());
+		assertTrue(actual.containsAll(expected));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	@Test public void indexScanCost() {
+		TableStats stats = new TableStats(orders.getId(), 1000);
+		double scanCost = stats.estimateScanCost();
+		// fetching a few tuples by RecordId is cheaper than reading the table
+		assertTrue(stats.estimateIndexScanCost(byCategory, 1.0 / ROWS) < scanCost);
+		// but fetching all of them costs more
+		assertTrue(stats.estimateIndexScanCost(byCategory, 1.0) > scanCost);
+		assertTrue(stats.estimateIndexScanCost(byCategory, 0.05) > stats.estimateIndexScanCost(byCategory, 0.01));
+		assertTrue(stats.estimateIndexOnlyScanCost(byCategory, 0.05) < stats.estimateIndexScanCost(byCategory, 0.05));
+	}
+
+	/**
+	 * Check that the index has exactly one entry per tuple of the table, with the right values
+	 */
+	private void assertIndexMatchesTable(TransactionId tid) throws Exception {
+		Map<RecordId, Tuple> table = readTable(tid);
+		int entries = 0;
+		DbFileIterator it = byCategory.getFile().iterator(tid);
+		it.open();
+		while (it.hasNext()) {
+			Tuple entry = it.next();
+			Tuple t = table.get(byCategory.getRecordId(entry));
+			assertNotNull(t);
+			assertEquals(t.getField(1), entry.getField(0));
+			assertEquals(t.getField(2), entry.getField(1));
+			entries++;
+		}
+		it.close();
+		assertEquals(table.size(), entries);
+	}
+
+	private Map<RecordId, Tuple> readTable(TransactionId tid) throws Exception {
+		Map<RecordId, Tuple> table = new HashMap<>();
+		DbFileIterator it = orders.iterator(tid);
+		it.open();
+		while (it.hasNext()) {
+			Tuple t = it.next();
+			table.put(t.getRecordId(), t);
+		}
+		it.close();
+		return table;
+	}
+
+	private static void drain(OpIterator op) throws Exception {
+		op.open();
+		while (op.hasNext()) {
+			op.next();
+		}
+		op.close();
+	}
+
+	private static boolean contains(OpIterator op, Class<?> c) {
+		if (c.isInstance(op)) {
+			return true;
+		}
+		if (op instanceof Operator) {
+			for (OpIterator child : ((Operator) op).getChildren()) {
+				if (contains(child, c)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * JUnit suite target
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(SecondaryIndexTest.class);
+	}
+}
@@ -0,0 +1,169 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class SeqScanPushDownTest extends SimpleDbTestBase {
+
+  private List<List<Integer>> rows1;
+  private List<List<Integer>> rows2;
+  private HeapFile table1;
+  private TransactionId tid;
+
+  private static HeapFile table(String name, List<List<Integer>> rows) throws Exception {
+    File f = SystemTestUtil.createRandomHeapFileUnopened(4, 2000, 100, null, rows);
+    HeapFile table = new HeapFile(f, Utility.getTupleDesc(4, "c"));
+    Database.getCatalog().addTable(table, name);
+    TableStats.setTableStats(name, new TableStats(table.getId(), 1000));
+    return table;
+  }
+
+  @Before public void setUp() throws Exception {
+    rows1 = new ArrayList<>();
+    rows2 = new ArrayList<>();
+    table1 = table("t1", rows1);
+    table("t2", rows2);
+    tid = new TransactionId();
+  }
+
+  /** Collects the operators of a plan */
+  private static void operators(OpIterator plan, List<OpIterator> result) {
+    result.add(plan);
+    if (plan instanceof Operator) {
+      for (OpIterator child : ((Operator) plan).getChildren()) {
+        if (child != null) {
+          operators(child, result);
+        }
+      }
+    }
+  }
+
+  /**
+   * The iterator of a heap file returns only the tuples matching all its
+   * predicates, with only the requested fields, and keeps their record ids.
+   */
+  @Test public void heapFileIterator() throws Exception {
+    Predicate[] predicates = {
+        new Predicate(0, Predicate.Op.LESS_THAN, new IntField(40)),
+        new Predicate(2, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(30))};
+    DbFileIterator it = table1.iterator(tid, 0, -1, predicates, new int[]{3, 0});
+    List<List<Integer>> expected = new ArrayList<>();
+    for (List<Integer> row : rows1) {
+      if (row.get(0) < 40 && row.get(2) >= 30) {
+        expected.add(Arrays.asList(row.get(3), row.get(0)));
+      }
+    }
+    List<List<Integer>> actual = new ArrayList<>();
+    it.open();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      assertEquals(2, t.getTupleDesc().numFields());
+      assertEquals(Type.INT_TYPE, t.getTupleDesc().getFieldType(1));
+      assertNotNull(t.getRecordId());
+      actual.add(SystemTestUtil.tupleToList(t));
+    }
+    it.close();
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * A scan with pushed predicates and fields describes the projected fields
+   * under its alias, and returns the same tuples after a rewind.
+   */
+  @Test public void seqScan() throws Exception {
+    SeqScan scan = new SeqScan(tid, table1.getId(), "a",
+        new Predicate[]{new Predicate(1, Predicate.Op.EQUALS, new IntField(7))}, new int[]{2});
+    assertEquals(1, scan.getTupleDesc().numFields());
+    assertEquals("a." + table1.getTupleDesc().getFieldName(2), scan.getTupleDesc().getFieldName(0));
+    assertEquals(2, scan.tableField(0));
+    List<List<Integer>> expected = new ArrayList<>();
+    for (List<Integer> row : rows1) {
+      if (row.get(1) == 7) {
+        expected.add(Arrays.asList(row.get(2)));
+      }
+    }
+    SystemTestUtil.matchTuples(scan, expected);
+    scan.open();
+    scan.rewind();
+    int n = 0;
+    while (scan.hasNext()) {
+      scan.next();
+      n++;
+    }
+    scan.close();
+    assertEquals(expected.size(), n);
+  }
+
+  /**
+   * The planner moves the filters of a join into the scans, which read only
+   * the fields used above them, and the join returns the same tuples.
+   */
+  @Test public void planner() throws Exception {
+    String f0 = table1.getTupleDesc().getFieldName(0);
+    String f1 = table1.getTupleDesc().getFieldName(1);
+    String f3 = table1.getTupleDesc().getFieldName(3);
+    OpIterator plan = new Parser().generateLogicalPlan(tid,
+        "SELECT t1." + f3 + ", t2." + f1 + " FROM t1, t2 WHERE t1." + f0 + " = t2." + f0
+            + " AND t1." + f1 + " < 10 AND t2." + f3 + " > 50;")
+        .physicalPlan(tid, TableStats.getStatsMap(), false);
+
+    List<OpIterator> ops = new ArrayList<>();
+    operators(plan, ops);
+    int scans = 0;
+    for (OpIterator op : ops) {
+      assertFalse(op instanceof Filter);
+      if (op instanceof SeqScan) {
+        SeqScan scan = (SeqScan) op;
+        assertEquals(1, scan.getPredicates().length);
+        assertArrayEquals(scan.getTableName().equals("t1") ? new int[]{0, 3} : new int[]{0, 1},
+            scan.getFields());
+        scans++;
+      }
+    }
+    assertEquals(2, scans);
+
+    List<List<Integer>> expected = new ArrayList<>();
+    for (List<Integer> r1 : rows1) {
+      for (List<Integer> r2 : rows2) {
+        if (r1.get(0).equals(r2.get(0)) && r1.get(1) < 10 && r2.get(3) > 50) {
+          expected.add(Arrays.asList(r1.get(3), r2.get(1)));
+        }
+      }
+    }
+    SystemTestUtil.matchTuples(plan, expected);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SeqScanPushDownTest.class);
+  }
+}
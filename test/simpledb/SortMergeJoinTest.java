@@ -0,0 +1,138 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.*;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  private final Random random = new Random(11);
+
+  /**
+   * Every supported operator returns the same tuples as a nested loop join, with
+   * inputs sorted in memory and with inputs sorted in runs on disk.
+   */
+  @Test public void matchesNestedLoopJoin() throws Exception {
+    List<Tuple> left = SystemTestUtil.randomTuples(random, 300, 40, 40);
+    List<Tuple> right = SystemTestUtil.randomTuples(random, 200, 40, 40, 40);
+    for (Predicate.Op op : new Predicate.Op[]{Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+        Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ}) {
+      JoinPredicate p = new JoinPredicate(1, op, 2);
+      List<List<Integer>> expected = SystemTestUtil.nestedLoopJoin(left, right, p);
+      for (int maxTuples : new int[]{ExternalSort.DEFAULT_MAX_TUPLES, 32}) {
+        SortMergeJoin join = new SortMergeJoin(p, new TupleIterator(Utility.getTupleDesc(2), left),
+            new TupleIterator(Utility.getTupleDesc(3), right), false, false, maxTuples);
+        SystemTestUtil.matchTuples(join, expected);
+      }
+    }
+  }
+
+  @Test public void emptyInput() throws Exception {
+    List<Tuple> left = SystemTestUtil.randomTuples(random, 50, 10, 10);
+    for (Predicate.Op op : new Predicate.Op[]{Predicate.Op.EQUALS, Predicate.Op.GREATER_THAN}) {
+      SortMergeJoin join = new SortMergeJoin(new JoinPredicate(0, op, 0),
+          new TupleIterator(Utility.getTupleDesc(2), left),
+          new TupleIterator(Utility.getTupleDesc(1), new ArrayList<>()));
+      join.open();
+      assertFalse(join.hasNext());
+      join.close();
+    }
+  }
+
+  @Test public void rewind() throws Exception {
+    List<Tuple> left = SystemTestUtil.randomTuples(random, 100, 20, 20);
+    List<Tuple> right = SystemTestUtil.randomTuples(random, 100, 20, 20);
+    SortMergeJoin join = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0),
+        new TupleIterator(Utility.getTupleDesc(2), left), new TupleIterator(Utility.getTupleDesc(2), right));
+    join.open();
+    Tuple first = join.next();
+    join.hasNext();
+    join.rewind();
+    assertEquals(first.toString(), join.next().toString());
+    join.close();
+  }
+
+  /**
+   * Inputs that are already in order are read as they are.
+   */
+  @Test public void sortedInputs() throws Exception {
+    List<Tuple> left = SystemTestUtil.randomTuples(random, 100, 20, 20);
+    List<Tuple> right = SystemTestUtil.randomTuples(random, 100, 20, 20);
+    OpIterator sortedLeft = new OrderBy(1, true, new TupleIterator(Utility.getTupleDesc(2), left));
+    OpIterator sortedRight = new OrderBy(0, true, new TupleIterator(Utility.getTupleDesc(2), right));
+    assertTrue(JoinOptimizer.isSortedOn(sortedLeft, 1, true));
+    assertFalse(JoinOptimizer.isSortedOn(sortedLeft, 0, true));
+    assertFalse(JoinOptimizer.isSortedOn(sortedLeft, 1, false));
+
+    JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+    SortMergeJoin join = new SortMergeJoin(p, sortedLeft, sortedRight, true, true, 1);
+    SystemTestUtil.matchTuples(join, SystemTestUtil.nestedLoopJoin(left, right, p));
+    // its output is ordered on the join fields
+    assertTrue(JoinOptimizer.isSortedOn(join, 1, true));
+    assertTrue(JoinOptimizer.isSortedOn(join, 2, true));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void notEquals() {
+    new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0),
+        new TupleIterator(Utility.getTupleDesc(1), new ArrayList<>()),
+        new TupleIterator(Utility.getTupleDesc(1), new ArrayList<>()));
+  }
+
+  /**
+   * The optimizer instantiates range joins as sort-merge joins and costs them
+   * below a nested loop join.
+   */
+  @Test public void optimizerUsesSortMergeForRangeJoins() throws Exception {
+    HeapFile t1 = SystemTestUtil.createRandomHeapFile(2, 10, 10, null, new ArrayList<>(), "c");
+    HeapFile t2 = SystemTestUtil.createRandomHeapFile(2, 10, 10, null, new ArrayList<>(), "c");
+    Database.getCatalog().addTable(t1, "t1");
+    Database.getCatalog().addTable(t2, "t2");
+    TransactionId tid = new TransactionId();
+    OpIterator s1 = new SeqScan(tid, t1.getId(), "a");
+    OpIterator s2 = new SeqScan(tid, t2.getId(), "b");
+
+    OpIterator j = JoinOptimizer.instantiateJoin(new LogicalJoinNode("a", "b", "c0", "c1",
+        Predicate.Op.LESS_THAN), s1, s2);
+    assertTrue(j instanceof SortMergeJoin);
+    j = JoinOptimizer.instantiateJoin(new LogicalJoinNode("a", "b", "c0", "c1",
+        Predicate.Op.NOT_EQUALS), s1, s2);
+    assertTrue(j instanceof BlockNestedLoopJoin);
+    j = JoinOptimizer.instantiateJoin(new LogicalJoinNode("a", "b", "c0", "c1",
+        Predicate.Op.EQUALS), s1, s2);
+    assertTrue(j instanceof HashEquiJoin);
+
+    JoinOptimizer jo = new JoinOptimizer(new LogicalPlan(), new ArrayList<>());
+    double range = jo.estimateJoinCost(new LogicalJoinNode("a", "b", "c0", "c1",
+        Predicate.Op.LESS_THAN), 10000, 10000, 1000, 1000);
+    double nestedLoop = 1000 + 10000 * 1000.0 + 10000.0 * 10000;
+    assertTrue(range < nestedLoop);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
@@ -0,0 +1,154 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class StreamAggregateTest extends SimpleDbTestBase {
+
+  private static final Aggregator.Op[] OPS = {Aggregator.Op.MIN, Aggregator.Op.MAX,
+      Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT};
+  private static final int[] AFIELDS = {2, 2, 2, 2, 1};
+
+  /**
+   * Over an input sorted on the group-by fields, in another order and
+   * direction, the groups are those of the hash Aggregate, one per key.
+   */
+  @Test public void matchesAggregate() throws Exception {
+    List<Tuple> tuples = SystemTestUtil.randomTuples(new Random(29), 3000, 15, 10, -500);
+    int[] gfields = {0, 1};
+    Aggregate hash = new Aggregate(new TupleIterator(Utility.getTupleDesc(3), tuples), AFIELDS, OPS, gfields);
+    List<List<Integer>> expected = SystemTestUtil.sorted(SystemTestUtil.readAll(hash));
+
+    OrderBy input = new OrderBy(new int[]{1, 0}, new boolean[]{false, true},
+        new TupleIterator(Utility.getTupleDesc(3), tuples));
+    assertTrue(JoinOptimizer.isGroupedOn(input, gfields));
+    StreamAggregate stream = new StreamAggregate(input, AFIELDS, OPS, gfields);
+    assertEquals(hash.getTupleDesc(), stream.getTupleDesc());
+    List<List<Integer>> actual = SystemTestUtil.readAll(stream);
+    assertEquals(expected, SystemTestUtil.sorted(actual));
+    // rewind in the middle of the output starts from the first group again
+    stream.open();
+    stream.next();
+    stream.rewind();
+    List<List<Integer>> rewound = new ArrayList<>();
+    while (stream.hasNext()) {
+      rewound.add(SystemTestUtil.tupleToList(stream.next()));
+    }
+    stream.close();
+    assertEquals(actual, rewound);
+
+    // the groups come out in the order of the input
+    assertTrue(JoinOptimizer.isSortedOn(new StreamAggregate(input, AFIELDS, OPS, new int[]{1}), 0, false));
+    assertFalse(JoinOptimizer.isGroupedOn(input, new int[]{0}));
+  }
+
+  /**
+   * Without grouping there is one result, and over an empty input only COUNT
+   * has one, as with Aggregate.
+   */
+  @Test public void noGroupingAndEmptyInput() throws Exception {
+    List<Tuple> tuples = SystemTestUtil.randomTuples(new Random(29), 200, 15, 10, -500);
+    for (List<Tuple> input : Arrays.asList(tuples, new ArrayList<Tuple>())) {
+      for (int i = 0; i < OPS.length; i++) {
+        int[] afields = {AFIELDS[i]};
+        Aggregator.Op[] ops = {OPS[i]};
+        Aggregate hash = new Aggregate(new TupleIterator(Utility.getTupleDesc(3), input), afields, ops, new int[0]);
+        StreamAggregate stream = new StreamAggregate(new TupleIterator(Utility.getTupleDesc(3), input),
+            afields, ops, new int[0]);
+        assertEquals(SystemTestUtil.readAll(hash), SystemTestUtil.readAll(stream));
+      }
+    }
+  }
+
+  /**
+   * The optimizer streams the aggregate over a scan of a B+ tree keyed on the
+   * group-by field, which also needs no sort for an ORDER BY on it, and hashes
+   * it over a heap file.
+   */
+  @Test public void optimizerStreamsOverSortedScan() throws Exception {
+    List<List<Integer>> rows = new ArrayList<>();
+    BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 2000, 50, null, rows, 0);
+    BTreeFile table = new BTreeFile(f.getFile(), 0, Utility.getTupleDesc(2, "c"));
+    Database.getCatalog().addTable(table, "tree");
+    Database.getCatalog().addTable(SystemTestUtil.createRandomHeapFile(2, 100, 50, null,
+        new ArrayList<>(), "c"), "heap");
+    Map<String, TableStats> stats = new HashMap<>();
+    stats.put("tree", new TableStats(table.getId(), 1000));
+    stats.put("heap", new TableStats(Database.getCatalog().getTableId("heap"), 1000));
+
+    Map<Integer, Integer> counts = new HashMap<>();
+    for (List<Integer> row : rows) {
+      counts.merge(row.get(0), 1, Integer::sum);
+    }
+    List<Integer> keys = new ArrayList<>(counts.keySet());
+    Collections.sort(keys);
+
+    TransactionId tid = new TransactionId();
+    Parser p = new Parser();
+    OpIterator plan = p.generateLogicalPlan(tid,
+        "SELECT t.c0, COUNT(t.c1) FROM tree t GROUP BY t.c0 ORDER BY t.c0;").physicalPlan(tid, stats, false);
+    assertTrue(contains(plan, StreamAggregate.class));
+    assertFalse(contains(plan, Aggregate.class));
+    assertFalse(contains(plan, OrderBy.class));
+    plan.open();
+    for (int key : keys) {
+      List<Integer> row = SystemTestUtil.tupleToList(plan.next());
+      assertEquals(key, (int) row.get(0));
+      assertEquals(counts.get(key), row.get(1));
+    }
+    assertFalse(plan.hasNext());
+    plan.close();
+
+    plan = p.generateLogicalPlan(tid, "SELECT t.c1, COUNT(t.c0) FROM tree t GROUP BY t.c1;")
+        .physicalPlan(tid, stats, false);
+    assertTrue(contains(plan, Aggregate.class));
+    plan = p.generateLogicalPlan(tid, "SELECT h.c0, COUNT(h.c1) FROM heap h GROUP BY h.c0;")
+        .physicalPlan(tid, stats, false);
+    assertTrue(contains(plan, Aggregate.class));
+    assertFalse(contains(plan, StreamAggregate.class));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  private static boolean contains(OpIterator plan, Class<?> c) {
+    if (c.isInstance(plan))
+      return true;
+    if (plan instanceof Operator) {
+      for (OpIterator child : ((Operator) plan).getChildren()) {
+        if (contains(child, c))
+          return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(StreamAggregateTest.class);
+  }
+}
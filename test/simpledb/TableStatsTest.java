@@ -1,8 +1,10 @@
 package simpledb;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Future;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -10,14 +12,19 @@ import org.junit.Assert;
 
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.Utility;
 import simpledb.execution.Predicate;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
 import simpledb.optimizer.TableStats;
 import simpledb.storage.Field;
 import simpledb.storage.HeapFile;
 import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
 
 public class TableStatsTest extends SimpleDbTestBase {
 	public static final int IO_COST = 71;
@@ -160,4 +167,121 @@ public class TableStatsTest extends SimpleDbTestBase {
 			Assert.assertEquals(0.0, s.estimateSelectivity(col, Predicate.Op.LESS_THAN_OR_EQ, belowMin), 0.001);
 		}
 	}
+
+	/**
+	 * Statistics built from a sample of the pages estimate the size of the table
+	 * and the selectivities nearly as well as those of the whole table.
+	 */
+	@Test public void sampledStatsTest() {
+		TableStats s = new TableStats(this.tableId, IO_COST, 1000);
+		Assert.assertEquals(10200, s.totalTuples(), 510);
+		Assert.assertEquals(f.numPages() * IO_COST, s.estimateScanCost(), 0.001);
+		for (int col = 0; col < 10; col++) {
+			Assert.assertEquals(1.0/32.0, s.estimateSelectivity(col, Predicate.Op.EQUALS, new IntField(16)), 0.015);
+			Assert.assertEquals(0.5, s.estimateSelectivity(col, Predicate.Op.GREATER_THAN, new IntField(16)), 0.1);
+			Assert.assertEquals(0.0, s.estimateSelectivity(col, Predicate.Op.GREATER_THAN, new IntField(42)), 0.001);
+		}
+	}
+
+	/**
+	 * The statistics of a B+ tree file are computed like those of a heap file.
+	 */
+	@Test public void btreeStatsTest() throws Exception {
+		BTreeFile bf = BTreeUtility.createRandomBTreeFile(3, 5000, 32, null, null, 0);
+		Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+		TableStats s = new TableStats(bf.getId(), IO_COST);
+		Assert.assertEquals(5000, s.totalTuples());
+		Assert.assertEquals(bf.numPages() * IO_COST, s.estimateScanCost(), 0.001);
+		for (int col = 0; col < 3; col++) {
+			Assert.assertEquals(0.5, s.estimateSelectivity(col, Predicate.Op.LESS_THAN, new IntField(16)), 0.1);
+		}
+	}
+
+	/**
+	 * computeStatistics analyzes every table of the catalog.
+	 */
+	@Test public void computeStatisticsTest() throws Exception {
+		List<String> names = new ArrayList<>();
+		for (int i = 0; i < 40; i++) {
+			HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 100 * i, 32, null, new ArrayList<>());
+			String name = SystemTestUtil.getUUID();
+			Database.getCatalog().addTable(hf, name);
+			names.add(name);
+		}
+		TableStats.computeStatistics();
+		for (int i = 0; i < names.size(); i++) {
+			Assert.assertEquals(100 * i, TableStats.getTableStats(names.get(i)).totalTuples());
+		}
+		Assert.assertEquals(10200, TableStats.getTableStats(tableName).totalTuples());
+	}
+
+	private static void insertTuples(int tableId, int n) throws Exception {
+		TransactionId tid = new TransactionId();
+		for (int i = 0; i < n; i++) {
+			Tuple t = new Tuple(Utility.getTupleDesc(10));
+			for (int col = 0; col < 10; col++) {
+				t.setField(col, new IntField(100 + i % 10));
+			}
+			Database.getBufferPool().insertTuple(tid, tableId, t);
+		}
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	/**
+	 * The number of tuples follows the inserts into the table, and the table is
+	 * analyzed again once enough of it changed.
+	 */
+	@Test public void incrementalStatsTest() throws Exception {
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(10, 1000, 32, null, new ArrayList<>());
+		String name = SystemTestUtil.getUUID();
+		Database.getCatalog().addTable(hf, name);
+		TableStats s = new TableStats(hf.getId(), IO_COST);
+		TableStats.setTableStats(name, s);
+		insertTuples(hf.getId(), 100);
+		Assert.assertEquals(1100, s.totalTuples());
+		Assert.assertEquals(100, s.insertsSinceAnalyze());
+		Assert.assertFalse(s.isStale());
+		Assert.assertTrue(TableStats.analyzeStaleTables().isEmpty());
+		// the new values are above the histogram until the table is analyzed again
+		Assert.assertEquals(0.0, s.estimateSelectivity(0, Predicate.Op.GREATER_THAN, new IntField(50)), 0.001);
+
+		insertTuples(hf.getId(), 100);
+		Assert.assertTrue(s.isStale());
+		List<Future<?>> analyses = TableStats.analyzeStaleTables();
+		Assert.assertEquals(1, analyses.size());
+		analyses.get(0).get();
+		TableStats analyzed = TableStats.getTableStats(name);
+		Assert.assertNotSame(s, analyzed);
+		Assert.assertEquals(1200, analyzed.totalTuples());
+		Assert.assertEquals(0, analyzed.insertsSinceAnalyze());
+		Assert.assertEquals(200.0 / 1200, analyzed.estimateSelectivity(0, Predicate.Op.GREATER_THAN, new IntField(50)), 0.01);
+	}
+
+	/**
+	 * Saved statistics are loaded instead of computed, with the changes made
+	 * since the table was analyzed.
+	 */
+	@Test public void persistentStatsTest() throws Exception {
+		File statsFile = File.createTempFile("stats", ".dat");
+		statsFile.deleteOnExit();
+		Assert.assertTrue(statsFile.delete());
+		TableStats.getStatsMap().clear();
+		TableStats.computeStatistics(statsFile);
+		Assert.assertTrue(statsFile.exists());
+		TableStats computed = TableStats.getTableStats(tableName);
+		insertTuples(tableId, 30);
+		TableStats.saveStatistics(statsFile);
+
+		TableStats.getStatsMap().clear();
+		TableStats.computeStatistics(statsFile);
+		TableStats loaded = TableStats.getTableStats(tableName);
+		Assert.assertNotSame(computed, loaded);
+		Assert.assertEquals(10230, loaded.totalTuples());
+		Assert.assertEquals(30, loaded.insertsSinceAnalyze());
+		Assert.assertEquals(computed.estimateScanCost(), loaded.estimateScanCost(), 0.001);
+		for (int col = 0; col < 10; col++) {
+			Assert.assertEquals(computed.estimateSelectivity(col, Predicate.Op.LESS_THAN, new IntField(16)),
+					loaded.estimateSelectivity(col, Predicate.Op.LESS_THAN, new IntField(16)), 1e-9);
+		}
+	}
 }
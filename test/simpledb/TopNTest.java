@@ -0,0 +1,149 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.Limit;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.TopN;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class TopNTest extends SimpleDbTestBase {
+
+  /**
+   * A TupleIterator that counts the tuples read from it.
+   */
+  private static class CountingIterator extends TupleIterator {
+    private static final long serialVersionUID = 1L;
+    int read = 0;
+
+    CountingIterator(TupleDesc td, List<Tuple> tuples) {
+      super(td, tuples);
+    }
+
+    @Override
+    public Tuple next() {
+      read++;
+      return super.next();
+    }
+  }
+
+  /**
+   * TopN returns the first n tuples OrderBy returns, ties in the same order.
+   */
+  @Test public void matchesOrderBy() throws Exception {
+    List<Tuple> tuples = SystemTestUtil.randomTuples(new Random(13), 3000, 20, 50, SystemTestUtil.POSITION);
+    int[] fields = {0, 1};
+    boolean[] asc = {true, false};
+    List<List<Integer>> sorted = SystemTestUtil.readAll(new OrderBy(fields, asc, new TupleIterator(Utility.getTupleDesc(3), tuples)));
+    for (int limit : new int[]{0, 1, 100, 5000}) {
+      TopN top = new TopN(fields, asc, limit, new TupleIterator(Utility.getTupleDesc(3), tuples));
+      assertEquals(sorted.subList(0, Math.min(limit, sorted.size())), SystemTestUtil.readAll(top));
+    }
+
+    TopN top = new TopN(fields, asc, 10, new TupleIterator(Utility.getTupleDesc(3), tuples));
+    top.open();
+    Tuple first = top.next();
+    top.next();
+    top.rewind();
+    assertEquals(first.toString(), top.next().toString());
+    top.close();
+  }
+
+  /**
+   * Limit stops reading its child after n tuples.
+   */
+  @Test public void limitStopsEarly() throws Exception {
+    List<Tuple> tuples = SystemTestUtil.randomTuples(new Random(13), 1000, 20, 50, SystemTestUtil.POSITION);
+    CountingIterator child = new CountingIterator(Utility.getTupleDesc(3), tuples);
+    Limit limit = new Limit(25, child);
+    assertEquals(25, SystemTestUtil.readAll(limit).size());
+    assertEquals(25, child.read);
+
+    assertEquals(1000, SystemTestUtil.readAll(new Limit(2000, new TupleIterator(Utility.getTupleDesc(3), tuples))).size());
+    assertEquals(0, SystemTestUtil.readAll(new Limit(0, new TupleIterator(Utility.getTupleDesc(3), tuples))).size());
+  }
+
+  private static <T> T find(OpIterator plan, Class<T> c) {
+    if (c.isInstance(plan))
+      return c.cast(plan);
+    if (plan instanceof simpledb.execution.Operator) {
+      for (OpIterator child : ((simpledb.execution.Operator) plan).getChildren()) {
+        T found = find(child, c);
+        if (found != null)
+          return found;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * The parser reads a trailing LIMIT, and the plan uses TopN under ORDER BY and
+   * Limit otherwise.
+   */
+  @Test public void parsedLimit() throws Exception {
+    List<List<Integer>> rows = new ArrayList<>();
+    File f = SystemTestUtil.createRandomHeapFileUnopened(2, 500, 1000, null, rows);
+    HeapFile table = new HeapFile(f, new TupleDesc(new Type[]{Type.INT_TYPE, Type.INT_TYPE}, new String[]{"a", "b"}));
+    Database.getCatalog().addTable(table, "events");
+    Map<String, TableStats> stats = new HashMap<>();
+    stats.put("events", new TableStats(table.getId(), 1000));
+    TransactionId tid = new TransactionId();
+    Parser p = new Parser();
+
+    LogicalPlan lp = p.generateLogicalPlan(tid, "SELECT e.a FROM events e ORDER BY e.a DESC LIMIT 7;");
+    assertEquals(7, lp.getLimit());
+    OpIterator plan = lp.physicalPlan(tid, stats, false);
+    assertNotNull(find(plan, TopN.class));
+    assertNull(find(plan, OrderBy.class));
+    List<Integer> values = new ArrayList<>();
+    for (List<Integer> row : rows)
+      values.add(row.get(0));
+    values.sort((x, y) -> Integer.compare(y, x));
+    List<Integer> actual = new ArrayList<>();
+    plan.open();
+    while (plan.hasNext())
+      actual.add(SystemTestUtil.tupleToList(plan.next()).get(0));
+    plan.close();
+    assertEquals(values.subList(0, 7), actual);
+
+    lp = p.generateLogicalPlan(tid, "SELECT e.b FROM events e WHERE e.a > 10 limit 3;");
+    plan = lp.physicalPlan(tid, stats, false);
+    assertEquals(3, find(plan, Limit.class).getLimit());
+    assertEquals(3, SystemTestUtil.readAll(plan).size());
+
+    lp = p.generateLogicalPlan(tid, "SELECT e.b FROM events e;");
+    assertEquals(-1, lp.getLimit());
+    assertNull(find(lp.physicalPlan(tid, stats, false), Limit.class));
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TopNTest.class);
+  }
+}
@@ -1,8 +1,13 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
+import java.util.Iterator;
+
 import org.junit.Test;
 
 import simpledb.common.Type;
@@ -77,6 +82,54 @@ public class TupleTest extends SimpleDbTestBase {
 	}
     }
 
+    /**
+     * Unit test for a compact tuple of INT fields
+     */
+    @Test public void compactTuple() {
+        TupleDesc td = Utility.getTupleDesc(3);
+        Tuple tup = new Tuple(td, new int[]{-1, 7, 5000});
+        assertTrue(tup.isCompact());
+        assertEquals(new IntField(7), tup.getField(1));
+        assertEquals(new IntField(5000), tup.getField(2));
+        assertEquals(-1, tup.getInt(0));
+
+        tup.setField(1, new IntField(37));
+        assertEquals(37, tup.getInt(1));
+        assertSame(IntField.valueOf(37), IntField.valueOf(37));
+
+        Iterator<Field> it = tup.fields();
+        assertEquals(new IntField(-1), it.next());
+        assertEquals(new IntField(37), it.next());
+    }
+
+    /**
+     * Unit test for Tuple.project() and Tuple.merge() of compact and list
+     * tuples
+     */
+    @Test public void projectAndMerge() {
+        TupleDesc td = Utility.getTupleDesc(3);
+        Tuple compact = new Tuple(td, new int[]{1, 2, 3});
+        RecordId rid = new RecordId(new HeapPageId(0, 0), 4);
+        compact.setRecordId(rid);
+        Tuple list = Utility.getHeapTuple(new int[]{4, 5, 6});
+
+        Tuple projected = compact.project(Utility.getTupleDesc(2), new int[]{2, 0});
+        assertTrue(projected.isCompact());
+        assertEquals(rid, projected.getRecordId());
+        assertEquals(3, projected.getInt(0));
+        assertEquals(1, projected.getInt(1));
+        assertFalse(list.project(Utility.getTupleDesc(1), new int[]{1}).isCompact());
+
+        TupleDesc merged = TupleDesc.merge(td, td);
+        Tuple both = Tuple.merge(merged, compact, compact);
+        assertTrue(both.isCompact());
+        assertEquals(3, both.getInt(5));
+        Tuple mixed = Tuple.merge(merged, compact, list);
+        assertFalse(mixed.isCompact());
+        assertEquals(2, mixed.getInt(1));
+        assertEquals(new IntField(6), mixed.getField(5));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,242 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class VarcharTest extends SimpleDbTestBase {
+
+  private static final TupleDesc TD = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.STRING_TYPE},
+      new String[]{"id", "name", "note"}, new int[]{0, 20, 0});
+
+  private HeapPageId pid;
+
+  @Before public void addTable() {
+    pid = new HeapPageId(-1, -1);
+    Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+  }
+
+  private static Tuple tuple(int id, String name) {
+    Tuple t = new Tuple(TD);
+    t.setField(0, new IntField(id));
+    t.setField(1, new StringField(name, Type.STRING_LEN));
+    t.setField(2, new StringField("n" + id, Type.STRING_LEN));
+    return t;
+  }
+
+  private static String name(int i) {
+    StringBuilder sb = new StringBuilder();
+    for (int j = 0; j <= i % 7; j++) {
+      sb.append((char) ('a' + j));
+    }
+    return sb.toString();
+  }
+
+  private static List<String> values(Iterator<Tuple> it) {
+    List<String> result = new ArrayList<>();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      result.add(t.getField(0) + " " + t.getField(1) + " " + t.getField(2));
+    }
+    return result;
+  }
+
+  /**
+   * Type names, VARCHAR lengths and the largest size of a tuple.
+   */
+  @Test public void types() {
+    assertEquals(Type.INT_TYPE, Type.forName("INT"));
+    assertEquals(Type.STRING_TYPE, Type.forName("string"));
+    assertEquals(Type.STRING_TYPE, Type.forName("VarChar(20)"));
+    assertNull(Type.forName("varchar(x)"));
+    assertNull(Type.forName("varchar(" + (Type.VARCHAR_MAX_LEN + 1) + ")"));
+    assertEquals(20, Type.maxLenOf(" varchar( 20 ) "));
+    assertEquals(0, Type.maxLenOf("string"));
+
+    assertTrue(TD.isVariableLength());
+    assertFalse(new TupleDesc(new Type[]{Type.STRING_TYPE}).isVariableLength());
+    assertEquals(20, TD.getMaxLen(1));
+    assertEquals(4 + 21 + Type.STRING_TYPE.getLen(), TD.getSize());
+    try {
+      new TupleDesc(new Type[]{Type.INT_TYPE}, new String[]{"a"}, new int[]{10});
+      fail("expected an IllegalArgumentException");
+    } catch (IllegalArgumentException e) {
+      // expected
+    }
+  }
+
+  /**
+   * A slotted page holds tuples of different sizes until its space is used,
+   * keeps the slots of its tuples across deletions and writes the data it is
+   * read from.
+   */
+  @Test public void slottedPage() throws Exception {
+    HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+    assertFalse(page.iterator().hasNext());
+    int n = 0;
+    while (page.hasRoomFor(tuple(n, name(n)))) {
+      page.insertTuple(tuple(n, name(n)));
+      assertTrue(page.isSlotUsed(n));
+      n++;
+    }
+    // 每条记录 4 + (1 + 名字) + 132 字节, 加上 4 字节的目录项
+    assertEquals((BufferPool.getPageSize() - 4) / (4 + 4 + 5 + 132), n, 1);
+    assertEquals(0, page.getNumEmptySlots());
+    try {
+      page.insertTuple(tuple(n, name(n)));
+      fail("expected a DbException");
+    } catch (DbException e) {
+      // expected
+    }
+
+    Tuple third = page.getTuple(3);
+    page.deleteTuple(third);
+    page.deleteTuple(page.getTuple(5));
+    assertFalse(page.isSlotUsed(3));
+    assertEquals(6, page.getTuple(6).getRecordId().getTupleNumber());
+    List<String> expected = values(page.iterator());
+
+    byte[] data = page.getPageData();
+    HeapPage read = new HeapPage(pid, data);
+    assertEquals(expected, values(read.iterator()));
+    assertEquals(7, read.getTuple(7).getRecordId().getTupleNumber());
+    assertFalse(read.isSlotUsed(5));
+    assertArrayEquals(data, read.getPageData());
+
+    // 被删除的 slot 会被复用
+    read.insertTuple(tuple(100, "x"));
+    assertEquals(3, read.getTuple(3).getRecordId().getTupleNumber());
+    assertEquals(new IntField(100), read.getTuple(3).getField(0));
+  }
+
+  /**
+   * A VARCHAR value longer than its maximum length is stored cut.
+   */
+  @Test public void truncate() throws Exception {
+    HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+    Tuple t = tuple(1, "abcdefghijklmnopqrstuvwxyz");
+    page.insertTuple(t);
+    HeapPage read = new HeapPage(pid, page.getPageData());
+    // the cached page holds the same tuple as the page read back
+    for (HeapPage p : new HeapPage[]{read, page}) {
+      Tuple stored = p.getTuple(0);
+      assertEquals(1, ((IntField) stored.getField(0)).getValue());
+      assertEquals("abcdefghijklmnopqrst", ((StringField) stored.getField(1)).getValue());
+      assertEquals("n1", ((StringField) stored.getField(2)).getValue());
+    }
+    // the inserted tuple is not changed
+    assertEquals("abcdefghijklmnopqrstuvwxyz", ((StringField) t.getField(1)).getValue());
+    assertEquals("n1", ((StringField) t.getField(2)).getValue());
+  }
+
+  /**
+   * A VARCHAR field that is not a string is rejected.
+   */
+  @Test(expected = DbException.class) public void notAString() throws Exception {
+    HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+    Tuple t = new Tuple(new TupleDesc(new Type[]{Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE}));
+    t.setField(0, new IntField(1));
+    t.setField(1, new IntField(7));
+    t.setField(2, new StringField("n1", Type.STRING_LEN));
+    page.insertTuple(t);
+  }
+
+  /**
+   * Text files are converted to the slotted layout, and files of fixed slots
+   * are migrated to it, with the same tuples.
+   */
+  @Test public void encoder() throws Exception {
+    File text = File.createTempFile("varchar", ".txt");
+    text.deleteOnExit();
+    List<String> expected = new ArrayList<>();
+    try (FileWriter w = new FileWriter(text)) {
+      for (int i = 0; i < 500; i++) {
+        w.write(i + "," + name(i) + ",n" + i + "\n");
+        expected.add(i + " " + name(i) + " n" + i);
+      }
+    }
+
+    File slotted = File.createTempFile("varchar", ".dat");
+    slotted.deleteOnExit();
+    HeapFileEncoder.convert(text, slotted, BufferPool.getPageSize(), TD, ',');
+    assertEquals(expected, scan(slotted, TD));
+
+    File fixed = File.createTempFile("fixed", ".dat");
+    fixed.deleteOnExit();
+    HeapFileEncoder.convert(text, fixed, BufferPool.getPageSize(), 3,
+        new Type[]{Type.INT_TYPE, Type.STRING_TYPE, Type.STRING_TYPE}, ',');
+    File migrated = File.createTempFile("migrated", ".dat");
+    migrated.deleteOnExit();
+    HeapFileEncoder.migrate(fixed, migrated, BufferPool.getPageSize(), TD);
+    assertEquals(expected, scan(migrated, TD));
+    assertTrue(migrated.length() < fixed.length());
+  }
+
+  /**
+   * The catalog declares VARCHAR fields.
+   */
+  @Test public void catalog() throws Exception {
+    File dir = new File(System.getProperty("java.io.tmpdir"));
+    File schema = File.createTempFile("catalog", ".txt", dir);
+    schema.deleteOnExit();
+    String name = "v" + SystemTestUtil.getUUID().replace("-", "");
+    try (FileWriter w = new FileWriter(schema)) {
+      w.write(name + " (id int pk, name varchar(20), note string)\n");
+    }
+    Database.getCatalog().loadSchema(schema.getAbsolutePath());
+    TupleDesc td = Database.getCatalog().getTupleDesc(Database.getCatalog().getTableId(name));
+    assertEquals(TD, td);
+    assertEquals(20, td.getMaxLen(1));
+    assertEquals(0, td.getMaxLen(2));
+  }
+
+  private static List<String> scan(File f, TupleDesc td) throws Exception {
+    HeapFile table = new HeapFile(f, td);
+    Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+    TransactionId tid = new TransactionId();
+    DbFileIterator it = table.iterator(tid);
+    List<String> result = new ArrayList<>();
+    it.open();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      result.add(t.getField(0) + " " + t.getField(1) + " " + t.getField(2));
+    }
+    it.close();
+    Database.getBufferPool().transactionComplete(tid);
+    return result;
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(VarcharTest.class);
+  }
+}
@@ -2,17 +2,21 @@ package simpledb.systemtest;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.junit.Test;
+import simpledb.Parser;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.execution.Aggregate;
 import simpledb.execution.Aggregator;
+import simpledb.execution.OpIterator;
 import simpledb.execution.SeqScan;
 import simpledb.storage.DbFile;
+import simpledb.optimizer.TableStats;
 import simpledb.storage.HeapFile;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
@@ -121,6 +125,48 @@ public class AggregateTest extends SimpleDbTestBase {
         doAggregate(Aggregator.Op.AVG, Aggregator.NO_GROUPING);
     }
 
+    /**
+     * A query with several aggregates, including COUNT(*), grouped by two
+     * columns is parsed into one Aggregate and returns the groups of a
+     * straightforward computation.
+     */
+    @Test public void testParsedMultipleAggregates() throws Exception {
+        List<List<Integer>> createdTuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                4, ROWS, 8, null, createdTuples, "c");
+        Database.getCatalog().addTable(table, "t");
+
+        Map<List<Integer>, List<Integer>> groups = new HashMap<>();
+        for (List<Integer> t : createdTuples) {
+            List<Integer> key = new ArrayList<>(t.subList(0, 2));
+            List<Integer> acc = groups.get(key);
+            if (acc == null) {
+                acc = new ArrayList<>(Arrays.asList(0, 0, Integer.MIN_VALUE));
+                groups.put(key, acc);
+            }
+            acc.set(0, acc.get(0) + 1);
+            acc.set(1, acc.get(1) + t.get(2));
+            acc.set(2, Math.max(acc.get(2), t.get(3)));
+        }
+        List<List<Integer>> expected = new ArrayList<>();
+        for (Map.Entry<List<Integer>, List<Integer>> e : groups.entrySet()) {
+            List<Integer> result = new ArrayList<>();
+            result.add(e.getValue().get(1));
+            result.add(e.getKey().get(1));
+            result.add(e.getKey().get(0));
+            result.add(e.getValue().get(0));
+            result.add(e.getValue().get(2));
+            expected.add(result);
+        }
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = new Parser().generateLogicalPlan(tid,
+                "SELECT SUM(t.c2), t.c1, t.c0, COUNT(*), MAX(t.c3) FROM t GROUP BY t.c0, t.c1;")
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(AggregateTest.class);
@@ -11,12 +11,17 @@ import java.util.*;
 
 import org.junit.Test;
 
+import simpledb.Parser;
 import simpledb.common.Utility;
 import simpledb.execution.IndexPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.OrderBy;
 import simpledb.execution.Predicate.Op;
 import simpledb.index.BTreeFile;
 import simpledb.index.BTreeScan;
 import simpledb.index.BTreeUtility;
+import simpledb.optimizer.TableStats;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
@@ -284,6 +289,193 @@ public class BTreeScanTest extends SimpleDbTestBase {
         Database.getBufferPool().transactionComplete(tid);
     }
 
+    /** Returns the key field of each tuple returned by the iterator, in order */
+    private static List<Integer> readKeys(DbFileIterator it, int keyField) throws DbException, TransactionAbortedException {
+        List<Integer> keys = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            keys.add(((IntField) it.next().getField(keyField)).getValue());
+        }
+        it.close();
+        return keys;
+    }
+
+    /** Returns the sorted keys of the tuples with low < key <= high, in ascending or descending order */
+    private static List<Integer> expectedKeys(List<List<Integer>> tuples, int keyField, int low, int high, boolean reverse) {
+        List<Integer> keys = new ArrayList<>();
+        for (List<Integer> tup : tuples) {
+            int k = tup.get(keyField);
+            if (k > low && k <= high) {
+                keys.add(k);
+            }
+        }
+        Collections.sort(keys);
+        if (reverse) {
+            Collections.reverse(keys);
+        }
+        return keys;
+    }
+
+    /** Test two-sided range predicates and descending scans */
+    @Test public void testRangeAndReverse() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        int keyField = r.nextInt(3);
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(3, 2000, 500, null, tuples, keyField);
+        TransactionId tid = new TransactionId();
+
+        // the whole tree backwards
+        assertEquals(expectedKeys(tuples, keyField, Integer.MIN_VALUE, Integer.MAX_VALUE, true),
+                readKeys(f.reverseIterator(tid), keyField));
+
+        for (int i = 0; i < 20; i++) {
+            int low = r.nextInt(500);
+            int high = low + r.nextInt(100);
+            IndexPredicate range = new IndexPredicate(Op.GREATER_THAN, new IntField(low),
+                    Op.LESS_THAN_OR_EQ, new IntField(high));
+            assertEquals(expectedKeys(tuples, keyField, low, high, false),
+                    readKeys(f.indexIterator(tid, range), keyField));
+            assertEquals(expectedKeys(tuples, keyField, low, high, true),
+                    readKeys(f.indexIterator(tid, range, true), keyField));
+
+            // one-sided predicates backwards
+            assertEquals(expectedKeys(tuples, keyField, Integer.MIN_VALUE, high, true),
+                    readKeys(f.indexIterator(tid, new IndexPredicate(Op.LESS_THAN_OR_EQ, new IntField(high)), true), keyField));
+            assertEquals(expectedKeys(tuples, keyField, low, Integer.MAX_VALUE, true),
+                    readKeys(f.indexIterator(tid, new IndexPredicate(Op.GREATER_THAN, new IntField(low)), true), keyField));
+            assertEquals(expectedKeys(tuples, keyField, low - 1, low, true),
+                    readKeys(f.indexIterator(tid, new IndexPredicate(Op.EQUALS, new IntField(low)), true), keyField));
+        }
+
+        // an empty range
+        IndexPredicate empty = new IndexPredicate(Op.GREATER_THAN_OR_EQ, new IntField(300),
+                Op.LESS_THAN, new IntField(300));
+        assertTrue(readKeys(f.indexIterator(tid, empty), keyField).isEmpty());
+        assertTrue(readKeys(f.indexIterator(tid, empty, true), keyField).isEmpty());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Test that narrow ranges and descending scans only read the leaf pages they need */
+    @Test public void testReadPageRange() throws Exception {
+        final int LEAF_PAGES = 30;
+        final int ROWS = LEAF_PAGES * 502;
+
+        List<List<Integer>> tuples = new ArrayList<>();
+        BTreeFile f = BTreeUtility.createBTreeFile(2, ROWS, null, tuples, 0);
+        InstrumentedBTreeFile table = new InstrumentedBTreeFile(f.getFile(), 0, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(table, "readings");
+        TransactionId tid = new TransactionId();
+
+        // a narrow range in the middle of the tree, keys are 1..ROWS
+        int low = ROWS / 2;
+        int high = low + 100;
+        IndexPredicate range = new IndexPredicate(Op.GREATER_THAN_OR_EQ, new IntField(low),
+                Op.LESS_THAN, new IntField(high));
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        table.readCount = 0;
+        assertEquals(100, readKeys(table.indexIterator(tid, range), 0).size());
+        int rangeReads = table.readCount;
+        // root pointer page + root + at most two leaf pages + 1 for next key locking
+        assertTrue(rangeReads <= 5);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        table.readCount = 0;
+        assertEquals(expectedKeys(tuples, 0, low - 1, high - 1, true),
+                readKeys(table.indexIterator(tid, range, true), 0));
+        assertTrue(table.readCount <= 5);
+
+        // the same range as a one-sided predicate has to start at the left-most leaf
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        table.readCount = 0;
+        List<Integer> below = readKeys(table.indexIterator(tid, new IndexPredicate(Op.LESS_THAN, new IntField(high))), 0);
+        assertEquals(high - 1, below.size());
+        int oneSidedReads = table.readCount;
+        assertTrue(oneSidedReads > LEAF_PAGES / 2);
+
+        // ORDER BY key DESC, stopping after the first tuples, reads only the last leaf
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        table.readCount = 0;
+        DbFileIterator it = table.reverseIterator(tid);
+        it.open();
+        for (int i = 0; i < 10; i++) {
+            assertEquals(new IntField(ROWS - i), it.next().getField(0));
+        }
+        it.close();
+        assertEquals(3, table.readCount);
+
+        System.out.println("pages read for a 100 key range in " + LEAF_PAGES + " leaves: two-sided "
+                + rangeReads + ", one-sided " + oneSidedReads);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Test that the optimizer answers ORDER BY on the key by scanning the tree in that order */
+    @Test public void testOrderByKey() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        BTreeFile f = BTreeUtility.createBTreeFile(2, 30 * 502, null, tuples, 0);
+        InstrumentedBTreeFile table = new InstrumentedBTreeFile(f.getFile(), 0, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(table, "readings");
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("readings", new TableStats(table.getId(), 1000));
+
+        TransactionId tid = new TransactionId();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        table.readCount = 0;
+        OpIterator plan = new Parser().generateLogicalPlan(tid,
+                "SELECT * FROM readings r WHERE r.c0 > 7000 AND r.c0 <= 7200 ORDER BY r.c0 DESC;")
+                .physicalPlan(tid, stats, false);
+        BTreeScan scan = findScan(plan);
+        assertNotNull(scan);
+        assertTrue(scan.isReverse());
+        assertFalse(contains(plan, OrderBy.class));
+
+        plan.open();
+        int expected = 7200;
+        while (plan.hasNext()) {
+            assertEquals(new IntField(expected--), plan.next().getField(0));
+        }
+        plan.close();
+        assertEquals(7000, expected);
+        assertTrue(table.readCount <= 5);
+
+        // ascending order needs no sort either, a non-key order still does
+        plan = new Parser().generateLogicalPlan(tid, "SELECT * FROM readings r ORDER BY r.c0;")
+                .physicalPlan(tid, stats, false);
+        assertFalse(findScan(plan).isReverse());
+        assertFalse(contains(plan, OrderBy.class));
+        plan = new Parser().generateLogicalPlan(tid, "SELECT * FROM readings r WHERE r.c0 < 10 ORDER BY r.c1 DESC;")
+                .physicalPlan(tid, stats, false);
+        assertTrue(contains(plan, OrderBy.class));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static BTreeScan findScan(OpIterator op) {
+        if (op instanceof BTreeScan) {
+            return (BTreeScan) op;
+        }
+        if (op instanceof Operator) {
+            for (OpIterator child : ((Operator) op).getChildren()) {
+                BTreeScan scan = findScan(child);
+                if (scan != null) {
+                    return scan;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean contains(OpIterator op, Class<?> c) {
+        if (c.isInstance(op)) {
+            return true;
+        }
+        if (op instanceof Operator) {
+            for (OpIterator child : ((Operator) op).getChildren()) {
+                if (contains(child, c)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(BTreeScanTest.class);
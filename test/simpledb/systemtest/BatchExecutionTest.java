@@ -0,0 +1,110 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.Parser;
+import simpledb.common.Database;
+import simpledb.execution.*;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs TPC-H style queries through the Parser with the row operators and with the
+ * plan rewritten by {@link BatchPlanner}, checks that both return the same tuples
+ * and prints their running times with a warm buffer pool.
+ * <p>
+ * lineitem(c0 orderkey, c1 quantity, c2 price, c3 discount, c4 returnflag) and
+ * orders(c0 orderkey, c1 custkey, c2 priority) are filled with random values.
+ */
+public class BatchExecutionTest extends SimpleDbTestBase {
+
+	private static final int LINEITEMS = 100000;
+	private static final int ORDERS = 5000;
+	private static final int MAX_VALUE = 5000;
+	private static final int RUNS = 5;
+
+	@Before public void setUp() throws Exception {
+		HeapFile lineitem = SystemTestUtil.createRandomHeapFile(5, LINEITEMS, MAX_VALUE, null, new ArrayList<>(), "c");
+		Database.getCatalog().addTable(lineitem, "lineitem");
+		HeapFile orders = SystemTestUtil.createRandomHeapFile(3, ORDERS, MAX_VALUE, null, new ArrayList<>(), "c");
+		Database.getCatalog().addTable(orders, "orders");
+		// 两张表都能放进缓冲池，计时不包含磁盘读
+		Database.resetBufferPool(2000);
+		TableStats.computeStatistics();
+	}
+
+	/**
+	 * Q6: a selective filter followed by a global SUM
+	 */
+	@Test public void filterAndSum() throws Exception {
+		compare("q6", "SELECT SUM(l.c2) FROM lineitem l WHERE l.c3 < 500 AND l.c1 < 2400;");
+	}
+
+	/**
+	 * Q1: an aggregate over most of the table grouped by one column
+	 */
+	@Test public void groupBy() throws Exception {
+		compare("q1", "SELECT l.c4, AVG(l.c1) FROM lineitem l WHERE l.c2 > 100 GROUP BY l.c4;");
+	}
+
+	/**
+	 * Q3-like: a hash join of orders with lineitem and an aggregate over the result
+	 */
+	@Test public void joinAndCount() throws Exception {
+		compare("q3", "SELECT o.c2, COUNT(l.c0) FROM orders o, lineitem l "
+				+ "WHERE o.c0 = l.c0 AND o.c1 < 1000 GROUP BY o.c2;");
+	}
+
+	private static void compare(String name, String query) throws Exception {
+		List<List<Integer>> expected = null;
+		long rowTime = Long.MAX_VALUE, batchTime = Long.MAX_VALUE;
+		for (int i = 0; i < RUNS; i++) {
+			long start = System.nanoTime();
+			List<List<Integer>> rows = run(query, false);
+			rowTime = Math.min(rowTime, System.nanoTime() - start);
+			if (expected == null) {
+				expected = rows;
+				assertFalse(expected.isEmpty());
+			}
+
+			start = System.nanoTime();
+			List<List<Integer>> batchRows = run(query, true);
+			batchTime = Math.min(batchTime, System.nanoTime() - start);
+			// 结果与行算子一致（不考虑顺序）
+			List<List<Integer>> copy = new ArrayList<>(batchRows);
+			for (List<Integer> t : expected) {
+				assertTrue("missing " + t, copy.remove(t));
+			}
+			assertTrue("unexpected " + copy, copy.isEmpty());
+		}
+		System.out.printf("%s: %d rows, row operators %.1f ms, batch operators %.1f ms%n",
+				name, expected.size(), rowTime / 1e6, batchTime / 1e6);
+	}
+
+	private static List<List<Integer>> run(String query, boolean batch) throws Exception {
+		TransactionId tid = new TransactionId();
+		OpIterator plan = new Parser().generateLogicalPlan(tid, query)
+				.physicalPlan(tid, TableStats.getStatsMap(), false);
+		if (batch) {
+			plan = BatchPlanner.vectorize(plan, tid);
+		}
+		List<List<Integer>> result = SystemTestUtil.readAll(plan);
+		Database.getBufferPool().transactionComplete(tid);
+		return result;
+	}
+
+	/**
+	 * Make this test compatible with older version of ant.
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(BatchExecutionTest.class);
+	}
+}
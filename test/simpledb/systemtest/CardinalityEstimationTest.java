@@ -0,0 +1,203 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Predicate;
+import simpledb.optimizer.IntHistogram;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures the estimation errors of {@link TableStats} on Zipf-distributed
+ * columns, where an equi-width histogram spreads the frequent values over
+ * their bucket and a join estimate that ignores them is far off. The q-error
+ * of an estimate, max(estimate / actual, actual / estimate), is printed for
+ * the column statistics and for an equi-width {@link IntHistogram} of the
+ * whole column with the same number of buckets.
+ * <p>
+ * fact(c0 zipf, c1 uniform) is sampled by pages, and dim(c0 zipf) is read
+ * in full into a reservoir sample.
+ */
+public class CardinalityEstimationTest extends SimpleDbTestBase {
+
+	private static final int FACT_ROWS = 60000;
+	private static final int DIM_ROWS = 20000;
+	private static final int VALUES = 1000;
+	private static final int SAMPLE = 10000;
+	private static final int[] POINTS = {0, 1, 2, 5, 10, 30, 100, 300, 999};
+
+	private List<Integer> fact;
+	private List<Integer> dim;
+	private TableStats factStats;
+	private TableStats dimStats;
+	private int factId;
+	private int dimId;
+
+	/**
+	 * @return rows values in 0..VALUES-1, value k with probability proportional to 1/(k+1)^1.1
+	 */
+	private static List<Integer> zipf(int rows, long seed) {
+		double[] cdf = new double[VALUES];
+		double sum = 0;
+		for (int k = 0; k < VALUES; k++) {
+			sum += 1 / Math.pow(k + 1, 1.1);
+			cdf[k] = sum;
+		}
+		Random random = new Random(seed);
+		List<Integer> values = new ArrayList<>();
+		for (int i = 0; i < rows; i++) {
+			int k = Arrays.binarySearch(cdf, random.nextDouble() * sum);
+			values.add(Math.min(VALUES - 1, k < 0 ? -k - 1 : k));
+		}
+		return values;
+	}
+
+	private static int createTable(String name, List<List<Integer>> rows, int columns) throws Exception {
+		File f = File.createTempFile(name, ".dat");
+		f.deleteOnExit();
+		HeapFileEncoder.convert(rows, f, BufferPool.getPageSize(), columns);
+		HeapFile hf = new HeapFile(f, Utility.getTupleDesc(columns, "c"));
+		Database.getCatalog().addTable(hf, name);
+		return hf.getId();
+	}
+
+	@Before public void setUp() throws Exception {
+		fact = zipf(FACT_ROWS, 1);
+		dim = zipf(DIM_ROWS, 2);
+		Random random = new Random(3);
+		List<List<Integer>> factRows = new ArrayList<>();
+		for (int v : fact) {
+			factRows.add(Arrays.asList(v, random.nextInt(10000)));
+		}
+		List<List<Integer>> dimRows = new ArrayList<>();
+		for (int v : dim) {
+			dimRows.add(Collections.singletonList(v));
+		}
+		factId = createTable("fact", factRows, 2);
+		dimId = createTable("dim", dimRows, 1);
+		factStats = new TableStats(factId, 1000, SAMPLE);
+		dimStats = new TableStats(dimId, 1000, SAMPLE);
+	}
+
+	private static double qError(double estimate, double actual) {
+		estimate = Math.max(1, estimate);
+		actual = Math.max(1, actual);
+		return Math.max(estimate / actual, actual / estimate);
+	}
+
+	private static IntHistogram equiWidth(List<Integer> values) {
+		IntHistogram h = new IntHistogram(100, Collections.min(values), Collections.max(values));
+		for (int v : values) {
+			h.addValue(v);
+		}
+		return h;
+	}
+
+	/**
+	 * Equality and range predicates on fact.c0.
+	 */
+	@Test public void selectivityErrors() {
+		IntHistogram baseline = equiWidth(fact);
+		double maxNew = 0, maxOld = 0, sumNew = 0, sumOld = 0;
+		int n = 0;
+		StringBuilder report = new StringBuilder();
+		for (Predicate.Op op : new Predicate.Op[]{Predicate.Op.EQUALS, Predicate.Op.LESS_THAN}) {
+			for (int v : POINTS) {
+				if (op == Predicate.Op.LESS_THAN && v == 0) {
+					continue;
+				}
+				long actual = 0;
+				for (int x : fact) {
+					if (op == Predicate.Op.EQUALS ? x == v : x < v) {
+						actual++;
+					}
+				}
+				double estimate = factStats.estimateSelectivity(0, op, new IntField(v)) * FACT_ROWS;
+				double old = baseline.estimateSelectivity(op, v) * FACT_ROWS;
+				double qNew = qError(estimate, actual), qOld = qError(old, actual);
+				report.append(String.format("  c0 %s %d: actual %d, estimate %.0f (q %.2f), equi-width %.0f (q %.2f)%n",
+						op, v, actual, estimate, qNew, old, qOld));
+				maxNew = Math.max(maxNew, qNew);
+				maxOld = Math.max(maxOld, qOld);
+				sumNew += Math.log(qNew);
+				sumOld += Math.log(qOld);
+				n++;
+			}
+		}
+		System.out.printf("selectivity on fact.c0:%n%s  geometric mean q-error %.2f, max %.2f; equi-width %.2f, max %.2f%n",
+				report, Math.exp(sumNew / n), maxNew, Math.exp(sumOld / n), maxOld);
+		// 高频值由MCV精确估计；尾部的稀有值按剩余元组均分估计，误差最大
+		assertTrue(maxNew < 4);
+		assertTrue(maxNew < maxOld);
+		assertTrue(sumNew < sumOld);
+	}
+
+	/**
+	 * The number of distinct values of a sampled column and of a column read
+	 * in full.
+	 */
+	@Test public void distinctErrors() {
+		long factDistinct = fact.stream().distinct().count();
+		long dimDistinct = dim.stream().distinct().count();
+		System.out.printf("distinct values: fact.c0 %d, estimate %.0f; dim.c0 %d, estimate %.0f%n",
+				factDistinct, factStats.numDistinct(0), dimDistinct, dimStats.numDistinct(0));
+		assertTrue(qError(factStats.numDistinct(0), factDistinct) < 1.5);
+		assertTrue(qError(dimStats.numDistinct(0), dimDistinct) < 1.1);
+	}
+
+	/**
+	 * The equi-join of fact.c0 with dim.c0, whose frequent values match: the
+	 * estimate from the MCVs against the size of the larger input, the
+	 * estimate of neither side being a key without statistics.
+	 */
+	@Test public void joinErrors() {
+		Map<Integer, Long> dimCounts = new HashMap<>();
+		for (int v : dim) {
+			dimCounts.merge(v, 1L, Long::sum);
+		}
+		long actual = 0;
+		for (int v : fact) {
+			actual += dimCounts.getOrDefault(v, 0L);
+		}
+		Map<String, TableStats> stats = new HashMap<>();
+		stats.put("fact", factStats);
+		stats.put("dim", dimStats);
+		Map<String, Integer> aliases = new HashMap<>();
+		aliases.put("f", factId);
+		aliases.put("d", dimId);
+		int estimate = JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.EQUALS, "f", "d", "c0", "c0",
+				factStats.totalTuples(), dimStats.totalTuples(), false, false, stats, aliases);
+		int old = JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.EQUALS, "f", "d", "c0", "c0",
+				factStats.totalTuples(), dimStats.totalTuples(), false, false, new HashMap<>(), aliases);
+		System.out.printf("fact join dim on c0: actual %d, estimate %d (q %.2f), without statistics %d (q %.2f)%n",
+				actual, estimate, qError(estimate, actual), old, qError(old, actual));
+		assertTrue(qError(estimate, actual) < 1.5);
+		assertTrue(qError(estimate, actual) < qError(old, actual));
+	}
+
+	/**
+	 * Make this test compatible with older version of ant.
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(CardinalityEstimationTest.class);
+	}
+}
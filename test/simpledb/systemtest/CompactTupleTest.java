@@ -0,0 +1,156 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.HeapPage;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the memory used by the pages of a table of INT fields held in a
+ * full BufferPool, with compact tuples and with tuples of IntField objects,
+ * and the memory allocated and the collections run while a filter and an
+ * aggregate read the table through the BufferPool.
+ * <p>
+ * The table has 20 columns of values below 1000 and twice as many pages as
+ * the 250 pages of the BufferPool, so that each scan evicts and reads again
+ * all its pages.
+ */
+public class CompactTupleTest extends SimpleDbTestBase {
+
+	private static final int COLUMNS = 20;
+	private static final int PAGES = 250;
+	private static final int PASSES = 5;
+
+	private HeapFile table;
+	private int tuplesPerPage;
+
+	@Before public void setUp() throws Exception {
+		tuplesPerPage = BufferPool.getPageSize() * 8 / (COLUMNS * 4 * 8 + 1);
+		int rows = 2 * PAGES * tuplesPerPage;
+		Random random = new Random(1);
+		List<List<Integer>> tuples = new ArrayList<>();
+		for (int i = 0; i < rows; i++) {
+			List<Integer> row = new ArrayList<>();
+			for (int c = 0; c < COLUMNS; c++) {
+				row.add(random.nextInt(1000));
+			}
+			tuples.add(row);
+		}
+		File f = File.createTempFile("table", ".dat");
+		f.deleteOnExit();
+		HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), COLUMNS);
+		table = new HeapFile(f, Utility.getTupleDesc(COLUMNS, "c"));
+		Database.getCatalog().addTable(table, "wide");
+	}
+
+	@After public void tearDown() {
+		HeapPage.setCompactTuples(true);
+	}
+
+	@Test public void footprint() throws Exception {
+		long[] list = measure(false);
+		long[] compact = measure(true);
+		assertEquals(list[3], compact[3]);
+		assertTrue(compact[0] < list[0]);
+		assertTrue(compact[1] < list[1]);
+		int cached = PAGES * tuplesPerPage;
+		System.out.printf("BufferPool of %d pages, %d tuples of %d INT fields: IntField tuples %.0f bytes/tuple,"
+						+ " compact %.0f bytes/tuple (with the page data)%n", PAGES, cached, COLUMNS,
+				(double) list[0] / cached, (double) compact[0] / cached);
+		System.out.printf("filter and aggregate over %d pages, %d passes: IntField tuples %.1f MB allocated,"
+						+ " %d collections; compact %.1f MB allocated, %d collections%n", table.numPages(), PASSES,
+				list[1] / 1e6, list[2], compact[1] / 1e6, compact[2]);
+	}
+
+	/**
+	 * Fill an empty BufferPool with pages of the table, then read the table
+	 * PASSES times.
+	 *
+	 * @return the heap used by the full BufferPool, the bytes allocated and the
+	 *         collections run while reading the table, and the sum of the
+	 *         results
+	 */
+	private long[] measure(boolean compact) throws Exception {
+		HeapPage.setCompactTuples(compact);
+		Database.resetBufferPool(PAGES);
+		long before = usedMemory();
+		TransactionId tid = new TransactionId();
+		long result = run(tid);
+		long after = usedMemory();
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+		long collections = collections();
+		for (int pass = 0; pass < PASSES; pass++) {
+			assertEquals(result, run(tid));
+		}
+		allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocated;
+		collections = collections() - collections;
+		Database.getBufferPool().transactionComplete(tid);
+		return new long[]{after - before, allocated, collections, result};
+	}
+
+	/**
+	 * SELECT c2, SUM(c1) FROM wide WHERE c0 &lt; 500 GROUP BY c2
+	 *
+	 * @return the sum of the sums
+	 */
+	private long run(TransactionId tid) throws Exception {
+		OpIterator plan = new Aggregate(new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(500)),
+				new SeqScan(tid, table.getId(), "wide")), 1, 2, Aggregator.Op.SUM);
+		long sum = 0;
+		plan.open();
+		while (plan.hasNext()) {
+			sum += ((IntField) plan.next().getField(1)).getValue();
+		}
+		plan.close();
+		return sum;
+	}
+
+	private static long usedMemory() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private static long collections() {
+		long n = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			n += Math.max(0, gc.getCollectionCount());
+		}
+		return n;
+	}
+
+	/**
+	 * Make this test compatible with older version of ant.
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(CompactTupleTest.class);
+	}
+}
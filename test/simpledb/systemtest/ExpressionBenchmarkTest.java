@@ -0,0 +1,151 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.Expression;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares evaluating conditions on tuples by calling {@link Predicate#filter},
+ * which dispatches on the operator and the type of the field through
+ * {@link simpledb.storage.Field#compare} for each tuple, with evaluating the
+ * same conditions compiled into an {@link Expression.Condition}, alone and
+ * inside a {@link Filter}.
+ * <p>
+ * The 20000 tuples, of 3 INT fields with values below 1000, are read 25 times
+ * per run, so that they stay in the cache and the time is that of evaluating
+ * the conditions.
+ */
+public class ExpressionBenchmarkTest extends SimpleDbTestBase {
+
+	private static final int TUPLES = 20000;
+	private static final int PASSES = 25;
+	private static final int RUNS = 7;
+
+	private static final TupleDesc TD = Utility.getTupleDesc(3, "t.c");
+
+	private List<Tuple> tuples;
+
+	@Before public void setUp() {
+		Random random = new Random(1);
+		tuples = new ArrayList<>(TUPLES);
+		for (int i = 0; i < TUPLES; i++) {
+			Tuple t = new Tuple(TD);
+			for (int f = 0; f < 3; f++) {
+				t.setField(f, new IntField(random.nextInt(1000)));
+			}
+			tuples.add(t);
+		}
+	}
+
+	/**
+	 * t.c0 &lt; 300
+	 */
+	@Test public void comparison() throws Exception {
+		Predicate[] predicates = {new Predicate(0, Predicate.Op.LESS_THAN, new IntField(300))};
+		measure("comparison", predicates, Expression.of(predicates));
+	}
+
+	/**
+	 * t.c0 &lt; 100 OR t.c1 &gt;= 900 OR t.c2 = 5, interpreted as an OR of
+	 * predicates
+	 */
+	@Test public void disjunction() throws Exception {
+		Predicate[] predicates = {new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100)),
+				new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(900)),
+				new Predicate(2, Predicate.Op.EQUALS, new IntField(5))};
+		Expression[] operands = new Expression[predicates.length];
+		for (int i = 0; i < operands.length; i++) {
+			operands[i] = Expression.of(predicates[i]);
+		}
+		measure("disjunction", predicates, Expression.or(operands));
+	}
+
+	/**
+	 * Time interpreting the predicates, OR'ed together, evaluating the compiled
+	 * condition, and running a Filter on it
+	 */
+	private void measure(String name, Predicate[] predicates, Expression e) throws Exception {
+		Expression.Condition condition = e.compileCondition(TD);
+		long[][] times = new long[3][RUNS];
+		for (int run = -2; run < RUNS; run++) {
+			long start = System.nanoTime();
+			int interpreted = 0;
+			for (int pass = 0; pass < PASSES; pass++) {
+				for (Tuple t : tuples) {
+					for (Predicate p : predicates) {
+						if (p.filter(t)) {
+							interpreted++;
+							break;
+						}
+					}
+				}
+			}
+			long t1 = System.nanoTime();
+			int compiled = 0;
+			for (int pass = 0; pass < PASSES; pass++) {
+				for (Tuple t : tuples) {
+					if (condition.test(t)) {
+						compiled++;
+					}
+				}
+			}
+			long t2 = System.nanoTime();
+			int filtered = 0;
+			for (int pass = 0; pass < PASSES; pass++) {
+				filtered += count(new Filter(e, new TupleIterator(TD, tuples)));
+			}
+			long t3 = System.nanoTime();
+
+			assertTrue(interpreted > 0);
+			assertEquals(interpreted, compiled);
+			assertEquals(interpreted, filtered);
+			if (run >= 0) {
+				times[0][run] = t1 - start;
+				times[1][run] = t2 - t1;
+				times[2][run] = t3 - t2;
+			}
+		}
+		for (long[] t : times) {
+			Arrays.sort(t);
+		}
+		System.out.printf("%s: Predicate.filter %.1f ns/tuple, compiled %.1f ns/tuple, Filter %.1f ns/tuple%n", name,
+				(double) times[0][RUNS / 2] / TUPLES / PASSES, (double) times[1][RUNS / 2] / TUPLES / PASSES,
+				(double) times[2][RUNS / 2] / TUPLES / PASSES);
+	}
+
+	private static int count(OpIterator plan) throws Exception {
+		int n = 0;
+		plan.open();
+		while (plan.hasNext()) {
+			plan.next();
+			n++;
+		}
+		plan.close();
+		return n;
+	}
+
+	/**
+	 * Make this test compatible with older version of ant.
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(ExpressionBenchmarkTest.class);
+	}
+}
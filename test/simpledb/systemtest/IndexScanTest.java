@@ -0,0 +1,116 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.Parser;
+import simpledb.common.Database;
+import simpledb.execution.*;
+import simpledb.index.IndexOnlyScan;
+import simpledb.index.IndexScan;
+import simpledb.index.SecondaryIndex;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs selective and unselective queries on an indexed table through the Parser,
+ * checks that the optimizer picks the index only when it pays off, and compares
+ * the time of the chosen plan with that of a sequential scan.
+ */
+public class IndexScanTest extends SimpleDbTestBase {
+
+	private static final int ROWS = 60000;
+	private static final int MAX_VALUE = 6000;
+	private static final int IO_COST = 1000;
+
+	@Test public void optimizerUsesIndexWhenSelective() throws Exception {
+		List<List<Integer>> tuples = new ArrayList<>();
+		HeapFile items = SystemTestUtil.createRandomHeapFile(3, ROWS, MAX_VALUE, null, tuples, "c");
+		Database.getCatalog().addTable(items, "items");
+
+		File f = File.createTempFile("items_c1", ".dat");
+		f.deleteOnExit();
+		SecondaryIndex index = new SecondaryIndex(f, "items_c1", items.getId(), new int[]{1}, new int[0]);
+		Database.getCatalog().addIndex(index);
+		// the whole index is built in one transaction, so its pages must fit in the buffer pool
+		Database.resetBufferPool(1000);
+		TransactionId tid = new TransactionId();
+		index.build(tid);
+		Database.getBufferPool().transactionComplete(tid);
+		TableStats.setTableStats("items", new TableStats(items.getId(), IO_COST));
+
+		// equality on one of MAX_VALUE values: about ten tuples, fetched through the index
+		runQuery(items, "SELECT * FROM items i WHERE i.c1 = 42;", 1, Predicate.Op.EQUALS, 42, IndexScan.class, tuples);
+		// a narrow range is still cheaper through the index
+		runQuery(items, "SELECT * FROM items i WHERE i.c1 < 3;", 1, Predicate.Op.LESS_THAN, 3, IndexScan.class, tuples);
+		// a wide range touches every page of the table anyway
+		runQuery(items, "SELECT * FROM items i WHERE i.c1 < 600;", 1, Predicate.Op.LESS_THAN, 600, SeqScan.class, tuples);
+		// no index on c2
+		runQuery(items, "SELECT * FROM items i WHERE i.c2 = 42;", 2, Predicate.Op.EQUALS, 42, SeqScan.class, tuples);
+	}
+
+	/**
+	 * Plan query through the Parser, check that it reads the table with the expected
+	 * operator and returns the expected tuples, and print its running time next to
+	 * that of a sequential scan with the same filter, both with a cold buffer pool.
+	 */
+	private static void runQuery(HeapFile items, String query, int field, Predicate.Op op, int value,
+			Class<?> expectedScan, List<List<Integer>> tuples) throws Exception {
+		List<List<Integer>> expected = new ArrayList<>();
+		for (List<Integer> t : tuples) {
+			if (new IntField(t.get(field)).compare(op, new IntField(value))) {
+				expected.add(t);
+			}
+		}
+
+		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+		TransactionId tid = new TransactionId();
+		long start = System.nanoTime();
+		OpIterator plan = new Parser().generateLogicalPlan(tid, query)
+				.physicalPlan(tid, TableStats.getStatsMap(), false);
+		SystemTestUtil.matchTuples(plan, expected);
+		long planned = System.nanoTime() - start;
+		assertTrue(query, contains(plan, expectedScan));
+		assertFalse(query, contains(plan, IndexOnlyScan.class));
+		Database.getBufferPool().transactionComplete(tid);
+
+		Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+		tid = new TransactionId();
+		start = System.nanoTime();
+		SystemTestUtil.matchTuples(new Filter(new Predicate(field, op, new IntField(value)),
+				new SeqScan(tid, items.getId(), "i")), expected);
+		long scanned = System.nanoTime() - start;
+		Database.getBufferPool().transactionComplete(tid);
+
+		System.out.printf("%-45s %6d rows  %-8s %8.2f ms  seq scan %8.2f ms%n", query, expected.size(),
+				expectedScan.getSimpleName(), planned / 1e6, scanned / 1e6);
+	}
+
+	private static boolean contains(OpIterator op, Class<?> c) {
+		if (c.isInstance(op)) {
+			return true;
+		}
+		if (op instanceof Operator) {
+			for (OpIterator child : ((Operator) op).getChildren()) {
+				if (contains(child, c)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/** Make test compatible with older version of ant. */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(IndexScanTest.class);
+	}
+}
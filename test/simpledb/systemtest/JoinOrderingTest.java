@@ -0,0 +1,223 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.Parser;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures the time {@link JoinOptimizer#orderJoins} takes to order the joins
+ * of chain and star queries of 4 to 20 tables, by dynamic programming and
+ * greedily, and the time to run the chosen plan.
+ * <p>
+ * Table ri(c0, c1, c2) has 200 to 1000 tuples; c0 numbers them from 0, c1 is
+ * below 200, so that each tuple of a table joins exactly one tuple of any
+ * other on c1 = c0, and c2 is below 10. The chains and stars return 200
+ * tuples, one per tuple of r0.
+ */
+public class JoinOrderingTest extends SimpleDbTestBase {
+
+	private static final int TABLES = 20;
+	private static final int KEYS = 200;
+	private static final int[] SIZES = {4, 8, 12, 16, 20};
+	/** the largest star ordered by dynamic programming, whose number of plans doubles with each table */
+	private static final int MAX_DP_STAR = 16;
+	private static final int RUNS = 5;
+
+	private List<List<List<Integer>>> tables;
+
+	@Before public void setUp() throws Exception {
+		Random random = new Random(1);
+		tables = new ArrayList<>();
+		for (int i = 0; i < TABLES; i++) {
+			List<List<Integer>> rows = new ArrayList<>();
+			tables.add(rows);
+			for (int k = 0; k < KEYS * (1 + i % 5); k++) {
+				rows.add(Arrays.asList(k, random.nextInt(KEYS), random.nextInt(10)));
+			}
+			File f = File.createTempFile("table", ".dat");
+			f.deleteOnExit();
+			HeapFileEncoder.convert(rows, f, BufferPool.getPageSize(), 3);
+			Database.getCatalog().addTable(new HeapFile(f, Utility.getTupleDesc(3, "c")), "r" + i);
+		}
+		TableStats.computeStatistics();
+	}
+
+	/**
+	 * A chain joins each table to the next, ri.c1 = r(i+1).c0
+	 */
+	@Test public void chain() throws Exception {
+		for (int n : SIZES) {
+			List<LogicalJoinNode> joins = new ArrayList<>();
+			for (int i = 0; i + 1 < n; i++) {
+				joins.add(new LogicalJoinNode("r" + i, "r" + (i + 1), "c1", "c0", Predicate.Op.EQUALS));
+			}
+			measure("chain", n, joins, true);
+		}
+	}
+
+	/**
+	 * A star joins r0 to each other table, r0.c1 = ri.c0
+	 */
+	@Test public void star() throws Exception {
+		for (int n : SIZES) {
+			List<LogicalJoinNode> joins = new ArrayList<>();
+			for (int i = 1; i < n; i++) {
+				joins.add(new LogicalJoinNode("r0", "r" + i, "c1", "c0", Predicate.Op.EQUALS));
+			}
+			measure("star", n, joins, n <= MAX_DP_STAR);
+		}
+	}
+
+	/**
+	 * When both ends of a chain are selective and the join in its middle
+	 * multiplies the tuples, joining each end with its neighbour before
+	 * joining the two results is cheapest, and the bushy plan returns the
+	 * tuples of the query
+	 */
+	@Test public void bushyPlan() throws Exception {
+		String query = "SELECT r0.c0, r3.c0 FROM r0, r1, r2, r3 "
+				+ "WHERE r0.c1 = r1.c0 AND r1.c2 = r2.c2 AND r2.c0 = r3.c1 AND r0.c0 < 20 AND r3.c0 < 20;";
+		TransactionId tid = new TransactionId();
+		OpIterator plan = new Parser().generateLogicalPlan(tid, query)
+				.physicalPlan(tid, TableStats.getStatsMap(), false);
+		assertTrue(joinsJoins(plan));
+
+		List<List<Integer>> expected = new ArrayList<>();
+		for (List<Integer> t0 : tables.get(0).subList(0, 20)) {
+			for (List<Integer> t3 : tables.get(3).subList(0, 20)) {
+				// c1恰好与另一张表中c0相同的一个元组相连
+				if (tables.get(1).get(t0.get(1)).get(2).equals(tables.get(2).get(t3.get(1)).get(2))) {
+					expected.add(Arrays.asList(t0.get(0), t3.get(0)));
+				}
+			}
+		}
+		List<List<Integer>> actual = new ArrayList<>();
+		plan.open();
+		while (plan.hasNext()) {
+			actual.add(SystemTestUtil.tupleToList(plan.next()));
+		}
+		plan.close();
+		Database.getBufferPool().transactionComplete(tid);
+		assertFalse(expected.isEmpty());
+		for (List<Integer> t : expected) {
+			assertTrue("missing " + t, actual.remove(t));
+		}
+		assertTrue("unexpected " + actual, actual.isEmpty());
+	}
+
+	/**
+	 * @return true if a join of plan has joins on both sides
+	 */
+	private static boolean joinsJoins(OpIterator plan) {
+		OpIterator[] children = children(plan);
+		if (children.length == 2 && hasJoin(children[0]) && hasJoin(children[1])) {
+			return true;
+		}
+		for (OpIterator child : children) {
+			if (joinsJoins(child)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean hasJoin(OpIterator plan) {
+		OpIterator[] children = children(plan);
+		if (children.length == 2) {
+			return true;
+		}
+		for (OpIterator child : children) {
+			if (hasJoin(child)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static OpIterator[] children(OpIterator plan) {
+		return plan instanceof Operator ? ((Operator) plan).getChildren() : new OpIterator[0];
+	}
+
+	private static void measure(String shape, int n, List<LogicalJoinNode> joins, boolean dp) throws Exception {
+		StringBuilder from = new StringBuilder("r0");
+		for (int i = 1; i < n; i++) {
+			from.append(", r").append(i);
+		}
+		StringBuilder where = new StringBuilder();
+		for (LogicalJoinNode j : joins) {
+			where.append(where.length() == 0 ? "" : " AND ")
+					.append(j.t1Alias).append(".").append(j.f1PureName).append(" = ")
+					.append(j.t2Alias).append(".").append(j.f2PureName);
+		}
+		String query = "SELECT COUNT(r0.c0) FROM " + from + " WHERE " + where + ";";
+		Map<String, Double> filterSelectivities = new HashMap<>();
+		for (int i = 0; i < n; i++) {
+			filterSelectivities.put("r" + i, 1.0);
+		}
+
+		TransactionId tid = new TransactionId();
+		LogicalPlan lp = new Parser().generateLogicalPlan(tid, query);
+		long dpTime = Long.MAX_VALUE, greedyTime = Long.MAX_VALUE;
+		for (int run = 0; run < RUNS; run++) {
+			if (dp) {
+				JoinOptimizer jo = new JoinOptimizer(lp, joins);
+				jo.setMaxDpRelations(n);
+				long start = System.nanoTime();
+				assertEquals(n - 1, jo.orderJoins(TableStats.getStatsMap(), filterSelectivities, false).size());
+				dpTime = Math.min(dpTime, System.nanoTime() - start);
+			}
+			JoinOptimizer jo = new JoinOptimizer(lp, joins);
+			jo.setMaxDpRelations(0);
+			long start = System.nanoTime();
+			assertEquals(n - 1, jo.orderJoins(TableStats.getStatsMap(), filterSelectivities, false).size());
+			greedyTime = Math.min(greedyTime, System.nanoTime() - start);
+		}
+
+		// 以默认方式规划并执行，结果每个r0元组一行
+		long runTime = Long.MAX_VALUE;
+		for (int run = 0; run < RUNS; run++) {
+			long start = System.nanoTime();
+			OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+			plan.open();
+			assertEquals(new IntField(KEYS), plan.next().getField(0));
+			plan.close();
+			runTime = Math.min(runTime, System.nanoTime() - start);
+		}
+		Database.getBufferPool().transactionComplete(tid);
+		System.out.printf("%s of %d tables: dynamic programming %s, greedy %.2f ms, planning and running %.2f ms%n",
+				shape, n, dp ? String.format("%.2f ms", dpTime / 1e6) : "-", greedyTime / 1e6, runTime / 1e6);
+	}
+
+	/**
+	 * Make this test compatible with older version of ant.
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(JoinOrderingTest.class);
+	}
+}
@@ -0,0 +1,122 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.Parser;
+import simpledb.common.Database;
+import simpledb.execution.*;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs TPC-H style queries through the Parser serially and with the plan
+ * rewritten by {@link ParallelPlanner} for 1 to 32 threads, checks that every
+ * plan returns the same tuples and prints the running times with a warm buffer
+ * pool as a speedup curve. The speedup is bounded by the number of processors.
+ * <p>
+ * lineitem(c0 orderkey, c1 quantity, c2 price, c3 discount, c4 returnflag) and
+ * orders(c0 orderkey, c1 custkey, c2 priority) are filled with random values.
+ */
+public class ParallelExecutionTest extends SimpleDbTestBase {
+
+	private static final int LINEITEMS = 100000;
+	private static final int ORDERS = 5000;
+	private static final int MAX_VALUE = 5000;
+	private static final int RUNS = 3;
+	private static final int[] PARALLELISM = {1, 2, 4, 8, 16, 32};
+
+	@Before public void setUp() throws Exception {
+		HeapFile lineitem = SystemTestUtil.createRandomHeapFile(5, LINEITEMS, MAX_VALUE, null, new ArrayList<>(), "c");
+		Database.getCatalog().addTable(lineitem, "lineitem");
+		HeapFile orders = SystemTestUtil.createRandomHeapFile(3, ORDERS, MAX_VALUE, null, new ArrayList<>(), "c");
+		Database.getCatalog().addTable(orders, "orders");
+		// 两张表都能放进缓冲池，计时不包含磁盘读
+		Database.resetBufferPool(2000);
+		TableStats.computeStatistics();
+	}
+
+	/**
+	 * Q6: a selective filter followed by a global SUM
+	 */
+	@Test public void filterAndSum() throws Exception {
+		compare("q6", "SELECT SUM(l.c2) FROM lineitem l WHERE l.c3 < 500 AND l.c1 < 2400;");
+	}
+
+	/**
+	 * Q1: aggregates over most of the table grouped by one column
+	 */
+	@Test public void groupBy() throws Exception {
+		compare("q1", "SELECT l.c4, AVG(l.c1), COUNT(l.c2), MAX(l.c3) FROM lineitem l "
+				+ "WHERE l.c2 > 100 GROUP BY l.c4;");
+	}
+
+	/**
+	 * Q3-like: a hash join of orders with lineitem and an aggregate over the result
+	 */
+	@Test public void joinAndCount() throws Exception {
+		compare("q3", "SELECT o.c2, COUNT(l.c0) FROM orders o, lineitem l "
+				+ "WHERE o.c0 = l.c0 AND o.c1 < 1000 GROUP BY o.c2;");
+	}
+
+	private static void compare(String name, String query) throws Exception {
+		List<List<Integer>> expected = run(query, 0);
+		assertFalse(expected.isEmpty());
+		long serialTime = time(query, 0, expected);
+		StringBuilder curve = new StringBuilder();
+		for (int dop : PARALLELISM) {
+			long t = time(query, dop, expected);
+			curve.append(String.format(", %d threads %.1f ms (%.2fx)", dop, t / 1e6, (double) serialTime / t));
+		}
+		System.out.printf("%s: %d rows, %d processors, serial %.1f ms%s%n", name, expected.size(),
+				Runtime.getRuntime().availableProcessors(), serialTime / 1e6, curve);
+	}
+
+	/**
+	 * @return the shortest running time of RUNS runs, each checked against expected
+	 */
+	private static long time(String query, int dop, List<List<Integer>> expected) throws Exception {
+		long best = Long.MAX_VALUE;
+		for (int i = 0; i < RUNS; i++) {
+			long start = System.nanoTime();
+			List<List<Integer>> rows = run(query, dop);
+			best = Math.min(best, System.nanoTime() - start);
+			// 结果与串行计划一致（不考虑顺序）
+			List<List<Integer>> copy = new ArrayList<>(rows);
+			for (List<Integer> t : expected) {
+				assertTrue("missing " + t + " with " + dop + " threads", copy.remove(t));
+			}
+			assertTrue("unexpected " + copy, copy.isEmpty());
+		}
+		return best;
+	}
+
+	/**
+	 * @param dop the degree of parallelism, 0 for the serial plan
+	 */
+	private static List<List<Integer>> run(String query, int dop) throws Exception {
+		TransactionId tid = new TransactionId();
+		OpIterator plan = new Parser().generateLogicalPlan(tid, query)
+				.physicalPlan(tid, TableStats.getStatsMap(), false);
+		if (dop > 0) {
+			plan = ParallelPlanner.parallelize(plan, tid, dop);
+		}
+		List<List<Integer>> result = SystemTestUtil.readAll(plan);
+		Database.getBufferPool().transactionComplete(tid);
+		return result;
+	}
+
+	/**
+	 * Make this test compatible with older version of ant.
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(ParallelExecutionTest.class);
+	}
+}
@@ -0,0 +1,135 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.Parser;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares a join of two wide tables run with the filters and the projection
+ * pushed into the scans, as planned by the optimizer, with the same join over
+ * full scans, filters above them and the projection at the top.
+ * <p>
+ * Tables wa and wb have 20 columns of values below 1000 and 20000 tuples each;
+ * the query reads 4 of the 40 columns.
+ */
+public class ProjectionPushdownTest extends SimpleDbTestBase {
+
+	private static final int COLUMNS = 20;
+	private static final int ROWS = 20000;
+	private static final int RUNS = 5;
+
+	private HeapFile wa;
+	private HeapFile wb;
+
+	private static HeapFile table(String name, Random random) throws Exception {
+		List<List<Integer>> rows = new ArrayList<>();
+		for (int i = 0; i < ROWS; i++) {
+			List<Integer> row = new ArrayList<>();
+			for (int c = 0; c < COLUMNS; c++) {
+				row.add(random.nextInt(1000));
+			}
+			rows.add(row);
+		}
+		File f = File.createTempFile("table", ".dat");
+		f.deleteOnExit();
+		HeapFileEncoder.convert(rows, f, BufferPool.getPageSize(), COLUMNS);
+		HeapFile table = new HeapFile(f, Utility.getTupleDesc(COLUMNS, "c"));
+		Database.getCatalog().addTable(table, name);
+		return table;
+	}
+
+	@Before public void setUp() throws Exception {
+		Random random = new Random(1);
+		wa = table("wa", random);
+		wb = table("wb", random);
+		TableStats.computeStatistics();
+	}
+
+	/**
+	 * SELECT wa.c5, wb.c7 FROM wa, wb WHERE wa.c0 = wb.c1 AND wa.c2 < 100 AND wb.c3 < 500
+	 */
+	@Test public void wideJoin() throws Exception {
+		String query = "SELECT wa.c5, wb.c7 FROM wa, wb WHERE wa.c0 = wb.c1 AND wa.c2 < 100 AND wb.c3 < 500;";
+		long[][] times = new long[2][RUNS];
+		PrintStream out = System.out;
+		// 解析时打印的信息不计入时间
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+		}));
+		try {
+			for (int run = -1; run < RUNS; run++) {
+				TransactionId tid = new TransactionId();
+				long start = System.nanoTime();
+				List<List<Integer>> pushed = SystemTestUtil.readAll(new Parser().generateLogicalPlan(tid, query)
+						.physicalPlan(tid, TableStats.getStatsMap(), false));
+				long t1 = System.nanoTime();
+				List<List<Integer>> full = SystemTestUtil.readAll(fullScanPlan(tid));
+				long t2 = System.nanoTime();
+				Database.getBufferPool().transactionComplete(tid);
+
+				assertFalse(full.isEmpty());
+				assertEquals(SystemTestUtil.sorted(full), SystemTestUtil.sorted(pushed));
+				if (run >= 0) {
+					times[0][run] = t1 - start;
+					times[1][run] = t2 - t1;
+				}
+			}
+		} finally {
+			System.setOut(out);
+		}
+		Arrays.sort(times[0]);
+		Arrays.sort(times[1]);
+		System.out.printf("join of %d-column tables: pushed down %.1f ms, full scans %.1f ms%n", COLUMNS,
+				times[0][RUNS / 2] / 1e6, times[1][RUNS / 2] / 1e6);
+	}
+
+	/**
+	 * The query over full scans, with its filters above them and its
+	 * projection above the join
+	 */
+	private OpIterator fullScanPlan(TransactionId tid) {
+		OpIterator a = new Filter(new Predicate(2, Predicate.Op.LESS_THAN, new IntField(100)),
+				new SeqScan(tid, wa.getId(), "wa"));
+		OpIterator b = new Filter(new Predicate(3, Predicate.Op.LESS_THAN, new IntField(500)),
+				new SeqScan(tid, wb.getId(), "wb"));
+		OpIterator join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1), a, b);
+		return new Project(Arrays.asList(5, COLUMNS + 7), Arrays.asList(Type.INT_TYPE, Type.INT_TYPE), join);
+	}
+
+	/**
+	 * Make this test compatible with older version of ant.
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(ProjectionPushdownTest.class);
+	}
+}
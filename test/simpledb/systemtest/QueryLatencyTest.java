@@ -0,0 +1,155 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.Parser;
+import simpledb.PreparedStatement;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.OpIterator;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures the latency of short queries run many times with different
+ * constants, end to end from the text of the query to its last tuple: parsed
+ * and optimized each time, with the plan cached under the normalized text, and
+ * as a prepared statement.
+ * <p>
+ * Table ri(c0, c1, c2) has 200 tuples; c0 numbers them from 0 and c1 is below
+ * 200, so that each tuple of a table joins exactly one tuple of any other on
+ * c1 = c0.
+ */
+public class QueryLatencyTest extends SimpleDbTestBase {
+
+	private static final int TABLES = 4;
+	private static final int KEYS = 200;
+	private static final int RUNS = 2000;
+	private static final int WARMUP = 200;
+
+	private List<List<List<Integer>>> tables;
+
+	@Before public void setUp() throws Exception {
+		Random random = new Random(1);
+		tables = new ArrayList<>();
+		for (int i = 0; i < TABLES; i++) {
+			List<List<Integer>> rows = new ArrayList<>();
+			tables.add(rows);
+			for (int k = 0; k < KEYS; k++) {
+				rows.add(Arrays.asList(k, random.nextInt(KEYS), random.nextInt(10)));
+			}
+			File f = File.createTempFile("table", ".dat");
+			f.deleteOnExit();
+			HeapFileEncoder.convert(rows, f, BufferPool.getPageSize(), 3);
+			Database.getCatalog().addTable(new HeapFile(f, Utility.getTupleDesc(3, "c")), "r" + i);
+		}
+		TableStats.computeStatistics();
+	}
+
+	/**
+	 * A lookup of one tuple of one table
+	 */
+	@Test public void pointQuery() throws Exception {
+		measure("point query", "SELECT r0.c1, r0.c2 FROM r0 WHERE r0.c0 = %d;", 1);
+	}
+
+	/**
+	 * A lookup of one tuple of r0, joined with one tuple of each other table
+	 * along a chain
+	 */
+	@Test public void joinQuery() throws Exception {
+		StringBuilder from = new StringBuilder("r0");
+		StringBuilder where = new StringBuilder("r0.c0 = %d");
+		for (int i = 1; i < TABLES; i++) {
+			from.append(", r").append(i);
+			where.append(" AND r").append(i - 1).append(".c1 = r").append(i).append(".c0");
+		}
+		measure("join of " + TABLES + " tables", "SELECT r0.c2, r" + (TABLES - 1) + ".c2 FROM " + from
+				+ " WHERE " + where + ";", 1);
+	}
+
+	private void measure(String name, String query, int expected) throws Exception {
+		PreparedStatement prepared = new PreparedStatement(query.replace("%d", "?"));
+		long[][] latencies = new long[3][RUNS];
+		PrintStream out = System.out;
+		// 解析时打印的信息不计入延迟
+		System.setOut(new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+			}
+		}));
+		try {
+			for (int run = -WARMUP; run < RUNS; run++) {
+				int key = Math.floorMod(run * 7919, KEYS);
+				String sql = String.format(query, key);
+				TransactionId tid = new TransactionId();
+
+				long start = System.nanoTime();
+				int parsed = count(new Parser().generateLogicalPlan(tid, sql)
+						.physicalPlan(tid, TableStats.getStatsMap(), false));
+				long t1 = System.nanoTime();
+				int cached = count(new PreparedStatement(sql).physicalPlan(tid));
+				long t2 = System.nanoTime();
+				int bound = count(prepared.physicalPlan(tid, key));
+				long t3 = System.nanoTime();
+				Database.getBufferPool().transactionComplete(tid);
+
+				assertEquals(expected, parsed);
+				assertEquals(expected, cached);
+				assertEquals(expected, bound);
+				if (run >= 0) {
+					latencies[0][run] = t1 - start;
+					latencies[1][run] = t2 - t1;
+					latencies[2][run] = t3 - t2;
+				}
+			}
+		} finally {
+			System.setOut(out);
+		}
+		System.out.printf("%s: parsed and optimized %s, cached plan %s, prepared statement %s%n",
+				name, summary(latencies[0]), summary(latencies[1]), summary(latencies[2]));
+	}
+
+	private static int count(OpIterator plan) throws Exception {
+		int n = 0;
+		plan.open();
+		while (plan.hasNext()) {
+			plan.next();
+			n++;
+		}
+		plan.close();
+		return n;
+	}
+
+	/**
+	 * @return the median and the 99th percentile of latencies, in microseconds
+	 */
+	private static String summary(long[] latencies) {
+		long[] sorted = latencies.clone();
+		Arrays.sort(sorted);
+		return String.format("median %.1f us p99 %.1f us", sorted[sorted.length / 2] / 1e3,
+				sorted[sorted.length * 99 / 100] / 1e3);
+	}
+
+	/**
+	 * Make this test compatible with older version of ant.
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(QueryLatencyTest.class);
+	}
+}
@@ -3,6 +3,7 @@ package simpledb.systemtest;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -11,6 +12,7 @@ import java.util.UUID;
 import org.junit.Assert;
 
 import simpledb.common.*;
+import simpledb.execution.JoinPredicate;
 import simpledb.execution.OpIterator;
 import simpledb.execution.SeqScan;
 import simpledb.storage.*;
@@ -152,6 +154,113 @@ public class SystemTestUtil {
         }
     }
 
+    /** @return the rows of the tuples iterator returns, in order; it is opened and closed */
+    public static List<List<Integer>> readAll(OpIterator iterator)
+            throws DbException, TransactionAbortedException {
+        List<List<Integer>> result = new ArrayList<>();
+        iterator.open();
+        while (iterator.hasNext()) {
+            result.add(tupleToList(iterator.next()));
+        }
+        iterator.close();
+        return result;
+    }
+
+    /** @return a copy of rows sorted on their first field, then their second, and so on */
+    public static List<List<Integer>> sorted(List<List<Integer>> rows) {
+        List<List<Integer>> copy = new ArrayList<>(rows);
+        copy.sort((a, b) -> {
+            for (int i = 0; i < Math.min(a.size(), b.size()); i++) {
+                int c = Integer.compare(a.get(i), b.get(i));
+                if (c != 0)
+                    return c;
+            }
+            return Integer.compare(a.size(), b.size());
+        });
+        return copy;
+    }
+
+    /** A maximum value of randomTuples for a field that numbers the tuples in order. */
+    public static final int POSITION = 0;
+
+    /**
+     * Returns count tuples of INT fields, one per maximum value, for operator tests.
+     * Field j of a tuple is a random value below maxValues[j], from -m if
+     * maxValues[j] is -m, or the position of the tuple in the list if maxValues[j]
+     * is POSITION, which tells tuples with equal fields apart.
+     */
+    public static List<Tuple> randomTuples(Random random, int count, int... maxValues) {
+        TupleDesc td = Utility.getTupleDesc(maxValues.length);
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Tuple t = new Tuple(td);
+            for (int j = 0; j < maxValues.length; j++) {
+                int max = maxValues[j];
+                int value = max == POSITION ? i : max > 0 ? random.nextInt(max) : random.nextInt(-2 * max) + max;
+                t.setField(j, new IntField(value));
+            }
+            tuples.add(t);
+        }
+        return tuples;
+    }
+
+    /** @return a tuple of INT fields with the values of row */
+    public static Tuple toTuple(List<Integer> row) {
+        Tuple t = new Tuple(Utility.getTupleDesc(row.size()));
+        for (int i = 0; i < row.size(); i++) {
+            t.setField(i, new IntField(row.get(i)));
+        }
+        return t;
+    }
+
+    /** @return the tuples of INT fields with the values of rows */
+    public static List<Tuple> toTuples(List<List<Integer>> rows) {
+        List<Tuple> tuples = new ArrayList<>();
+        for (List<Integer> row : rows) {
+            tuples.add(toTuple(row));
+        }
+        return tuples;
+    }
+
+    /**
+     * The reference a join operator is checked against.
+     * @return the rows of the nested loop join of left and right on p
+     */
+    public static List<List<Integer>> nestedLoopJoin(List<Tuple> left, List<Tuple> right, JoinPredicate p) {
+        List<List<Integer>> result = new ArrayList<>();
+        for (Tuple l : left) {
+            for (Tuple r : right) {
+                if (p.filter(l, r)) {
+                    List<Integer> row = tupleToList(l);
+                    row.addAll(tupleToList(r));
+                    result.add(row);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Check that iterator returns the expected tuples in any order. Unlike
+     * matchTuples this sorts both sides, so large results are fast.
+     */
+    public static void matchSorted(OpIterator iterator, List<List<Integer>> expected)
+            throws DbException, TransactionAbortedException {
+        List<String> actual = new ArrayList<>();
+        iterator.open();
+        while (iterator.hasNext()) {
+            actual.add(tupleToList(iterator.next()).toString());
+        }
+        iterator.close();
+        List<String> wanted = new ArrayList<>();
+        for (List<Integer> row : expected) {
+            wanted.add(row.toString());
+        }
+        Collections.sort(actual);
+        Collections.sort(wanted);
+        Assert.assertEquals(wanted, actual);
+    }
+
     /**
      * Returns number of bytes of RAM used by JVM after calling System.gc many times.
      * @return amount of RAM (in bytes) used by JVM
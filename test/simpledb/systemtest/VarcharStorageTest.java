@@ -0,0 +1,145 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Filter;
+import simpledb.execution.Insert;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares a table of an INT and a short STRING field stored with fixed
+ * slots, where each string takes STRING_LEN + 4 bytes, with the same table
+ * whose string field is a VARCHAR(16), stored with the slotted layout of
+ * HeapPage: the number of pages, and the time to scan them from a cold
+ * BufferPool.
+ * <p>
+ * The 20000 tuples have names of 3 to 10 letters.
+ */
+public class VarcharStorageTest extends SimpleDbTestBase {
+
+	private static final int ROWS = 20000;
+	private static final int RUNS = 5;
+	private static final int INSERTED = 1000;
+	private static final TupleDesc VARCHAR_TD = new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE},
+			new String[]{"id", "name"}, new int[]{0, 16});
+
+	private HeapFile fixed;
+	private HeapFile varchar;
+
+	@Before public void setUp() throws Exception {
+		Random random = new Random(1);
+		File text = File.createTempFile("names", ".txt");
+		text.deleteOnExit();
+		try (FileWriter w = new FileWriter(text)) {
+			for (int i = 0; i < ROWS; i++) {
+				StringBuilder name = new StringBuilder();
+				int len = 3 + random.nextInt(8);
+				for (int j = 0; j < len; j++) {
+					name.append((char) ('a' + random.nextInt(26)));
+				}
+				w.write(i + "," + name + "\n");
+			}
+		}
+		File fixedFile = File.createTempFile("fixed", ".dat");
+		fixedFile.deleteOnExit();
+		HeapFileEncoder.convert(text, fixedFile, BufferPool.getPageSize(), 2,
+				new Type[]{Type.INT_TYPE, Type.STRING_TYPE}, ',');
+		fixed = new HeapFile(fixedFile, new TupleDesc(new Type[]{Type.INT_TYPE, Type.STRING_TYPE},
+				new String[]{"id", "name"}));
+		Database.getCatalog().addTable(fixed, "fixed_names");
+
+		File varcharFile = File.createTempFile("varchar", ".dat");
+		varcharFile.deleteOnExit();
+		HeapFileEncoder.migrate(fixedFile, varcharFile, BufferPool.getPageSize(), VARCHAR_TD);
+		varchar = new HeapFile(varcharFile, VARCHAR_TD);
+		Database.getCatalog().addTable(varchar, "varchar_names");
+	}
+
+	/**
+	 * SELECT id FROM t WHERE name LIKE 'ab', over both tables
+	 */
+	@Test public void scan() throws Exception {
+		long[][] times = new long[2][RUNS];
+		for (int run = -1; run < RUNS; run++) {
+			int[] counts = new int[2];
+			for (int i = 0; i < 2; i++) {
+				HeapFile table = i == 0 ? fixed : varchar;
+				Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+				TransactionId tid = new TransactionId();
+				long start = System.nanoTime();
+				counts[i] = count(new Filter(new Predicate(1, Predicate.Op.LIKE,
+						new StringField("ab", Type.STRING_LEN)), new SeqScan(tid, table.getId(), "t")));
+				if (run >= 0) {
+					times[i][run] = System.nanoTime() - start;
+				}
+				Database.getBufferPool().transactionComplete(tid);
+			}
+			assertTrue(counts[0] > 0);
+			assertEquals(counts[0], counts[1]);
+		}
+		Arrays.sort(times[0]);
+		Arrays.sort(times[1]);
+		assertTrue(varchar.numPages() * 5 < fixed.numPages());
+		System.out.printf("%d tuples: fixed slots %d pages, scan %.1f ms; VARCHAR(16) %d pages, scan %.1f ms%n",
+				ROWS, fixed.numPages(), times[0][RUNS / 2] / 1e6, varchar.numPages(), times[1][RUNS / 2] / 1e6);
+	}
+
+	/**
+	 * Tuples inserted into the VARCHAR table fill its pages, and are read
+	 * back after the pages are written.
+	 */
+	@Test public void insert() throws Exception {
+		int pages = varchar.numPages();
+		TransactionId tid = new TransactionId();
+		Insert insert = new Insert(tid, new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(INSERTED)),
+				new SeqScan(tid, fixed.getId(), "f")), varchar.getId());
+		insert.open();
+		assertEquals(INSERTED, ((IntField) insert.next().getField(0)).getValue());
+		insert.close();
+		Database.getBufferPool().transactionComplete(tid);
+		Database.getBufferPool().flushAllPages();
+
+		assertTrue(varchar.numPages() <= pages + (pages * INSERTED) / ROWS + 1);
+		tid = new TransactionId();
+		assertEquals(ROWS + INSERTED, count(new SeqScan(tid, varchar.getId(), "v")));
+		Database.getBufferPool().transactionComplete(tid);
+	}
+
+	private static int count(OpIterator plan) throws Exception {
+		int n = 0;
+		plan.open();
+		while (plan.hasNext()) {
+			plan.next();
+			n++;
+		}
+		plan.close();
+		return n;
+	}
+
+	/**
+	 * Make this test compatible with older version of ant.
+	 */
+	public static junit.framework.Test suite() {
+		return new JUnit4TestAdapter(VarcharStorageTest.class);
+	}
+}